@@ -0,0 +1,85 @@
+package cc.itez.nfs.benchmarks;
+
+import cc.itez.nfs.utils.IOUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link IOUtils#copy}在不同缓冲区大小下的吞吐量
+ * 内存中的流与通道用于衡量缓冲区本身的开销，文件通道到文件通道的复制用于对比零拷贝(此时缓冲区大小不起作用)。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class IOUtilsBenchmark {
+    @Param({"4096", "8024", "65536", "262144", "1048576"})
+    public int bufferSize;
+    /**
+     * 复制的数据量
+     */
+    @Param({"16777216"})
+    public int size;
+
+    private byte[] data;
+    private Path dir;
+    private Path source;
+    private Path target;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.data = new byte[this.size];
+        new Random(0).nextBytes(this.data);
+        this.dir = Files.createTempDirectory("nfs-benchmark");
+        this.source = Files.write(this.dir.resolve("source.bin"), this.data);
+        this.target = this.dir.resolve("target.bin");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        TreeShape.delete(this.dir);
+    }
+
+    @Benchmark
+    public long stream() throws IOException {
+        try (InputStream in = new ByteArrayInputStream(this.data)) {
+            return IOUtils.copy(in, OutputStream.nullOutputStream(), this.bufferSize);
+        }
+    }
+
+    @Benchmark
+    public long channel() throws IOException {
+        WritableByteChannel out = Channels.newChannel(OutputStream.nullOutputStream());
+        return IOUtils.copy(Channels.newChannel(new ByteArrayInputStream(this.data)), out, this.bufferSize);
+    }
+
+    @Benchmark
+    public long fileBuffered() throws IOException {
+        try (FileChannel in = FileChannel.open(this.source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(this.target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return IOUtils.copy(in, out, this.bufferSize);
+        }
+    }
+
+    @Benchmark
+    public long fileZeroCopy() throws IOException {
+        try (FileChannel in = FileChannel.open(this.source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(this.target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return IOUtils.copy(in, out);
+        }
+    }
+}
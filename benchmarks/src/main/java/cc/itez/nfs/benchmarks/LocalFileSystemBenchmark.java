@@ -0,0 +1,129 @@
+package cc.itez.nfs.benchmarks;
+
+import cc.itez.nfs.files.AbstractFileSystem.FileType;
+import cc.itez.nfs.files.CopyStrategy;
+import cc.itez.nfs.files.impl.LocalFileSystem;
+import cc.itez.nfs.mould.Outcome;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LocalFileSystem}的基准测试
+ * 每种{@link TreeShape}生成一棵目录树，测试列举、搜索、保存、复制、移动与删除的耗时。
+ * 修改目录树的操作在每次调用前后恢复现场，恢复的耗时不计入结果。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalFileSystemBenchmark {
+    private static final Path TREE = Path.of("/tree");
+    private static final Path SAVED = Path.of("/saved.bin");
+    private static final Path COPIED = Path.of("/copied");
+    private static final Path MOVED = Path.of("/moved");
+    private static final Path REMOVED = Path.of("/removed");
+
+    @State(Scope.Benchmark)
+    public static class Tree {
+        @Param({"WIDE", "DEEP", "SMALL", "HUGE"})
+        public TreeShape shape;
+        /**
+         * 并行遍历使用的线程数
+         */
+        @Param({"1"})
+        public int parallelism;
+
+        Path root;
+        LocalFileSystem fs;
+        byte[] payload;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            this.root = Files.createTempDirectory("nfs-benchmark");
+            this.shape.generate(this.root.resolve("tree"));
+            this.fs = new LocalFileSystem(this.root).setParallelism(this.parallelism);
+            this.payload = new byte[this.shape.getFileSize()];
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            this.fs.close();
+            TreeShape.delete(this.root);
+        }
+    }
+
+    /**
+     * 复制的目标在每次调用后删除
+     */
+    @State(Scope.Thread)
+    public static class CopyTarget {
+        @TearDown(Level.Invocation)
+        public void tearDown(Tree tree) throws IOException {
+            TreeShape.delete(tree.root.resolve("copied"));
+        }
+    }
+
+    /**
+     * 移动的目录树在每次调用后移回原处
+     */
+    @State(Scope.Thread)
+    public static class MoveTarget {
+        @TearDown(Level.Invocation)
+        public void tearDown(Tree tree) throws IOException {
+            Files.move(tree.root.resolve("moved"), tree.root.resolve("tree"));
+        }
+    }
+
+    /**
+     * 每次调用前以硬链接复制一棵待删除的目录树，删除的开销与普通文件相同但准备得更快
+     */
+    @State(Scope.Thread)
+    public static class RemoveTarget {
+        @Setup(Level.Invocation)
+        public void setup(Tree tree) throws IOException {
+            tree.fs.cp(TREE, REMOVED, true, CopyStrategy.HARDLINK);
+        }
+    }
+
+    @Benchmark
+    public List<Path> ls(Tree tree) throws IOException {
+        return tree.fs.ls(TREE, true);
+    }
+
+    @Benchmark
+    public List<Path> find(Tree tree) {
+        return tree.fs.find(TREE, TreeShape.MARKER + ".bin");
+    }
+
+    @Benchmark
+    public List<Path> findWildcard(Tree tree) {
+        return tree.fs.find(TREE, "*.bin", FileType.FILE, -1);
+    }
+
+    @Benchmark
+    public Outcome save(Tree tree) throws IOException {
+        return tree.fs.save(new ByteArrayInputStream(tree.payload), SAVED, true);
+    }
+
+    @Benchmark
+    public Outcome cp(Tree tree, CopyTarget target) throws IOException {
+        return tree.fs.cp(TREE, COPIED, false);
+    }
+
+    @Benchmark
+    public Outcome mv(Tree tree, MoveTarget target) throws IOException {
+        return tree.fs.mv(TREE, MOVED, false);
+    }
+
+    @Benchmark
+    public Outcome rm(Tree tree, RemoveTarget target) {
+        return tree.fs.rm(REMOVED, true);
+    }
+}
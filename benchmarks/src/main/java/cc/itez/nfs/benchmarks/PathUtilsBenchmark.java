@@ -0,0 +1,72 @@
+package cc.itez.nfs.benchmarks;
+
+import cc.itez.nfs.utils.PathKey;
+import cc.itez.nfs.utils.PathUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 路径拼接的微基准测试，对比{@link PathUtils#join}、{@link Path#resolve(Path)}与{@link PathKey}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PathUtilsBenchmark {
+    /**
+     * 相对路径的层数
+     */
+    @Param({"1", "4", "16"})
+    public int depth;
+
+    private Path base;
+    private Path relative;
+    private Path stripped;
+    private PathKey key;
+
+    @Setup
+    public void setup() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < this.depth; i++) {
+            builder.append("/directory-").append(i);
+        }
+        this.base = Path.of("/srv/nfs/data");
+        this.relative = Path.of(builder.toString());
+        this.stripped = PathUtils.ROOT.relativize(this.relative);
+        this.key = PathKey.of(this.relative);
+    }
+
+    @Benchmark
+    public Path join() {
+        return PathUtils.join(this.base, this.relative);
+    }
+
+    @Benchmark
+    public Path joinVarargs() {
+        return PathUtils.join(this.base, new Path[]{this.relative});
+    }
+
+    @Benchmark
+    public Path resolve() {
+        return this.base.resolve(this.stripped);
+    }
+
+    @Benchmark
+    public Path keyResolve() {
+        return this.key.resolve(this.base);
+    }
+
+    @Benchmark
+    public PathKey keyOf() {
+        return PathKey.of(this.relative);
+    }
+
+    @Benchmark
+    public Path relativize() {
+        return PathUtils.join(PathUtils.ROOT, this.base.relativize(this.base.resolve(this.stripped).normalize()));
+    }
+}
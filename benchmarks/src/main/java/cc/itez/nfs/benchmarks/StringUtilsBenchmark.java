@@ -0,0 +1,40 @@
+package cc.itez.nfs.benchmarks;
+
+import cc.itez.nfs.utils.StringUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StringUtils#keepStart}的微基准测试，开头重复的参考字符串越多，逐个截取的开销越大
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StringUtilsBenchmark {
+    /**
+     * 开头重复的分隔符数量
+     */
+    @Param({"1", "8", "64"})
+    public int repeat;
+
+    private String path;
+
+    @Setup
+    public void setup() {
+        this.path = "/".repeat(this.repeat) + "home/user/documents/report.pdf/";
+    }
+
+    @Benchmark
+    public String keepStart() {
+        return StringUtils.keepStart(this.path, "/", 1);
+    }
+
+    @Benchmark
+    public String keepStartPrepend() {
+        return StringUtils.keepStart(this.path, "/", 2, true);
+    }
+}
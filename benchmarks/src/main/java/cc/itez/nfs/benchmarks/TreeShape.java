@@ -0,0 +1,114 @@
+package cc.itez.nfs.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+/**
+ * 基准测试使用的目录树形状
+ * 目录树以根目录为第0层，每个目录包含{@code fanout}个子目录(直到{@code depth}层)与{@code files}个文件。
+ * 各项数值可以通过系统属性覆盖，例如{@code -Dnfs.tree.WIDE.fanout=5000}。
+ */
+public enum TreeShape {
+    /**
+     * 宽：单层大量子目录
+     */
+    WIDE(2000, 1, 1, 1024),
+    /**
+     * 深：单链深层目录
+     */
+    DEEP(1, 128, 2, 1024),
+    /**
+     * 大量小文件
+     */
+    SMALL(8, 3, 20, 64),
+    /**
+     * 少量大文件
+     */
+    HUGE(1, 1, 4, 64 * 1024 * 1024);
+
+    /**
+     * 名称中包含该标记的文件用于按名称搜索
+     */
+    public static final String MARKER = "needle";
+
+    private final int fanout;
+    private final int depth;
+    private final int files;
+    private final int fileSize;
+
+    TreeShape(int fanout, int depth, int files, int fileSize) {
+        this.fanout = Integer.getInteger(property("fanout"), fanout);
+        this.depth = Integer.getInteger(property("depth"), depth);
+        this.files = Integer.getInteger(property("files"), files);
+        this.fileSize = Integer.getInteger(property("fileSize"), fileSize);
+    }
+
+    public int getFileSize() {
+        return this.fileSize;
+    }
+
+    /**
+     * 在目录下生成目录树，内容为固定种子的随机数据，因此每次生成的树完全相同
+     *
+     * @param dir 目录，不存在时创建
+     * @return 生成的文件与目录数量
+     */
+    public long generate(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        byte[] content = new byte[Math.min(this.fileSize, 1024 * 1024)];
+        new Random(this.ordinal()).nextBytes(content);
+        return this.generate(dir, 0, content);
+    }
+
+    private long generate(Path dir, int level, byte[] content) throws IOException {
+        long count = 0;
+        for (int i = 0; i < this.files; i++) {
+            // 每个目录的最后一个文件作为按名称搜索的目标
+            String name = i == this.files - 1 ? MARKER + ".bin" : "file-" + i + ".bin";
+            try (OutputStream out = Files.newOutputStream(dir.resolve(name))) {
+                for (long remaining = this.fileSize; remaining > 0; remaining -= content.length) {
+                    out.write(content, 0, (int) Math.min(content.length, remaining));
+                }
+            }
+            count++;
+        }
+        if (level < this.depth) {
+            for (int i = 0; i < this.fanout; i++) {
+                Path child = Files.createDirectory(dir.resolve("dir-" + i));
+                count += 1 + this.generate(child, level + 1, content);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 删除目录树，目录不存在时忽略
+     *
+     * @param dir 目录
+     */
+    public static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private String property(String key) {
+        return "nfs.tree." + this.name() + "." + key;
+    }
+}
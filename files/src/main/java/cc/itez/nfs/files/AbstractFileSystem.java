@@ -1,11 +1,30 @@
 package cc.itez.nfs.files;
 
+import cc.itez.nfs.mould.BatchOperation;
+import cc.itez.nfs.mould.FileStat;
+import cc.itez.nfs.mould.Listing;
 import cc.itez.nfs.mould.Outcome;
+import cc.itez.nfs.mould.Page;
+import cc.itez.nfs.mould.Range;
+import cc.itez.nfs.mould.Usage;
+import cc.itez.nfs.utils.IOUtils;
+import cc.itez.nfs.utils.RangeChannel;
 import lombok.NonNull;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * 标准文件操作接口
@@ -32,6 +51,36 @@ public interface AbstractFileSystem {
         return this.ls(path, false);
     }
 
+    /**
+     * 以惰性流的形式列出指定路径下的文件
+     * 返回的流可能持有目录句柄，使用完毕后必须关闭(建议使用try-with-resources)
+     *
+     * @param path 路径
+     * @param all  全部文件
+     * @return 文件流
+     */
+    @NonNull
+    default Stream<Path> list(@NonNull Path path, boolean all) throws IOException {
+        return this.ls(path, all).stream();
+    }
+
+    /**
+     * 分页列出指定路径下的文件
+     * 只会物化当前页，内存占用与目录大小无关
+     *
+     * @param path   路径
+     * @param all    全部文件
+     * @param offset 偏移量(上一页的{@link Page#next()})
+     * @param limit  每页数量
+     * @return 当前页
+     */
+    @NonNull
+    default Page<Path> ls(@NonNull Path path, boolean all, long offset, int limit) throws IOException {
+        try (Stream<Path> stream = this.list(path, all)) {
+            return Page.of(stream, offset, limit);
+        }
+    }
+
     /**
      * 返回指定路径的文件
      *
@@ -41,6 +90,23 @@ public interface AbstractFileSystem {
     @NonNull
     File get(@NonNull Path path) throws FileNotFoundException;
 
+    /**
+     * 获取文件属性
+     * 默认实现对{@link #get(Path)}返回的文件调用一次{@link Files#readAttributes}，不会打开文件
+     *
+     * @param path 路径
+     * @return 文件属性
+     * @throws FileNotFoundException 路径不存在时抛出
+     */
+    @NonNull
+    default FileStat stat(@NonNull Path path) throws IOException {
+        try {
+            return FileStat.of(path, Files.readAttributes(this.get(path).toPath(), BasicFileAttributes.class));
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(path + " (No such file or directory)");
+        }
+    }
+
     /**
      * 创建目录
      *
@@ -93,8 +159,8 @@ public interface AbstractFileSystem {
      */
     @NonNull
     default Outcome save(@NonNull File source, @NonNull Path target, boolean cover) throws IOException {
-        try (FileInputStream inputStream = new FileInputStream(source)) {
-            return this.save(inputStream, target, cover);
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            return this.save(channel, target, cover);
         }
     }
 
@@ -121,6 +187,143 @@ public interface AbstractFileSystem {
     @NonNull
     Outcome save(@NonNull InputStream source, @NonNull Path target, boolean cover) throws IOException;
 
+    /**
+     * 将通道内容保存为文件,如果目标文件存在则终止操作
+     *
+     * @param source 源通道
+     * @param target 目标路径
+     * @return 处理结果
+     */
+    @NonNull
+    default Outcome save(@NonNull ReadableByteChannel source, @NonNull Path target) throws IOException {
+        return this.save(source, target, false);
+    }
+
+    /**
+     * 将通道内容保存为文件
+     * 默认实现将通道包装为流，实现类应当在源与目标均为文件或套接字时使用零拷贝传输
+     *
+     * @param source 源通道
+     * @param target 目标路径
+     * @param cover  如果目标存在是否覆盖
+     * @return 处理结果
+     */
+    @NonNull
+    default Outcome save(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover) throws IOException {
+        return this.save(Channels.newInputStream(source), target, cover);
+    }
+
+    /**
+     * 将文件内容写入目标通道
+     * 默认实现通过{@link FileChannel#transferTo}传输{@link #get(Path)}返回的文件
+     *
+     * @param source 源文件路径
+     * @param target 目标通道
+     * @return 传输的字节数
+     */
+    default long transfer(@NonNull Path source, @NonNull WritableByteChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(this.get(source).toPath(), StandardOpenOption.READ)) {
+            return IOUtils.copy(channel, target);
+        }
+    }
+
+
+    /**
+     * 将文件的一段写入目标通道
+     * 默认实现通过{@link FileChannel#transferTo}传输{@link #get(Path)}返回的文件，不会读取范围之外的字节
+     *
+     * @param source 源文件路径
+     * @param range  字节范围，超出文件末尾的部分会被忽略
+     * @param target 目标通道
+     * @return 传输的字节数
+     */
+    default long transfer(@NonNull Path source, @NonNull Range range, @NonNull WritableByteChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(this.get(source).toPath(), StandardOpenOption.READ)) {
+            return IOUtils.transfer(channel, range.getOffset(), range.getLength(), target);
+        }
+    }
+
+    /**
+     * 以通道的形式读取文件的一段
+     * 返回的通道只会读取范围之内的字节，使用完毕后必须关闭
+     *
+     * @param path   文件路径
+     * @param offset 起始偏移量
+     * @param length 长度，超出文件末尾的部分会被忽略
+     * @return 只读通道
+     * @throws IllegalArgumentException 起始偏移量或长度为负数时抛出，此时不会打开文件
+     */
+    @NonNull
+    default ReadableByteChannel read(@NonNull Path path, long offset, long length) throws IOException {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Negative offset or length");
+        }
+        FileChannel channel = FileChannel.open(this.get(path).toPath(), StandardOpenOption.READ);
+        try {
+            return new RangeChannel(channel, offset, length, true);
+        } catch (RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 读取文件的一段到缓冲区
+     * 较小的范围按位置读取，较大的范围(不小于{@link IOUtils#MAP_THRESHOLD})返回只读的内存映射
+     *
+     * @param path  文件路径
+     * @param range 字节范围，超出文件末尾的部分会被忽略
+     * @return 读取到的内容
+     */
+    @NonNull
+    default ByteBuffer read(@NonNull Path path, @NonNull Range range) throws IOException {
+        try (FileChannel channel = FileChannel.open(this.get(path).toPath(), StandardOpenOption.READ)) {
+            return IOUtils.read(channel, range.getOffset(), range.getLength());
+        }
+    }
+
+    /**
+     * 读取文件的多个片段，只打开一次文件
+     *
+     * @param path   文件路径
+     * @param ranges 字节范围列表，超出文件末尾的部分会被忽略
+     * @return 与范围一一对应的内容
+     */
+    @NonNull
+    default List<ByteBuffer> read(@NonNull Path path, @NonNull List<Range> ranges) throws IOException {
+        List<ByteBuffer> result = new ArrayList<>(ranges.size());
+        try (FileChannel channel = FileChannel.open(this.get(path).toPath(), StandardOpenOption.READ)) {
+            for (Range range : ranges) {
+                result.add(IOUtils.read(channel, range.getOffset(), range.getLength()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 创建分块上传会话
+     * 默认实现将块写入系统临时目录中的文件，提交时通过{@link #save(File, Path, boolean)}保存，会话登记在{@link UploadRegistry#of}中
+     *
+     * @param target 目标路径
+     * @param size   文件的总大小
+     * @param cover  如果目标存在是否覆盖
+     * @return 上传会话
+     */
+    @NonNull
+    default UploadSession createUpload(@NonNull Path target, long size, boolean cover) throws IOException {
+        Path temp = Files.createTempFile("nfs-upload-", ".part");
+        return new ChunkedUpload(UploadRegistry.of(this), target, size, temp, (t, p) -> this.save(t.toFile(), p, cover));
+    }
+
+    /**
+     * 获取未结束的分块上传会话
+     *
+     * @param id 会话ID
+     * @return 上传会话，不存在或已结束时返回null
+     */
+    default UploadSession getUpload(@NonNull String id) {
+        return UploadRegistry.of(this).find(id);
+    }
 
     /**
      * 复制文件,如果目标文件存在则终止操作
@@ -143,6 +346,20 @@ public interface AbstractFileSystem {
      */
     Outcome cp(@NonNull Path source, @NonNull Path target, boolean cover) throws IOException;
 
+    /**
+     * 使用指定的策略复制文件或目录树
+     * 默认忽略复制策略
+     *
+     * @param source   源文件路径
+     * @param target   目标路径
+     * @param cover    如果目标存在是否覆盖
+     * @param strategy 复制策略
+     * @return 处理结果
+     */
+    default Outcome cp(@NonNull Path source, @NonNull Path target, boolean cover, @NonNull CopyStrategy strategy) throws IOException {
+        return this.cp(source, target, cover);
+    }
+
     /**
      * 移动文件,如果目标文件存在则终止操作
      *
@@ -166,6 +383,167 @@ public interface AbstractFileSystem {
     @NonNull
     Outcome mv(@NonNull Path source, @NonNull Path target, boolean cover) throws IOException;
 
+    /**
+     * 批量执行操作
+     * 默认按顺序逐个执行，单个操作失败不影响其他操作
+     *
+     * @param operations 操作列表
+     * @return 处理结果，与操作一一对应
+     */
+    @NonNull
+    default List<Outcome> batch(@NonNull List<BatchOperation> operations) {
+        List<Outcome> result = new ArrayList<>(operations.size());
+        for (BatchOperation operation : operations) {
+            try {
+                result.add(switch (operation.getType()) {
+                    case MKDIRS -> this.mkdirs(operation.getTarget());
+                    case CP -> this.cp(operation.getSource(), operation.getTarget(), operation.isCover());
+                    case MV -> this.mv(operation.getSource(), operation.getTarget(), operation.isCover());
+                    case RM -> this.rm(operation.getTarget(), operation.isRecursive());
+                });
+            } catch (IOException | RuntimeException e) {
+                result.add(Outcome.error(e));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 列出指定路径下的文件，不抛出异常
+     * 预期内的失败(例如路径不存在)通过{@link Outcome#getCode()}返回，实现应尽量在不创建异常的情况下判断
+     *
+     * @param path 路径
+     * @param all  全部文件
+     * @return 处理结果，成功时包含文件列表
+     */
+    @NonNull
+    default Listing tryLs(@NonNull Path path, boolean all) {
+        try {
+            return Listing.of(path, this.ls(path, all));
+        } catch (IOException | RuntimeException e) {
+            return Listing.error(path, e);
+        }
+    }
+
+    /**
+     * 保存文件，不抛出异常
+     *
+     * @param source 源文件
+     * @param target 目标路径
+     * @param cover  如果目标存在是否覆盖
+     * @return 处理结果
+     */
+    @NonNull
+    default Outcome trySave(@NonNull File source, @NonNull Path target, boolean cover) {
+        try {
+            return this.save(source, target, cover);
+        } catch (IOException | RuntimeException e) {
+            return Outcome.error(e);
+        }
+    }
+
+    /**
+     * 保存文件，不抛出异常
+     *
+     * @param source 数据流
+     * @param target 目标路径
+     * @param cover  如果目标存在是否覆盖
+     * @return 处理结果
+     */
+    @NonNull
+    default Outcome trySave(@NonNull InputStream source, @NonNull Path target, boolean cover) {
+        try {
+            return this.save(source, target, cover);
+        } catch (IOException | RuntimeException e) {
+            return Outcome.error(e);
+        }
+    }
+
+    /**
+     * 保存文件，不抛出异常
+     *
+     * @param source 数据通道
+     * @param target 目标路径
+     * @param cover  如果目标存在是否覆盖
+     * @return 处理结果
+     */
+    @NonNull
+    default Outcome trySave(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover) {
+        try {
+            return this.save(source, target, cover);
+        } catch (IOException | RuntimeException e) {
+            return Outcome.error(e);
+        }
+    }
+
+    /**
+     * 复制文件，不抛出异常
+     *
+     * @param source 源文件路径
+     * @param target 目标路径
+     * @param cover  如果目标存在是否覆盖
+     * @return 处理结果
+     */
+    @NonNull
+    default Outcome tryCp(@NonNull Path source, @NonNull Path target, boolean cover) {
+        try {
+            return this.cp(source, target, cover);
+        } catch (IOException | RuntimeException e) {
+            return Outcome.error(e);
+        }
+    }
+
+    /**
+     * 移动文件，不抛出异常
+     *
+     * @param source 源文件路径
+     * @param target 目标路径
+     * @param cover  如果目标存在是否覆盖
+     * @return 处理结果
+     */
+    @NonNull
+    default Outcome tryMv(@NonNull Path source, @NonNull Path target, boolean cover) {
+        try {
+            return this.mv(source, target, cover);
+        } catch (IOException | RuntimeException e) {
+            return Outcome.error(e);
+        }
+    }
+
+    /**
+     * 获取本地文件，不抛出异常
+     *
+     * @param path 路径
+     * @return 处理结果，成功时路径为本地文件的路径，文件不存在时结果代码为{@link Outcome.Code#NOT_FOUND}
+     */
+    @NonNull
+    default Outcome tryGet(@NonNull Path path) {
+        try {
+            File file = this.get(path);
+            return file.exists() ? Outcome.success(file.toPath()) : Outcome.of(Outcome.Code.NOT_FOUND, path);
+        } catch (IOException | RuntimeException e) {
+            return Outcome.error(e);
+        }
+    }
+
+    /**
+     * 搜索文件，不抛出异常
+     *
+     * @param base  搜索目录
+     * @param name  文件名
+     * @param type  文件类型
+     * @param level 搜索深度(-1为无限,0为目标本身)
+     * @return 处理结果，成功时包含匹配的文件列表
+     */
+    @NonNull
+    default Listing tryFind(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level) {
+        try {
+            return Listing.of(base, this.find(base, name, type, level));
+        } catch (RuntimeException e) {
+            return Listing.error(base, e);
+        }
+    }
+
     /**
      * 搜索文件
      *
@@ -190,6 +568,66 @@ public interface AbstractFileSystem {
         return this.find(base, name, FileType.ALL, -1);
     }
 
+    /**
+     * 以惰性流的形式搜索文件
+     * 返回的流可能持有目录句柄，使用完毕后必须关闭(建议使用try-with-resources)
+     *
+     * @param base  搜索目录
+     * @param name  文件名
+     * @param type  文件类型
+     * @param level 搜索深度(-1为无限,0为目标本身)
+     * @return 匹配的文件流
+     */
+    @NonNull
+    default Stream<Path> search(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level) throws IOException {
+        return this.find(base, name, type, level).stream();
+    }
+
+    /**
+     * 分页搜索文件
+     * 只会物化当前页，内存占用与搜索范围无关
+     *
+     * @param base   搜索目录
+     * @param name   文件名
+     * @param type   文件类型
+     * @param level  搜索深度(-1为无限,0为目标本身)
+     * @param offset 偏移量(上一页的{@link Page#next()})
+     * @param limit  每页数量
+     * @return 当前页
+     */
+    @NonNull
+    default Page<Path> find(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level, long offset, int limit) throws IOException {
+        try (Stream<Path> stream = this.search(base, name, type, level)) {
+            return Page.of(stream, offset, limit);
+        }
+    }
+
+    /**
+     * 统计文件或目录的占用空间
+     * 默认实现遍历目录下的所有文件，支持增量统计的实现可以直接返回统计结果
+     *
+     * @param path 路径
+     * @return 占用空间
+     * @throws FileNotFoundException 路径不存在时抛出
+     */
+    @NonNull
+    default Usage usage(@NonNull Path path) throws IOException {
+        File file = this.get(path);
+        if (!file.exists()) {
+            throw new FileNotFoundException(path + " (No such file or directory)");
+        }
+        Usage usage = new Usage().setPath(path);
+        if (file.isFile()) {
+            return usage.setSize(file.length()).setFiles(1);
+        }
+        try (Stream<Path> stream = this.search(path, "*", FileType.FILE, -1)) {
+            for (Path p : (Iterable<Path>) stream::iterator) {
+                usage.setSize(usage.getSize() + this.get(p).length()).setFiles(usage.getFiles() + 1);
+            }
+        }
+        return usage;
+    }
+
     enum FileType {
         ALL,
         FILE,
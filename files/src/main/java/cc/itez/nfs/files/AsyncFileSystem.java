@@ -0,0 +1,412 @@
+package cc.itez.nfs.files;
+
+import cc.itez.nfs.files.AbstractFileSystem.FileType;
+import cc.itez.nfs.mould.BatchOperation;
+import cc.itez.nfs.mould.FileStat;
+import cc.itez.nfs.mould.Listing;
+import cc.itez.nfs.mould.Outcome;
+import cc.itez.nfs.mould.Page;
+import cc.itez.nfs.mould.Range;
+import cc.itez.nfs.mould.Usage;
+import lombok.NonNull;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 异步文件操作接口
+ * 与{@link AbstractFileSystem}的操作一一对应，所有方法立即返回，操作的结果或异常通过{@link CompletableFuture}传递
+ * (受检异常会原样作为异常完成的原因)。
+ */
+public interface AsyncFileSystem {
+    /**
+     * 获取对应的同步文件系统
+     *
+     * @return 同步文件系统
+     */
+    @NonNull
+    AbstractFileSystem sync();
+
+    /**
+     * 列出指定路径下的文件
+     *
+     * @param path 路径
+     * @param all  全部文件
+     * @return 文件列表
+     */
+    @NonNull
+    CompletableFuture<List<Path>> ls(@NonNull Path path, boolean all);
+
+    /**
+     * 列出指定路径下的文件
+     *
+     * @param path 路径
+     * @return 文件列表
+     */
+    @NonNull
+    default CompletableFuture<List<Path>> ls(@NonNull Path path) {
+        return this.ls(path, false);
+    }
+
+    /**
+     * 分页列出指定路径下的文件
+     *
+     * @param path   路径
+     * @param all    全部文件
+     * @param offset 偏移量
+     * @param limit  每页数量
+     * @return 当前页
+     */
+    @NonNull
+    CompletableFuture<Page<Path>> ls(@NonNull Path path, boolean all, long offset, int limit);
+
+    /**
+     * 获取文件
+     *
+     * @param path 路径
+     * @return 文件
+     */
+    @NonNull
+    CompletableFuture<File> get(@NonNull Path path);
+
+    /**
+     * 获取文件属性
+     *
+     * @param path 路径
+     * @return 文件属性
+     */
+    @NonNull
+    CompletableFuture<FileStat> stat(@NonNull Path path);
+
+    /**
+     * 创建目录
+     *
+     * @param path 路径
+     * @return 处理结果
+     */
+    @NonNull
+    CompletableFuture<Outcome> mkdirs(@NonNull Path path);
+
+    /**
+     * 删除文件
+     *
+     * @param path      路径
+     * @param recursive 递归删除
+     * @return 处理结果
+     */
+    @NonNull
+    CompletableFuture<Outcome> rm(@NonNull Path path, boolean recursive);
+
+    /**
+     * 删除文件
+     *
+     * @param path 路径
+     * @return 处理结果
+     */
+    @NonNull
+    default CompletableFuture<Outcome> rm(@NonNull Path path) {
+        return this.rm(path, true);
+    }
+
+    /**
+     * 保存文件
+     *
+     * @param source 源文件
+     * @param target 目标路径
+     * @param cover  覆盖已存在的文件
+     * @return 处理结果
+     */
+    @NonNull
+    CompletableFuture<Outcome> save(@NonNull File source, @NonNull Path target, boolean cover);
+
+    /**
+     * 保存文件，数据流在操作完成之前不能关闭
+     *
+     * @param source 数据流
+     * @param target 目标路径
+     * @param cover  覆盖已存在的文件
+     * @return 处理结果
+     */
+    @NonNull
+    CompletableFuture<Outcome> save(@NonNull InputStream source, @NonNull Path target, boolean cover);
+
+    /**
+     * 保存文件，通道在操作完成之前不能关闭
+     *
+     * @param source 数据通道
+     * @param target 目标路径
+     * @param cover  覆盖已存在的文件
+     * @return 处理结果
+     */
+    @NonNull
+    CompletableFuture<Outcome> save(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover);
+
+    /**
+     * 将文件内容写入通道
+     *
+     * @param source 文件路径
+     * @param target 目标通道
+     * @return 写入的字节数
+     */
+    @NonNull
+    CompletableFuture<Long> transfer(@NonNull Path source, @NonNull WritableByteChannel target);
+
+    /**
+     * 将文件的指定范围写入通道
+     *
+     * @param source 文件路径
+     * @param range  范围
+     * @param target 目标通道
+     * @return 写入的字节数
+     */
+    @NonNull
+    CompletableFuture<Long> transfer(@NonNull Path source, @NonNull Range range, @NonNull WritableByteChannel target);
+
+    /**
+     * 以通道的形式读取文件的一段，打开通道之后的读取仍是同步的，使用完毕后必须关闭
+     *
+     * @param path   文件路径
+     * @param offset 起始偏移量
+     * @param length 长度，超出文件末尾的部分会被忽略
+     * @return 只读通道
+     */
+    @NonNull
+    CompletableFuture<ReadableByteChannel> read(@NonNull Path path, long offset, long length);
+
+    /**
+     * 读取文件的指定范围
+     *
+     * @param path  文件路径
+     * @param range 范围
+     * @return 读取的内容
+     */
+    @NonNull
+    CompletableFuture<ByteBuffer> read(@NonNull Path path, @NonNull Range range);
+
+    /**
+     * 读取文件的多个范围
+     *
+     * @param path   文件路径
+     * @param ranges 范围列表
+     * @return 读取的内容，与范围一一对应
+     */
+    @NonNull
+    CompletableFuture<List<ByteBuffer>> read(@NonNull Path path, @NonNull List<Range> ranges);
+
+    /**
+     * 创建分块上传会话，会话上的写入与提交仍是同步的
+     *
+     * @param target 目标路径
+     * @param size   文件的总大小
+     * @param cover  如果目标存在是否覆盖
+     * @return 上传会话
+     */
+    @NonNull
+    CompletableFuture<UploadSession> createUpload(@NonNull Path target, long size, boolean cover);
+
+    /**
+     * 复制文件
+     *
+     * @param source 源路径
+     * @param target 目标路径
+     * @param cover  覆盖已存在的文件
+     * @return 处理结果
+     */
+    @NonNull
+    CompletableFuture<Outcome> cp(@NonNull Path source, @NonNull Path target, boolean cover);
+
+    /**
+     * 使用指定的策略复制文件或目录树
+     *
+     * @param source   源路径
+     * @param target   目标路径
+     * @param cover    覆盖已存在的文件
+     * @param strategy 复制策略
+     * @return 处理结果
+     */
+    @NonNull
+    CompletableFuture<Outcome> cp(@NonNull Path source, @NonNull Path target, boolean cover, @NonNull CopyStrategy strategy);
+
+    /**
+     * 复制文件
+     *
+     * @param source 源路径
+     * @param target 目标路径
+     * @return 处理结果
+     */
+    @NonNull
+    default CompletableFuture<Outcome> cp(@NonNull Path source, @NonNull Path target) {
+        return this.cp(source, target, false);
+    }
+
+    /**
+     * 移动文件
+     *
+     * @param source 源路径
+     * @param target 目标路径
+     * @param cover  覆盖已存在的文件
+     * @return 处理结果
+     */
+    @NonNull
+    CompletableFuture<Outcome> mv(@NonNull Path source, @NonNull Path target, boolean cover);
+
+    /**
+     * 移动文件
+     *
+     * @param source 源路径
+     * @param target 目标路径
+     * @return 处理结果
+     */
+    @NonNull
+    default CompletableFuture<Outcome> mv(@NonNull Path source, @NonNull Path target) {
+        return this.mv(source, target, false);
+    }
+
+    /**
+     * 批量执行操作
+     *
+     * @param operations 操作列表
+     * @return 处理结果，与操作一一对应
+     */
+    @NonNull
+    CompletableFuture<List<Outcome>> batch(@NonNull List<BatchOperation> operations);
+
+    /**
+     * 搜索文件
+     *
+     * @param base  搜索目录
+     * @param name  文件名
+     * @param type  文件类型
+     * @param level 搜索深度(-1为无限,0为目标本身)
+     * @return 匹配的文件列表
+     */
+    @NonNull
+    CompletableFuture<List<Path>> find(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level);
+
+    /**
+     * 搜索文件
+     *
+     * @param base 搜索目录
+     * @param name 文件名
+     * @return 匹配的文件列表
+     */
+    @NonNull
+    default CompletableFuture<List<Path>> find(@NonNull Path base, @NonNull String name) {
+        return this.find(base, name, FileType.ALL, -1);
+    }
+
+    /**
+     * 分页搜索文件
+     *
+     * @param base   搜索目录
+     * @param name   文件名
+     * @param type   文件类型
+     * @param level  搜索深度(-1为无限,0为目标本身)
+     * @param offset 偏移量
+     * @param limit  每页数量
+     * @return 当前页
+     */
+    @NonNull
+    CompletableFuture<Page<Path>> find(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level, long offset, int limit);
+
+    /**
+     * 统计文件或目录的占用空间
+     *
+     * @param path 路径
+     * @return 占用空间
+     */
+    @NonNull
+    CompletableFuture<Usage> usage(@NonNull Path path);
+
+    /**
+     * 列出指定路径下的文件，预期内的失败通过结果代码返回而不是异常完成
+     *
+     * @param path 路径
+     * @param all  全部文件
+     * @return 处理结果，成功时包含文件列表
+     */
+    @NonNull
+    CompletableFuture<Listing> tryLs(@NonNull Path path, boolean all);
+
+    /**
+     * 保存文件，预期内的失败通过结果代码返回而不是异常完成
+     *
+     * @param source 源文件
+     * @param target 目标路径
+     * @param cover  覆盖已存在的文件
+     * @return 处理结果
+     */
+    @NonNull
+    CompletableFuture<Outcome> trySave(@NonNull File source, @NonNull Path target, boolean cover);
+
+    /**
+     * 保存文件，预期内的失败通过结果代码返回而不是异常完成，数据流在操作完成之前不能关闭
+     *
+     * @param source 数据流
+     * @param target 目标路径
+     * @param cover  覆盖已存在的文件
+     * @return 处理结果
+     */
+    @NonNull
+    CompletableFuture<Outcome> trySave(@NonNull InputStream source, @NonNull Path target, boolean cover);
+
+    /**
+     * 保存文件，预期内的失败通过结果代码返回而不是异常完成，通道在操作完成之前不能关闭
+     *
+     * @param source 数据通道
+     * @param target 目标路径
+     * @param cover  覆盖已存在的文件
+     * @return 处理结果
+     */
+    @NonNull
+    CompletableFuture<Outcome> trySave(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover);
+
+    /**
+     * 复制文件，预期内的失败通过结果代码返回而不是异常完成
+     *
+     * @param source 源路径
+     * @param target 目标路径
+     * @param cover  覆盖已存在的文件
+     * @return 处理结果
+     */
+    @NonNull
+    CompletableFuture<Outcome> tryCp(@NonNull Path source, @NonNull Path target, boolean cover);
+
+    /**
+     * 移动文件，预期内的失败通过结果代码返回而不是异常完成
+     *
+     * @param source 源路径
+     * @param target 目标路径
+     * @param cover  覆盖已存在的文件
+     * @return 处理结果
+     */
+    @NonNull
+    CompletableFuture<Outcome> tryMv(@NonNull Path source, @NonNull Path target, boolean cover);
+
+    /**
+     * 获取本地文件，文件不存在时结果代码为{@link Outcome.Code#NOT_FOUND}而不是异常完成
+     *
+     * @param path 路径
+     * @return 处理结果，成功时路径为本地文件的路径
+     */
+    @NonNull
+    CompletableFuture<Outcome> tryGet(@NonNull Path path);
+
+    /**
+     * 搜索文件，预期内的失败通过结果代码返回而不是异常完成
+     *
+     * @param base  搜索目录
+     * @param name  文件名
+     * @param type  文件类型
+     * @param level 搜索深度(-1为无限,0为目标本身)
+     * @return 处理结果，成功时包含匹配的文件列表
+     */
+    @NonNull
+    CompletableFuture<Listing> tryFind(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level);
+}
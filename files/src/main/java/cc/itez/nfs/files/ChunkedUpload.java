@@ -0,0 +1,270 @@
+package cc.itez.nfs.files;
+
+import cc.itez.nfs.mould.Outcome;
+import cc.itez.nfs.mould.Range;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于临时文件的分块上传会话
+ * 临时文件在创建时预分配为目标大小，各个块通过按位置的{@link FileChannel#write(ByteBuffer, long)}写入，
+ * 因此可以并发写入且互不影响。会话在提交或放弃之前保存在所属文件系统的{@link UploadRegistry}中，可以通过ID重新获取。
+ */
+public class ChunkedUpload implements UploadSession {
+    private final UploadRegistry registry;
+    private final String id;
+    private final Path target;
+    private final long size;
+    private final Path temp;
+    private final FileChannel channel;
+    private final Publisher publisher;
+    /**
+     * 已接收的范围，起始位置 -> 结束位置(不包含)
+     */
+    private final TreeMap<Long, Long> received = new TreeMap<>();
+    private volatile long lastAccess = System.currentTimeMillis();
+    /**
+     * 正在进行的写入与提交数量，不为0时会话不会因空闲而被放弃
+     */
+    private final AtomicInteger busy = new AtomicInteger();
+    private volatile boolean finished;
+
+    /**
+     * 创建会话并注册
+     *
+     * @param registry  会话注册表
+     * @param target    目标路径
+     * @param size      文件的总大小
+     * @param temp      临时文件，已存在时会被截断
+     * @param publisher 提交时将临时文件发布到目标路径
+     */
+    public ChunkedUpload(@NonNull UploadRegistry registry, @NonNull Path target, long size, @NonNull Path temp, @NonNull Publisher publisher) throws IOException {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative upload size: " + size);
+        }
+        this.registry = registry;
+        this.id = UUID.randomUUID().toString();
+        this.target = target;
+        this.size = size;
+        this.temp = temp;
+        this.publisher = publisher;
+        try (RandomAccessFile file = new RandomAccessFile(temp.toFile(), "rw")) {
+            file.setLength(0);
+            file.setLength(size);
+        }
+        this.channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+        registry.register(this);
+    }
+
+    @Override
+    public @NonNull String getId() {
+        return this.id;
+    }
+
+    @Override
+    public @NonNull Path getTarget() {
+        return this.target;
+    }
+
+    @Override
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * 临时文件
+     *
+     * @return 临时文件
+     */
+    public Path getTemp() {
+        return this.temp;
+    }
+
+    @Override
+    public int write(long offset, @NonNull ByteBuffer source) throws IOException {
+        this.begin();
+        try {
+            this.check(offset, source.remaining());
+            int count = 0;
+            while (source.hasRemaining()) {
+                count += this.channel.write(source, offset + count);
+            }
+            this.mark(offset, count);
+            return count;
+        } finally {
+            this.end();
+        }
+    }
+
+    @Override
+    public long write(long offset, @NonNull ReadableByteChannel source) throws IOException {
+        this.begin();
+        try {
+            this.check(offset, 0);
+            long count = 0;
+            long n;
+            while (offset + count < this.size && (n = this.channel.transferFrom(source, offset + count, this.size - offset - count)) > 0) {
+                count += n;
+            }
+            this.mark(offset, count);
+            if (offset + count == this.size && source.read(ByteBuffer.allocate(1)) > 0) {
+                throw new IOException("Chunk exceeds upload size " + this.size);
+            }
+            return count;
+        } finally {
+            this.end();
+        }
+    }
+
+    @Override
+    public @NonNull List<Range> received() {
+        List<Range> result = new ArrayList<>();
+        synchronized (this.received) {
+            for (Map.Entry<Long, Long> entry : this.received.entrySet()) {
+                result.add(Range.of(entry.getKey(), entry.getValue() - entry.getKey()));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isComplete() {
+        synchronized (this.received) {
+            if (this.size == 0) {
+                return true;
+            }
+            Map.Entry<Long, Long> first = this.received.firstEntry();
+            return first != null && first.getKey() == 0 && first.getValue() >= this.size;
+        }
+    }
+
+    @Override
+    public @NonNull Outcome commit() throws IOException {
+        if (this.finished) {
+            throw new ClosedChannelException();
+        }
+        if (!this.isComplete()) {
+            return Outcome.failure("Upload incomplete!");
+        }
+        this.begin();
+        try {
+            synchronized (this) {
+                if (this.finished) {
+                    throw new ClosedChannelException();
+                }
+                this.channel.close();
+                try {
+                    Outcome outcome = this.publisher.publish(this.temp, this.target);
+                    this.finished = true;
+                    this.registry.remove(this);
+                    return outcome;
+                } finally {
+                    if (this.finished) {
+                        Files.deleteIfExists(this.temp);
+                    }
+                }
+            }
+        } finally {
+            this.end();
+        }
+    }
+
+    @Override
+    public void abort() {
+        synchronized (this) {
+            this.finished = true;
+            this.registry.remove(this);
+            try {
+                this.channel.close();
+                Files.deleteIfExists(this.temp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 会话是否空闲超时：没有正在进行的写入或提交，且最后一次写入在截止时间之前开始并结束
+     *
+     * @param deadline 截止时间(毫秒)
+     * @return 是否可以放弃
+     */
+    boolean expired(long deadline) {
+        return this.busy.get() == 0 && this.lastAccess < deadline;
+    }
+
+    /**
+     * 开始一次写入或提交，必须先于检查会话状态，以免在检查之后被当作空闲会话放弃
+     */
+    private void begin() {
+        this.busy.incrementAndGet();
+        this.lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * 结束一次写入或提交，写入大块数据可能耗时较长，因此结束时同样更新访问时间
+     */
+    private void end() {
+        this.lastAccess = System.currentTimeMillis();
+        this.busy.decrementAndGet();
+    }
+
+    private void check(long offset, long length) throws IOException {
+        if (this.finished) {
+            throw new ClosedChannelException();
+        }
+        if (offset < 0 || offset + length > this.size) {
+            throw new IOException("Chunk [" + offset + "," + (offset + length) + ") exceeds upload size " + this.size);
+        }
+    }
+
+    /**
+     * 记录已接收的范围并与相邻的范围合并
+     *
+     * @param offset 起始位置
+     * @param length 长度
+     */
+    private void mark(long offset, long length) {
+        if (length <= 0) {
+            return;
+        }
+        long start = offset;
+        long end = offset + length;
+        synchronized (this.received) {
+            Map.Entry<Long, Long> floor = this.received.floorEntry(start);
+            if (floor != null && floor.getValue() >= start) {
+                start = floor.getKey();
+                end = Math.max(end, floor.getValue());
+            }
+            Map.Entry<Long, Long> next;
+            while ((next = this.received.ceilingEntry(start)) != null && next.getKey() <= end) {
+                end = Math.max(end, next.getValue());
+                this.received.remove(next.getKey());
+            }
+            this.received.put(start, end);
+        }
+    }
+
+    /**
+     * 将接收完毕的临时文件发布到目标路径
+     */
+    @FunctionalInterface
+    public interface Publisher {
+        /**
+         * @param temp   临时文件，发布成功后如果仍然存在会被删除
+         * @param target 目标路径
+         * @return 处理结果
+         */
+        Outcome publish(Path temp, Path target) throws IOException;
+    }
+}
@@ -0,0 +1,20 @@
+package cc.itez.nfs.files;
+
+/**
+ * 复制策略
+ * 无法使用指定策略(例如跨卷硬链接、文件系统不支持克隆)的文件会退回到完整复制
+ */
+public enum CopyStrategy {
+    /**
+     * 完整复制文件内容
+     */
+    COPY,
+    /**
+     * 创建硬链接，与源文件共享内容与属性，修改任意一方都会影响另一方
+     */
+    HARDLINK,
+    /**
+     * 写时复制克隆(reflink)，只复制元数据，内容在修改时才分离；需要文件系统支持(例如Btrfs、XFS、APFS)
+     */
+    REFLINK
+}
@@ -0,0 +1,22 @@
+package cc.itez.nfs.files;
+
+/**
+ * 写入的持久化级别
+ * 所有级别都先写入临时文件再通过原子重命名发布，读取者不会看到写了一半的文件；
+ * 区别在于发布之前是否以及如何将数据刷新到磁盘。
+ */
+public enum Durability {
+    /**
+     * 不主动刷新，断电可能丢失最近写入的文件
+     */
+    NONE,
+    /**
+     * 组提交：同一时间窗口内的并发写入一起刷新文件数据，并且每个目录只刷新一次，
+     * 在保证断电不丢数据的同时摊薄大量小文件的刷新开销
+     */
+    GROUP_COMMIT,
+    /**
+     * 每个文件在发布之前单独刷新文件与目录
+     */
+    ALWAYS
+}
@@ -0,0 +1,113 @@
+package cc.itez.nfs.files;
+
+import lombok.NonNull;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 分块上传会话的注册表，每个文件系统持有自己的注册表
+ * 长时间没有写入的会话在注册或查找时被顺带放弃：关闭临时文件的通道并删除临时文件，不需要额外的清理线程。
+ * 正在写入或提交的会话不会被放弃，空闲时间从最后一次写入结束时开始计算。
+ */
+public class UploadRegistry {
+    /**
+     * 没有自己的注册表的文件系统(如{@link AbstractFileSystem}的默认实现)所使用的注册表
+     */
+    private static final Map<AbstractFileSystem, UploadRegistry> DEFAULTS = Collections.synchronizedMap(new WeakHashMap<>());
+    /**
+     * 两次清理的最长间隔
+     */
+    private static final long PURGE_INTERVAL = 60_000;
+
+    private final Map<String, ChunkedUpload> sessions = new ConcurrentHashMap<>();
+    private volatile Duration idleTimeout = Duration.ofHours(1);
+    private volatile long lastPurge = System.currentTimeMillis();
+
+    /**
+     * 获取文件系统的默认注册表
+     *
+     * @param fileSystem 文件系统
+     * @return 注册表，不存在时创建
+     */
+    public static UploadRegistry of(@NonNull AbstractFileSystem fileSystem) {
+        return DEFAULTS.computeIfAbsent(fileSystem, k -> new UploadRegistry());
+    }
+
+    /**
+     * 设置会话的最长空闲时间，超过该时间没有写入的会话会被放弃
+     *
+     * @param idleTimeout 最长空闲时间
+     * @return this
+     */
+    public UploadRegistry setIdleTimeout(@NonNull Duration idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        return this;
+    }
+
+    /**
+     * 根据ID获取未结束的会话
+     *
+     * @param id 会话ID
+     * @return 会话，不存在、已结束或已过期时返回null
+     */
+    public ChunkedUpload find(String id) {
+        this.tryPurge();
+        ChunkedUpload session = id == null ? null : this.sessions.get(id);
+        if (session != null && session.expired(this.deadline())) {
+            session.abort();
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * 放弃所有空闲超时的会话
+     *
+     * @return 被放弃的会话数量
+     */
+    public int purge() {
+        this.lastPurge = System.currentTimeMillis();
+        long deadline = this.deadline();
+        int count = 0;
+        for (ChunkedUpload session : this.sessions.values()) {
+            if (session.expired(deadline)) {
+                session.abort();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 未结束的会话数量
+     *
+     * @return 会话数量
+     */
+    public int size() {
+        return this.sessions.size();
+    }
+
+    void register(ChunkedUpload session) {
+        this.tryPurge();
+        this.sessions.put(session.getId(), session);
+    }
+
+    void remove(ChunkedUpload session) {
+        this.sessions.remove(session.getId(), session);
+    }
+
+    private long deadline() {
+        return System.currentTimeMillis() - this.idleTimeout.toMillis();
+    }
+
+    private void tryPurge() {
+        long interval = Math.min(PURGE_INTERVAL, this.idleTimeout.toMillis());
+        if (System.currentTimeMillis() - this.lastPurge >= interval) {
+            this.purge();
+        }
+    }
+}
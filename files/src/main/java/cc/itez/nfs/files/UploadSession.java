@@ -0,0 +1,90 @@
+package cc.itez.nfs.files;
+
+import cc.itez.nfs.mould.Outcome;
+import cc.itez.nfs.mould.Range;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * 分块上传会话
+ * 文件内容以任意顺序、任意大小的块写入预分配的临时文件，不同的块可以由多个线程(连接)并发写入；
+ * 连接中断后可以通过{@link #received()}查询已接收的范围并只补传缺失的部分。
+ * 所有块接收完毕后调用{@link #commit()}将临时文件发布到目标路径，或者调用{@link #abort()}放弃上传。
+ */
+public interface UploadSession {
+    /**
+     * 会话ID，可以通过{@link AbstractFileSystem#getUpload(String)}重新获取会话
+     *
+     * @return 会话ID
+     */
+    @NonNull
+    String getId();
+
+    /**
+     * 目标路径
+     *
+     * @return 目标路径
+     */
+    @NonNull
+    Path getTarget();
+
+    /**
+     * 文件的总大小
+     *
+     * @return 文件的总大小
+     */
+    long getSize();
+
+    /**
+     * 在指定位置写入一块内容
+     *
+     * @param offset 块在文件中的偏移量
+     * @param source 块内容
+     * @return 写入的字节数
+     * @throws IOException 当块超出文件大小或会话已结束时抛出
+     */
+    int write(long offset, @NonNull ByteBuffer source) throws IOException;
+
+    /**
+     * 从通道读取内容并从指定位置开始写入，直到通道结束
+     *
+     * @param offset 块在文件中的偏移量
+     * @param source 块内容
+     * @return 写入的字节数
+     * @throws IOException 当块超出文件大小或会话已结束时抛出
+     */
+    long write(long offset, @NonNull ReadableByteChannel source) throws IOException;
+
+    /**
+     * 已接收的范围，相邻或重叠的范围会被合并
+     *
+     * @return 按偏移量排序的范围列表
+     */
+    @NonNull
+    List<Range> received();
+
+    /**
+     * 是否已接收全部内容
+     *
+     * @return 是否已接收全部内容
+     */
+    boolean isComplete();
+
+    /**
+     * 将临时文件发布到目标路径并结束会话
+     *
+     * @return 处理结果，内容未接收完毕时返回失败且会话保持可用
+     */
+    @NonNull
+    Outcome commit() throws IOException;
+
+    /**
+     * 放弃上传，删除临时文件并结束会话
+     */
+    void abort();
+}
@@ -0,0 +1,441 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.files.AbstractFileSystem;
+import cc.itez.nfs.mould.BatchOperation;
+import cc.itez.nfs.mould.FileStat;
+import cc.itez.nfs.mould.Listing;
+import cc.itez.nfs.mould.Outcome;
+import cc.itez.nfs.mould.Page;
+import cc.itez.nfs.utils.PathUtils;
+import lombok.NonNull;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * 基于内容寻址的去重文件系统
+ * 文件内容以SHA-256命名的数据块保存在{@code blobs}目录中，相同内容只保存一份；
+ * 命名空间保存在{@code names}目录中，其中每个文件只是指向数据块的引用，
+ * 因此复制文件只需复制引用，列举、搜索、移动与删除只涉及命名空间。
+ * 不再被引用的数据块由后台的标记-清除回收，新写入或刚被复用的数据块在宽限期内不会被回收。
+ * 标记阶段不持有锁，与其他操作并发进行。会产生或移动引用的操作(保存、复制、移动)持有回收锁的读锁，
+ * 标记期间复制与移动的目标路径被记录下来；清除阶段持有写锁，先重新标记这些路径中的引用，
+ * 以发现标记期间从未遍历的目录复制或移动到已遍历的目录的引用，再在写锁内重新检查每个候选数据块的修改时间后删除。
+ */
+public class DedupFileSystem implements AbstractFileSystem, Closeable {
+    private static final String REFERENCE_PREFIX = "sha256:";
+
+    private final Path blobs;
+    private final LocalFileSystem names;
+    /**
+     * 回收锁，见类注释
+     */
+    private final ReadWriteLock gcLock = new ReentrantReadWriteLock();
+    /**
+     * 数据块在写入或复用之后的宽限期，期间不会被回收
+     */
+    private Duration grace = Duration.ofHours(1);
+    private ScheduledExecutorService collector;
+    /**
+     * 标记期间复制或移动的目标路径，不在标记时为null，只在回收锁内读写
+     */
+    private Set<Path> touched;
+    /**
+     * 同一时间只进行一次回收
+     */
+    private final Object collecting = new Object();
+
+    /**
+     * @param root 存储目录，其下会创建{@code names}与{@code blobs}两个子目录
+     */
+    public DedupFileSystem(@NonNull Path root) {
+        this.blobs = root.resolve("blobs");
+        this.names = new LocalFileSystem(root.resolve("names"));
+        PathUtils.mkdirs(this.blobs);
+        PathUtils.mkdirs(this.names.getBase());
+    }
+
+    /**
+     * 设置数据块的回收宽限期
+     *
+     * @param grace 宽限期
+     * @return this
+     */
+    public DedupFileSystem setGrace(@NonNull Duration grace) {
+        this.grace = grace;
+        return this;
+    }
+
+    /**
+     * 启动后台回收，每隔指定时间执行一次{@link #gc()}
+     *
+     * @param interval 回收间隔
+     * @return this
+     */
+    public synchronized DedupFileSystem startCollector(@NonNull Duration interval) {
+        if (this.collector == null) {
+            this.collector = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "nfs-dedup-gc");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.collector.scheduleWithFixedDelay(() -> {
+                try {
+                    this.gc();
+                } catch (IOException | UncheckedIOException e) {
+                    e.printStackTrace();
+                }
+            }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    /**
+     * 回收不再被引用的数据块
+     * 先在不持有锁的情况下遍历命名空间标记所有被引用的数据块，并找出未被标记且超过宽限期的候选数据块；
+     * 然后在写锁内补充标记期间被复制或移动的引用，重新检查候选数据块后删除
+     *
+     * @return 被删除的数据块数量
+     */
+    public long gc() throws IOException {
+        synchronized (this.collecting) {
+            return this.collect();
+        }
+    }
+
+    private long collect() throws IOException {
+        Set<String> referenced = ConcurrentHashMap.newKeySet();
+        // 等待正在进行的复制与移动结束，之后开始的操作都会记录目标路径
+        this.gcLock.writeLock().lock();
+        this.touched = ConcurrentHashMap.newKeySet();
+        this.gcLock.writeLock().unlock();
+        List<Path> candidates = new ArrayList<>();
+        long deleted = 0;
+        try {
+            mark(this.names.getBase(), referenced);
+            long deadline = System.currentTimeMillis() - this.grace.toMillis();
+            Files.walkFileTree(this.blobs, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    String name = file.getFileName().toString();
+                    // 以"."开头的是正在写入的临时文件
+                    if (!name.startsWith(".") && !referenced.contains(name) && attrs.lastModifiedTime().toMillis() < deadline) {
+                        candidates.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            this.gcLock.writeLock().lock();
+            try {
+                if (!candidates.isEmpty()) {
+                    for (Path target : this.touched) {
+                        mark(this.names.get(target).toPath(), referenced);
+                    }
+                    long deadline = System.currentTimeMillis() - this.grace.toMillis();
+                    for (Path candidate : candidates) {
+                        // 标记之后保存的文件可能复用了该数据块并刷新了修改时间
+                        try {
+                            if (!referenced.contains(candidate.getFileName().toString())
+                                    && Files.getLastModifiedTime(candidate).toMillis() < deadline && Files.deleteIfExists(candidate)) {
+                                deleted++;
+                            }
+                        } catch (NoSuchFileException ignored) {
+                        }
+                    }
+                }
+            } finally {
+                this.touched = null;
+                this.gcLock.writeLock().unlock();
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * 标记目录树中的引用所指向的数据块
+     *
+     * @param root       命名空间中的目录或引用文件，不存在时忽略
+     * @param referenced 被引用的摘要
+     */
+    private static void mark(Path root, Set<String> referenced) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    String hash = readReference(file);
+                    if (hash != null) {
+                        referenced.add(hash);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * 标记期间记录复制或移动的目标路径，必须在回收锁的读锁内调用
+     *
+     * @param target 目标路径
+     */
+    private void touch(Path target) {
+        Set<Path> touched = this.touched;
+        if (touched != null && target != null) {
+            touched.add(target);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (this.collector != null) {
+                this.collector.shutdownNow();
+                this.collector = null;
+            }
+        }
+        this.names.close();
+    }
+
+    @Override
+    public @NonNull List<Path> ls(@NonNull Path path, boolean all) throws FileNotFoundException {
+        return this.names.ls(path, all);
+    }
+
+    @Override
+    public @NonNull Stream<Path> list(@NonNull Path path, boolean all) throws IOException {
+        return this.names.list(path, all);
+    }
+
+    @Override
+    public @NonNull Page<Path> ls(@NonNull Path path, boolean all, long offset, int limit) throws IOException {
+        return this.names.ls(path, all, offset, limit);
+    }
+
+    /**
+     * 返回文件内容所在的数据块，目录返回命名空间中的目录
+     * 数据块可能被多个路径共享，调用者只能读取而不能修改返回的文件
+     */
+    @Override
+    public @NonNull File get(@NonNull Path path) throws FileNotFoundException {
+        File reference = this.names.get(path);
+        if (reference.isDirectory()) {
+            return reference;
+        }
+        String hash = readReference(reference.toPath());
+        if (hash == null) {
+            throw new FileNotFoundException(path + " (No such file or directory)");
+        }
+        return this.blob(hash).toFile();
+    }
+
+    /**
+     * 类型、修改时间与ETag取自命名空间中的引用，大小取自数据块
+     */
+    @Override
+    public @NonNull FileStat stat(@NonNull Path path) throws IOException {
+        FileStat stat = this.names.stat(path);
+        return stat.isDirectory() ? stat : stat.withSize(this.get(path).length());
+    }
+
+    @Override
+    public @NonNull Outcome mkdirs(@NonNull Path path) {
+        return this.names.mkdirs(path);
+    }
+
+    @Override
+    public @NonNull Outcome rm(@NonNull Path path, boolean recursive) {
+        return this.names.rm(path, recursive);
+    }
+
+    /**
+     * 保存文件
+     * 内容先写入临时文件并同时计算摘要，如果相同内容的数据块已经存在则丢弃临时文件，否则将其发布为新的数据块
+     */
+    @Override
+    public @NonNull Outcome save(@NonNull InputStream source, @NonNull Path target, boolean cover) throws IOException {
+        if (!cover && this.names.get(target).exists()) {
+            throw new FileAlreadyExistsException(target + " (Target file already exists)");
+        }
+        MessageDigest digest = sha256();
+        Path temp = this.blobs.resolve("." + UUID.randomUUID() + ".tmp");
+        long size = 0;
+        try {
+            try (OutputStream output = new FileOutputStream(temp.toFile())) {
+                byte[] buffer = new byte[8024];
+                int n;
+                while ((n = source.read(buffer)) != -1) {
+                    digest.update(buffer, 0, n);
+                    output.write(buffer, 0, n);
+                    size += n;
+                }
+            }
+            String hash = hex(digest.digest());
+            Path blob = this.blob(hash);
+            byte[] reference = (REFERENCE_PREFIX + hash + " " + size + "\n").getBytes(StandardCharsets.UTF_8);
+            this.gcLock.readLock().lock();
+            try {
+                if (Files.exists(blob)) {
+                    // 刷新修改时间，避免被正在进行的回收删除
+                    Files.setLastModifiedTime(blob, FileTime.fromMillis(System.currentTimeMillis()));
+                } else {
+                    PathUtils.mkdirs(blob.getParent());
+                    Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                }
+                return this.names.save(new ByteArrayInputStream(reference), target, cover);
+            } finally {
+                this.gcLock.readLock().unlock();
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 复制文件，只复制引用而不复制内容
+     */
+    @Override
+    public Outcome cp(@NonNull Path source, @NonNull Path target, boolean cover) throws IOException {
+        this.gcLock.readLock().lock();
+        try {
+            this.touch(target);
+            return this.names.cp(source, target, cover);
+        } finally {
+            this.gcLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public @NonNull Outcome mv(@NonNull Path source, @NonNull Path target, boolean cover) throws IOException {
+        this.gcLock.readLock().lock();
+        try {
+            this.touch(target);
+            return this.names.mv(source, target, cover);
+        } finally {
+            this.gcLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public @NonNull Listing tryLs(@NonNull Path path, boolean all) {
+        return this.names.tryLs(path, all);
+    }
+
+    @Override
+    public @NonNull Outcome tryCp(@NonNull Path source, @NonNull Path target, boolean cover) {
+        this.gcLock.readLock().lock();
+        try {
+            this.touch(target);
+            return this.names.tryCp(source, target, cover);
+        } finally {
+            this.gcLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public @NonNull Outcome tryMv(@NonNull Path source, @NonNull Path target, boolean cover) {
+        this.gcLock.readLock().lock();
+        try {
+            this.touch(target);
+            return this.names.tryMv(source, target, cover);
+        } finally {
+            this.gcLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 批量操作只涉及命名空间
+     */
+    @Override
+    public @NonNull List<Outcome> batch(@NonNull List<BatchOperation> operations) {
+        this.gcLock.readLock().lock();
+        try {
+            for (BatchOperation operation : operations) {
+                this.touch(operation.getTarget());
+            }
+            return this.names.batch(operations);
+        } finally {
+            this.gcLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public @NonNull List<Path> find(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level) {
+        return this.names.find(base, name, type, level);
+    }
+
+    @Override
+    public @NonNull Stream<Path> search(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level) throws IOException {
+        return this.names.search(base, name, type, level);
+    }
+
+    @Override
+    public @NonNull Page<Path> find(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level, long offset, int limit) throws IOException {
+        return this.names.find(base, name, type, level, offset, limit);
+    }
+
+    private Path blob(String hash) {
+        return this.blobs.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    /**
+     * 读取引用文件中的摘要
+     *
+     * @param reference 引用文件
+     * @return 摘要，文件不存在或不是引用时返回null
+     */
+    private static String readReference(Path reference) {
+        try {
+            String content = Files.readString(reference, StandardCharsets.UTF_8);
+            if (!content.startsWith(REFERENCE_PREFIX)) {
+                return null;
+            }
+            int end = content.indexOf(' ');
+            return end < 0 ? null : content.substring(REFERENCE_PREFIX.length(), end);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,1023 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.mould.QuotaExceededException;
+import cc.itez.nfs.utils.PathKey;
+import cc.itez.nfs.utils.PathUtils;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * 目录占用统计
+ * 在内存中为每个目录维护直接包含的文件大小与数量，以及包括子目录在内的合计，并以快照的形式持久化到磁盘。
+ * 文件本身不被记录：保存、复制、移动与删除时由调用者提供操作前的占用，统计只把差值累加到上级目录链上，
+ * 因此查询占用与检查配额的开销只与目录深度相关，而不是遍历整棵目录树。
+ * <p>
+ * 启动时加载快照后通过比较目录的修改时间进行校准，此后在后台定期重新统计每个目录直接包含的文件，
+ * 修正绕过本实例的修改(例如原地追加文件内容)。统计在加载、校准或重建期间处于不可用状态，
+ * 此时写入设置了配额的目录会等待统计可用，超过{@link #READY_TIMEOUT}秒仍不可用时拒绝写入；
+ * 其他目录的写入不受影响，期间的修改在统计可用时重新扫描。
+ * 重新统计时先在锁外列举目录与扫描新出现的子树，只有合并结果时才持有写锁，不会在磁盘IO期间阻塞写入。
+ * <p>
+ * 配额保存在快照旁的{@code .quotas}文件中，在打开时同步加载，修改时立即写入。
+ * <p>
+ * 只统计普通文件的大小，写入过程中的隐藏临时文件不计入
+ */
+class DirectoryUsage implements Closeable {
+    private static final int MAGIC = 0x4E465355;
+    private static final int QUOTA_MAGIC = 0x4E465351;
+    private static final int VERSION = 1;
+    /**
+     * 修改后延迟写入快照的时间(秒)
+     */
+    private static final long FLUSH_DELAY = 5;
+    /**
+     * 写入配额目录时等待统计可用的最长时间(秒)
+     */
+    private static final long READY_TIMEOUT = 10;
+    /**
+     * 保存与分块上传使用的临时文件名
+     */
+    private static final Pattern TEMP = Pattern.compile("^\\..+\\.[0-9a-f]{8}(-[0-9a-f]{4}){3}-[0-9a-f]{12}\\.(tmp|part)$");
+
+    private final Path base;
+    private final Path file;
+    private final Path quotaFile;
+    private final Map<PathKey, Node> nodes = new HashMap<>();
+    private final Map<PathKey, Long> quotas = new ConcurrentHashMap<>();
+    /**
+     * 统计不可用期间发生修改的路径
+     */
+    private final Set<PathKey> pending = new HashSet<>();
+    /**
+     * 配额目录 -> 已预留但尚未记入统计的字节数，由锁保护
+     */
+    private final Map<PathKey, Long> reserved = new HashMap<>();
+    /**
+     * 统计变为可用时通知等待的写入
+     */
+    private final Object readyMonitor = new Object();
+    /**
+     * 加载与重建互斥，重建完成后不再进行后台加载
+     */
+    private final Object loading = new Object();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService executor;
+    private volatile boolean ready;
+    private volatile boolean dirty;
+
+    /**
+     * @param base 被统计的目录(绝对路径)
+     * @param file 快照文件
+     */
+    DirectoryUsage(Path base, Path file) {
+        this.base = base;
+        this.file = file;
+        this.quotaFile = file.resolveSibling(file.getFileName() + ".quotas");
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "nfs-directory-usage");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 加载配额，并在后台加载快照并与磁盘校准，快照不存在或损坏时完整扫描
+     * 配额在返回之前加载完毕，统计可用之前写入配额目录同样会等待
+     *
+     * @param interval 定期重新统计的间隔(毫秒)，小于等于0时不定期统计
+     */
+    void open(long interval) {
+        try {
+            this.loadQuotas();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.executor.execute(() -> {
+            synchronized (this.loading) {
+                // 已经同步重建过时，再次扫描会覆盖重建之后记入的修改
+                if (this.ready) {
+                    return;
+                }
+                try {
+                    if (this.load()) {
+                        this.reconcile(false);
+                    } else {
+                        this.scan();
+                    }
+                    this.ready();
+                    this.flush();
+                } catch (IOException | UncheckedIOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        if (interval > 0) {
+            this.executor.scheduleWithFixedDelay(() -> {
+                if (!this.ready) {
+                    return;
+                }
+                try {
+                    this.reconcile(true);
+                } catch (IOException | UncheckedIOException e) {
+                    e.printStackTrace();
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 丢弃统计并重新扫描磁盘，重建期间写入配额目录会等待
+     */
+    void rebuild() throws IOException {
+        synchronized (this.loading) {
+            this.ready = false;
+            this.scan();
+            this.ready();
+            this.flush();
+        }
+    }
+
+    /**
+     * 统计是否可用
+     *
+     * @return 是否可用
+     */
+    boolean isReady() {
+        return this.ready;
+    }
+
+    /**
+     * 设置目录的配额，发生变化时立即写入配额文件
+     *
+     * @param dir   目录的相对路径
+     * @param bytes 配额(字节)，小于等于0时取消配额
+     */
+    synchronized void setQuota(PathKey dir, long bytes) throws IOException {
+        Long previous = bytes > 0 ? this.quotas.put(dir, bytes) : this.quotas.remove(dir);
+        if (previous == null ? bytes > 0 : previous != bytes) {
+            this.saveQuotas();
+        }
+    }
+
+    /**
+     * 获取目录的配额
+     *
+     * @param dir 目录的相对路径
+     * @return 配额(字节)，未设置时返回null
+     */
+    Long getQuota(PathKey dir) {
+        return this.quotas.get(dir);
+    }
+
+    /**
+     * 获取路径当前的占用，目录从统计中读取，文件读取其属性
+     *
+     * @param path 相对路径
+     * @param real 绝对路径
+     * @return 占用，路径不存在时返回{@link Measure#NONE}
+     */
+    Measure measure(PathKey path, Path real) {
+        this.lock.readLock().lock();
+        try {
+            Node node = this.nodes.get(path);
+            if (node != null) {
+                return new Measure(true, node.size, node.files);
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(real, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attrs.isRegularFile()) {
+                return new Measure(false, attrs.size(), 1);
+            }
+            return attrs.isDirectory() ? new Measure(true, 0, 0) : Measure.NONE;
+        } catch (IOException e) {
+            return Measure.NONE;
+        }
+    }
+
+    /**
+     * 检查写入路径是否会超出其上级目录的配额
+     *
+     * @param path   写入的相对路径
+     * @param delta  占用的变化量(字节)
+     * @param exempt 不检查包含此路径的配额目录，例如在同一配额目录内移动时的源路径，为null时检查所有配额
+     * @throws QuotaExceededException 超出配额时抛出
+     * @throws FileSystemException     统计长时间不可用时抛出
+     */
+    void check(PathKey path, long delta, PathKey exempt) throws IOException {
+        if (delta <= 0 || this.quotas.isEmpty()) {
+            return;
+        }
+        while (true) {
+            this.awaitReady(path);
+            this.lock.readLock().lock();
+            try {
+                if (this.ready || !this.limited(path)) {
+                    this.enforce(path, delta, exempt);
+                    return;
+                }
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * 为即将写入的内容预留配额，检查与预留是原子的，并发的写入不会同时通过检查。
+     * 写入完成并通过{@link #update}记入统计之后应当释放预留
+     *
+     * @param path  写入的相对路径
+     * @param delta 占用的变化量(字节)
+     * @return 预留，不需要预留时返回{@link Reservation#NONE}
+     * @throws QuotaExceededException 超出配额时抛出
+     * @throws FileSystemException     统计长时间不可用时抛出
+     */
+    Reservation reserve(PathKey path, long delta) throws IOException {
+        if (delta <= 0 || this.quotas.isEmpty()) {
+            return Reservation.NONE;
+        }
+        List<PathKey> dirs = new ArrayList<>();
+        while (true) {
+            this.awaitReady(path);
+            this.lock.writeLock().lock();
+            try {
+                if (!this.ready && this.limited(path)) {
+                    continue;
+                }
+                this.enforce(path, delta, null);
+                for (PathKey dir = path.parent(); dir != null; dir = dir.parent()) {
+                    if (this.quotas.containsKey(dir)) {
+                        this.reserved.merge(dir, delta, Long::sum);
+                        dirs.add(dir);
+                    }
+                }
+                break;
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+        return () -> {
+            this.lock.writeLock().lock();
+            try {
+                for (PathKey dir : dirs) {
+                    this.reserved.computeIfPresent(dir, (k, v) -> v == delta ? null : v - delta);
+                }
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        };
+    }
+
+    /**
+     * 在发布写入完毕的文件之前检查配额并记入统计，检查与记录是原子的，
+     * 并发的写入不会同时通过检查。发布失败时调用者应当通过{@link #update}恢复
+     *
+     * @param path   文件的相对路径
+     * @param before 文件发布前的占用
+     * @param size   新文件的大小
+     * @throws QuotaExceededException 超出配额时抛出，此时统计不变
+     * @throws FileSystemException     统计长时间不可用时抛出
+     */
+    void admit(PathKey path, Measure before, long size) throws IOException {
+        while (true) {
+            if (!this.quotas.isEmpty()) {
+                this.awaitReady(path);
+            }
+            this.lock.writeLock().lock();
+            try {
+                if (!this.ready) {
+                    if (!this.quotas.isEmpty() && this.limited(path)) {
+                        continue;
+                    }
+                    this.pending.add(path);
+                    return;
+                }
+                if (this.quotas.size() > 0) {
+                    this.enforce(path, size - before.size, null);
+                }
+                this.replace(path, before, null, size);
+                break;
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+        this.changed();
+    }
+
+    /**
+     * 新建、覆盖、复制或删除之后重新统计路径，目录重新扫描其子树，文件读取其大小
+     *
+     * @param path   相对路径
+     * @param before 操作之前的占用
+     */
+    void update(PathKey path, Measure before) {
+        Path real = path.resolve(this.base);
+        Map<PathKey, Node> scanned = null;
+        long size = -1;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(real, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attrs.isDirectory()) {
+                scanned = new HashMap<>();
+                this.scan(path, real, null, scanned);
+            } else if (attrs.isRegularFile()) {
+                size = attrs.size();
+            }
+        } catch (NoSuchFileException ignored) {
+        } catch (IOException | UncheckedIOException e) {
+            this.stale(path);
+            return;
+        }
+        this.lock.writeLock().lock();
+        try {
+            if (!this.ready) {
+                this.pending.add(path);
+                return;
+            }
+            this.replace(path, before, scanned, size);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.changed();
+    }
+
+    /**
+     * 将路径从source移动到target，目录的统计整体搬移而不重新扫描
+     *
+     * @param source       源相对路径
+     * @param target       目标相对路径
+     * @param sourceBefore 移动前源路径的占用
+     * @param targetBefore 移动前目标路径的占用
+     */
+    void moved(PathKey source, PathKey target, Measure sourceBefore, Measure targetBefore) {
+        this.lock.writeLock().lock();
+        try {
+            if (!this.ready) {
+                this.pending.add(source);
+                this.pending.add(target);
+                return;
+            }
+            this.replace(target, targetBefore, null, -1);
+            Node node = this.nodes.get(source);
+            if (node != null && node.parent != null) {
+                this.detach(node);
+                this.attach(this.rebase(node, source, target, this.ensure(target.parent())));
+            } else {
+                this.replace(source, sourceBefore, null, -1);
+                this.replace(target, Measure.NONE, null, sourceBefore.dir ? -1 : sourceBefore.size);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.changed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.executor.shutdownNow();
+        if (this.ready && this.dirty) {
+            this.save();
+        }
+    }
+
+    /**
+     * 路径是否位于设置了配额的目录中
+     */
+    private boolean limited(PathKey path) {
+        for (PathKey dir = path.parent(); dir != null; dir = dir.parent()) {
+            if (this.quotas.containsKey(dir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 写入配额目录时等待统计可用，不能在持有锁时调用
+     *
+     * @param path 写入的相对路径
+     * @throws FileSystemException 超时仍不可用时抛出
+     */
+    private void awaitReady(PathKey path) throws IOException {
+        if (this.ready || !this.limited(path)) {
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(READY_TIMEOUT);
+        synchronized (this.readyMonitor) {
+            while (!this.ready) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new FileSystemException(path.toPath().toString(), null, "Directory usage is not ready, quota cannot be checked");
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this.readyMonitor, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for directory usage");
+                }
+            }
+        }
+    }
+
+    /**
+     * 检查路径的各级上级目录的配额，统计必须可用，调用时必须持有锁
+     */
+    private void enforce(PathKey path, long delta, PathKey exempt) throws QuotaExceededException {
+        if (delta <= 0) {
+            return;
+        }
+        for (PathKey dir = path.parent(); dir != null; dir = dir.parent()) {
+            Long quota = this.quotas.get(dir);
+            if (quota == null || (exempt != null && exempt.startsWith(dir))) {
+                continue;
+            }
+            Node node = this.nodes.get(dir);
+            long usage = (node == null ? 0 : node.size) + this.reserved.getOrDefault(dir, 0L) + delta;
+            if (usage > quota) {
+                throw new QuotaExceededException(dir.toPath(), quota, usage);
+            }
+        }
+    }
+
+    /**
+     * 用新的内容替换路径的统计
+     *
+     * @param path    相对路径
+     * @param before  原来的占用
+     * @param scanned 新的目录子树，不是目录时为null
+     * @param size    新的文件大小，不是文件时为-1
+     */
+    private void replace(PathKey path, Measure before, Map<PathKey, Node> scanned, long size) {
+        Node old = this.nodes.get(path);
+        if (old != null) {
+            if (old.parent == null) {
+                this.nodes.clear();
+                this.nodes.putAll(scanned == null ? Map.of(PathKey.ROOT, new Node(PathKey.ROOT, null, -1)) : scanned);
+                return;
+            }
+            this.detach(old);
+        } else if (before.files > 0 && !before.dir) {
+            this.file(path, -before.size, -1);
+        }
+        if (scanned != null) {
+            Node root = scanned.get(path);
+            root.parent = this.ensure(path.parent());
+            this.nodes.putAll(scanned);
+            this.attach(root);
+        } else if (size >= 0) {
+            this.file(path, size, 1);
+        }
+    }
+
+    /**
+     * 记录文件的变化，计入上级目录直接包含的文件
+     */
+    private void file(PathKey path, long size, long files) {
+        Node parent = this.ensure(path.parent());
+        parent.ownSize += size;
+        parent.ownFiles += files;
+        add(parent, size, files);
+    }
+
+    /**
+     * 将子树从其上级目录中移除
+     */
+    private void detach(Node node) {
+        node.parent.children.remove(node.path.name());
+        add(node.parent, -node.size, -node.files);
+        this.remove(node);
+    }
+
+    private void remove(Node node) {
+        this.nodes.remove(node.path);
+        for (Node child : node.children.values()) {
+            this.remove(child);
+        }
+    }
+
+    /**
+     * 将已加入{@link #nodes}的子树挂到其上级目录下
+     */
+    private void attach(Node node) {
+        node.parent.children.put(node.path.name(), node);
+        add(node.parent, node.size, node.files);
+    }
+
+    /**
+     * 复制子树并改写路径
+     */
+    private Node rebase(Node node, PathKey from, PathKey to, Node parent) {
+        Node copy = new Node(node.path.rebase(from, to), parent, node.modified);
+        copy.ownSize = node.ownSize;
+        copy.ownFiles = node.ownFiles;
+        copy.size = node.size;
+        copy.files = node.files;
+        this.nodes.put(copy.path, copy);
+        for (Node child : node.children.values()) {
+            copy.children.put(child.path.name(), this.rebase(child, from, to, copy));
+        }
+        return copy;
+    }
+
+    /**
+     * 获取目录的统计，不存在时连同缺失的上级目录一起创建，新建的目录在下次校准时重新列举
+     */
+    private Node ensure(PathKey path) {
+        Node node = this.nodes.get(path);
+        if (node == null) {
+            Node parent = path.parent() == null ? null : this.ensure(path.parent());
+            node = new Node(path, parent, -1);
+            this.nodes.put(path, node);
+            if (parent != null) {
+                parent.children.put(path.name(), node);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * 将变化量累加到目录及其所有上级目录的合计
+     */
+    private static void add(Node node, long size, long files) {
+        for (; node != null; node = node.parent) {
+            node.size += size;
+            node.files += files;
+        }
+    }
+
+    /**
+     * 统计可用，并重新扫描不可用期间修改过的路径
+     */
+    private void ready() throws IOException {
+        while (true) {
+            List<Node> dirs = new ArrayList<>();
+            this.lock.writeLock().lock();
+            try {
+                // 重新列举期间仍然可能有新的修改，直到没有待处理的路径时才变为可用
+                if (this.pending.isEmpty()) {
+                    this.ready = true;
+                    break;
+                }
+                for (PathKey path : this.pending) {
+                    Node node = this.nodes.get(path);
+                    if (node != null && node.parent != null) {
+                        this.detach(node);
+                    }
+                    dirs.add(this.ensure(path.parent() == null ? path : path.parent()));
+                }
+                this.pending.clear();
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+            for (Node dir : dirs) {
+                this.relist(dir, dir.path.resolve(this.base), -1);
+            }
+        }
+        synchronized (this.readyMonitor) {
+            this.readyMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * 完整扫描磁盘
+     */
+    private void scan() throws IOException {
+        Map<PathKey, Node> scanned = new HashMap<>();
+        this.scan(PathKey.ROOT, this.base, null, scanned);
+        this.lock.writeLock().lock();
+        try {
+            this.nodes.clear();
+            this.nodes.putAll(scanned);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 扫描目录子树，子树的根挂在parent之下但不会加入parent的children，也不会累加到parent的合计
+     *
+     * @param path   目录的相对路径
+     * @param real   目录的绝对路径
+     * @param parent 上级目录
+     * @param into   扫描结果
+     */
+    private void scan(PathKey path, Path real, Node parent, Map<PathKey, Node> into) throws IOException {
+        Files.walkFileTree(real, new SimpleFileVisitor<>() {
+            private Node current;
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                Node node = this.current == null ? new Node(path, parent, attrs.lastModifiedTime().toMillis())
+                        : new Node(this.current.path.child(dir), this.current, attrs.lastModifiedTime().toMillis());
+                if (this.current != null) {
+                    this.current.children.put(node.path.name(), node);
+                }
+                into.put(node.path, node);
+                this.current = node;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (this.current != null && counted(file, attrs)) {
+                    this.current.ownSize += attrs.size();
+                    this.current.ownFiles++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                Node node = this.current;
+                node.size += node.ownSize;
+                node.files += node.ownFiles;
+                // 子目录先于上级目录结束遍历，合计逐级向上累加，但不超出扫描的根
+                if (node.parent != parent) {
+                    node.parent.size += node.size;
+                    node.parent.files += node.files;
+                }
+                this.current = node.parent;
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * 将统计与磁盘校准
+     *
+     * @param full 是否重新统计所有目录，否则只重新列举修改时间发生变化的目录
+     */
+    private void reconcile(boolean full) throws IOException {
+        List<Node> dirs;
+        this.lock.readLock().lock();
+        try {
+            dirs = new ArrayList<>(this.nodes.values());
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        // 先处理浅层目录，被删除的子树可以整体跳过
+        dirs.sort(Comparator.comparingInt(n -> n.path.depth()));
+        for (Node dir : dirs) {
+            long known;
+            this.lock.readLock().lock();
+            try {
+                if (this.nodes.get(dir.path) != dir) {
+                    continue;
+                }
+                known = dir.modified;
+            } finally {
+                this.lock.readLock().unlock();
+            }
+            Path real = dir.path.resolve(this.base);
+            long modified;
+            try {
+                modified = Files.getLastModifiedTime(real, LinkOption.NOFOLLOW_LINKS).toMillis();
+            } catch (NoSuchFileException e) {
+                modified = -1;
+            }
+            if (!full && modified == known && modified != -1) {
+                continue;
+            }
+            if (this.relist(dir, real, modified)) {
+                this.changed();
+            }
+        }
+    }
+
+    /**
+     * 重新统计目录直接包含的文件，新出现的子目录扫描后加入，消失的子目录移除
+     * 列举目录与扫描新的子目录都在锁外进行，最后持有写锁合并结果。
+     * 合并时只移除列举前已经存在的子目录，列举期间由写入新建的子目录保留
+     *
+     * @param dir      目录
+     * @param real     目录的绝对路径
+     * @param modified 列举前读取的修改时间
+     * @return 目录是否仍在统计中
+     */
+    private boolean relist(Node dir, Path real, long modified) throws IOException {
+        Set<String> known;
+        this.lock.readLock().lock();
+        try {
+            if (this.nodes.get(dir.path) != dir) {
+                return false;
+            }
+            known = new HashSet<>(dir.children.keySet());
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        boolean exists = Files.isDirectory(real, LinkOption.NOFOLLOW_LINKS);
+        long ownSize = 0;
+        long ownFiles = 0;
+        Set<String> listed = new HashSet<>();
+        Map<String, Map<PathKey, Node>> added = new HashMap<>();
+        if (exists) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(real)) {
+                for (Path child : stream) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        String name = child.getFileName().toString();
+                        listed.add(name);
+                        if (!known.contains(name)) {
+                            Map<PathKey, Node> scanned = new HashMap<>();
+                            this.scan(dir.path.child(name), child, dir, scanned);
+                            added.put(name, scanned);
+                        }
+                    } else if (counted(child, attrs)) {
+                        ownSize += attrs.size();
+                        ownFiles++;
+                    }
+                }
+            }
+        }
+        this.lock.writeLock().lock();
+        try {
+            if (this.nodes.get(dir.path) != dir) {
+                return false;
+            }
+            if (!exists) {
+                if (dir.parent != null) {
+                    this.detach(dir);
+                }
+                return true;
+            }
+            for (String name : known) {
+                Node child = dir.children.get(name);
+                if (child != null && !listed.contains(name)) {
+                    this.detach(child);
+                }
+            }
+            for (Map.Entry<String, Map<PathKey, Node>> entry : added.entrySet()) {
+                if (!dir.children.containsKey(entry.getKey())) {
+                    Map<PathKey, Node> scanned = entry.getValue();
+                    this.nodes.putAll(scanned);
+                    this.attach(scanned.get(dir.path.child(entry.getKey())));
+                }
+            }
+            add(dir, ownSize - dir.ownSize, ownFiles - dir.ownFiles);
+            dir.ownSize = ownSize;
+            dir.ownFiles = ownFiles;
+            dir.modified = modified;
+            return true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 加载快照，并由各目录直接包含的文件计算合计
+     *
+     * @return 是否加载成功
+     */
+    private boolean load() {
+        if (!Files.isRegularFile(this.file)) {
+            return false;
+        }
+        this.lock.writeLock().lock();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            this.nodes.clear();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Node node = this.ensure(PathKey.of(Path.of(in.readUTF())));
+                node.ownSize = in.readLong();
+                node.ownFiles = in.readLong();
+                node.modified = in.readLong();
+            }
+            for (Node node : this.nodes.values()) {
+                add(node, node.ownSize, node.ownFiles);
+            }
+            return true;
+        } catch (IOException | InvalidPathException e) {
+            this.nodes.clear();
+            return false;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 写入快照
+     */
+    private void save() throws IOException {
+        write(this.file, out -> {
+            this.dirty = false;
+            this.lock.readLock().lock();
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(this.nodes.size());
+                for (Node node : this.nodes.values()) {
+                    out.writeUTF(node.path.toString());
+                    out.writeLong(node.ownSize);
+                    out.writeLong(node.ownFiles);
+                    out.writeLong(node.modified);
+                }
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * 加载配额文件，文件不存在时没有配额
+     */
+    private void loadQuotas() throws IOException {
+        if (!Files.isRegularFile(this.quotaFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.quotaFile)))) {
+            if (in.readInt() != QUOTA_MAGIC || in.readInt() != VERSION) {
+                throw new StreamCorruptedException("Invalid quota file: " + this.quotaFile);
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                PathKey dir = PathKey.of(Path.of(in.readUTF()));
+                this.quotas.put(dir, in.readLong());
+            }
+        }
+    }
+
+    /**
+     * 写入配额文件，调用时必须持有本对象的锁
+     */
+    private void saveQuotas() throws IOException {
+        write(this.quotaFile, out -> {
+            Map<PathKey, Long> quotas = new HashMap<>(this.quotas);
+            out.writeInt(QUOTA_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(quotas.size());
+            for (Map.Entry<PathKey, Long> entry : quotas.entrySet()) {
+                out.writeUTF(entry.getKey().toString());
+                out.writeLong(entry.getValue());
+            }
+        });
+    }
+
+    /**
+     * 先写入临时文件再原子替换
+     *
+     * @param target 目标文件
+     * @param writer 写入内容
+     */
+    private static void write(Path target, SnapshotWriter writer) throws IOException {
+        Path parent = target.toAbsolutePath().getParent();
+        PathUtils.mkdirs(parent);
+        Path temp = Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                writer.write(out);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @FunctionalInterface
+    private interface SnapshotWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private void flush() {
+        try {
+            this.save();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 标记统计已修改，并延迟写入快照
+     */
+    private void changed() {
+        this.dirty = true;
+        if (this.flushScheduled.compareAndSet(false, true)) {
+            try {
+                this.executor.schedule(() -> {
+                    this.flushScheduled.set(false);
+                    if (this.ready && this.dirty) {
+                        this.flush();
+                    }
+                }, FLUSH_DELAY, TimeUnit.SECONDS);
+            } catch (RuntimeException e) {
+                this.flushScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * 无法读取修改后的路径时，在后台重新统计其上级目录
+     */
+    private void stale(PathKey path) {
+        this.lock.writeLock().lock();
+        try {
+            this.pending.add(path);
+            if (!this.ready) {
+                return;
+            }
+            this.ready = false;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.executor.execute(() -> {
+            try {
+                this.ready();
+            } catch (IOException | UncheckedIOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * 是否计入统计：只统计普通文件，并排除保存与分块上传使用的临时文件
+     */
+    private static boolean counted(Path file, BasicFileAttributes attrs) {
+        if (!attrs.isRegularFile()) {
+            return false;
+        }
+        String name = file.getFileName().toString();
+        return name.charAt(0) != '.' || !TEMP.matcher(name).matches();
+    }
+
+    /**
+     * 配额预留，关闭时释放
+     */
+    @FunctionalInterface
+    interface Reservation extends AutoCloseable {
+        Reservation NONE = () -> {
+        };
+
+        @Override
+        void close();
+    }
+
+    /**
+     * 路径在某一时刻的占用
+     */
+    static final class Measure {
+        /**
+         * 路径不存在
+         */
+        static final Measure NONE = new Measure(false, 0, 0);
+
+        final boolean dir;
+        final long size;
+        final long files;
+
+        Measure(boolean dir, long size, long files) {
+            this.dir = dir;
+            this.size = size;
+            this.files = files;
+        }
+    }
+
+    private static class Node {
+        final PathKey path;
+        final Map<String, Node> children = new HashMap<>();
+        Node parent;
+        /**
+         * 直接包含的文件
+         */
+        long ownSize;
+        long ownFiles;
+        /**
+         * 包括子目录在内的合计
+         */
+        long size;
+        long files;
+        /**
+         * 目录的修改时间，用于启动时校准，-1表示需要重新列举
+         */
+        long modified;
+
+        Node(PathKey path, Node parent, long modified) {
+            this.path = path;
+            this.parent = parent;
+            this.modified = modified;
+        }
+    }
+}
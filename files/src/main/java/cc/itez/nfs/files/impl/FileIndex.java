@@ -0,0 +1,539 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.files.AbstractFileSystem.FileType;
+import cc.itez.nfs.utils.FileUtils;
+import cc.itez.nfs.utils.PathKey;
+import cc.itez.nfs.utils.PathUtils;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * 文件名索引
+ * 在内存中维护(路径,文件名,类型,父目录)，并以快照的形式持久化到磁盘。
+ * 启动时加载快照后通过比较目录的修改时间进行校准：只有修改时间发生变化的目录才会被重新列举，
+ * 因此校准的开销与目录数量而不是文件数量相关。
+ * 索引在加载、校准或重建期间处于不可用状态，此时{@link #find}返回null，调用者应当回退到遍历磁盘。
+ * <p>
+ * 索引中的路径均为{@link PathKey}，同一目录下的条目共享父路径，只在返回搜索结果时才转换为以{@link PathUtils#ROOT}开头的{@link Path}
+ */
+class FileIndex implements Closeable {
+    private static final int MAGIC = 0x4E465349;
+    private static final int VERSION = 2;
+    /**
+     * 修改后延迟写入快照的时间(秒)
+     */
+    private static final long FLUSH_DELAY = 5;
+
+    private final Path base;
+    private final Path file;
+    private final Map<PathKey, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Set<PathKey>> names = new ConcurrentHashMap<>();
+    private final Map<PathKey, Set<PathKey>> children = new ConcurrentHashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService executor;
+    private volatile boolean ready;
+    private volatile boolean dirty;
+
+    /**
+     * @param base 被索引的目录(绝对路径)
+     * @param file 快照文件
+     */
+    FileIndex(Path base, Path file) {
+        this.base = base;
+        this.file = file;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "nfs-file-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 在后台加载快照并与磁盘校准，快照不存在或损坏时完整重建
+     */
+    void open() {
+        this.executor.execute(() -> {
+            try {
+                if (this.load()) {
+                    this.reconcile();
+                } else {
+                    this.scan();
+                }
+                this.ready = true;
+                this.flush();
+            } catch (IOException | UncheckedIOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * 丢弃索引并重新扫描磁盘，重建期间索引不可用
+     */
+    void rebuild() throws IOException {
+        this.ready = false;
+        this.scan();
+        this.ready = true;
+        this.flush();
+    }
+
+    /**
+     * 索引是否可用
+     *
+     * @return 是否可用
+     */
+    boolean isReady() {
+        return this.ready;
+    }
+
+    /**
+     * 在索引中搜索文件
+     *
+     * @param base  搜索目录
+     * @param name  文件名
+     * @param type  文件类型
+     * @param level 搜索深度(-1为无限,0为目标本身)
+     * @return 匹配的文件列表，索引不可用时返回null
+     */
+    List<Path> find(PathKey base, String name, FileType type, int level) {
+        if (!this.ready) {
+            return null;
+        }
+        int maxDepth = level < 0 ? Integer.MAX_VALUE : level;
+        int baseDepth = base.depth();
+        Predicate<Entry> filter = e -> e.matches(type)
+                && e.path.startsWith(base) && e.path.depth() - baseDepth <= maxDepth;
+        List<Path> result = new LinkedList<>();
+        this.lock.readLock().lock();
+        try {
+            if (name.isEmpty() || name.contains("*")) {
+                Predicate<String> nameFilter = FileUtils.nameFilter(name);
+                for (Entry entry : this.entries.values()) {
+                    if (nameFilter.test(entry.name) && filter.test(entry)) {
+                        result.add(entry.path.toPath());
+                    }
+                }
+            } else {
+                for (PathKey path : this.names.getOrDefault(name, Collections.emptySet())) {
+                    Entry entry = this.entries.get(path);
+                    if (entry != null && filter.test(entry)) {
+                        result.add(entry.path.toPath());
+                    }
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * 重新扫描路径及其子树，并确保其所有上级目录都已索引
+     * 用于新建、覆盖、复制与删除之后，路径不存在时只从索引中移除
+     *
+     * @param path 相对路径
+     */
+    void refresh(PathKey path) {
+        this.lock.writeLock().lock();
+        try {
+            this.remove(path);
+            Path real = this.real(path);
+            if (Files.exists(real, LinkOption.NOFOLLOW_LINKS)) {
+                this.scan(path, real);
+            }
+            this.touchParents(path);
+        } catch (IOException | UncheckedIOException e) {
+            this.stale();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.changed();
+    }
+
+    /**
+     * 将路径及其子树从source移动到target，只改写索引而不重新扫描子树
+     *
+     * @param source 源相对路径
+     * @param target 目标相对路径
+     */
+    void moved(PathKey source, PathKey target) {
+        this.lock.writeLock().lock();
+        try {
+            List<Entry> subtree = new ArrayList<>();
+            this.collect(source, subtree);
+            this.remove(target);
+            this.remove(source);
+            for (Entry entry : subtree) {
+                this.put(new Entry(entry.path.rebase(source, target), entry.dir, entry.regular, entry.modified));
+            }
+            this.touchParents(source);
+            this.touchParents(target);
+            Entry moved = this.entries.get(target);
+            if (moved != null && moved.dir) {
+                moved.modified = this.modified(this.real(target));
+            }
+        } catch (IOException | UncheckedIOException e) {
+            this.stale();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.changed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.executor.shutdownNow();
+        try {
+            // 等待正在进行的写入结束，避免关闭之后仍然写入快照
+            this.executor.awaitTermination(FLUSH_DELAY, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (this.ready && this.dirty) {
+            this.save();
+        }
+    }
+
+    /**
+     * 完整扫描磁盘
+     */
+    private void scan() throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            this.entries.clear();
+            this.names.clear();
+            this.children.clear();
+            this.scan(PathKey.ROOT, this.base);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 扫描子树并加入索引
+     * 遍历时记录当前目录的路径，子项的路径由其拼接得到，而不是逐个转换绝对路径
+     *
+     * @param path 相对路径
+     * @param real 绝对路径
+     */
+    private void scan(PathKey path, Path real) throws IOException {
+        Files.walkFileTree(real, new SimpleFileVisitor<>() {
+            private PathKey current;
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                this.current = this.current == null ? path : this.current.child(dir);
+                put(new Entry(this.current, true, false, attrs.lastModifiedTime().toMillis()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                put(new Entry(this.current == null ? path : this.current.child(file), attrs.isDirectory(), attrs.isRegularFile(), 0));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                this.current = this.current.parent();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * 将快照中的目录与磁盘校准
+     */
+    private void reconcile() throws IOException {
+        List<Entry> dirs = new ArrayList<>();
+        for (Entry entry : this.entries.values()) {
+            if (entry.dir) {
+                dirs.add(entry);
+            }
+        }
+        // 先处理浅层目录，被删除的子树可以整体跳过
+        dirs.sort(Comparator.comparingInt(e -> e.path.depth()));
+        for (Entry dir : dirs) {
+            this.lock.writeLock().lock();
+            try {
+                if (this.entries.get(dir.path) != dir) {
+                    continue;
+                }
+                Path real = this.real(dir.path);
+                if (!Files.isDirectory(real, LinkOption.NOFOLLOW_LINKS)) {
+                    this.remove(dir.path);
+                    if (Files.exists(real, LinkOption.NOFOLLOW_LINKS)) {
+                        this.put(new Entry(dir.path, false, Files.isRegularFile(real, LinkOption.NOFOLLOW_LINKS), 0));
+                    }
+                    continue;
+                }
+                long modified = this.modified(real);
+                if (modified == dir.modified) {
+                    continue;
+                }
+                dir.modified = modified;
+                Set<PathKey> known = new HashSet<>(this.children.getOrDefault(dir.path, Collections.emptySet()));
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(real)) {
+                    for (Path child : stream) {
+                        PathKey path = dir.path.child(child);
+                        Entry entry = this.entries.get(path);
+                        boolean isDir = Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS);
+                        boolean isRegular = Files.isRegularFile(child, LinkOption.NOFOLLOW_LINKS);
+                        known.remove(path);
+                        if (entry == null || entry.dir != isDir || entry.regular != isRegular) {
+                            this.remove(path);
+                            this.scan(path, child);
+                        }
+                    }
+                }
+                for (PathKey vanished : known) {
+                    this.remove(vanished);
+                }
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * 加载快照
+     *
+     * @return 是否加载成功
+     */
+    private boolean load() {
+        if (!Files.isRegularFile(this.file)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                PathKey path = PathKey.of(Path.of(in.readUTF()));
+                boolean dir = in.readBoolean();
+                boolean regular = in.readBoolean();
+                long modified = in.readLong();
+                this.put(new Entry(path, dir, regular, modified));
+            }
+            return true;
+        } catch (IOException | InvalidPathException e) {
+            this.entries.clear();
+            this.names.clear();
+            this.children.clear();
+            return false;
+        }
+    }
+
+    /**
+     * 写入快照，先写入临时文件再原子替换
+     */
+    private void save() throws IOException {
+        Path parent = this.file.toAbsolutePath().getParent();
+        PathUtils.mkdirs(parent);
+        Path temp = Files.createTempFile(parent, this.file.getFileName().toString(), ".tmp");
+        try {
+            this.dirty = false;
+            this.lock.readLock().lock();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(this.entries.size());
+                for (Entry entry : this.entries.values()) {
+                    out.writeUTF(entry.path.toString());
+                    out.writeBoolean(entry.dir);
+                    out.writeBoolean(entry.regular);
+                    out.writeLong(entry.modified);
+                }
+            } finally {
+                this.lock.readLock().unlock();
+            }
+            Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void flush() {
+        try {
+            this.save();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 标记索引已修改，并延迟写入快照
+     */
+    private void changed() {
+        this.dirty = true;
+        if (this.flushScheduled.compareAndSet(false, true)) {
+            try {
+                this.executor.schedule(() -> {
+                    this.flushScheduled.set(false);
+                    if (this.ready && this.dirty) {
+                        this.flush();
+                    }
+                }, FLUSH_DELAY, TimeUnit.SECONDS);
+            } catch (RuntimeException e) {
+                this.flushScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * 索引与磁盘不一致时标记为不可用，并在后台重新校准
+     */
+    private void stale() {
+        if (!this.ready) {
+            return;
+        }
+        this.ready = false;
+        this.executor.execute(() -> {
+            try {
+                this.reconcile();
+                this.ready = true;
+            } catch (IOException | UncheckedIOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private void put(Entry entry) {
+        Entry old = this.entries.put(entry.path, entry);
+        if (old == null) {
+            this.names.computeIfAbsent(entry.name, k -> ConcurrentHashMap.newKeySet()).add(entry.path);
+            PathKey parent = entry.path.parent();
+            if (parent != null) {
+                this.children.computeIfAbsent(parent, k -> ConcurrentHashMap.newKeySet()).add(entry.path);
+            }
+        }
+    }
+
+    /**
+     * 移除路径及其子树
+     *
+     * @param path 相对路径
+     */
+    private void remove(PathKey path) {
+        Entry entry = this.entries.remove(path);
+        if (entry == null) {
+            return;
+        }
+        Set<PathKey> sameName = this.names.get(entry.name);
+        if (sameName != null) {
+            sameName.remove(path);
+            if (sameName.isEmpty()) {
+                this.names.remove(entry.name);
+            }
+        }
+        PathKey parent = path.parent();
+        if (parent != null) {
+            Set<PathKey> siblings = this.children.get(parent);
+            if (siblings != null) {
+                siblings.remove(path);
+            }
+        }
+        Set<PathKey> sub = this.children.remove(path);
+        if (sub != null) {
+            for (PathKey child : sub) {
+                this.remove(child);
+            }
+        }
+    }
+
+    private void collect(PathKey path, List<Entry> result) {
+        Entry entry = this.entries.get(path);
+        if (entry == null) {
+            return;
+        }
+        result.add(entry);
+        for (PathKey child : this.children.getOrDefault(path, Collections.emptySet())) {
+            this.collect(child, result);
+        }
+    }
+
+    /**
+     * 确保所有上级目录都已索引，并更新直接上级目录的修改时间
+     *
+     * @param path 相对路径
+     */
+    private void touchParents(PathKey path) throws IOException {
+        for (PathKey parent = path.parent(); parent != null; parent = parent.parent()) {
+            Path real = this.real(parent);
+            if (!Files.isDirectory(real)) {
+                continue;
+            }
+            Entry entry = this.entries.get(parent);
+            if (entry == null) {
+                this.put(new Entry(parent, true, false, this.modified(real)));
+            } else {
+                if (entry.dir && parent.equals(path.parent())) {
+                    entry.modified = this.modified(real);
+                }
+                break;
+            }
+        }
+    }
+
+    private long modified(Path real) throws IOException {
+        return Files.getLastModifiedTime(real, LinkOption.NOFOLLOW_LINKS).toMillis();
+    }
+
+    private Path real(PathKey path) {
+        return path.resolve(this.base);
+    }
+
+    private static class Entry {
+        final PathKey path;
+        final String name;
+        final boolean dir;
+        /**
+         * 是否为普通文件，符号链接等特殊文件既不是目录也不是普通文件
+         */
+        final boolean regular;
+        /**
+         * 目录的修改时间，用于启动时校准，文件为0
+         */
+        volatile long modified;
+
+        Entry(PathKey path, boolean dir, boolean regular, long modified) {
+            this.path = path;
+            this.name = path.name();
+            this.dir = dir;
+            this.regular = regular;
+            this.modified = modified;
+        }
+
+        /**
+         * 与遍历磁盘时的判断一致：{@link FileType#FILE}只匹配普通文件
+         *
+         * @param type 文件类型
+         * @return 是否匹配
+         */
+        boolean matches(FileType type) {
+            return switch (type) {
+                case DIR -> this.dir;
+                case FILE -> this.regular;
+                default -> true;
+            };
+        }
+    }
+}
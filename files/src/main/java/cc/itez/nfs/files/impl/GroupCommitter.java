@@ -0,0 +1,154 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.utils.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 组提交
+ * 第一个到达的写入者成为本批次的领导者，等待一个时间窗口收集并发到达的写入者后关闭批次；
+ * 随后所有成员同时刷新各自的临时文件并原子重命名到目标路径(并发发出的fsync可以被文件系统日志合并为一次提交)，
+ * 最后由领导者对本批次涉及的每个目录只刷新一次，之后所有成员一起返回。
+ */
+class GroupCommitter {
+    private final long windowNanos;
+    private Batch current;
+
+    /**
+     * @param windowNanos 收集并发写入的时间窗口(纳秒)
+     */
+    GroupCommitter(long windowNanos) {
+        this.windowNanos = windowNanos;
+    }
+
+    /**
+     * 刷新临时文件并原子重命名到目标路径，返回时文件与目录项均已持久化
+     *
+     * @param temp   临时文件
+     * @param target 目标路径
+     */
+    void commit(Path temp, Path target) throws IOException {
+        Batch batch;
+        boolean leader = false;
+        synchronized (this) {
+            batch = this.current;
+            if (batch == null) {
+                batch = this.current = new Batch();
+                leader = true;
+            }
+            batch.members++;
+        }
+        if (leader) {
+            long deadline = System.nanoTime() + this.windowNanos;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+            synchronized (this) {
+                this.current = null;
+            }
+            batch.open();
+        } else {
+            batch.awaitOpen();
+        }
+        // 无论成功与否都必须到达，否则领导者与其他成员会一直等待
+        boolean moved = false;
+        try {
+            FileUtils.force(temp);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            moved = true;
+        } finally {
+            batch.arrive(moved ? target.getParent() : null);
+            if (leader) {
+                batch.finish();
+            } else {
+                batch.awaitFinish();
+            }
+        }
+        if (batch.error != null) {
+            throw batch.error;
+        }
+    }
+
+    private static class Batch {
+        /**
+         * 成员数量，批次关闭后不再变化
+         */
+        int members;
+        private int arrived;
+        private boolean opened;
+        private boolean finished;
+        private final Set<Path> dirs = new LinkedHashSet<>();
+        volatile IOException error;
+
+        synchronized void open() {
+            this.opened = true;
+            this.notifyAll();
+        }
+
+        synchronized void awaitOpen() {
+            this.await(() -> this.opened);
+        }
+
+        synchronized void arrive(Path dir) {
+            if (dir != null) {
+                this.dirs.add(dir);
+            }
+            this.arrived++;
+            this.notifyAll();
+        }
+
+        /**
+         * 等待所有成员完成重命名，然后刷新涉及的目录并唤醒所有成员
+         */
+        void finish() {
+            Set<Path> dirs;
+            synchronized (this) {
+                this.await(() -> this.arrived >= this.members);
+                dirs = this.dirs;
+            }
+            try {
+                for (Path dir : dirs) {
+                    FileUtils.forceDirectory(dir);
+                }
+            } catch (IOException e) {
+                this.error = e;
+            } finally {
+                synchronized (this) {
+                    this.finished = true;
+                    this.notifyAll();
+                }
+            }
+        }
+
+        synchronized void awaitFinish() {
+            this.await(() -> this.finished);
+        }
+
+        /**
+         * 不响应中断的等待(批次中的其他成员依赖每个成员都到达)，返回前恢复中断状态
+         *
+         * @param condition 等待的条件
+         */
+        private synchronized void await(BooleanSupplier condition) {
+            boolean interrupted = false;
+            while (!condition.getAsBoolean()) {
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
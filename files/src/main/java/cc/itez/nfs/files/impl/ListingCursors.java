@@ -0,0 +1,191 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.mould.Page;
+import cc.itez.nfs.utils.PathKey;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 分页列出目录时缓存的游标
+ * 每页结束时，未读完的目录句柄以(目录, 是否包含隐藏文件, 下一页的偏移量)登记；请求下一页时直接从句柄继续读取，
+ * 因此顺序翻页的总开销与目录大小成正比，而不是每页都从头跳过偏移量之前的条目。
+ * 没有对应游标(跳页、过期或被淘汰)时重新打开目录并跳过偏移量之前的条目。
+ * 与{@link DirectoryStream}一样，翻页期间目录的修改可能反映也可能不反映在之后的页中。
+ */
+final class ListingCursors implements Closeable {
+    /**
+     * 缓存的游标数量上限，超出时关闭最久未使用的游标
+     */
+    private static final int MAX_CURSORS = 64;
+    /**
+     * 游标的空闲时间上限(毫秒)
+     */
+    private static final long IDLE_TIMEOUT = 60_000;
+
+    private final Map<Slot, Cursor> cursors = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Slot, Cursor> eldest) {
+            if (this.size() <= MAX_CURSORS) {
+                return false;
+            }
+            eldest.getValue().close();
+            return true;
+        }
+    };
+
+    /**
+     * 读取目录的一页
+     *
+     * @param key    目录
+     * @param real   目录的绝对路径
+     * @param all    是否包含隐藏文件
+     * @param offset 偏移量
+     * @param limit  每页数量
+     * @return 当前页
+     */
+    Page<Path> page(PathKey key, Path real, boolean all, long offset, int limit) throws IOException {
+        offset = Math.max(0, offset);
+        limit = Math.max(0, limit);
+        Cursor cursor = this.take(new Slot(key, all, offset));
+        try {
+            if (cursor == null) {
+                cursor = new Cursor(key, all ? Files.newDirectoryStream(real) : Files.newDirectoryStream(real, p -> !Files.isHidden(p)));
+                for (long i = 0; i < offset && cursor.hasNext(); i++) {
+                    cursor.next();
+                }
+            }
+            List<Path> items = new ArrayList<>(Math.min(limit, 1024));
+            while (items.size() < limit && cursor.hasNext()) {
+                items.add(cursor.next());
+            }
+            boolean more = cursor.hasNext();
+            if (more) {
+                this.put(new Slot(key, all, offset + items.size()), cursor);
+            } else {
+                cursor.close();
+            }
+            return new Page<Path>().setItems(items).setOffset(offset).setLimit(limit).setMore(more);
+        } catch (DirectoryIteratorException e) {
+            cursor.close();
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            if (cursor != null) {
+                cursor.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 关闭所有游标
+     */
+    @Override
+    public void close() {
+        synchronized (this.cursors) {
+            this.cursors.values().forEach(Cursor::close);
+            this.cursors.clear();
+        }
+    }
+
+    /**
+     * 取出游标，取出后只由当前线程使用；顺便关闭空闲过久的游标
+     */
+    private Cursor take(Slot slot) {
+        long now = System.currentTimeMillis();
+        synchronized (this.cursors) {
+            Cursor cursor = this.cursors.remove(slot);
+            for (Iterator<Cursor> it = this.cursors.values().iterator(); it.hasNext(); ) {
+                Cursor idle = it.next();
+                if (now - idle.used > IDLE_TIMEOUT) {
+                    idle.close();
+                    it.remove();
+                }
+            }
+            return cursor;
+        }
+    }
+
+    private void put(Slot slot, Cursor cursor) {
+        cursor.used = System.currentTimeMillis();
+        synchronized (this.cursors) {
+            Cursor previous = this.cursors.put(slot, cursor);
+            if (previous != null) {
+                previous.close();
+            }
+        }
+    }
+
+    /**
+     * 游标的登记位置
+     */
+    private static final class Slot {
+        final PathKey key;
+        final boolean all;
+        final long offset;
+
+        Slot(PathKey key, boolean all, long offset) {
+            this.key = key;
+            this.all = all;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Slot)) {
+                return false;
+            }
+            Slot slot = (Slot) o;
+            return this.all == slot.all && this.offset == slot.offset && this.key.equals(slot.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.key, this.all, this.offset);
+        }
+    }
+
+    /**
+     * 打开的目录句柄及其迭代位置
+     */
+    private static final class Cursor {
+        final PathKey key;
+        final DirectoryStream<Path> directory;
+        final Iterator<Path> iterator;
+        /**
+         * 最后一次使用的时间
+         */
+        long used;
+
+        Cursor(PathKey key, DirectoryStream<Path> directory) {
+            this.key = key;
+            this.directory = directory;
+            this.iterator = directory.iterator();
+        }
+
+        boolean hasNext() {
+            return this.iterator.hasNext();
+        }
+
+        Path next() {
+            return this.key.child(this.iterator.next()).toPath();
+        }
+
+        void close() {
+            try {
+                this.directory.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -1,27 +1,78 @@
 package cc.itez.nfs.files.impl;
 
 import cc.itez.nfs.files.AbstractFileSystem;
+import cc.itez.nfs.files.ChunkedUpload;
+import cc.itez.nfs.files.CopyStrategy;
+import cc.itez.nfs.files.Durability;
+import cc.itez.nfs.files.UploadRegistry;
+import cc.itez.nfs.files.UploadSession;
+import cc.itez.nfs.mould.BatchOperation;
+import cc.itez.nfs.mould.BulkOutcome;
+import cc.itez.nfs.mould.Listing;
 import cc.itez.nfs.mould.Outcome;
+import cc.itez.nfs.mould.Page;
+import cc.itez.nfs.mould.QuotaExceededException;
+import cc.itez.nfs.mould.Usage;
 import cc.itez.nfs.utils.FileUtils;
 import cc.itez.nfs.utils.IOUtils;
-import cc.itez.nfs.utils.PathUtils;
-import cc.itez.nfs.utils.StringUtils;
+import cc.itez.nfs.utils.PathKey;
 import lombok.NonNull;
 
 import java.io.*;
-import java.nio.file.FileAlreadyExistsException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.function.Function;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * 基于本地文件系统实现文件操作
  */
-public class LocalFileSystem implements AbstractFileSystem {
+public class LocalFileSystem implements AbstractFileSystem, Closeable {
     private final Path BASE;
+    /**
+     * 并行搜索使用的线程数，小于等于1时单线程遍历
+     */
+    private int parallelism = 1;
+    /**
+     * 并行搜索时拆分任务的最大目录深度
+     */
+    private int forkDepth = 4;
+    private volatile ForkJoinPool pool;
+    /**
+     * 文件名索引，未启用时为null
+     */
+    private volatile FileIndex index;
+    /**
+     * 目录占用统计，未启用时为null
+     */
+    private volatile DirectoryUsage usage;
+    /**
+     * 写入的持久化级别
+     */
+    private Durability durability = Durability.NONE;
+    /**
+     * 组提交收集并发写入的时间窗口
+     */
+    private Duration groupCommitWindow = Duration.ofMillis(2);
+    private volatile GroupCommitter committer;
+    /**
+     * 未结束的分块上传会话
+     */
+    private final UploadRegistry uploads = new UploadRegistry();
+    /**
+     * 分页列出目录时缓存的游标
+     */
+    private final ListingCursors cursors = new ListingCursors();
 
     public LocalFileSystem(Path base) {
         this.BASE = base;
@@ -35,24 +86,262 @@ public class LocalFileSystem implements AbstractFileSystem {
         this.BASE = Path.of(base);
     }
 
+    /**
+     * 获取根目录
+     *
+     * @return 根目录
+     */
+    public Path getBase() {
+        return this.BASE;
+    }
+
+    /**
+     * 获取分块上传会话的注册表，可以用于设置会话的空闲超时
+     *
+     * @return 注册表
+     */
+    public UploadRegistry getUploads() {
+        return this.uploads;
+    }
+
+    /**
+     * 设置并行搜索使用的线程数
+     *
+     * @param parallelism 线程数，小于等于1时单线程遍历
+     * @return this
+     */
+    public LocalFileSystem setParallelism(int parallelism) {
+        synchronized (this) {
+            this.parallelism = parallelism;
+            if (this.pool != null) {
+                this.pool.shutdown();
+                this.pool = null;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 设置并行搜索时拆分任务的最大目录深度
+     * 深度不超过该值的子目录会作为独立任务并行遍历，更深的目录在所属任务内顺序遍历
+     *
+     * @param forkDepth 目录深度
+     * @return this
+     */
+    public LocalFileSystem setForkDepth(int forkDepth) {
+        this.forkDepth = Math.max(1, forkDepth);
+        return this;
+    }
+
+    /**
+     * 设置写入的持久化级别
+     *
+     * @param durability 持久化级别
+     * @return this
+     */
+    public LocalFileSystem setDurability(@NonNull Durability durability) {
+        this.durability = durability;
+        return this;
+    }
+
+    /**
+     * 设置组提交收集并发写入的时间窗口，窗口越长每次刷新能合并的写入越多，单次写入的延迟也越高
+     *
+     * @param window 时间窗口
+     * @return this
+     */
+    public synchronized LocalFileSystem setGroupCommitWindow(@NonNull Duration window) {
+        this.groupCommitWindow = window;
+        this.committer = null;
+        return this;
+    }
+
+    private GroupCommitter committer() {
+        GroupCommitter committer = this.committer;
+        if (committer == null) {
+            synchronized (this) {
+                if ((committer = this.committer) == null) {
+                    this.committer = committer = new GroupCommitter(this.groupCommitWindow.toNanos());
+                }
+            }
+        }
+        return committer;
+    }
+
+    /**
+     * 启用持久化的文件名索引
+     * 索引在后台加载快照并与磁盘校准，完成之前{@code find}仍然遍历磁盘。
+     * 之后通过本实例进行的修改会同步到索引中，精确文件名与通配符搜索都只查询索引。
+     * 注意！索引文件不应放在共享目录中，否则会出现在列举与搜索结果里
+     *
+     * @param file 索引快照文件
+     * @return this
+     */
+    public synchronized LocalFileSystem enableIndex(Path file) {
+        if (this.index == null) {
+            FileIndex index = new FileIndex(this.BASE, file);
+            index.open();
+            this.index = index;
+        }
+        return this;
+    }
+
+    /**
+     * 丢弃并重建文件名索引，重建期间搜索回退到遍历磁盘
+     *
+     * @return 处理结果
+     */
+    public @NonNull Outcome rebuildIndex() {
+        FileIndex index = this.index;
+        if (index == null) {
+            return Outcome.failure("File index not enabled!");
+        }
+        try {
+            index.rebuild();
+            return Outcome.success(this.BASE);
+        } catch (IOException e) {
+            return Outcome.error(e);
+        }
+    }
+
+    /**
+     * 启用持久化的目录占用统计，每小时在后台重新统计一次
+     *
+     * @param file 统计快照文件
+     * @return this
+     * @see #enableUsage(Path, Duration)
+     */
+    public LocalFileSystem enableUsage(Path file) {
+        return this.enableUsage(file, Duration.ofHours(1));
+    }
+
+    /**
+     * 启用持久化的目录占用统计
+     * 统计在后台加载快照并与磁盘校准，之后通过本实例进行的修改会增量地计入各级目录，
+     * {@link #usage(Path)}与配额检查都只读取统计而不遍历目录。
+     * 绕过本实例的修改在定期的重新统计中修正。
+     * 注意！快照文件不应放在共享目录中，否则会计入统计
+     *
+     * @param file     统计快照文件
+     * @param interval 重新统计的间隔
+     * @return this
+     */
+    public synchronized LocalFileSystem enableUsage(Path file, @NonNull Duration interval) {
+        if (this.usage == null) {
+            DirectoryUsage usage = new DirectoryUsage(this.BASE, file);
+            usage.open(interval.toMillis());
+            this.usage = usage;
+        }
+        return this;
+    }
+
+    /**
+     * 丢弃并重建目录占用统计，重建期间写入设置了配额的目录会等待重建完成
+     *
+     * @return 处理结果
+     */
+    public @NonNull Outcome rebuildUsage() {
+        DirectoryUsage usage = this.usage;
+        if (usage == null) {
+            return Outcome.failure("Directory usage not enabled!");
+        }
+        try {
+            usage.rebuild();
+            return Outcome.success(this.BASE);
+        } catch (IOException e) {
+            return Outcome.error(e);
+        }
+    }
+
+    /**
+     * 设置目录的配额
+     * 保存、复制与移动在开始写入之前检查目标的各级上级目录，写入后合计超出配额时抛出{@link QuotaExceededException}。
+     * 大小未知的数据流在写入完毕、发布之前再检查一次，发布前的检查与统计的更新是原子的。
+     * 配额保存在统计快照旁的{@code .quotas}文件中，重新启用统计后仍然有效
+     *
+     * @param dir   目录路径
+     * @param bytes 配额(字节)，小于等于0时取消配额
+     * @return 处理结果
+     */
+    public @NonNull Outcome setQuota(@NonNull Path dir, long bytes) {
+        DirectoryUsage usage = this.usage;
+        if (usage == null) {
+            return Outcome.failure("Directory usage not enabled!");
+        }
+        try {
+            usage.setQuota(PathKey.of(dir), bytes);
+        } catch (IOException e) {
+            return Outcome.error(e);
+        }
+        return Outcome.success(this.realPath(dir));
+    }
+
+    /**
+     * 保存索引与统计快照并释放线程池
+     */
+    @Override
+    public void close() throws IOException {
+        this.cursors.close();
+        ForkJoinPool pool = this.pool;
+        if (pool != null) {
+            pool.shutdown();
+        }
+        FileIndex index = this.index;
+        if (index != null) {
+            index.close();
+        }
+        DirectoryUsage usage = this.usage;
+        if (usage != null) {
+            usage.close();
+        }
+    }
+
+    /**
+     * 获取并行任务使用的线程池，首次调用时创建
+     *
+     * @return 线程池
+     */
+    ForkJoinPool pool() {
+        ForkJoinPool pool = this.pool;
+        if (pool == null) {
+            synchronized (this) {
+                if ((pool = this.pool) == null) {
+                    this.pool = pool = new ForkJoinPool(Math.max(1, this.parallelism));
+                }
+            }
+        }
+        return pool;
+    }
+
     /**
      * 转换为绝对路径
+     * 经过{@link PathKey}规范化，".."不会超出根目录
      *
      * @param path 路径
      * @return 绝对路径
      */
     private Path realPath(Path path) {
-        return PathUtils.join(this.BASE, path);
+        return PathKey.of(path).resolve(this.BASE);
     }
 
     /**
      * 转换为相对路径
      *
-     * @param path 路径
+     * @param path 绝对路径
      * @return 相对路径
      */
     private Path relativePath(Path path) {
-        return PathUtils.join(PathUtils.ROOT, BASE.relativize(path.normalize()));
+        return this.relativeKey(path).toPath();
+    }
+
+    /**
+     * 转换为索引使用的路径键
+     *
+     * @param path 绝对路径
+     * @return 路径键
+     */
+    private PathKey relativeKey(Path path) {
+        return PathKey.of(this.BASE.relativize(path));
     }
 
     /**
@@ -65,21 +354,128 @@ public class LocalFileSystem implements AbstractFileSystem {
      * @throws IOException                其他情况抛出
      */
     private Path checkTargetFile(Path target, boolean cover) throws IOException {
-        target = this.realPath(target);
-        if (Files.exists(target)) {
-            if (!cover) {
-                throw new FileAlreadyExistsException(target + " (Target file already exists)");
+        Path real = this.realPath(target);
+        Outcome failure = this.targetFailure(real, target, cover);
+        if (failure != null) {
+            if (failure.getCode() == Outcome.Code.ALREADY_EXISTS) {
+                throw new FileAlreadyExistsException(real + " (Target file already exists)");
             }
-        } else {
-            try {
-                Files.createDirectories(target.getParent());
-            } catch (IOException e) {
-                if (!FileUtils.mkdirs(target.toFile().getParentFile())) {
-                    throw e;
-                }
+            // 以异常的形式报告创建上级目录失败的原因
+            Files.createDirectories(real.getParent());
+        }
+        return real;
+    }
+
+    /**
+     * 检查目标文件是否存在并创建上级目录，不创建异常
+     *
+     * @param real   目标文件绝对路径
+     * @param target 目标文件路径
+     * @param cover  是否覆盖
+     * @return 检查失败时返回失败结果，检查通过时返回null
+     */
+    private Outcome targetFailure(Path real, Path target, boolean cover) {
+        File file = real.toFile();
+        if (file.exists()) {
+            return cover ? null : Outcome.of(Outcome.Code.ALREADY_EXISTS, target);
+        }
+        File parent = file.getParentFile();
+        if (!FileUtils.mkdirs(parent)) {
+            return Outcome.of(parent.exists() ? Outcome.Code.NOT_DIRECTORY : Outcome.Code.IO_ERROR, target);
+        }
+        return null;
+    }
+
+    /**
+     * 为目标文件生成同目录下的隐藏临时文件路径，保证发布时可以原子重命名
+     *
+     * @param target 目标文件绝对路径
+     * @return 临时文件绝对路径
+     */
+    private Path tempFile(Path target) {
+        return target.resolveSibling("." + target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+    }
+
+    /**
+     * 将写入完毕的临时文件发布到目标路径
+     * 启用占用统计时先检查配额并计入统计，发布失败时按磁盘上的实际情况恢复
+     *
+     * @param temp   临时文件绝对路径
+     * @param target 目标文件绝对路径
+     * @throws QuotaExceededException 超出配额时抛出，此时临时文件未被发布
+     */
+    private void publish(Path temp, Path target) throws IOException {
+        DirectoryUsage usage = this.usage;
+        if (usage == null) {
+            this.rename(temp, target);
+            return;
+        }
+        PathKey key = this.relativeKey(target);
+        long size = Files.size(temp);
+        usage.admit(key, usage.measure(key, target), size);
+        try {
+            this.rename(temp, target);
+        } catch (IOException | RuntimeException e) {
+            usage.update(key, new DirectoryUsage.Measure(false, size, 1));
+            throw e;
+        }
+    }
+
+    /**
+     * 按照持久化级别将临时文件重命名为目标文件
+     *
+     * @param temp   临时文件绝对路径
+     * @param target 目标文件绝对路径
+     */
+    private void rename(Path temp, Path target) throws IOException {
+        switch (this.durability) {
+            case ALWAYS -> {
+                FileUtils.force(temp);
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                FileUtils.forceDirectory(target.getParent());
             }
+            case GROUP_COMMIT -> this.committer().commit(temp, target);
+            default -> Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 在开始写入之前检查配额
+     *
+     * @param target 目标文件绝对路径
+     * @param size   将要写入的大小，未知时为-1，此时只要求至少还有1字节的空间
+     * @throws QuotaExceededException 超出配额时抛出
+     */
+    private void checkQuota(Path target, long size) throws IOException {
+        DirectoryUsage usage = this.usage;
+        if (usage != null) {
+            PathKey key = this.relativeKey(target);
+            usage.check(key, Math.max(1, size) - usage.measure(key, target).size, null);
+        }
+    }
+
+    /**
+     * 获取路径在修改之前的占用，未启用占用统计时返回null
+     *
+     * @param real 绝对路径
+     * @return 占用
+     */
+    private DirectoryUsage.Measure usageBefore(Path real) {
+        DirectoryUsage usage = this.usage;
+        return usage == null ? null : usage.measure(this.relativeKey(real), real);
+    }
+
+    /**
+     * 将新建、复制或删除的路径同步到占用统计
+     *
+     * @param real   绝对路径
+     * @param before 修改之前的占用
+     */
+    private void usageRefresh(Path real, DirectoryUsage.Measure before) {
+        DirectoryUsage usage = this.usage;
+        if (usage != null && before != null) {
+            usage.update(this.relativeKey(real), before);
         }
-        return target;
     }
 
     /**
@@ -98,166 +494,616 @@ public class LocalFileSystem implements AbstractFileSystem {
         return source;
     }
 
-
+    /**
+     * 列出指定路径下的文件
+     *
+     * @throws UncheckedIOException 读取目录失败时抛出，不会返回不完整的列表
+     */
     @Override
     public @NonNull List<Path> ls(@NonNull Path path, boolean all) throws FileNotFoundException {
-        if (!Files.exists(path)) {
-            throw new FileNotFoundException(path + " (No such file or directory)");
-        }
         List<Path> result = new LinkedList<>();
-        File file = this.realPath(path).toFile();
-        if (file.exists()) {
-            if (file.isDirectory()) {
-                File[] files = file.listFiles();
-                if (files != null) {
-                    if (all) {
-                        for (File f : files) {
-                            result.add(this.relativePath(f.toPath()));
-                        }
-                    } else {
-                        for (File f : files) {
-                            if (!f.isHidden()) {
-                                result.add(this.relativePath(f.toPath()));
-                            }
-                        }
-                    }
-                }
-            } else {
-                result.add(path);
-            }
+        try (Stream<Path> stream = this.list(path, all)) {
+            stream.forEach(result::add);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (DirectoryIteratorException e) {
+            throw new UncheckedIOException(e.getCause());
         }
         return result;
     }
 
+    /**
+     * 分页列出指定路径下的文件
+     * 以上一页的{@link Page#next()}顺序翻页时从缓存的目录句柄继续读取，不会重新跳过之前的条目，见{@link ListingCursors}
+     */
+    @Override
+    public @NonNull Page<Path> ls(@NonNull Path path, boolean all, long offset, int limit) throws IOException {
+        PathKey key = PathKey.of(path);
+        Path real = key.resolve(this.BASE);
+        if (!Files.exists(real)) {
+            throw new FileNotFoundException(path + " (No such file or directory)");
+        }
+        if (!Files.isDirectory(real)) {
+            return Page.of(Stream.of(path), offset, limit);
+        }
+        return this.cursors.page(key, real, all, offset, limit);
+    }
+
+    @Override
+    public @NonNull Stream<Path> list(@NonNull Path path, boolean all) throws IOException {
+        PathKey key = PathKey.of(path);
+        Path real = key.resolve(this.BASE);
+        if (!Files.exists(real)) {
+            throw new FileNotFoundException(path + " (No such file or directory)");
+        }
+        if (!Files.isDirectory(real)) {
+            return Stream.of(path);
+        }
+        DirectoryStream<Path> directory = all ? Files.newDirectoryStream(real) : Files.newDirectoryStream(real, p -> !Files.isHidden(p));
+        return StreamSupport.stream(directory.spliterator(), false)
+                .onClose(() -> {
+                    try {
+                        directory.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .map(child -> key.child(child).toPath());
+    }
+
     @Override
     public @NonNull File get(@NonNull Path path) {
-        return PathUtils.join(this.BASE, path).toFile();
+        return this.realPath(path).toFile();
     }
 
     @Override
     public @NonNull Outcome mkdirs(@NonNull Path path) {
         path = this.realPath(path);
         File file = path.toFile();
+        DirectoryUsage.Measure before = this.usageBefore(path);
         if (FileUtils.mkdirs(file)) {
+            this.indexRefresh(path);
+            this.usageRefresh(path, before);
             return Outcome.success(path);
         }
         return Outcome.failure("Create directory failure!");
     }
 
+    /**
+     * 删除文件
+     * 递归删除时边遍历边删除(后序)，并行度大于1时在线程池中并行删除各个子目录；
+     * 单个文件删除失败不会终止操作，返回的结果中包含成功删除的数量与失败的路径
+     */
     @Override
     public @NonNull Outcome rm(@NonNull Path path, boolean recursive) {
         path = this.realPath(path);
+        DirectoryUsage.Measure before = this.usageBefore(path);
         try {
+            BulkOutcome outcome;
             if (recursive) {
-                try (Stream<Path> walk = Files.walk(path)) {
-                    walk.sorted((p1, p2) -> -p1.compareTo(p2)).forEach(p -> {
-                        try {
-                            Files.delete(p);
-                        } catch (IOException ignored) {
-                        }
-                    });
-                }
+                ParallelDeleter deleter = new ParallelDeleter(this.parallelism > 1 ? this.pool() : null, this.forkDepth, this::relativePath);
+                outcome = deleter.delete(path);
             } else {
-                Files.deleteIfExists(path);
+                outcome = BulkOutcome.of(path, Files.deleteIfExists(path) ? 1 : 0, List.of(), null);
             }
-            return Outcome.success(path);
+            this.indexRefresh(path);
+            this.usageRefresh(path, before);
+            return outcome;
         } catch (IOException e) {
+            this.usageRefresh(path, before);
             return Outcome.error(e);
         }
     }
 
     @Override
     public @NonNull Outcome save(@NonNull InputStream source, @NonNull Path target, boolean cover) throws IOException {
-        target = this.realPath(target);
-        File file = target.toFile();
-        if (file.exists()) {
-            if (!cover) {
-                throw new FileAlreadyExistsException(target.toString());
+        if (source instanceof FileInputStream) {
+            return this.save(((FileInputStream) source).getChannel(), target, cover);
+        }
+        return this.store(source, this.checkTargetFile(target, cover));
+    }
+
+    /**
+     * 将数据流写入已检查过的目标文件
+     *
+     * @param source 数据流
+     * @param target 目标文件绝对路径，上级目录已存在
+     * @return 处理结果
+     */
+    private Outcome store(InputStream source, Path target) throws IOException {
+        this.checkQuota(target, -1);
+        Path temp = this.tempFile(target);
+        try {
+            try (FileOutputStream outputStream = new FileOutputStream(temp.toFile())) {
+                IOUtils.copy(source, outputStream);
             }
-        } else {
-            FileUtils.mkdirs(file.getParentFile());
+            this.publish(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
         }
-        try (FileOutputStream outputStream = new FileOutputStream(file)) {
-            IOUtils.copy(source, outputStream);
+        this.indexRefresh(target);
+        return Outcome.success(target);
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover) throws IOException {
+        return this.store(source, this.checkTargetFile(target, cover));
+    }
+
+    /**
+     * 将数据通道写入已检查过的目标文件
+     *
+     * @param source 数据通道
+     * @param target 目标文件绝对路径，上级目录已存在
+     * @return 处理结果
+     */
+    private Outcome store(ReadableByteChannel source, Path target) throws IOException {
+        this.checkQuota(target, source instanceof FileChannel ? Math.max(0, ((FileChannel) source).size() - ((FileChannel) source).position()) : -1);
+        Path temp = this.tempFile(target);
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                IOUtils.copy(source, channel);
+            }
+            this.publish(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
         }
+        this.indexRefresh(target);
         return Outcome.success(target);
     }
 
+    @Override
+    public long transfer(@NonNull Path source, @NonNull WritableByteChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(this.checkSourceFile(source), StandardOpenOption.READ)) {
+            return IOUtils.copy(channel, target);
+        }
+    }
+
+    /**
+     * 创建分块上传会话
+     * 临时文件以隐藏文件的形式创建在目标文件所在目录中，保证提交时可以通过原子重命名发布
+     */
+    @Override
+    public @NonNull UploadSession createUpload(@NonNull Path target, long size, boolean cover) throws IOException {
+        Path real = this.checkTargetFile(target, cover);
+        this.checkQuota(real, size);
+        Path temp = real.resolveSibling("." + real.getFileName() + "." + UUID.randomUUID() + ".part");
+        return new ChunkedUpload(this.uploads, target, size, temp, (t, p) -> {
+            Path destination = this.realPath(p);
+            if (!cover && Files.exists(destination)) {
+                throw new FileAlreadyExistsException(destination + " (Target file already exists)");
+            }
+            this.publish(t, destination);
+            this.indexRefresh(t);
+            this.indexRefresh(destination);
+            return Outcome.success(destination);
+        });
+    }
+
+    @Override
+    public UploadSession getUpload(@NonNull String id) {
+        return this.uploads.find(id);
+    }
+
     @Override
     public Outcome cp(@NonNull Path source, @NonNull Path target, boolean cover) throws IOException {
+        return this.cp(source, target, cover, CopyStrategy.COPY);
+    }
+
+    /**
+     * 复制文件或目录树
+     * 目录递归复制并保留文件属性，并行度大于1时在线程池中并行复制各个子目录；
+     * 单个文件复制失败不会终止操作，返回的结果中包含成功复制的数量与失败的路径
+     */
+    @Override
+    public Outcome cp(@NonNull Path source, @NonNull Path target, boolean cover, @NonNull CopyStrategy strategy) throws IOException {
         target = this.checkTargetFile(target, cover);
         source = this.checkSourceFile(source);
-        Files.copy(source, target);
-        return Outcome.success(target);
+        return this.copy(source, target, strategy);
+    }
+
+    /**
+     * 复制已检查过的文件或目录树
+     *
+     * @param source   源文件绝对路径
+     * @param target   目标文件绝对路径，上级目录已存在
+     * @param strategy 复制策略
+     * @return 处理结果
+     */
+    private Outcome copy(Path source, Path target, CopyStrategy strategy) throws IOException {
+        DirectoryUsage usage = this.usage;
+        DirectoryUsage.Measure before = null;
+        PathKey key = this.relativeKey(target);
+        if (usage != null) {
+            before = usage.measure(key, target);
+        }
+        // 复制期间预留配额，并发的复制与保存不会同时通过检查
+        try (DirectoryUsage.Reservation ignored = usage == null ? DirectoryUsage.Reservation.NONE
+                : usage.reserve(key, usage.measure(this.relativeKey(source), source).size - before.size)) {
+            ParallelCopier copier = new ParallelCopier(this.parallelism > 1 ? this.pool() : null, this.forkDepth, strategy, this::relativePath);
+            BulkOutcome outcome = copier.copy(source, target);
+            this.indexRefresh(target);
+            this.usageRefresh(target, before);
+            return outcome;
+        }
     }
 
     @Override
     public Outcome mv(@NonNull Path source, @NonNull Path target, boolean cover) throws IOException {
         target = this.checkTargetFile(target, cover);
         source = this.checkSourceFile(source);
+        return this.move(source, target);
+    }
+
+    /**
+     * 移动已检查过的文件
+     *
+     * @param source 源文件绝对路径
+     * @param target 目标文件绝对路径，上级目录已存在
+     * @return 处理结果
+     */
+    private Outcome move(Path source, Path target) throws IOException {
+        DirectoryUsage usage = this.usage;
+        PathKey sourceKey = this.relativeKey(source);
+        PathKey targetKey = this.relativeKey(target);
+        DirectoryUsage.Measure sourceBefore = null;
+        DirectoryUsage.Measure targetBefore = null;
+        if (usage != null) {
+            sourceBefore = usage.measure(sourceKey, source);
+            targetBefore = usage.measure(targetKey, target);
+            // 包含源路径的配额目录的合计不变，不需要检查
+            usage.check(targetKey, sourceBefore.size - targetBefore.size, sourceKey);
+        }
         Files.move(source, target);
+        FileIndex index = this.index;
+        if (index != null) {
+            index.moved(sourceKey, targetKey);
+        }
+        if (usage != null) {
+            usage.moved(sourceKey, targetKey, sourceBefore, targetBefore);
+        }
         return Outcome.success(target);
     }
 
+    /**
+     * 批量执行操作
+     * 同一批次中每个上级目录只检查并创建一次；涉及相同路径(或互为上下级路径)的操作按提交顺序分到不同的轮次，
+     * 同一轮次中的操作互不相关，并行度大于1时在线程池中并行执行
+     */
     @Override
-    public @NonNull List<Path> find(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level) {
-        base = this.realPath(base);
-        List<Path> result = new LinkedList<>();
-        if (Files.exists(base)) {
-            Function<String, Boolean> nameFilter;
-            if (StringUtils.isEmpty(name)) {
-                nameFilter = (s) -> true;
-            } else if (name.contains("*")) {
-                nameFilter = new Function<>() {
-                    final String nameRegex = name.replace(".", "\\.")
-                            .replace("*", ".*")
-                            .replace("?", ".");
-
-                    @Override
-                    public Boolean apply(String s) {
-                        if (StringUtils.isEmpty(s)) {
-                            return false;
-                        }
-                        return s.matches(nameRegex);
-                    }
-                };
+    public @NonNull List<Outcome> batch(@NonNull List<BatchOperation> operations) {
+        int size = operations.size();
+        Path[][] paths = new Path[size][];
+        for (int i = 0; i < size; i++) {
+            BatchOperation operation = operations.get(i);
+            Path target = this.realPath(operation.getTarget());
+            paths[i] = operation.getSource() == null ? new Path[]{target} : new Path[]{this.realPath(operation.getSource()), target};
+        }
+        // 每个操作排在与其冲突的所有先前操作之后的一轮
+        int[] waves = new int[size];
+        List<List<Integer>> rounds = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            int wave = 0;
+            for (int j = 0; j < i; j++) {
+                if (waves[j] >= wave && conflicts(paths[i], paths[j])) {
+                    wave = waves[j] + 1;
+                }
+            }
+            waves[i] = wave;
+            if (wave == rounds.size()) {
+                rounds.add(new ArrayList<>());
+            }
+            rounds.get(wave).add(i);
+        }
+        Outcome[] result = new Outcome[size];
+        Map<Path, Boolean> prepared = new ConcurrentHashMap<>();
+        for (List<Integer> round : rounds) {
+            if (round.size() > 1 && this.parallelism > 1) {
+                List<Callable<Outcome>> tasks = new ArrayList<>(round.size());
+                for (int i : round) {
+                    tasks.add(() -> result[i] = this.execute(operations.get(i), paths[i], prepared));
+                }
+                this.pool().invokeAll(tasks);
             } else {
-                nameFilter = name::equals;
+                for (int i : round) {
+                    result[i] = this.execute(operations.get(i), paths[i], prepared);
+                }
             }
-            Function<File, Path> typeFilter = switch (type) {
-                case DIR -> (f) -> {
-                    if (f.exists() && f.isDirectory() && nameFilter.apply(f.getName())) {
-                        return this.relativePath(f.toPath());
-                    }
-                    return null;
-                };
-                case FILE -> (f) -> {
-                    if (f.exists() && f.isFile() && nameFilter.apply(f.getName())) {
-                        return this.relativePath(f.toPath());
-                    }
-                    return null;
-                };
-                default -> (f) -> {
-                    if (f.exists() && nameFilter.apply(f.getName())) {
-                        return this.relativePath(f.toPath());
-                    }
-                    return null;
-                };
-            };
-            if (level < 0) {
-                level = Integer.MAX_VALUE;
+            // 删除与移动会移除已创建的目录，之后的操作需要重新检查
+            for (int i : round) {
+                BatchOperation.Type type = operations.get(i).getType();
+                if (type == BatchOperation.Type.RM || type == BatchOperation.Type.MV) {
+                    Path removed = paths[i][0];
+                    prepared.keySet().removeIf(dir -> dir.startsWith(removed));
+                }
             }
-            try (Stream<Path> walk = Files.walk(base, level)) {
-                walk.forEach(path -> {
-                    Path p = typeFilter.apply(path.toFile());
-                    if (p != null) {
-                        result.add(p);
+        }
+        return Arrays.asList(result);
+    }
+
+    /**
+     * 执行批量操作中的单个操作
+     *
+     * @param operation 操作
+     * @param paths     操作涉及的绝对路径，最后一个为目标路径
+     * @param prepared  本批次中已确认存在的目录
+     * @return 处理结果
+     */
+    private Outcome execute(BatchOperation operation, Path[] paths, Map<Path, Boolean> prepared) {
+        Path target = paths[paths.length - 1];
+        try {
+            return switch (operation.getType()) {
+                case MKDIRS -> {
+                    DirectoryUsage.Measure before = this.usageBefore(target);
+                    prepare(prepared, target);
+                    this.indexRefresh(target);
+                    this.usageRefresh(target, before);
+                    yield Outcome.success(target);
+                }
+                case RM -> this.rm(operation.getTarget(), operation.isRecursive());
+                case CP, MV -> {
+                    if (!operation.isCover() && Files.exists(target)) {
+                        throw new FileAlreadyExistsException(target + " (Target file already exists)");
                     }
-                });
+                    prepare(prepared, target.getParent());
+                    yield operation.getType() == BatchOperation.Type.CP ? this.copy(paths[0], target, CopyStrategy.COPY) : this.move(paths[0], target);
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            // 并行执行时异常不会传播到调用者，所有异常都转换为处理结果
+            return Outcome.error(e instanceof UncheckedIOException ? ((UncheckedIOException) e).getCause() : e);
+        }
+    }
+
+    /**
+     * 确保目录存在，同一批次中每个目录只创建一次
+     *
+     * @param prepared 本批次中已确认存在的目录
+     * @param dir      目录绝对路径
+     */
+    private static void prepare(Map<Path, Boolean> prepared, Path dir) {
+        prepared.computeIfAbsent(dir, d -> {
+            try {
+                Files.createDirectories(d);
             } catch (IOException e) {
-                e.printStackTrace();
+                throw new UncheckedIOException(e);
+            }
+            return Boolean.TRUE;
+        });
+    }
+
+    /**
+     * 判断两组路径是否相同或互为上下级
+     */
+    private static boolean conflicts(Path[] a, Path[] b) {
+        for (Path x : a) {
+            for (Path y : b) {
+                if (x.startsWith(y) || y.startsWith(x)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 不抛出异常的操作通过{@link File}的方法检查预期内的失败，这些方法以返回值报告失败，不会创建异常；
+     * 检查与操作共用同一次检查，检查通过后直接执行已检查过的操作，只有意外的IO错误才会产生异常
+     */
+    @Override
+    public @NonNull Listing tryLs(@NonNull Path path, boolean all) {
+        PathKey key = PathKey.of(path);
+        File dir = key.resolve(this.BASE).toFile();
+        String[] names = dir.list();
+        if (names == null) {
+            if (dir.isDirectory()) {
+                return Listing.failure(path, Outcome.Code.IO_ERROR);
+            }
+            return dir.exists() ? Listing.of(path, List.of(path)) : Listing.failure(path, Outcome.Code.NOT_FOUND);
+        }
+        List<Path> items = new ArrayList<>(names.length);
+        for (String name : names) {
+            if (all || !new File(dir, name).isHidden()) {
+                items.add(key.child(name).toPath());
             }
         }
+        return Listing.of(path, items);
+    }
+
+    @Override
+    public @NonNull Listing tryFind(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level) {
+        if (!this.realPath(base).toFile().exists()) {
+            return Listing.failure(base, Outcome.Code.NOT_FOUND);
+        }
+        return AbstractFileSystem.super.tryFind(base, name, type, level);
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull File source, @NonNull Path target, boolean cover) {
+        if (!source.isFile()) {
+            return Outcome.of(source.exists() ? Outcome.Code.FAILURE : Outcome.Code.NOT_FOUND, source.toPath());
+        }
+        Path real = this.realPath(target);
+        Outcome failure = this.targetFailure(real, target, cover);
+        if (failure != null) {
+            return failure;
+        }
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            return this.store(channel, real);
+        } catch (IOException | RuntimeException e) {
+            return Outcome.error(e);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull InputStream source, @NonNull Path target, boolean cover) {
+        if (source instanceof FileInputStream) {
+            return this.trySave(((FileInputStream) source).getChannel(), target, cover);
+        }
+        Path real = this.realPath(target);
+        Outcome failure = this.targetFailure(real, target, cover);
+        if (failure != null) {
+            return failure;
+        }
+        try {
+            return this.store(source, real);
+        } catch (IOException | RuntimeException e) {
+            return Outcome.error(e);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover) {
+        Path real = this.realPath(target);
+        Outcome failure = this.targetFailure(real, target, cover);
+        if (failure != null) {
+            return failure;
+        }
+        try {
+            return this.store(source, real);
+        } catch (IOException | RuntimeException e) {
+            return Outcome.error(e);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome tryCp(@NonNull Path source, @NonNull Path target, boolean cover) {
+        Path from = this.realPath(source);
+        if (!from.toFile().exists()) {
+            return Outcome.of(Outcome.Code.NOT_FOUND, source);
+        }
+        Path to = this.realPath(target);
+        Outcome failure = this.targetFailure(to, target, cover);
+        if (failure != null) {
+            return failure;
+        }
+        try {
+            return this.copy(from, to, CopyStrategy.COPY);
+        } catch (IOException | RuntimeException e) {
+            return Outcome.error(e);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome tryMv(@NonNull Path source, @NonNull Path target, boolean cover) {
+        Path from = this.realPath(source);
+        if (!from.toFile().exists()) {
+            return Outcome.of(Outcome.Code.NOT_FOUND, source);
+        }
+        Path to = this.realPath(target);
+        Outcome failure = this.targetFailure(to, target, cover);
+        if (failure != null) {
+            return failure;
+        }
+        try {
+            return this.move(from, to);
+        } catch (IOException | RuntimeException e) {
+            return Outcome.error(e);
+        }
+    }
+
+    /**
+     * 启用占用统计且统计可用时直接读取统计，否则遍历目录
+     */
+    @Override
+    public @NonNull Usage usage(@NonNull Path path) throws IOException {
+        DirectoryUsage usage = this.usage;
+        if (usage == null || !usage.isReady()) {
+            return AbstractFileSystem.super.usage(path);
+        }
+        Path real = this.realPath(path);
+        PathKey key = PathKey.of(path);
+        DirectoryUsage.Measure measure = usage.measure(key, real);
+        if (measure == DirectoryUsage.Measure.NONE && !Files.exists(real, LinkOption.NOFOLLOW_LINKS)) {
+            throw new FileNotFoundException(path + " (No such file or directory)");
+        }
+        return new Usage().setPath(path).setSize(measure.size).setFiles(measure.files).setQuota(usage.getQuota(key));
+    }
+
+    @Override
+    public @NonNull List<Path> find(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level) {
+        FileIndex index = this.index;
+        if (index != null) {
+            List<Path> result = index.find(PathKey.of(base), name, type, level);
+            if (result != null) {
+                return result;
+            }
+        }
+        if (this.parallelism > 1) {
+            Path real = this.realPath(base);
+            if (Files.exists(real)) {
+                try {
+                    return new ParallelWalker(this.pool(), this.forkDepth)
+                            .walk(real, PathKey.of(base), level < 0 ? Integer.MAX_VALUE : level, this.matcher(name, type));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            return new LinkedList<>();
+        }
+        List<Path> result = new LinkedList<>();
+        try (Stream<Path> stream = this.search(base, name, type, level)) {
+            stream.forEach(result::add);
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace();
+        }
         return result;
     }
+
+    @Override
+    public @NonNull Stream<Path> search(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level) throws IOException {
+        FileIndex index = this.index;
+        if (index != null) {
+            List<Path> result = index.find(PathKey.of(base), name, type, level);
+            if (result != null) {
+                return result.stream();
+            }
+        }
+        base = this.realPath(base);
+        if (!Files.exists(base)) {
+            return Stream.empty();
+        }
+        return Files.find(base, level < 0 ? Integer.MAX_VALUE : level, this.matcher(name, type)).map(this::relativePath);
+    }
+
+    /**
+     * 将新建、覆盖或删除的路径同步到索引
+     *
+     * @param real 绝对路径
+     */
+    private void indexRefresh(Path real) {
+        FileIndex index = this.index;
+        if (index != null) {
+            index.refresh(this.relativeKey(real));
+        }
+    }
+
+    /**
+     * 构建搜索条件，与{@link FileIndex}的判断一致：{@link FileType#FILE}只匹配普通文件，共享目录本身的文件名为空字符串
+     *
+     * @param name 文件名
+     * @param type 文件类型
+     * @return 搜索条件
+     */
+    private BiPredicate<Path, BasicFileAttributes> matcher(String name, FileType type) {
+        Predicate<String> nameFilter = FileUtils.nameFilter(name);
+        return switch (type) {
+            case DIR -> (p, attrs) -> attrs.isDirectory() && nameFilter.test(this.fileName(p));
+            case FILE -> (p, attrs) -> attrs.isRegularFile() && nameFilter.test(this.fileName(p));
+            default -> (p, attrs) -> nameFilter.test(this.fileName(p));
+        };
+    }
+
+    /**
+     * 获取路径的文件名，共享目录本身返回空字符串
+     *
+     * @param path 绝对路径
+     * @return 文件名
+     */
+    private String fileName(Path path) {
+        Path name = path.equals(this.BASE) ? null : path.getFileName();
+        return name == null ? "" : name.toString();
+    }
 }
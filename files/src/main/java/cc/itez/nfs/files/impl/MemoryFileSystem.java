@@ -0,0 +1,666 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.files.AbstractFileSystem;
+import cc.itez.nfs.mould.BulkOutcome;
+import cc.itez.nfs.mould.FileStat;
+import cc.itez.nfs.mould.Outcome;
+import cc.itez.nfs.mould.QuotaExceededException;
+import cc.itez.nfs.mould.Range;
+import cc.itez.nfs.mould.Usage;
+import cc.itez.nfs.utils.FileUtils;
+import cc.itez.nfs.utils.OffHeapPool;
+import cc.itez.nfs.utils.PathKey;
+import cc.itez.nfs.utils.PathUtils;
+import cc.itez.nfs.utils.SegmentedBuffer;
+import lombok.NonNull;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * 基于内存的文件系统
+ * 目录树保存在Java堆中，文件内容保存在{@link OffHeapPool}分配的堆外内存段中，大量数据不会增加GC的负担。
+ * 文件内容一经写入便不再修改，覆盖时整体替换，因此复制文件只需共享内容并增加引用计数(写时复制)，
+ * 内容在最后一个引用(包括正在进行的读取)释放后归还给内存池。
+ * <p>
+ * 目录的子项保存在并发跳表中，查找、列举、搜索与读取不加锁；新建、覆盖与删除只锁定所在的目录，
+ * 不同目录中的修改可以并行进行，保存在锁外写入内容，只在发布时短暂锁定目标目录。
+ * 移动与复制会同时改变目录树的多个位置，由{@link #structure}的写锁互斥执行。
+ * 同时锁定多个目录时总是先锁定上级目录，被删除的目录会被标记，之后挂到其中的操作会从根目录重新创建路径。
+ * <p>
+ * 可以作为内存盘共享，也可以作为测试与基准测试的夹具。
+ */
+public class MemoryFileSystem implements AbstractFileSystem, Closeable {
+    private static final AtomicLong IDS = new AtomicLong();
+    private final OffHeapPool pool;
+    private final Dir root = new Dir();
+    /**
+     * 移动、复制与关闭持有写锁，其他修改目录树的操作持有读锁，只读的操作不加锁
+     */
+    private final ReadWriteLock structure = new ReentrantReadWriteLock();
+    /**
+     * {@link #get(Path)}导出文件使用的临时目录，首次调用时创建
+     */
+    private volatile Path spill;
+
+    /**
+     * 使用默认的段大小
+     *
+     * @param capacity 文件内容的最大容量(字节)
+     */
+    public MemoryFileSystem(long capacity) {
+        this(new OffHeapPool(capacity));
+    }
+
+    /**
+     * @param pool 保存文件内容的内存池
+     */
+    public MemoryFileSystem(@NonNull OffHeapPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * 获取保存文件内容的内存池，可以从中读取容量与使用量
+     *
+     * @return 内存池
+     */
+    public OffHeapPool getPool() {
+        return this.pool;
+    }
+
+    /**
+     * 删除所有文件并清理导出的临时文件
+     */
+    @Override
+    public void close() throws IOException {
+        this.structure.writeLock().lock();
+        try {
+            clear(this.root);
+        } finally {
+            this.structure.writeLock().unlock();
+        }
+        Path spill = this.spill;
+        if (spill != null) {
+            FileUtils.delete(spill.toFile(), true);
+        }
+    }
+
+    @Override
+    public @NonNull List<Path> ls(@NonNull Path path, boolean all) throws FileNotFoundException {
+        PathKey key = PathKey.of(path);
+        Node node = this.lookup(key);
+        if (node == null) {
+            throw new FileNotFoundException(path + " (No such file or directory)");
+        }
+        if (!(node instanceof Dir)) {
+            return new LinkedList<>(List.of(path));
+        }
+        List<Path> result = new LinkedList<>();
+        for (String name : ((Dir) node).children.keySet()) {
+            if (all || name.charAt(0) != '.') {
+                result.add(key.child(name).toPath());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 文件内容不在磁盘上，返回的是导出到临时目录中的副本，目录只创建空目录，路径不存在时返回不存在的文件
+     * 每次调用都会重新导出，修改返回的文件不会影响文件系统
+     */
+    @Override
+    public @NonNull File get(@NonNull Path path) throws FileNotFoundException {
+        PathKey key = PathKey.of(path);
+        Path spill;
+        try {
+            spill = key.resolve(this.spill());
+        } catch (IOException e) {
+            throw new FileNotFoundException(path + " (" + e.getMessage() + ")");
+        }
+        Node node = this.lookup(key);
+        if (node == null) {
+            return spill.toFile();
+        }
+        if (node instanceof Dir) {
+            PathUtils.mkdirs(spill);
+            return spill.toFile();
+        }
+        SegmentedBuffer content = ((FileNode) node).content;
+        if (!content.retain()) {
+            throw new FileNotFoundException(path + " (No such file or directory)");
+        }
+        try {
+            PathUtils.mkdirs(spill.getParent());
+            try (FileChannel channel = FileChannel.open(spill, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                content.transfer(0, content.size(), channel);
+            }
+            return spill.toFile();
+        } catch (IOException e) {
+            throw new FileNotFoundException(path + " (" + e.getMessage() + ")");
+        } finally {
+            content.release();
+        }
+    }
+
+    @Override
+    public @NonNull Outcome mkdirs(@NonNull Path path) {
+        this.structure.readLock().lock();
+        try {
+            return this.mkdirs(PathKey.of(path)) != null ? Outcome.success(path) : Outcome.failure("Create directory failure!");
+        } finally {
+            this.structure.readLock().unlock();
+        }
+    }
+
+    /**
+     * 删除文件或目录树
+     * 与{@link LocalFileSystem}一致：递归删除不存在的路径返回{@link NoSuchFileException}，非递归删除返回删除数量为0的成功结果
+     */
+    @Override
+    public @NonNull Outcome rm(@NonNull Path path, boolean recursive) {
+        PathKey key = PathKey.of(path);
+        this.structure.readLock().lock();
+        try {
+            while (true) {
+                Node node = this.lookup(key);
+                if (node == null) {
+                    return recursive ? Outcome.error(new NoSuchFileException(path.toString())) : BulkOutcome.of(path, 0, List.of(), null);
+                }
+                if (key.parent() == null) {
+                    // 与删除本地根目录相同，只清空其中的内容
+                    synchronized (this.root) {
+                        if (!recursive && !this.root.children.isEmpty()) {
+                            return Outcome.error(new DirectoryNotEmptyException(path.toString()));
+                        }
+                        return BulkOutcome.of(path, clear(this.root), List.of(), null);
+                    }
+                }
+                Node parent = this.lookup(key.parent());
+                if (!(parent instanceof Dir)) {
+                    continue;
+                }
+                synchronized (parent) {
+                    // 查找之后被其他线程删除或替换，重新查找
+                    if (((Dir) parent).removed || ((Dir) parent).children.get(key.name()) != node) {
+                        continue;
+                    }
+                    if (!recursive && node instanceof Dir) {
+                        synchronized (node) {
+                            if (!((Dir) node).children.isEmpty()) {
+                                return Outcome.error(new DirectoryNotEmptyException(path.toString()));
+                            }
+                            ((Dir) node).removed = true;
+                        }
+                    }
+                    ((Dir) parent).children.remove(key.name());
+                    parent.modified = System.currentTimeMillis();
+                    return BulkOutcome.of(path, release(node), List.of(), null);
+                }
+            }
+        } finally {
+            this.structure.readLock().unlock();
+        }
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull InputStream source, @NonNull Path target, boolean cover) throws IOException {
+        if (source instanceof FileInputStream) {
+            return this.save(((FileInputStream) source).getChannel(), target, cover);
+        }
+        return this.save(Channels.newChannel(source), target, cover);
+    }
+
+    /**
+     * 保存文件
+     * 内容先写入新分配的内存段，写入完毕后再替换目标文件，写入期间读取目标文件仍然得到原来的内容
+     */
+    @Override
+    public @NonNull Outcome save(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover) throws IOException {
+        PathKey key = PathKey.of(target);
+        if (key.parent() == null) {
+            throw new FileAlreadyExistsException(target + " (Target file already exists)");
+        }
+        if (!cover && this.exists(key)) {
+            throw new FileAlreadyExistsException(target + " (Target file already exists)");
+        }
+        SegmentedBuffer content = this.write(source);
+        this.structure.readLock().lock();
+        try {
+            this.link(key, new FileNode(content), cover, false);
+        } catch (IOException | RuntimeException e) {
+            content.release();
+            throw e;
+        } finally {
+            this.structure.readLock().unlock();
+        }
+        return Outcome.success(target);
+    }
+
+    @Override
+    public long transfer(@NonNull Path source, @NonNull WritableByteChannel target) throws IOException {
+        SegmentedBuffer content = this.open(source);
+        try {
+            return content.transfer(0, content.size(), target);
+        } finally {
+            content.release();
+        }
+    }
+
+    @Override
+    public long transfer(@NonNull Path source, @NonNull Range range, @NonNull WritableByteChannel target) throws IOException {
+        SegmentedBuffer content = this.open(source);
+        try {
+            return content.transfer(range.getOffset(), range.getLength(), target);
+        } finally {
+            content.release();
+        }
+    }
+
+    @Override
+    public @NonNull ReadableByteChannel read(@NonNull Path path, long offset, long length) throws IOException {
+        return this.open(path).channel(offset, length);
+    }
+
+    @Override
+    public @NonNull ByteBuffer read(@NonNull Path path, @NonNull Range range) throws IOException {
+        SegmentedBuffer content = this.open(path);
+        try {
+            return content.read(range);
+        } finally {
+            content.release();
+        }
+    }
+
+    @Override
+    public @NonNull List<ByteBuffer> read(@NonNull Path path, @NonNull List<Range> ranges) throws IOException {
+        SegmentedBuffer content = this.open(path);
+        try {
+            List<ByteBuffer> result = new ArrayList<>(ranges.size());
+            for (Range range : ranges) {
+                result.add(content.read(range));
+            }
+            return result;
+        } finally {
+            content.release();
+        }
+    }
+
+    /**
+     * 复制文件或目录树，文件只共享内容而不复制数据
+     * 与{@link LocalFileSystem}一致，覆盖已存在的目录时合并目录树
+     */
+    @Override
+    public Outcome cp(@NonNull Path source, @NonNull Path target, boolean cover) throws IOException {
+        PathKey from = PathKey.of(source);
+        PathKey to = PathKey.of(target);
+        this.structure.writeLock().lock();
+        try {
+            Node node = this.lookup(from);
+            if (node == null) {
+                throw new FileNotFoundException(source + " (Source file not exists)");
+            }
+            if (node instanceof Dir && to.startsWith(from)) {
+                throw new IOException(target + " (Cannot copy a directory into itself)");
+            }
+            long[] count = {0};
+            Node copy = share(node, count);
+            try {
+                this.link(to, copy, cover, true);
+            } catch (IOException | RuntimeException e) {
+                // 合并失败时已挂到目标的节点已从副本中移除，只释放剩余的部分
+                release(copy);
+                throw e;
+            }
+            return BulkOutcome.of(target, count[0], List.of(), null);
+        } finally {
+            this.structure.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Outcome mv(@NonNull Path source, @NonNull Path target, boolean cover) throws IOException {
+        PathKey from = PathKey.of(source);
+        PathKey to = PathKey.of(target);
+        this.structure.writeLock().lock();
+        try {
+            Node node = this.lookup(from);
+            if (node == null || from.parent() == null) {
+                throw new FileNotFoundException(source + " (Source file not exists)");
+            }
+            if (to.startsWith(from)) {
+                if (to.equals(from)) {
+                    return Outcome.success(target);
+                }
+                throw new IOException(target + " (Cannot move a directory into itself)");
+            }
+            this.link(to, node, cover, false);
+            Dir parent = (Dir) this.lookup(from.parent());
+            synchronized (parent) {
+                parent.children.remove(from.name());
+                parent.modified = System.currentTimeMillis();
+            }
+            return Outcome.success(target);
+        } finally {
+            this.structure.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public @NonNull List<Path> find(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level) {
+        PathKey key = PathKey.of(base);
+        Predicate<String> filter = FileUtils.nameFilter(name);
+        List<Path> result = new LinkedList<>();
+        Node node = this.lookup(key);
+        if (node != null) {
+            find(key, node, filter, type, level < 0 ? Integer.MAX_VALUE : level, result);
+        }
+        return result;
+    }
+
+    /**
+     * 直接读取内存中的节点，不会导出文件；节点没有inode，以节点的编号作为文件标识，覆盖或复制后的文件编号不同
+     */
+    @Override
+    public @NonNull FileStat stat(@NonNull Path path) throws IOException {
+        Node node = this.lookup(PathKey.of(path));
+        if (node == null) {
+            throw new FileNotFoundException(path + " (No such file or directory)");
+        }
+        long size = node instanceof FileNode ? ((FileNode) node).content.size() : 0;
+        return FileStat.of(path, node instanceof Dir, size, node.modified, node.id);
+    }
+
+    /**
+     * 直接遍历内存中的目录树，遍历期间的修改可能反映也可能不反映在结果中
+     */
+    @Override
+    public @NonNull Usage usage(@NonNull Path path) throws IOException {
+        Node node = this.lookup(PathKey.of(path));
+        if (node == null) {
+            throw new FileNotFoundException(path + " (No such file or directory)");
+        }
+        Usage usage = new Usage().setPath(path);
+        measure(node, usage);
+        return usage;
+    }
+
+    /**
+     * 从数据通道读取全部内容到新分配的内存段中
+     *
+     * @param source 数据通道
+     * @return 内容，引用计数为1
+     * @throws QuotaExceededException 内存池容量不足时抛出
+     */
+    private SegmentedBuffer write(ReadableByteChannel source) throws IOException {
+        long required = 0;
+        if (source instanceof FileChannel) {
+            FileChannel channel = (FileChannel) source;
+            required = channel.size() - channel.position();
+        }
+        SegmentedBuffer content = this.pool.getUsed() + required > this.pool.getCapacity() ? null : SegmentedBuffer.read(this.pool, source);
+        if (content == null) {
+            long usage = this.pool.getUsed() + Math.max(required, this.pool.getSegmentSize());
+            throw new QuotaExceededException(PathUtils.ROOT, this.pool.getCapacity(), usage);
+        }
+        return content;
+    }
+
+    /**
+     * 获取文件内容并增加引用计数，调用者使用完毕后必须调用{@link SegmentedBuffer#release()}
+     *
+     * @param path 路径
+     * @return 内容
+     * @throws FileNotFoundException 文件不存在或是目录时抛出
+     */
+    private SegmentedBuffer open(Path path) throws FileNotFoundException {
+        Node node = this.lookup(PathKey.of(path));
+        if (node instanceof FileNode) {
+            SegmentedBuffer content = ((FileNode) node).content;
+            // 查找之后被覆盖或删除，内容已经归还
+            if (content.retain()) {
+                return content;
+            }
+        }
+        throw new FileNotFoundException(path + (node == null ? " (No such file or directory)" : " (Is a directory)"));
+    }
+
+    private boolean exists(PathKey key) {
+        return this.lookup(key) != null;
+    }
+
+    /**
+     * 将节点挂到目标路径，并创建缺失的上级目录
+     * 调用时必须持有{@link #structure}的锁，合并时必须持有写锁。目标是非空目录时，文件无法覆盖；目录只有在合并时才能覆盖，
+     * 合并时逐个挂载子节点，已挂载的子节点从{@code node}中移除
+     *
+     * @param key   目标路径
+     * @param node  节点
+     * @param cover 目标存在时是否覆盖
+     * @param merge 目录覆盖非空目录时是否合并
+     */
+    private void link(PathKey key, Node node, boolean cover, boolean merge) throws IOException {
+        if (key.parent() == null) {
+            throw new FileAlreadyExistsException(key + " (Target file already exists)");
+        }
+        while (true) {
+            Dir parent = this.mkdirs(key.parent());
+            if (parent == null) {
+                throw new NotDirectoryException(key.parent().toString());
+            }
+            synchronized (parent) {
+                // 上级目录在创建之后被删除，从根目录重新创建
+                if (parent.removed) {
+                    continue;
+                }
+                Node old = parent.children.get(key.name());
+                if (old != null && !cover) {
+                    throw new FileAlreadyExistsException(key + " (Target file already exists)");
+                }
+                if (old instanceof Dir && old != node && !((Dir) old).children.isEmpty()) {
+                    if (!(node instanceof Dir)) {
+                        throw new DirectoryNotEmptyException(key.toString());
+                    }
+                    if (!merge) {
+                        throw new FileAlreadyExistsException(key + " (Target file already exists)");
+                    }
+                } else {
+                    parent.children.put(key.name(), node);
+                    parent.modified = System.currentTimeMillis();
+                    if (old != null && old != node) {
+                        release(old);
+                    }
+                    return;
+                }
+            }
+            // 持有写锁时合并，目标目录不会被其他线程修改
+            Dir dir = (Dir) node;
+            for (String name : new ArrayList<>(dir.children.keySet())) {
+                Node child = dir.children.get(name);
+                this.link(key.child(name), child, true, true);
+                dir.children.remove(name);
+            }
+            return;
+        }
+    }
+
+    /**
+     * 创建目录及缺失的上级目录，调用时必须持有{@link #structure}的锁
+     * 返回的目录可能随后被其他线程删除，挂载子项时需要在目录的锁中检查{@link Dir#removed}
+     *
+     * @param key 目录路径
+     * @return 目录，路径上存在同名文件时返回null
+     */
+    private Dir mkdirs(PathKey key) {
+        if (key.parent() == null) {
+            return this.root;
+        }
+        while (true) {
+            Dir parent = this.mkdirs(key.parent());
+            if (parent == null) {
+                return null;
+            }
+            Node node;
+            synchronized (parent) {
+                if (parent.removed) {
+                    continue;
+                }
+                node = parent.children.get(key.name());
+                if (node == null) {
+                    node = new Dir();
+                    parent.children.put(key.name(), node);
+                    parent.modified = System.currentTimeMillis();
+                }
+            }
+            return node instanceof Dir ? (Dir) node : null;
+        }
+    }
+
+    /**
+     * 查找节点，不加锁，得到的可能是刚刚被删除或替换的节点
+     *
+     * @param key 路径
+     * @return 节点，不存在时返回null
+     */
+    private Node lookup(PathKey key) {
+        if (key.parent() == null) {
+            return this.root;
+        }
+        Node parent = this.lookup(key.parent());
+        return parent instanceof Dir ? ((Dir) parent).children.get(key.name()) : null;
+    }
+
+    private Path spill() throws IOException {
+        Path spill = this.spill;
+        if (spill == null) {
+            synchronized (this) {
+                if ((spill = this.spill) == null) {
+                    this.spill = spill = Files.createTempDirectory("nfs-memory-");
+                }
+            }
+        }
+        return spill;
+    }
+
+    private static void find(PathKey key, Node node, Predicate<String> filter, FileType type, int level, List<Path> result) {
+        boolean dir = node instanceof Dir;
+        if ((type == FileType.ALL || (type == FileType.DIR) == dir) && filter.test(key.name())) {
+            result.add(key.toPath());
+        }
+        if (dir && level > 0) {
+            for (Map.Entry<String, Node> child : ((Dir) node).children.entrySet()) {
+                find(key.child(child.getKey()), child.getValue(), filter, type, level - 1, result);
+            }
+        }
+    }
+
+    private static void measure(Node node, Usage usage) {
+        if (node instanceof FileNode) {
+            usage.setSize(usage.getSize() + ((FileNode) node).content.size()).setFiles(usage.getFiles() + 1);
+        } else {
+            for (Node child : ((Dir) node).children.values()) {
+                measure(child, usage);
+            }
+        }
+    }
+
+    /**
+     * 复制子树，文件共享内容，调用时必须持有{@link #structure}的写锁
+     *
+     * @param node  节点
+     * @param count 复制的文件数量(包括目录)
+     * @return 复制的节点
+     */
+    private static Node share(Node node, long[] count) {
+        count[0]++;
+        if (node instanceof FileNode) {
+            SegmentedBuffer content = ((FileNode) node).content;
+            content.retain();
+            return new FileNode(content);
+        }
+        Dir copy = new Dir();
+        for (Map.Entry<String, Node> child : ((Dir) node).children.entrySet()) {
+            copy.children.put(child.getKey(), share(child.getValue(), count));
+        }
+        return copy;
+    }
+
+    /**
+     * 释放子树中所有文件的内容，并将子树中的目录标记为已删除，节点必须已经或正在从目录树中移除
+     *
+     * @param node 节点
+     * @return 释放的文件数量(包括目录)
+     */
+    private static long release(Node node) {
+        if (node instanceof FileNode) {
+            ((FileNode) node).content.release();
+            return 1;
+        }
+        Dir dir = (Dir) node;
+        long count = 1;
+        synchronized (dir) {
+            // 标记之后不会再有子项挂到该目录，因此遍历时能看到所有子项
+            dir.removed = true;
+            for (Node child : dir.children.values()) {
+                count += release(child);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 清空目录，目录本身保留
+     *
+     * @param dir 目录
+     * @return 释放的文件数量(包括目录)
+     */
+    private static long clear(Dir dir) {
+        long count = 0;
+        synchronized (dir) {
+            for (Node child : dir.children.values()) {
+                count += release(child);
+            }
+            dir.children.clear();
+            dir.modified = System.currentTimeMillis();
+        }
+        return count;
+    }
+
+    private abstract static class Node {
+        /**
+         * 节点的编号，每个新建的节点(包括复制的节点)都不同，用作文件标识
+         */
+        final long id = IDS.incrementAndGet();
+        volatile long modified = System.currentTimeMillis();
+    }
+
+    private static final class Dir extends Node {
+        /**
+         * 子项，按名称排序，可以不加锁读取，修改时必须持有该目录的锁
+         */
+        final ConcurrentNavigableMap<String, Node> children = new ConcurrentSkipListMap<>();
+        /**
+         * 是否已从目录树中删除，由该目录的锁保护
+         */
+        boolean removed;
+    }
+
+    private static final class FileNode extends Node {
+        final SegmentedBuffer content;
+
+        FileNode(SegmentedBuffer content) {
+            this.content = content;
+        }
+    }
+}
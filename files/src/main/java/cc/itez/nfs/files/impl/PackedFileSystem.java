@@ -0,0 +1,1327 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.files.AbstractFileSystem;
+import cc.itez.nfs.files.CopyStrategy;
+import cc.itez.nfs.files.Durability;
+import cc.itez.nfs.mould.BulkOutcome;
+import cc.itez.nfs.mould.FileStat;
+import cc.itez.nfs.mould.Outcome;
+import cc.itez.nfs.mould.Range;
+import cc.itez.nfs.mould.Usage;
+import cc.itez.nfs.utils.FileUtils;
+import cc.itez.nfs.utils.IOUtils;
+import cc.itez.nfs.utils.PathKey;
+import cc.itez.nfs.utils.PathUtils;
+import cc.itez.nfs.utils.RangeChannel;
+import lombok.NonNull;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.zip.CRC32C;
+
+/**
+ * 将小文件打包保存的文件系统
+ * 不超过阈值的文件以记录的形式追加到{@code segments}目录中的段文件，不再各自占用一个inode与目录项；
+ * 目录与超过阈值的文件仍然保存在{@code files}目录中，命名空间与{@link LocalFileSystem}相同。
+ * 内存中的索引记录每个小文件在段中的位置，读取只需一次按位置读取。
+ * <p>
+ * 段文件只追加不修改：覆盖写入新的记录，删除与移动写入对应的记录，旧的内容成为垃圾。
+ * 索引定期以检查点的形式写入{@code index}，启动时加载检查点后只需重放之后追加的记录；
+ * 后台压缩将垃圾比例较高的段中仍然有效的文件追加到当前段，写入检查点之后删除旧的段。
+ * 检查点丢失时从所有剩余的段重放，已被压缩的段中的删除记录不会再生效。
+ */
+public class PackedFileSystem implements AbstractFileSystem, Closeable {
+    private static final int MAGIC = 0x4E465350;
+    private static final int VERSION = 1;
+    /**
+     * 记录头：校验和与记录体长度
+     */
+    private static final int HEADER = 8;
+    /**
+     * 记录体的固定部分：类型、修改时间与路径长度
+     */
+    private static final int BODY = 11;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte MOVE = 3;
+
+    private final Path segmentDir;
+    private final Path indexFile;
+    private final Path spill;
+    /**
+     * 保存目录与大文件
+     */
+    private final LocalFileSystem files;
+    /**
+     * 小文件索引，按上级目录分组，子项按名称排序
+     */
+    private final Map<PathKey, NavigableMap<String, Needle>> dirs = new HashMap<>();
+    /**
+     * 有小文件的目录，按路径排序，目录之下的所有目录紧跟在目录之后，查询子树只需一次范围查找
+     */
+    private final NavigableSet<PathKey> order = new TreeSet<>();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    /**
+     * 保护索引与段的追加，读取只在定位时持有读锁
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object syncLock = new Object();
+    private volatile Segment active;
+    /**
+     * 追加的记录数，用于判断是否需要写入检查点
+     */
+    private long appended;
+    private long checkpointed = -1;
+    private int threshold = 64 * 1024;
+    private long segmentSize = 64L * 1024 * 1024;
+    private double garbageRatio = 0.5;
+    private Durability durability = Durability.NONE;
+    private ScheduledExecutorService compactor;
+
+    /**
+     * 打开或创建存储目录，加载检查点并重放之后的记录
+     *
+     * @param root 存储目录，其下会创建{@code files}与{@code segments}两个子目录
+     */
+    public PackedFileSystem(@NonNull Path root) throws IOException {
+        this.segmentDir = root.resolve("segments");
+        this.indexFile = root.resolve("index");
+        this.spill = root.resolve("spill");
+        this.files = new LocalFileSystem(root.resolve("files"));
+        PathUtils.mkdirs(this.segmentDir);
+        PathUtils.mkdirs(this.files.getBase());
+        FileUtils.delete(this.spill.toFile(), true);
+        this.open();
+    }
+
+    /**
+     * 设置打包的最大文件大小，只影响之后的写入
+     *
+     * @param threshold 最大文件大小(字节)
+     * @return this
+     */
+    public PackedFileSystem setThreshold(int threshold) {
+        this.threshold = Math.max(0, Math.min(threshold, IOUtils.MAP_THRESHOLD - 1));
+        return this;
+    }
+
+    /**
+     * 设置段文件的大小，当前段超过该大小后创建新的段
+     *
+     * @param segmentSize 段大小(字节)
+     * @return this
+     */
+    public PackedFileSystem setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+        return this;
+    }
+
+    /**
+     * 设置触发压缩的垃圾比例
+     *
+     * @param garbageRatio 段中无效内容占比达到该值时压缩(0~1)
+     * @return this
+     */
+    public PackedFileSystem setGarbageRatio(double garbageRatio) {
+        this.garbageRatio = garbageRatio;
+        return this;
+    }
+
+    /**
+     * 设置写入的持久化级别
+     * 小文件的记录都追加到同一个段文件，{@link Durability#GROUP_COMMIT}与{@link Durability#ALWAYS}均在返回之前刷新段文件，
+     * 并发写入的刷新会被合并；大文件按{@link LocalFileSystem#setDurability(Durability)}处理
+     *
+     * @param durability 持久化级别
+     * @return this
+     */
+    public PackedFileSystem setDurability(@NonNull Durability durability) {
+        this.durability = durability;
+        this.files.setDurability(durability);
+        return this;
+    }
+
+    /**
+     * 启动后台压缩，每隔指定时间执行一次{@link #compact()}并写入检查点
+     *
+     * @param interval 压缩间隔
+     * @return this
+     */
+    public synchronized PackedFileSystem startCompactor(@NonNull Duration interval) {
+        if (this.compactor == null) {
+            this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "nfs-packed-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.compactor.scheduleWithFixedDelay(() -> {
+                try {
+                    this.compact();
+                    this.checkpoint();
+                } catch (IOException | UncheckedIOException e) {
+                    e.printStackTrace();
+                }
+            }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    /**
+     * 压缩垃圾比例达到阈值的段
+     * 段中仍然有效的文件被追加到当前段，写入检查点之后删除旧的段；正在读取旧段的请求结束后才会关闭文件
+     *
+     * @return 被压缩的段数量
+     */
+    public synchronized int compact() throws IOException {
+        List<Segment> candidates = new ArrayList<>();
+        this.lock.readLock().lock();
+        try {
+            for (Segment segment : this.segments.values()) {
+                // 损坏的段保留原样，不会被压缩删除
+                if (segment != this.active && !segment.corrupted && segment.live <= segment.size * (1 - this.garbageRatio)) {
+                    candidates.add(segment);
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        if (candidates.isEmpty()) {
+            return 0;
+        }
+        for (Segment segment : candidates) {
+            Map<PathKey, Needle> live;
+            this.lock.readLock().lock();
+            try {
+                live = new HashMap<>(segment.needles);
+            } finally {
+                this.lock.readLock().unlock();
+            }
+            for (Map.Entry<PathKey, Needle> entry : live.entrySet()) {
+                Needle needle = entry.getValue();
+                ByteBuffer data = IOUtils.read(segment.channel, needle.offset, needle.length);
+                this.lock.writeLock().lock();
+                try {
+                    // 读取期间被覆盖、移动或删除的文件不再需要搬移
+                    if (this.needle(entry.getKey()) == needle) {
+                        this.put(entry.getKey(), this.append(PUT, entry.getKey(), needle.modified, data));
+                    }
+                } finally {
+                    this.lock.writeLock().unlock();
+                }
+            }
+        }
+        this.lock.writeLock().lock();
+        try {
+            // 搬移期间被移动的文件仍然指向旧的段，持有写锁补充搬移，之后不会再有文件指向这些段
+            for (Segment segment : candidates) {
+                for (Map.Entry<PathKey, Needle> entry : new ArrayList<>(segment.needles.entrySet())) {
+                    Needle needle = entry.getValue();
+                    ByteBuffer data = IOUtils.read(segment.channel, needle.offset, needle.length);
+                    this.put(entry.getKey(), this.append(PUT, entry.getKey(), needle.modified, data));
+                }
+                this.segments.remove(segment.id);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        // 检查点写入之后才能删除旧的段，否则重启时会丢失搬移之前的记录
+        this.flush();
+        this.checkpoint();
+        for (Segment segment : candidates) {
+            segment.obsolete = true;
+            segment.release();
+        }
+        return candidates.size();
+    }
+
+    /**
+     * 写入索引的检查点，先写入临时文件再原子替换
+     * 检查点记录写入时当前段的末尾，启动时只需重放之后的记录
+     */
+    public synchronized void checkpoint() throws IOException {
+        List<Map.Entry<PathKey, Needle>> entries = new ArrayList<>();
+        int tailSegment;
+        long tailOffset;
+        this.lock.readLock().lock();
+        try {
+            if (this.appended == this.checkpointed) {
+                return;
+            }
+            this.checkpointed = this.appended;
+            for (Map.Entry<PathKey, NavigableMap<String, Needle>> dir : this.dirs.entrySet()) {
+                for (Map.Entry<String, Needle> child : dir.getValue().entrySet()) {
+                    entries.add(Map.entry(dir.getKey().child(child.getKey()), child.getValue()));
+                }
+            }
+            tailSegment = this.active.id;
+            tailOffset = this.active.size;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        // 检查点之前的记录必须已经落盘
+        this.flush();
+        Path temp = Files.createTempFile(this.indexFile.getParent(), "index", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(tailSegment);
+                out.writeLong(tailOffset);
+                out.writeInt(entries.size());
+                for (Map.Entry<PathKey, Needle> entry : entries) {
+                    Needle needle = entry.getValue();
+                    out.writeUTF(entry.getKey().toString());
+                    out.writeInt(needle.segment);
+                    out.writeLong(needle.offset);
+                    out.writeInt(needle.length);
+                    out.writeLong(needle.modified);
+                }
+            }
+            if (this.durability != Durability.NONE) {
+                FileUtils.force(temp);
+            }
+            Files.move(temp, this.indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            this.checkpointed = -1;
+            throw e;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 停止后台压缩，写入检查点并关闭所有段文件
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (this.compactor != null) {
+                this.compactor.shutdownNow();
+                this.compactor = null;
+            }
+        }
+        try {
+            this.checkpoint();
+        } finally {
+            this.lock.writeLock().lock();
+            try {
+                for (Segment segment : this.segments.values()) {
+                    segment.channel.close();
+                }
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+            this.files.close();
+            FileUtils.delete(this.spill.toFile(), true);
+        }
+    }
+
+    @Override
+    public @NonNull List<Path> ls(@NonNull Path path, boolean all) throws FileNotFoundException {
+        PathKey key = PathKey.of(path);
+        this.lock.readLock().lock();
+        try {
+            if (this.needle(key) != null) {
+                return new LinkedList<>(List.of(path));
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        List<Path> result = this.files.ls(path, all);
+        if (!Files.isDirectory(key.resolve(this.files.getBase()))) {
+            return result;
+        }
+        this.lock.readLock().lock();
+        try {
+            NavigableMap<String, Needle> children = this.dirs.get(key);
+            if (children != null) {
+                for (String name : children.keySet()) {
+                    if (all || name.charAt(0) != '.') {
+                        result.add(key.child(name).toPath());
+                    }
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * 小文件返回的是导出到临时目录中的副本，每次调用都会重新导出，修改返回的文件不会影响文件系统
+     */
+    @Override
+    public @NonNull File get(@NonNull Path path) throws FileNotFoundException {
+        PathKey key = PathKey.of(path);
+        Handle handle = this.locate(key);
+        if (handle == null) {
+            return this.files.get(path);
+        }
+        Path file = key.resolve(this.spill);
+        try {
+            PathUtils.mkdirs(file.getParent());
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                IOUtils.transfer(handle.segment.channel, handle.needle.offset, handle.needle.length, channel);
+            }
+            return file.toFile();
+        } catch (IOException e) {
+            throw new FileNotFoundException(path + " (" + e.getMessage() + ")");
+        } finally {
+            handle.segment.release();
+        }
+    }
+
+    @Override
+    public @NonNull Outcome mkdirs(@NonNull Path path) {
+        this.lock.readLock().lock();
+        try {
+            for (PathKey key = PathKey.of(path); key != null; key = key.parent()) {
+                if (this.needle(key) != null) {
+                    return Outcome.failure("Create directory failure!");
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return this.files.mkdirs(path);
+    }
+
+    @Override
+    public @NonNull Outcome rm(@NonNull Path path, boolean recursive) {
+        PathKey key = PathKey.of(path);
+        Outcome outcome;
+        this.lock.writeLock().lock();
+        try {
+            if (this.needle(key) != null) {
+                this.append(DELETE, key, System.currentTimeMillis(), ByteBuffer.allocate(0));
+                outcome = BulkOutcome.of(path, this.unlink(key), List.of(), null);
+            } else {
+                boolean packed = this.packed(key);
+                if (packed && !recursive) {
+                    return Outcome.error(new DirectoryNotEmptyException(path.toString()));
+                }
+                long count = 0;
+                if (packed) {
+                    this.append(DELETE, key, System.currentTimeMillis(), ByteBuffer.allocate(0));
+                    count = this.unlink(key);
+                }
+                outcome = this.files.rm(path, recursive);
+                if (outcome instanceof BulkOutcome) {
+                    ((BulkOutcome) outcome).setCount(((BulkOutcome) outcome).getCount() + count);
+                }
+                if (key.parent() == null) {
+                    PathUtils.mkdirs(this.files.getBase());
+                }
+            }
+        } catch (IOException e) {
+            return Outcome.error(e);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        try {
+            this.flush();
+        } catch (IOException e) {
+            return Outcome.error(e);
+        }
+        return outcome;
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull InputStream source, @NonNull Path target, boolean cover) throws IOException {
+        if (source instanceof FileInputStream) {
+            return this.save(((FileInputStream) source).getChannel(), target, cover);
+        }
+        return this.save(Channels.newChannel(source), target, cover);
+    }
+
+    /**
+     * 保存文件
+     * 先读取不超过阈值的内容，在阈值之内结束的文件打包保存，否则连同剩余的内容保存为单独的文件
+     */
+    @Override
+    public @NonNull Outcome save(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover) throws IOException {
+        PathKey key = PathKey.of(target);
+        if (key.parent() == null) {
+            throw new FileAlreadyExistsException(target + " (Target file already exists)");
+        }
+        if (!(source instanceof FileChannel) || ((FileChannel) source).size() - ((FileChannel) source).position() <= this.threshold) {
+            ByteBuffer head = ByteBuffer.allocate(this.threshold + 1);
+            while (head.hasRemaining() && source.read(head) >= 0) {
+                // 读取到阈值或末尾
+            }
+            head.flip();
+            if (head.remaining() <= this.threshold) {
+                this.pack(key, head, System.currentTimeMillis(), cover);
+                return Outcome.success(target);
+            }
+            InputStream rest = new SequenceInputStream(new ByteArrayInputStream(head.array(), 0, head.limit()), Channels.newInputStream(source));
+            source = Channels.newChannel(rest);
+        }
+        this.lock.readLock().lock();
+        try {
+            if (!cover && this.needle(key) != null) {
+                throw new FileAlreadyExistsException(target + " (Target file already exists)");
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        Outcome outcome = this.files.save(source, target, cover);
+        this.lock.writeLock().lock();
+        try {
+            if (this.needle(key) != null) {
+                this.append(DELETE, key, System.currentTimeMillis(), ByteBuffer.allocate(0));
+                this.unlink(key);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.flush();
+        return outcome;
+    }
+
+    @Override
+    public long transfer(@NonNull Path source, @NonNull WritableByteChannel target) throws IOException {
+        Handle handle = this.locate(PathKey.of(source));
+        if (handle == null) {
+            return this.files.transfer(source, target);
+        }
+        try {
+            return IOUtils.transfer(handle.segment.channel, handle.needle.offset, handle.needle.length, target);
+        } finally {
+            handle.segment.release();
+        }
+    }
+
+    @Override
+    public long transfer(@NonNull Path source, @NonNull Range range, @NonNull WritableByteChannel target) throws IOException {
+        Handle handle = this.locate(PathKey.of(source));
+        if (handle == null) {
+            return this.files.transfer(source, range, target);
+        }
+        try {
+            long offset = handle.offset(range.getOffset());
+            return IOUtils.transfer(handle.segment.channel, offset, handle.length(offset, range.getLength()), target);
+        } finally {
+            handle.segment.release();
+        }
+    }
+
+    @Override
+    public @NonNull ReadableByteChannel read(@NonNull Path path, long offset, long length) throws IOException {
+        Handle handle = this.locate(PathKey.of(path));
+        if (handle == null) {
+            return this.files.read(path, offset, length);
+        }
+        long start = handle.offset(offset);
+        return new RangeChannel(handle.segment.channel, start, handle.length(start, length < 0 ? Long.MAX_VALUE : length), false) {
+            private boolean released;
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                synchronized (this) {
+                    if (!this.released) {
+                        this.released = true;
+                        handle.segment.release();
+                    }
+                }
+            }
+        };
+    }
+
+    @Override
+    public @NonNull ByteBuffer read(@NonNull Path path, @NonNull Range range) throws IOException {
+        Handle handle = this.locate(PathKey.of(path));
+        if (handle == null) {
+            return this.files.read(path, range);
+        }
+        try {
+            return handle.read(range);
+        } finally {
+            handle.segment.release();
+        }
+    }
+
+    @Override
+    public @NonNull List<ByteBuffer> read(@NonNull Path path, @NonNull List<Range> ranges) throws IOException {
+        Handle handle = this.locate(PathKey.of(path));
+        if (handle == null) {
+            return this.files.read(path, ranges);
+        }
+        try {
+            List<ByteBuffer> result = new ArrayList<>(ranges.size());
+            for (Range range : ranges) {
+                result.add(handle.read(range));
+            }
+            return result;
+        } finally {
+            handle.segment.release();
+        }
+    }
+
+    @Override
+    public Outcome cp(@NonNull Path source, @NonNull Path target, boolean cover) throws IOException {
+        return this.cp(source, target, cover, CopyStrategy.COPY);
+    }
+
+    /**
+     * 复制文件或目录树，目录下的小文件复制到当前段，保留修改时间
+     */
+    @Override
+    public Outcome cp(@NonNull Path source, @NonNull Path target, boolean cover, @NonNull CopyStrategy strategy) throws IOException {
+        PathKey from = PathKey.of(source);
+        PathKey to = PathKey.of(target);
+        Handle handle = this.locate(from);
+        if (handle != null) {
+            ByteBuffer data;
+            try {
+                data = IOUtils.read(handle.segment.channel, handle.needle.offset, handle.needle.length);
+            } finally {
+                handle.segment.release();
+            }
+            this.pack(to, data, handle.needle.modified, cover);
+            return BulkOutcome.of(target, 1, List.of(), null);
+        }
+        Outcome outcome;
+        this.lock.writeLock().lock();
+        try {
+            if (to.startsWith(from)) {
+                throw new IOException(target + " (Cannot copy a directory into itself)");
+            }
+            this.check(to, cover);
+            outcome = this.files.cp(source, target, cover, strategy);
+            // 复制成功之后目标才会被替换，源不存在或复制失败时保留原有的小文件
+            this.shadow(to);
+            long count = 0;
+            for (Map.Entry<PathKey, Needle> entry : this.subtree(from).entrySet()) {
+                Needle needle = entry.getValue();
+                ByteBuffer data = IOUtils.read(this.segments.get(needle.segment).channel, needle.offset, needle.length);
+                PathKey key = entry.getKey().rebase(from, to);
+                this.put(key, this.append(PUT, key, needle.modified, data));
+                count++;
+            }
+            if (outcome instanceof BulkOutcome) {
+                ((BulkOutcome) outcome).setCount(((BulkOutcome) outcome).getCount() + count);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.flush();
+        return outcome;
+    }
+
+    /**
+     * 移动文件或目录，小文件只追加一条移动记录，内容不会被复制
+     */
+    @Override
+    public Outcome mv(@NonNull Path source, @NonNull Path target, boolean cover) throws IOException {
+        PathKey from = PathKey.of(source);
+        PathKey to = PathKey.of(target);
+        Outcome outcome;
+        boolean relink;
+        this.lock.writeLock().lock();
+        try {
+            if (this.needle(from) != null) {
+                if (to.equals(from)) {
+                    return Outcome.success(target);
+                }
+                Path real = to.resolve(this.files.getBase());
+                if (Files.exists(real) && (!cover || Files.isDirectory(real))) {
+                    throw new FileAlreadyExistsException(target + " (Target file already exists)");
+                }
+                this.check(to, cover);
+                this.mkdirs(to.parent(), target);
+                this.clear(to, true);
+                Files.deleteIfExists(real);
+                outcome = Outcome.success(target);
+                relink = true;
+            } else {
+                this.check(to, cover);
+                outcome = this.files.mv(source, target, cover);
+                // 移动成功之后目标才会被替换，源不存在或移动失败时保留原有的小文件
+                this.shadow(to);
+                relink = outcome.isSuccessful() && this.packed(from);
+            }
+            if (relink) {
+                this.append(MOVE, to, System.currentTimeMillis(), ByteBuffer.wrap(from.toString().getBytes(StandardCharsets.UTF_8)));
+                this.relink(from, to);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.flush();
+        return outcome;
+    }
+
+    @Override
+    public @NonNull List<Path> find(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level) {
+        List<Path> result = this.files.find(base, name, type, level);
+        if (type == FileType.DIR) {
+            return result;
+        }
+        PathKey key = PathKey.of(base);
+        Predicate<String> filter = FileUtils.nameFilter(name);
+        this.lock.readLock().lock();
+        try {
+            for (PathKey path : this.subtree(key).keySet()) {
+                if ((level < 0 || path.depth() - key.depth() <= level) && filter.test(path.name())) {
+                    result.add(path.toPath());
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * 小文件直接由索引返回，不会导出文件；小文件没有inode，以内容在段文件中的位置作为文件标识，
+     * 内容只追加写入，因此每次保存的位置都不同(压缩段文件后位置也会改变)
+     */
+    @Override
+    public @NonNull FileStat stat(@NonNull Path path) throws IOException {
+        PathKey key = PathKey.of(path);
+        this.lock.readLock().lock();
+        try {
+            Needle needle = this.needle(key);
+            if (needle != null) {
+                return FileStat.of(path, false, needle.length, needle.modified, ((long) needle.segment << 40) | needle.offset);
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return this.files.stat(path);
+    }
+
+    /**
+     * 目录与大文件由{@link LocalFileSystem}统计，再加上目录下的小文件
+     */
+    @Override
+    public @NonNull Usage usage(@NonNull Path path) throws IOException {
+        PathKey key = PathKey.of(path);
+        this.lock.readLock().lock();
+        try {
+            Needle needle = this.needle(key);
+            if (needle != null) {
+                return new Usage().setPath(path).setSize(needle.length).setFiles(1);
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        Usage usage = this.files.usage(path).setPath(path);
+        this.lock.readLock().lock();
+        try {
+            for (Needle needle : this.subtree(key).values()) {
+                usage.setSize(usage.getSize() + needle.length).setFiles(usage.getFiles() + 1);
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return usage;
+    }
+
+    /**
+     * 打包保存文件
+     *
+     * @param key      目标路径
+     * @param data     文件内容
+     * @param modified 修改时间
+     * @param cover    目标存在时是否覆盖
+     */
+    private void pack(PathKey key, ByteBuffer data, long modified, boolean cover) throws IOException {
+        Path target = key.toPath();
+        this.lock.writeLock().lock();
+        try {
+            Path real = key.resolve(this.files.getBase());
+            if (!cover && (this.needle(key) != null || Files.exists(real))) {
+                throw new FileAlreadyExistsException(target + " (Target file already exists)");
+            }
+            if (Files.isDirectory(real)) {
+                throw new FileAlreadyExistsException(target + " (Target file already exists)");
+            }
+            this.mkdirs(key.parent(), target);
+            this.put(key, this.append(PUT, key, modified, data));
+            Files.deleteIfExists(real);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.flush();
+    }
+
+    /**
+     * 创建目标的上级目录，路径上存在小文件时抛出异常，调用时必须持有写锁
+     *
+     * @param dir    上级目录
+     * @param target 目标路径
+     */
+    private void mkdirs(PathKey dir, Path target) throws IOException {
+        for (PathKey key = dir; key.parent() != null; key = key.parent()) {
+            if (this.needle(key) != null) {
+                throw new NotDirectoryException(key.toString());
+            }
+        }
+        if (!Files.isDirectory(dir.resolve(this.files.getBase())) && !this.files.mkdirs(dir.toPath()).isSuccessful()) {
+            throw new NotDirectoryException(target.getParent().toString());
+        }
+    }
+
+    /**
+     * 不覆盖时检查目标位置是否已有小文件，调用时必须持有锁
+     *
+     * @param key   目标路径
+     * @param cover 目标存在时是否覆盖
+     */
+    private void check(PathKey key, boolean cover) throws IOException {
+        if (!cover && this.needle(key) != null) {
+            throw new FileAlreadyExistsException(key + " (Target file already exists)");
+        }
+    }
+
+    /**
+     * 目标已经由{@link LocalFileSystem}创建时删除同一路径的小文件，调用时必须持有写锁
+     *
+     * @param key 路径
+     */
+    private void shadow(PathKey key) throws IOException {
+        if (Files.exists(key.resolve(this.files.getBase()), LinkOption.NOFOLLOW_LINKS)) {
+            this.clear(key, true);
+        }
+    }
+
+    /**
+     * 覆盖之前删除目标位置的小文件，调用时必须持有写锁
+     *
+     * @param key   目标路径
+     * @param cover 目标存在时是否覆盖
+     */
+    private void clear(PathKey key, boolean cover) throws IOException {
+        if (this.needle(key) != null) {
+            if (!cover) {
+                throw new FileAlreadyExistsException(key + " (Target file already exists)");
+            }
+            this.append(DELETE, key, System.currentTimeMillis(), ByteBuffer.allocate(0));
+            this.unlink(key);
+        }
+    }
+
+    /**
+     * 定位小文件并增加所在段的引用计数，调用者读取完毕后必须释放
+     *
+     * @param key 路径
+     * @return 位置，不是小文件时返回null
+     */
+    private Handle locate(PathKey key) {
+        this.lock.readLock().lock();
+        try {
+            Needle needle = this.needle(key);
+            if (needle == null) {
+                return null;
+            }
+            Segment segment = this.segments.get(needle.segment);
+            return segment != null && segment.retain() ? new Handle(segment, needle) : null;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 查找小文件，调用时必须持有锁
+     *
+     * @param key 路径
+     * @return 小文件的位置，不存在时返回null
+     */
+    private Needle needle(PathKey key) {
+        if (key.parent() == null) {
+            return null;
+        }
+        NavigableMap<String, Needle> children = this.dirs.get(key.parent());
+        return children == null ? null : children.get(key.name());
+    }
+
+    /**
+     * 路径本身或其下是否有小文件，调用时必须持有锁
+     *
+     * @param key 路径
+     * @return 是否有小文件
+     */
+    private boolean packed(PathKey key) {
+        if (this.needle(key) != null) {
+            return true;
+        }
+        PathKey dir = this.order.ceiling(key);
+        return dir != null && dir.startsWith(key);
+    }
+
+    /**
+     * 获取路径本身或其下的所有小文件，调用时必须持有锁
+     *
+     * @param key 路径
+     * @return 小文件的路径与位置
+     */
+    private Map<PathKey, Needle> subtree(PathKey key) {
+        Map<PathKey, Needle> result = new HashMap<>();
+        Needle needle = this.needle(key);
+        if (needle != null) {
+            result.put(key, needle);
+        }
+        for (PathKey dir : this.order.tailSet(key, true)) {
+            if (!dir.startsWith(key)) {
+                break;
+            }
+            for (Map.Entry<String, Needle> child : this.dirs.get(dir).entrySet()) {
+                result.put(dir.child(child.getKey()), child.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 更新索引并统计所在段的有效内容，调用时必须持有写锁
+     *
+     * @param key    路径
+     * @param needle 小文件的位置
+     */
+    private void put(PathKey key, Needle needle) {
+        Needle old = this.children(key.parent()).put(key.name(), needle);
+        this.account(key, old, -1);
+        this.account(key, needle, 1);
+    }
+
+    /**
+     * 删除路径本身及其下的所有小文件，调用时必须持有写锁
+     *
+     * @param key 路径
+     * @return 删除的文件数量
+     */
+    private long unlink(PathKey key) {
+        long count = 0;
+        for (Map.Entry<PathKey, Needle> entry : this.subtree(key).entrySet()) {
+            this.remove(entry.getKey());
+            this.account(entry.getKey(), entry.getValue(), -1);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 将路径本身及其下的所有小文件移动到新的路径，调用时必须持有写锁
+     *
+     * @param from 原路径
+     * @param to   新路径
+     */
+    private void relink(PathKey from, PathKey to) {
+        Map<PathKey, Needle> moved = this.subtree(from);
+        for (Map.Entry<PathKey, Needle> entry : moved.entrySet()) {
+            this.remove(entry.getKey());
+            this.account(entry.getKey(), entry.getValue(), -1);
+        }
+        for (Map.Entry<PathKey, Needle> entry : moved.entrySet()) {
+            PathKey key = entry.getKey().rebase(from, to);
+            Needle old = this.children(key.parent()).put(key.name(), entry.getValue());
+            this.account(key, old, -1);
+            this.account(key, entry.getValue(), 1);
+        }
+    }
+
+    /**
+     * 获取目录的子项，不存在时创建，调用时必须持有写锁
+     *
+     * @param dir 目录
+     * @return 子项
+     */
+    private NavigableMap<String, Needle> children(PathKey dir) {
+        NavigableMap<String, Needle> children = this.dirs.get(dir);
+        if (children == null) {
+            children = new TreeMap<>();
+            this.dirs.put(dir, children);
+            this.order.add(dir);
+        }
+        return children;
+    }
+
+    private void remove(PathKey key) {
+        NavigableMap<String, Needle> children = this.dirs.get(key.parent());
+        if (children != null && children.remove(key.name()) != null && children.isEmpty()) {
+            this.dirs.remove(key.parent());
+            this.order.remove(key.parent());
+        }
+    }
+
+    /**
+     * 统计所在段的有效内容并登记段中的有效文件，调用时必须持有写锁
+     *
+     * @param key    路径
+     * @param needle 小文件的位置，为null时忽略
+     * @param sign   1为加入，-1为移除
+     */
+    private void account(PathKey key, Needle needle, int sign) {
+        if (needle != null) {
+            Segment segment = this.segments.get(needle.segment);
+            if (segment != null) {
+                segment.live += sign * (long) needle.length;
+                if (sign > 0) {
+                    segment.needles.put(key, needle);
+                } else {
+                    segment.needles.remove(key, needle);
+                }
+            }
+        }
+    }
+
+    /**
+     * 追加一条记录，当前段已满时先创建新的段，调用时必须持有写锁
+     * 记录格式：校验和(4) 记录体长度(4) | 类型(1) 修改时间(8) 路径长度(2) 路径 内容
+     *
+     * @param type     记录类型
+     * @param key      路径
+     * @param modified 修改时间
+     * @param payload  内容：写入记录为文件内容，移动记录为原路径，删除记录为空
+     * @return 写入记录中文件内容的位置
+     */
+    private Needle append(byte type, PathKey key, long modified, ByteBuffer payload) throws IOException {
+        Segment segment = this.active;
+        if (segment.size >= this.segmentSize) {
+            segment = this.roll();
+        }
+        byte[] path = key.toString().getBytes(StandardCharsets.UTF_8);
+        if (path.length > 0xFFFF) {
+            throw new FileSystemException(key + " (File name too long)");
+        }
+        int length = BODY + path.length + payload.remaining();
+        ByteBuffer record = ByteBuffer.allocate(HEADER + length);
+        record.position(HEADER);
+        record.put(type).putLong(modified).putShort((short) path.length).put(path);
+        int offset = record.position();
+        int size = payload.remaining();
+        record.put(payload);
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), HEADER, length);
+        record.putInt(0, (int) crc.getValue()).putInt(4, length).flip();
+        long position = segment.size;
+        while (record.hasRemaining()) {
+            segment.channel.write(record, position + record.position());
+        }
+        segment.size = position + record.limit();
+        this.appended++;
+        return new Needle(segment.id, position + offset, size, modified);
+    }
+
+    /**
+     * 关闭当前段并创建新的段，调用时必须持有写锁
+     *
+     * @return 新的段
+     */
+    private Segment roll() throws IOException {
+        Segment current = this.active;
+        if (this.durability != Durability.NONE) {
+            synchronized (this.syncLock) {
+                current.channel.force(false);
+                current.synced = current.size;
+            }
+        }
+        Segment segment = this.openSegment(current.id + 1);
+        this.segments.put(segment.id, segment);
+        this.active = segment;
+        return segment;
+    }
+
+    /**
+     * 按持久化级别刷新当前段，同时等待刷新的写入共用一次刷新
+     */
+    private void flush() throws IOException {
+        if (this.durability == Durability.NONE) {
+            return;
+        }
+        Segment segment = this.active;
+        long end = segment.size;
+        synchronized (this.syncLock) {
+            if (segment.synced >= end || !segment.channel.isOpen()) {
+                return;
+            }
+            long size = segment.size;
+            segment.channel.force(false);
+            segment.synced = size;
+        }
+    }
+
+    /**
+     * 打开所有段，加载检查点并重放之后的记录
+     */
+    private void open() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.segmentDir, "*.seg")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    int id = Integer.parseInt(name.substring(0, name.length() - 4));
+                    this.segments.put(id, this.openSegment(id));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        if (this.segments.isEmpty()) {
+            this.segments.put(1, this.openSegment(1));
+        }
+        this.lock.writeLock().lock();
+        try {
+            long[] tail = this.load();
+            int last = this.segments.lastKey();
+            for (Segment segment : this.segments.values()) {
+                if (tail == null || segment.id >= tail[0]) {
+                    this.replay(segment, tail != null && segment.id == tail[0] ? tail[1] : 0, segment.id == last);
+                }
+            }
+            // 检查点与重放都不统计有效内容，最后统一计算
+            for (Segment segment : this.segments.values()) {
+                segment.live = 0;
+                segment.needles.clear();
+            }
+            for (Map.Entry<PathKey, NavigableMap<String, Needle>> dir : this.dirs.entrySet()) {
+                for (Map.Entry<String, Needle> child : dir.getValue().entrySet()) {
+                    this.account(dir.getKey().child(child.getKey()), child.getValue(), 1);
+                }
+            }
+            this.active = this.segments.lastEntry().getValue();
+            this.checkpointed = tail != null && this.appended == 0 ? 0 : -1;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 加载检查点，检查点无效或引用的段已不存在时清空索引
+     *
+     * @return 检查点记录的当前段与位置，未加载时返回null
+     */
+    private long[] load() {
+        if (!Files.isRegularFile(this.indexFile)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            long[] tail = {in.readInt(), in.readLong()};
+            if (!this.segments.containsKey((int) tail[0])) {
+                return null;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                PathKey key = PathKey.of(Path.of(in.readUTF()));
+                Needle needle = new Needle(in.readInt(), in.readLong(), in.readInt(), in.readLong());
+                if (!this.segments.containsKey(needle.segment)) {
+                    this.dirs.clear();
+                    this.order.clear();
+                    return null;
+                }
+                this.children(key.parent()).put(key.name(), needle);
+            }
+            return tail;
+        } catch (IOException | InvalidPathException e) {
+            this.dirs.clear();
+            this.order.clear();
+            return null;
+        }
+    }
+
+    /**
+     * 重放段中从指定位置开始的记录
+     * 只有最后一个段是写入中的段，其末尾不完整或校验失败的记录是断电留下的，直接截断；
+     * 其他段已经写完，出现无效记录说明文件已损坏，报告损坏的位置并保留文件，之后的记录不再重放，段也不会被压缩
+     *
+     * @param segment 段
+     * @param start   起始位置
+     * @param last    是否为最后一个段
+     */
+    private void replay(Segment segment, long start, boolean last) throws IOException {
+        FileChannel channel = segment.channel;
+        long size = channel.size();
+        long position = start;
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (position + HEADER <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            int checksum = header.getInt(0);
+            int length = header.getInt(4);
+            if (length < BODY || position + HEADER + length > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            readFully(channel, body, position + HEADER);
+            CRC32C crc = new CRC32C();
+            crc.update(body.array(), 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            body.flip();
+            byte type = body.get();
+            long modified = body.getLong();
+            byte[] path = new byte[body.getShort() & 0xFFFF];
+            body.get(path);
+            PathKey key = PathKey.of(Path.of(new String(path, StandardCharsets.UTF_8)));
+            switch (type) {
+                case PUT -> this.children(key.parent()).put(key.name(), new Needle(segment.id, position + HEADER + body.position(), body.remaining(), modified));
+                case DELETE -> this.unlink(key);
+                case MOVE -> {
+                    byte[] source = new byte[body.remaining()];
+                    body.get(source);
+                    this.relink(PathKey.of(Path.of(new String(source, StandardCharsets.UTF_8))), key);
+                }
+                default -> {
+                }
+            }
+            position += HEADER + length;
+            this.appended++;
+        }
+        if (position < size) {
+            if (last) {
+                // 写入过程中断电留下的不完整记录
+                channel.truncate(position);
+            } else {
+                segment.corrupted = true;
+                new StreamCorruptedException(segment.file + " (Invalid record at position " + position + ")").printStackTrace();
+                position = size;
+            }
+        }
+        segment.size = position;
+        segment.synced = position;
+    }
+
+    private Segment openSegment(int id) throws IOException {
+        Path file = this.segmentDir.resolve(String.format("%08d.seg", id));
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(id, file, channel);
+        segment.size = channel.size();
+        segment.synced = segment.size;
+        return segment;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * 小文件在段中的位置，不可变，被覆盖或移动时替换为新的实例
+     */
+    private static final class Needle {
+        final int segment;
+        final long offset;
+        final int length;
+        final long modified;
+
+        Needle(int segment, long offset, int length, long modified) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * 段文件，通过引用计数保证压缩删除段时正在进行的读取可以完成
+     */
+    private static final class Segment {
+        final int id;
+        final Path file;
+        final FileChannel channel;
+        final AtomicInteger refs = new AtomicInteger(1);
+        /**
+         * 已写入的末尾，由写锁保护
+         */
+        volatile long size;
+        volatile long synced;
+        /**
+         * 有效文件内容的字节数，由写锁保护
+         */
+        long live;
+        /**
+         * 段中的有效文件，由写锁保护，压缩时不需要扫描整个索引
+         */
+        final Map<PathKey, Needle> needles = new HashMap<>();
+        /**
+         * 重放时发现无效记录
+         */
+        boolean corrupted;
+        volatile boolean obsolete;
+
+        Segment(int id, Path file, FileChannel channel) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+        }
+
+        boolean retain() {
+            int refs;
+            do {
+                refs = this.refs.get();
+                if (refs == 0) {
+                    return false;
+                }
+            } while (!this.refs.compareAndSet(refs, refs + 1));
+            return true;
+        }
+
+        void release() {
+            if (this.refs.decrementAndGet() == 0) {
+                try {
+                    this.channel.close();
+                    if (this.obsolete) {
+                        Files.deleteIfExists(this.file);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 已定位的小文件与增加过引用计数的段
+     */
+    private static final class Handle {
+        final Segment segment;
+        final Needle needle;
+
+        Handle(Segment segment, Needle needle) {
+            this.segment = segment;
+            this.needle = needle;
+        }
+
+        /**
+         * 将文件内的偏移量转换为段内的位置，超出文件末尾时取末尾
+         */
+        long offset(long offset) {
+            return this.needle.offset + Math.min(Math.max(0, offset), this.needle.length);
+        }
+
+        /**
+         * 从段内位置开始不超过文件末尾的长度
+         */
+        long length(long position, long length) {
+            return Math.min(length, this.needle.offset + this.needle.length - position);
+        }
+
+        ByteBuffer read(Range range) throws IOException {
+            long position = this.offset(range.getOffset());
+            return IOUtils.read(this.segment.channel, position, this.length(position, range.getLength()));
+        }
+    }
+}
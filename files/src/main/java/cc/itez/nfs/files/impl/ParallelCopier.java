@@ -0,0 +1,276 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.files.CopyStrategy;
+import cc.itez.nfs.mould.BulkOutcome;
+import cc.itez.nfs.utils.FileUtils;
+import cc.itez.nfs.utils.IOUtils;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * 递归复制
+ * 目录先创建、后复制子项，所有子项复制完毕后再设置目录的时间属性(否则会被子项的创建覆盖)；
+ * 文件保留修改时间、访问时间与POSIX权限，符号链接复制为指向相同目标的链接。
+ * 指定线程池时，深度不超过{@code forkDepth}的子目录会被拆分为独立任务并行复制，否则使用{@link Files#walkFileTree}顺序复制。
+ * 单个文件复制失败时记录其路径并继续复制其他文件。
+ */
+class ParallelCopier {
+    private final ForkJoinPool pool;
+    private final int forkDepth;
+    private final CopyStrategy strategy;
+    private final Function<Path, Path> mapper;
+    private final boolean posix;
+    private final LongAdder count = new LongAdder();
+    private final Collection<Path> failed = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<IOException> error = new AtomicReference<>();
+
+    /**
+     * @param pool      线程池，为null时顺序复制
+     * @param forkDepth 拆分任务的最大目录深度
+     * @param strategy  复制策略
+     * @param mapper    将失败的绝对路径转换为结果中的路径
+     */
+    ParallelCopier(ForkJoinPool pool, int forkDepth, CopyStrategy strategy, Function<Path, Path> mapper) {
+        this.pool = pool;
+        this.forkDepth = forkDepth;
+        this.strategy = strategy;
+        this.mapper = mapper;
+        this.posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+    }
+
+    /**
+     * 复制文件或目录树，目标已存在时覆盖同名文件并合并同名目录
+     *
+     * @param source 源绝对路径
+     * @param target 目标绝对路径，上级目录已存在
+     * @return 处理结果
+     */
+    BulkOutcome copy(Path source, Path target) throws IOException {
+        BasicFileAttributes attrs = this.attributes(source);
+        if (!attrs.isDirectory()) {
+            this.copyEntry(source, target, attrs, this.strategy);
+        } else if (target.startsWith(source)) {
+            throw new IOException("Cannot copy " + source + " into itself");
+        } else if (this.strategy == CopyStrategy.REFLINK && FileUtils.reflink(source, target, true)) {
+            try (Stream<Path> walk = Files.walk(target)) {
+                this.count.add(walk.count());
+            }
+        } else {
+            // 整棵目录树克隆失败说明文件系统不支持克隆，不再为每个文件重复尝试
+            CopyStrategy strategy = this.strategy == CopyStrategy.REFLINK ? CopyStrategy.COPY : this.strategy;
+            if (this.pool == null) {
+                this.walk(source, target, strategy);
+            } else {
+                this.pool.invoke(new CopyTask(source, target, attrs, 0, strategy));
+            }
+        }
+        return BulkOutcome.of(target, this.count.sum(), new ArrayList<>(this.failed), this.error.get());
+    }
+
+    private void walk(Path source, Path target, CopyStrategy strategy) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                try {
+                    createDirectory(target.resolve(source.relativize(dir)));
+                    return FileVisitResult.CONTINUE;
+                } catch (IOException e) {
+                    fail(dir, e);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                try {
+                    // 遍历时读取的属性不包含权限，重新读取一次
+                    copyEntry(file, target.resolve(source.relativize(file)), posix ? attributes(file) : attrs, strategy);
+                } catch (IOException e) {
+                    fail(file, e);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                fail(file, exc);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                try {
+                    finishDirectory(target.resolve(source.relativize(dir)), attributes(dir));
+                } catch (IOException e) {
+                    fail(dir, e);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * 复制单个文件或符号链接
+     *
+     * @param source   源文件
+     * @param target   目标文件
+     * @param attrs    源文件的属性
+     * @param strategy 复制策略
+     */
+    private void copyEntry(Path source, Path target, BasicFileAttributes attrs, CopyStrategy strategy) {
+        try {
+            if (attrs.isSymbolicLink()) {
+                Files.deleteIfExists(target);
+                Files.createSymbolicLink(target, Files.readSymbolicLink(source));
+            } else if (!(strategy == CopyStrategy.HARDLINK && this.link(source, target))
+                    && !(strategy == CopyStrategy.REFLINK && FileUtils.reflink(source, target, false))) {
+                try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                     FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    IOUtils.copy(in, out);
+                }
+                this.copyAttributes(target, attrs);
+            }
+            this.count.increment();
+        } catch (IOException e) {
+            this.fail(source, e);
+        }
+    }
+
+    /**
+     * 创建硬链接
+     *
+     * @return 是否创建成功，跨卷或文件系统不支持时返回false
+     */
+    private boolean link(Path source, Path target) {
+        try {
+            Files.deleteIfExists(target);
+            Files.createLink(target, source);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private void createDirectory(Path dir) throws IOException {
+        try {
+            Files.createDirectory(dir);
+        } catch (FileAlreadyExistsException e) {
+            if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 目录的所有子项复制完毕后设置目录的属性
+     */
+    private void finishDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        this.copyAttributes(dir, attrs);
+        this.count.increment();
+    }
+
+    private BasicFileAttributes attributes(Path path) throws IOException {
+        Class<? extends BasicFileAttributes> type = this.posix ? PosixFileAttributes.class : BasicFileAttributes.class;
+        return Files.readAttributes(path, type, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    private void copyAttributes(Path target, BasicFileAttributes attrs) throws IOException {
+        Files.getFileAttributeView(target, BasicFileAttributeView.class)
+                .setTimes(attrs.lastModifiedTime(), attrs.lastAccessTime(), null);
+        if (attrs instanceof PosixFileAttributes) {
+            Files.getFileAttributeView(target, PosixFileAttributeView.class)
+                    .setPermissions(((PosixFileAttributes) attrs).permissions());
+        }
+    }
+
+    private void fail(Path path, IOException e) {
+        this.failed.add(this.mapper.apply(path));
+        this.error.compareAndSet(null, e);
+    }
+
+    private class CopyTask extends RecursiveAction {
+        private final Path source;
+        private final Path target;
+        private final BasicFileAttributes attrs;
+        private final int depth;
+        private final CopyStrategy strategy;
+
+        CopyTask(Path source, Path target, BasicFileAttributes attrs, int depth, CopyStrategy strategy) {
+            this.source = source;
+            this.target = target;
+            this.attrs = attrs;
+            this.depth = depth;
+            this.strategy = strategy;
+        }
+
+        @Override
+        protected void compute() {
+            this.visit(this.source, this.target, this.attrs, this.depth);
+        }
+
+        /**
+         * 创建目标目录并复制所有子项，浅层子目录拆分为新任务，深层子目录在当前任务内递归
+         *
+         * @param source 源目录
+         * @param target 目标目录
+         * @param attrs  源目录的属性
+         * @param depth  目录深度
+         */
+        private void visit(Path source, Path target, BasicFileAttributes attrs, int depth) {
+            try {
+                createDirectory(target);
+            } catch (IOException e) {
+                fail(source, e);
+                return;
+            }
+            List<CopyTask> forked = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(source)) {
+                for (Path child : children) {
+                    BasicFileAttributes childAttrs;
+                    try {
+                        childAttrs = attributes(child);
+                    } catch (IOException e) {
+                        fail(child, e);
+                        continue;
+                    }
+                    Path childTarget = target.resolve(child.getFileName().toString());
+                    if (!childAttrs.isDirectory()) {
+                        copyEntry(child, childTarget, childAttrs, this.strategy);
+                    } else if (depth + 1 <= forkDepth) {
+                        CopyTask task = new CopyTask(child, childTarget, childAttrs, depth + 1, this.strategy);
+                        task.fork();
+                        forked.add(task);
+                    } else {
+                        this.visit(child, childTarget, childAttrs, depth + 1);
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                fail(source, e instanceof DirectoryIteratorException ? ((DirectoryIteratorException) e).getCause() : (IOException) e);
+            }
+            for (CopyTask task : forked) {
+                task.join();
+            }
+            try {
+                finishDirectory(target, attrs);
+            } catch (IOException e) {
+                fail(source, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.mould.BulkOutcome;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 后序递归删除
+ * 边遍历边删除，不会在内存中收集整棵目录树；目录在其所有子项删除之后删除。
+ * 指定线程池时，深度不超过{@code forkDepth}的子目录会被拆分为独立任务并行删除，否则使用{@link Files#walkFileTree}顺序删除。
+ * 不跟随符号链接(只删除链接本身)，单个文件删除失败时记录其路径并继续删除其他文件。
+ */
+class ParallelDeleter {
+    private final ForkJoinPool pool;
+    private final int forkDepth;
+    private final Function<Path, Path> mapper;
+    private final LongAdder count = new LongAdder();
+    private final Collection<Path> failed = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<IOException> error = new AtomicReference<>();
+
+    /**
+     * @param pool      线程池，为null时顺序删除
+     * @param forkDepth 拆分任务的最大目录深度
+     * @param mapper    将失败的绝对路径转换为结果中的路径
+     */
+    ParallelDeleter(ForkJoinPool pool, int forkDepth, Function<Path, Path> mapper) {
+        this.pool = pool;
+        this.forkDepth = forkDepth;
+        this.mapper = mapper;
+    }
+
+    /**
+     * 删除文件或目录树
+     *
+     * @param root 绝对路径
+     * @return 处理结果
+     */
+    BulkOutcome delete(Path root) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (!attrs.isDirectory()) {
+            this.deleteEntry(root);
+        } else if (this.pool == null) {
+            this.walk(root);
+        } else {
+            this.pool.invoke(new DeleteTask(root, 0));
+        }
+        return BulkOutcome.of(root, this.count.sum(), new ArrayList<>(this.failed), this.error.get());
+    }
+
+    private void walk(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                deleteEntry(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                fail(file, exc);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                if (exc != null) {
+                    fail(dir, exc);
+                } else {
+                    deleteEntry(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void deleteEntry(Path path) {
+        try {
+            Files.delete(path);
+            this.count.increment();
+        } catch (IOException e) {
+            this.fail(path, e);
+        }
+    }
+
+    private void fail(Path path, IOException e) {
+        this.failed.add(this.mapper.apply(path));
+        this.error.compareAndSet(null, e);
+    }
+
+    private class DeleteTask extends RecursiveAction {
+        private final Path dir;
+        private final int depth;
+
+        DeleteTask(Path dir, int depth) {
+            this.dir = dir;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            this.visit(this.dir, this.depth);
+        }
+
+        /**
+         * 删除目录的所有子项后删除目录本身，浅层子目录拆分为新任务，深层子目录在当前任务内递归
+         *
+         * @param dir   目录
+         * @param depth 目录深度
+         */
+        private void visit(Path dir, int depth) {
+            List<DeleteTask> forked = new ArrayList<>();
+            boolean complete = true;
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+                for (Path child : children) {
+                    if (!Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                        deleteEntry(child);
+                    } else if (depth + 1 <= forkDepth) {
+                        DeleteTask task = new DeleteTask(child, depth + 1);
+                        task.fork();
+                        forked.add(task);
+                    } else {
+                        this.visit(child, depth + 1);
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                fail(dir, e instanceof DirectoryIteratorException ? ((DirectoryIteratorException) e).getCause() : (IOException) e);
+                complete = false;
+            }
+            for (DeleteTask task : forked) {
+                task.join();
+            }
+            if (complete) {
+                deleteEntry(dir);
+            }
+        }
+    }
+}
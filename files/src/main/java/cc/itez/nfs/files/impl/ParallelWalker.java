@@ -0,0 +1,129 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.utils.PathKey;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiPredicate;
+
+/**
+ * 基于{@link ForkJoinPool}的并行目录遍历器
+ * 深度小于{@code forkDepth}的子目录会被拆分为独立任务并行遍历，更深的目录在所属任务内顺序遍历，
+ * 以免为大量小目录创建过多任务。
+ * 与{@link Files#walk(Path, int, java.nio.file.FileVisitOption...)}一致：不跟随符号链接，深度0为起点本身；
+ * 不同的是无法读取的子目录会被跳过而不是终止整个遍历，且结果不保证顺序。
+ * 遍历时每个目录携带其{@link PathKey}，结果的路径由目录的路径拼接文件名得到，只有匹配的结果才会转换为{@link Path}。
+ */
+class ParallelWalker {
+    private final ForkJoinPool pool;
+    private final int forkDepth;
+
+    ParallelWalker(ForkJoinPool pool, int forkDepth) {
+        this.pool = pool;
+        this.forkDepth = forkDepth;
+    }
+
+    /**
+     * 遍历目录树
+     *
+     * @param base     起点
+     * @param key      起点在结果中的路径
+     * @param maxDepth 最大深度
+     * @param matcher  匹配条件
+     * @return 匹配的结果
+     */
+    List<Path> walk(Path base, PathKey key, int maxDepth, BiPredicate<Path, BasicFileAttributes> matcher) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(base, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        Collection<PathKey> result = new ConcurrentLinkedQueue<>();
+        if (matcher.test(base, attrs)) {
+            result.add(key);
+        }
+        if (attrs.isDirectory() && maxDepth > 0) {
+            this.pool.invoke(new WalkTask(base, key, 0, maxDepth, matcher, result));
+        }
+        List<Path> paths = new ArrayList<>(result.size());
+        for (PathKey path : result) {
+            paths.add(path.toPath());
+        }
+        return paths;
+    }
+
+    private class WalkTask extends RecursiveAction {
+        private final Path dir;
+        private final PathKey key;
+        private final int depth;
+        private final int maxDepth;
+        private final BiPredicate<Path, BasicFileAttributes> matcher;
+        private final Collection<PathKey> result;
+
+        WalkTask(Path dir, PathKey key, int depth, int maxDepth, BiPredicate<Path, BasicFileAttributes> matcher,
+                 Collection<PathKey> result) {
+            this.dir = dir;
+            this.key = key;
+            this.depth = depth;
+            this.maxDepth = maxDepth;
+            this.matcher = matcher;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute() {
+            List<WalkTask> forked = new ArrayList<>();
+            this.visit(this.dir, this.key, this.depth, forked);
+            for (WalkTask task : forked) {
+                task.join();
+            }
+        }
+
+        /**
+         * 遍历目录的直接子项，浅层子目录拆分为新任务，深层子目录在当前任务内递归
+         *
+         * @param dir    目录
+         * @param key    目录在结果中的路径
+         * @param depth  目录深度
+         * @param forked 已拆分的任务
+         */
+        private void visit(Path dir, PathKey key, int depth, List<WalkTask> forked) {
+            int childDepth = depth + 1;
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+                for (Path child : children) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    boolean descend = attrs.isDirectory() && childDepth < this.maxDepth;
+                    boolean matched = this.matcher.test(child, attrs);
+                    if (!descend && !matched) {
+                        continue;
+                    }
+                    PathKey childKey = key.child(child);
+                    if (matched) {
+                        this.result.add(childKey);
+                    }
+                    if (descend) {
+                        if (childDepth <= forkDepth) {
+                            WalkTask task = new WalkTask(child, childKey, childDepth, this.maxDepth, this.matcher, this.result);
+                            task.fork();
+                            forked.add(task);
+                        } else {
+                            this.visit(child, childKey, childDepth, forked);
+                        }
+                    }
+                }
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
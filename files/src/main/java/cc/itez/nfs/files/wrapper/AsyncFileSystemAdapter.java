@@ -0,0 +1,257 @@
+package cc.itez.nfs.files.wrapper;
+
+import cc.itez.nfs.files.AbstractFileSystem;
+import cc.itez.nfs.files.AbstractFileSystem.FileType;
+import cc.itez.nfs.files.AsyncFileSystem;
+import cc.itez.nfs.files.CopyStrategy;
+import cc.itez.nfs.files.UploadSession;
+import cc.itez.nfs.mould.BatchOperation;
+import cc.itez.nfs.mould.FileStat;
+import cc.itez.nfs.mould.Listing;
+import cc.itez.nfs.mould.Outcome;
+import cc.itez.nfs.mould.Page;
+import cc.itez.nfs.mould.Range;
+import cc.itez.nfs.mould.Usage;
+import cc.itez.nfs.utils.ConcurrencyLimiter;
+import lombok.NonNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 将同步文件系统适配为{@link AsyncFileSystem}
+ * 每个操作在独立的线程中执行：运行时支持虚拟线程(Java 21+)时使用虚拟线程，否则使用按需创建的守护线程池。
+ * 同一卷(即同一个实例)上同时执行的操作数量受并发上限限制，超出的操作在队列中等待而不占用线程，
+ * 因此大量并发请求只会受内存而不是线程数量的限制。也可以指定执行器，例如与其他组件共享的线程池。
+ */
+public class AsyncFileSystemAdapter implements AsyncFileSystem, Closeable {
+    private final AbstractFileSystem delegate;
+    /**
+     * 自行创建的执行器，关闭时停止；使用指定的执行器时为null
+     */
+    private final ExecutorService executor;
+    private final ConcurrencyLimiter limiter;
+
+    /**
+     * @param delegate    被适配的文件系统
+     * @param concurrency 同时执行的最大操作数量
+     */
+    public AsyncFileSystemAdapter(@NonNull AbstractFileSystem delegate, int concurrency) {
+        this.delegate = delegate;
+        this.executor = newExecutor();
+        this.limiter = new ConcurrencyLimiter(concurrency, this.executor);
+    }
+
+    /**
+     * @param delegate    被适配的文件系统
+     * @param concurrency 同时执行的最大操作数量
+     * @param executor    执行操作的执行器，由调用者负责关闭
+     */
+    public AsyncFileSystemAdapter(@NonNull AbstractFileSystem delegate, int concurrency, @NonNull Executor executor) {
+        this.delegate = delegate;
+        this.executor = null;
+        this.limiter = new ConcurrencyLimiter(concurrency, executor);
+    }
+
+    /**
+     * 并发限制器，可用于查询正在执行与排队的操作数量
+     *
+     * @return 并发限制器
+     */
+    public ConcurrencyLimiter getLimiter() {
+        return this.limiter;
+    }
+
+    @Override
+    public @NonNull AbstractFileSystem sync() {
+        return this.delegate;
+    }
+
+    @Override
+    public @NonNull CompletableFuture<List<Path>> ls(@NonNull Path path, boolean all) {
+        return this.limiter.submit(() -> this.delegate.ls(path, all));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Page<Path>> ls(@NonNull Path path, boolean all, long offset, int limit) {
+        return this.limiter.submit(() -> this.delegate.ls(path, all, offset, limit));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<File> get(@NonNull Path path) {
+        return this.limiter.submit(() -> this.delegate.get(path));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<FileStat> stat(@NonNull Path path) {
+        return this.limiter.submit(() -> this.delegate.stat(path));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Outcome> mkdirs(@NonNull Path path) {
+        return this.limiter.submit(() -> this.delegate.mkdirs(path));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Outcome> rm(@NonNull Path path, boolean recursive) {
+        return this.limiter.submit(() -> this.delegate.rm(path, recursive));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Outcome> save(@NonNull File source, @NonNull Path target, boolean cover) {
+        return this.limiter.submit(() -> this.delegate.save(source, target, cover));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Outcome> save(@NonNull InputStream source, @NonNull Path target, boolean cover) {
+        return this.limiter.submit(() -> this.delegate.save(source, target, cover));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Outcome> save(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover) {
+        return this.limiter.submit(() -> this.delegate.save(source, target, cover));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Long> transfer(@NonNull Path source, @NonNull WritableByteChannel target) {
+        return this.limiter.submit(() -> this.delegate.transfer(source, target));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Long> transfer(@NonNull Path source, @NonNull Range range, @NonNull WritableByteChannel target) {
+        return this.limiter.submit(() -> this.delegate.transfer(source, range, target));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<ReadableByteChannel> read(@NonNull Path path, long offset, long length) {
+        return this.limiter.submit(() -> this.delegate.read(path, offset, length));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<ByteBuffer> read(@NonNull Path path, @NonNull Range range) {
+        return this.limiter.submit(() -> this.delegate.read(path, range));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<List<ByteBuffer>> read(@NonNull Path path, @NonNull List<Range> ranges) {
+        return this.limiter.submit(() -> this.delegate.read(path, ranges));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<UploadSession> createUpload(@NonNull Path target, long size, boolean cover) {
+        return this.limiter.submit(() -> this.delegate.createUpload(target, size, cover));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Outcome> cp(@NonNull Path source, @NonNull Path target, boolean cover) {
+        return this.limiter.submit(() -> this.delegate.cp(source, target, cover));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Outcome> cp(@NonNull Path source, @NonNull Path target, boolean cover, @NonNull CopyStrategy strategy) {
+        return this.limiter.submit(() -> this.delegate.cp(source, target, cover, strategy));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Outcome> mv(@NonNull Path source, @NonNull Path target, boolean cover) {
+        return this.limiter.submit(() -> this.delegate.mv(source, target, cover));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<List<Outcome>> batch(@NonNull List<BatchOperation> operations) {
+        return this.limiter.submit(() -> this.delegate.batch(operations));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<List<Path>> find(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level) {
+        return this.limiter.submit(() -> this.delegate.find(base, name, type, level));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Page<Path>> find(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level, long offset, int limit) {
+        return this.limiter.submit(() -> this.delegate.find(base, name, type, level, offset, limit));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Usage> usage(@NonNull Path path) {
+        return this.limiter.submit(() -> this.delegate.usage(path));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Listing> tryLs(@NonNull Path path, boolean all) {
+        return this.limiter.submit(() -> this.delegate.tryLs(path, all));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Outcome> trySave(@NonNull File source, @NonNull Path target, boolean cover) {
+        return this.limiter.submit(() -> this.delegate.trySave(source, target, cover));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Outcome> trySave(@NonNull InputStream source, @NonNull Path target, boolean cover) {
+        return this.limiter.submit(() -> this.delegate.trySave(source, target, cover));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Outcome> trySave(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover) {
+        return this.limiter.submit(() -> this.delegate.trySave(source, target, cover));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Outcome> tryCp(@NonNull Path source, @NonNull Path target, boolean cover) {
+        return this.limiter.submit(() -> this.delegate.tryCp(source, target, cover));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Outcome> tryMv(@NonNull Path source, @NonNull Path target, boolean cover) {
+        return this.limiter.submit(() -> this.delegate.tryMv(source, target, cover));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Outcome> tryGet(@NonNull Path path) {
+        return this.limiter.submit(() -> this.delegate.tryGet(path));
+    }
+
+    @Override
+    public @NonNull CompletableFuture<Listing> tryFind(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level) {
+        return this.limiter.submit(() -> this.delegate.tryFind(base, name, type, level));
+    }
+
+    /**
+     * 停止接收新的操作，已提交的操作会继续执行；指定的执行器不会被关闭
+     */
+    @Override
+    public void close() {
+        if (this.executor != null) {
+            this.executor.shutdown();
+        }
+    }
+
+    /**
+     * 创建执行器
+     * 项目以Java 16为编译目标，因此通过反射调用{@code Executors.newVirtualThreadPerTaskExecutor()}
+     *
+     * @return 执行器
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "nfs-async");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
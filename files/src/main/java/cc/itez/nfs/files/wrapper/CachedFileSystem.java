@@ -0,0 +1,559 @@
+package cc.itez.nfs.files.wrapper;
+
+import cc.itez.nfs.files.AbstractFileSystem;
+import cc.itez.nfs.files.CopyStrategy;
+import cc.itez.nfs.files.UploadSession;
+import cc.itez.nfs.mould.Range;
+import cc.itez.nfs.mould.BatchOperation;
+import cc.itez.nfs.mould.Listing;
+import cc.itez.nfs.mould.Outcome;
+import cc.itez.nfs.mould.Page;
+import cc.itez.nfs.utils.PathUtils;
+import lombok.NonNull;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * 目录列举缓存
+ * 将最近的{@code ls}结果保存在有界的LRU中，通过本实例进行的修改会使相关目录失效。
+ * 如果指定了被包装文件系统在本地磁盘上的根目录，则使用{@link WatchService}监听已缓存的目录，
+ * 从而感知其他进程对磁盘的修改。
+ */
+public class CachedFileSystem extends FileSystemWrapper implements Closeable {
+    private final Map<Key, List<Path>> cache;
+    /**
+     * 每次失效时递增，用于丢弃在失效之前开始的列举结果
+     */
+    private final AtomicLong version = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final Path watchBase;
+    private final WatchService watcher;
+    private final Map<Path, WatchKey> watched = new ConcurrentHashMap<>();
+    private final Thread watchThread;
+
+    /**
+     * @param delegate 被包装的文件系统
+     * @param capacity 最多缓存的目录数量
+     */
+    public CachedFileSystem(@NonNull AbstractFileSystem delegate, int capacity) throws IOException {
+        this(delegate, capacity, null);
+    }
+
+    /**
+     * @param delegate  被包装的文件系统
+     * @param capacity  最多缓存的目录数量
+     * @param watchBase 被包装文件系统在本地磁盘上的根目录，为null时不监听磁盘
+     */
+    public CachedFileSystem(@NonNull AbstractFileSystem delegate, int capacity, Path watchBase) throws IOException {
+        super(delegate);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, List<Path>> eldest) {
+                if (size() > capacity) {
+                    Key key = eldest.getKey();
+                    // 同一目录的另一种列举方式(是否包含隐藏文件)不在缓存中时才停止监听
+                    if (!containsKey(new Key(key.path, !key.all))) {
+                        unwatch(key.path);
+                    }
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.watchBase = watchBase;
+        if (watchBase != null) {
+            this.watcher = watchBase.getFileSystem().newWatchService();
+            this.watchThread = new Thread(this::watch, "nfs-ls-cache-watcher");
+            this.watchThread.setDaemon(true);
+            this.watchThread.start();
+        } else {
+            this.watcher = null;
+            this.watchThread = null;
+        }
+    }
+
+    /**
+     * 命中次数
+     *
+     * @return 命中次数
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * 未命中次数
+     *
+     * @return 未命中次数
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * 命中率
+     *
+     * @return 命中率，没有请求时为0
+     */
+    public double getHitRatio() {
+        long hits = this.hits.sum();
+        long total = hits + this.misses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * 正在监听的目录数量
+     *
+     * @return 目录数量
+     */
+    public int getWatchCount() {
+        return this.watched.size();
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        this.version.incrementAndGet();
+        synchronized (this.cache) {
+            this.cache.clear();
+        }
+        for (Path dir : new ArrayList<>(this.watched.keySet())) {
+            this.unwatch(dir);
+        }
+    }
+
+    @Override
+    public @NonNull List<Path> ls(@NonNull Path path, boolean all) throws FileNotFoundException {
+        Key key = new Key(normalize(path), all);
+        List<Path> cached = this.lookup(key);
+        if (cached != null) {
+            return new LinkedList<>(cached);
+        }
+        long version = this.version.get();
+        boolean watching = this.watch(key.path);
+        List<Path> result = this.delegate.ls(path, all);
+        this.store(key, version, watching, result);
+        return result;
+    }
+
+    @Override
+    public @NonNull Listing tryLs(@NonNull Path path, boolean all) {
+        Key key = new Key(normalize(path), all);
+        List<Path> cached = this.lookup(key);
+        if (cached != null) {
+            return Listing.of(path, new LinkedList<>(cached));
+        }
+        long version = this.version.get();
+        boolean watching = this.watch(key.path);
+        Listing listing = this.delegate.tryLs(path, all);
+        if (listing.isSuccessful()) {
+            this.store(key, version, watching, listing.getItems());
+        }
+        return listing;
+    }
+
+    /**
+     * 查找缓存并记录命中情况
+     *
+     * @param key 缓存键
+     * @return 缓存的列表，未命中时返回null
+     */
+    private List<Path> lookup(Key key) {
+        List<Path> cached;
+        synchronized (this.cache) {
+            cached = this.cache.get(key);
+        }
+        if (cached != null) {
+            this.hits.increment();
+        } else {
+            this.misses.increment();
+        }
+        return cached;
+    }
+
+    /**
+     * 缓存列举结果，列举开始之后发生过失效时丢弃
+     *
+     * @param key      缓存键
+     * @param version  列举开始时的版本
+     * @param watching 是否正在监听该目录
+     * @param result   列举结果
+     */
+    private void store(Key key, long version, boolean watching, List<Path> result) {
+        // 列举的是文件而不是目录时不缓存
+        boolean directory = result.size() != 1 || !normalize(result.get(0)).equals(key.path);
+        if (directory && (watching || this.watcher == null)) {
+            List<Path> value = Collections.unmodifiableList(new ArrayList<>(result));
+            synchronized (this.cache) {
+                // 失效时在同一个锁内停止监听，监听仍然存在才说明列举期间没有漏掉变更
+                if (this.version.get() == version && (this.watcher == null || this.watched.containsKey(key.path))) {
+                    this.cache.put(key, value);
+                    return;
+                }
+            }
+        }
+        synchronized (this.cache) {
+            if (!this.cache.containsKey(key) && !this.cache.containsKey(new Key(key.path, !key.all))) {
+                this.unwatch(key.path);
+            }
+        }
+    }
+
+    @Override
+    public @NonNull Stream<Path> list(@NonNull Path path, boolean all) throws IOException {
+        List<Path> cached = this.lookup(new Key(normalize(path), all));
+        if (cached != null) {
+            return cached.stream();
+        }
+        return this.delegate.list(path, all);
+    }
+
+    @Override
+    public @NonNull Page<Path> ls(@NonNull Path path, boolean all, long offset, int limit) throws IOException {
+        try (Stream<Path> stream = this.list(path, all)) {
+            return Page.of(stream, offset, limit);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome mkdirs(@NonNull Path path) {
+        try {
+            return this.delegate.mkdirs(path);
+        } finally {
+            for (Path p = normalize(path); p != null; p = p.getParent()) {
+                this.invalidate(p, false);
+            }
+        }
+    }
+
+    @Override
+    public @NonNull Outcome rm(@NonNull Path path, boolean recursive) {
+        try {
+            return this.delegate.rm(path, recursive);
+        } finally {
+            this.invalidate(normalize(path), true);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull File source, @NonNull Path target, boolean cover) throws IOException {
+        try {
+            return this.delegate.save(source, target, cover);
+        } finally {
+            this.invalidate(normalize(target), false);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull InputStream source, @NonNull Path target, boolean cover) throws IOException {
+        try {
+            return this.delegate.save(source, target, cover);
+        } finally {
+            this.invalidate(normalize(target), false);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover) throws IOException {
+        try {
+            return this.delegate.save(source, target, cover);
+        } finally {
+            this.invalidate(normalize(target), false);
+        }
+    }
+
+    @Override
+    public @NonNull UploadSession createUpload(@NonNull Path target, long size, boolean cover) throws IOException {
+        return new InvalidatingUpload(this.delegate.createUpload(target, size, cover));
+    }
+
+    @Override
+    public UploadSession getUpload(@NonNull String id) {
+        UploadSession session = this.delegate.getUpload(id);
+        return session == null ? null : new InvalidatingUpload(session);
+    }
+
+    @Override
+    public Outcome cp(@NonNull Path source, @NonNull Path target, boolean cover) throws IOException {
+        try {
+            return this.delegate.cp(source, target, cover);
+        } finally {
+            this.invalidate(normalize(target), true);
+        }
+    }
+
+    @Override
+    public Outcome cp(@NonNull Path source, @NonNull Path target, boolean cover, @NonNull CopyStrategy strategy) throws IOException {
+        try {
+            return this.delegate.cp(source, target, cover, strategy);
+        } finally {
+            this.invalidate(normalize(target), true);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome mv(@NonNull Path source, @NonNull Path target, boolean cover) throws IOException {
+        try {
+            return this.delegate.mv(source, target, cover);
+        } finally {
+            this.invalidate(normalize(source), true);
+            this.invalidate(normalize(target), true);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull File source, @NonNull Path target, boolean cover) {
+        try {
+            return this.delegate.trySave(source, target, cover);
+        } finally {
+            this.invalidate(normalize(target), false);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull InputStream source, @NonNull Path target, boolean cover) {
+        try {
+            return this.delegate.trySave(source, target, cover);
+        } finally {
+            this.invalidate(normalize(target), false);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover) {
+        try {
+            return this.delegate.trySave(source, target, cover);
+        } finally {
+            this.invalidate(normalize(target), false);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome tryCp(@NonNull Path source, @NonNull Path target, boolean cover) {
+        try {
+            return this.delegate.tryCp(source, target, cover);
+        } finally {
+            this.invalidate(normalize(target), true);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome tryMv(@NonNull Path source, @NonNull Path target, boolean cover) {
+        try {
+            return this.delegate.tryMv(source, target, cover);
+        } finally {
+            this.invalidate(normalize(source), true);
+            this.invalidate(normalize(target), true);
+        }
+    }
+
+    @Override
+    public @NonNull List<Outcome> batch(@NonNull List<BatchOperation> operations) {
+        try {
+            return this.delegate.batch(operations);
+        } finally {
+            for (BatchOperation operation : operations) {
+                if (operation.getType() == BatchOperation.Type.MKDIRS) {
+                    for (Path p = normalize(operation.getTarget()); p != null; p = p.getParent()) {
+                        this.invalidate(p, false);
+                    }
+                    continue;
+                }
+                if (operation.getSource() != null) {
+                    this.invalidate(normalize(operation.getSource()), true);
+                }
+                this.invalidate(normalize(operation.getTarget()), true);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.watcher != null) {
+            this.watchThread.interrupt();
+            this.watcher.close();
+        }
+    }
+
+    /**
+     * 使路径及其上级目录的缓存失效，并停止监听不再缓存的目录
+     *
+     * @param path    规范化的路径
+     * @param subtree 是否同时使路径下所有子目录的缓存失效
+     */
+    private void invalidate(Path path, boolean subtree) {
+        this.version.incrementAndGet();
+        Path parent = path.getParent();
+        synchronized (this.cache) {
+            Iterator<Key> iterator = this.cache.keySet().iterator();
+            while (iterator.hasNext()) {
+                Path cached = iterator.next().path;
+                if (cached.equals(path) || cached.equals(parent) || (subtree && cached.startsWith(path))) {
+                    iterator.remove();
+                    // 同一目录的两种列举方式满足同样的条件，会被一起移除
+                    this.unwatch(cached);
+                }
+            }
+        }
+    }
+
+    /**
+     * 开始监听目录
+     *
+     * @param dir 规范化的目录
+     * @return 是否正在监听
+     */
+    private boolean watch(Path dir) {
+        if (this.watcher == null) {
+            return false;
+        }
+        if (this.watched.containsKey(dir)) {
+            return true;
+        }
+        try {
+            WatchKey key = PathUtils.join(this.watchBase, dir).register(this.watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+            WatchKey previous = this.watched.putIfAbsent(dir, key);
+            if (previous != null && previous != key) {
+                key.cancel();
+            }
+            return true;
+        } catch (IOException | ClosedWatchServiceException e) {
+            return false;
+        }
+    }
+
+    private void unwatch(Path dir) {
+        WatchKey key = this.watched.remove(dir);
+        if (key != null) {
+            key.cancel();
+        }
+    }
+
+    /**
+     * 监听线程，收到目录变更事件时使该目录的缓存失效
+     */
+    private void watch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = this.watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = PathUtils.ROOT.resolve(this.watchBase.relativize((Path) key.watchable()).toString());
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    this.clear();
+                    break;
+                }
+                this.invalidate(dir.resolve(event.context().toString()), true);
+            }
+            if (!key.reset()) {
+                this.watched.remove(dir, key);
+                this.invalidate(dir, true);
+            }
+        }
+    }
+
+    /**
+     * 提交时使目标目录缓存失效的上传会话
+     */
+    private class InvalidatingUpload implements UploadSession {
+        private final UploadSession session;
+
+        InvalidatingUpload(UploadSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public @NonNull String getId() {
+            return this.session.getId();
+        }
+
+        @Override
+        public @NonNull Path getTarget() {
+            return this.session.getTarget();
+        }
+
+        @Override
+        public long getSize() {
+            return this.session.getSize();
+        }
+
+        @Override
+        public int write(long offset, @NonNull ByteBuffer source) throws IOException {
+            return this.session.write(offset, source);
+        }
+
+        @Override
+        public long write(long offset, @NonNull ReadableByteChannel source) throws IOException {
+            return this.session.write(offset, source);
+        }
+
+        @Override
+        public @NonNull List<Range> received() {
+            return this.session.received();
+        }
+
+        @Override
+        public boolean isComplete() {
+            return this.session.isComplete();
+        }
+
+        @Override
+        public @NonNull Outcome commit() throws IOException {
+            try {
+                return this.session.commit();
+            } finally {
+                invalidate(normalize(this.session.getTarget()), false);
+            }
+        }
+
+        @Override
+        public void abort() {
+            this.session.abort();
+        }
+    }
+
+    private static Path normalize(Path path) {
+        return PathUtils.join(PathUtils.ROOT, path).normalize();
+    }
+
+    private static final class Key {
+        final Path path;
+        final boolean all;
+
+        Key(Path path, boolean all) {
+            this.path = path;
+            this.all = all;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return this.all == key.all && this.path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.path.hashCode() * 31 + (this.all ? 1 : 0);
+        }
+    }
+}
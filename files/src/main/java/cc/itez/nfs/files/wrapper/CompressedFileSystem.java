@@ -0,0 +1,910 @@
+package cc.itez.nfs.files.wrapper;
+
+import cc.itez.nfs.files.AbstractFileSystem;
+import cc.itez.nfs.files.ChunkedUpload;
+import cc.itez.nfs.files.CopyStrategy;
+import cc.itez.nfs.files.UploadRegistry;
+import cc.itez.nfs.files.UploadSession;
+import cc.itez.nfs.mould.BatchOperation;
+import cc.itez.nfs.mould.FileStat;
+import cc.itez.nfs.mould.Outcome;
+import cc.itez.nfs.mould.Range;
+import cc.itez.nfs.mould.Usage;
+import cc.itez.nfs.utils.PathKey;
+import cc.itez.nfs.utils.PathUtils;
+import lombok.Data;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 透明压缩
+ * 保存时对内容进行DEFLATE(BEST_SPEED)压缩，读取时解压，文件名保持不变，因此{@code ls}/{@code find}返回的仍是原始名称。
+ * 保存前会取样第一个数据块：已知的压缩格式(JPEG、PNG、ZIP、GZIP、MP4等)或试压缩收益不足的内容按原样保存。
+ * 压缩后的文件格式为：{@link #MAGIC} + DEFLATE数据流 + 8字节的原始大小；
+ * 原样保存的内容如果恰好以{@link #MAGIC}开头会被强制压缩，因此文件头可以准确区分两种格式。
+ * 被包装的文件系统需要通过{@link AbstractFileSystem#get(Path)}提供本地文件。
+ * <p>
+ * 压缩数据流只能顺序解压：读取从偏移量offset开始的范围需要先解压并丢弃offset之前的全部内容，
+ * 开销与offset成正比而不是与范围的长度成正比，对大文件的随机读取(如断点续传、视频拖动)较慢，这类文件不宜压缩保存。
+ * <p>
+ * 压缩保存的文件的实际大小与原始大小记录在内存中的台账里，{@link #usage(Path)}在被包装文件系统的合计上
+ * 加上子树中各文件的差值，不需要打开文件。台账在第一次统计时从快照加载，没有快照时扫描所有文件，
+ * 之后随通过本实例进行的保存、复制、移动与删除更新；绕过本实例的修改需要调用{@link #rebuild()}重新扫描。
+ */
+public class CompressedFileSystem extends FileSystemWrapper implements Closeable {
+    private static final byte[] MAGIC = {'N', 'F', 'S', 'Z', 1};
+    private static final int LEDGER_MAGIC = 0x4E46535A;
+    private static final int LEDGER_VERSION = 1;
+    private static final int TRAILER = 8;
+    /**
+     * 取样的数据块大小
+     */
+    private static final int SAMPLE = 64 * 1024;
+    /**
+     * 小于该大小的内容不压缩
+     */
+    private static final int MIN_SIZE = 256;
+    /**
+     * 试压缩后的大小不超过取样大小的该比例时才压缩
+     */
+    private static final double MAX_RATIO = 0.9;
+    /**
+     * 保留的解压文件数量上限
+     */
+    private static final int SPILLS = 64;
+    /**
+     * 未结束的分块上传会话，提交时经过压缩保存，因此不能交给被包装的文件系统管理
+     */
+    private final UploadRegistry uploads = new UploadRegistry();
+    /**
+     * 路径 -> 解压文件，按访问顺序淘汰
+     */
+    private final Map<Path, Spill> spills = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Spill> eldest) {
+            if (this.size() <= SPILLS) {
+                return false;
+            }
+            Spill spill = eldest.getValue();
+            synchronized (spill) {
+                if (spill.file != null) {
+                    spill.file.toFile().delete();
+                }
+            }
+            return true;
+        }
+    };
+    private volatile Path spillDirectory;
+    /**
+     * 压缩保存的文件 -> 实际大小与原始大小，子树在有序映射中是一段连续的范围
+     */
+    private final NavigableMap<PathKey, Sizes> ledger = new TreeMap<>();
+    /**
+     * 台账快照，为null时不持久化
+     */
+    private final Path ledgerFile;
+    /**
+     * 台账是否已加载，由{@link #ledger}的锁保护
+     */
+    private boolean indexed;
+
+    public CompressedFileSystem(@NonNull AbstractFileSystem delegate) {
+        this(delegate, null);
+    }
+
+    /**
+     * @param delegate   被包装的文件系统
+     * @param ledgerFile 台账快照，关闭时写入，下次启动时加载以免重新扫描；不应放在共享目录中
+     */
+    public CompressedFileSystem(@NonNull AbstractFileSystem delegate, Path ledgerFile) {
+        super(delegate);
+        this.ledgerFile = ledgerFile;
+    }
+
+    /**
+     * 丢弃台账并重新扫描所有文件
+     */
+    public void rebuild() throws IOException {
+        synchronized (this.ledger) {
+            this.indexed = false;
+            this.index(false);
+        }
+    }
+
+    /**
+     * 写入台账快照，不会关闭被包装的文件系统
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this.ledger) {
+            if (this.indexed && this.ledgerFile != null) {
+                this.saveLedger();
+            }
+        }
+    }
+
+    /**
+     * 获取文件的原始大小
+     *
+     * @param path 文件路径
+     * @return 原始大小
+     */
+    public long size(@NonNull Path path) throws IOException {
+        File file = this.delegate.get(path);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return compressed(channel) ? originalSize(channel) : channel.size();
+        }
+    }
+
+    /**
+     * 统计目录中文件的压缩情况(不包括子目录)
+     *
+     * @param dir 目录路径
+     * @return 统计结果
+     */
+    public @NonNull Stats stats(@NonNull Path dir) throws IOException {
+        Stats stats = new Stats().setPath(dir);
+        try (Stream<Path> stream = this.delegate.list(dir, true)) {
+            for (Path path : (Iterable<Path>) stream::iterator) {
+                File file = this.delegate.get(path);
+                if (!file.isFile()) {
+                    continue;
+                }
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    long stored = channel.size();
+                    boolean compressed = compressed(channel);
+                    stats.setFiles(stats.getFiles() + 1)
+                            .setCompressed(stats.getCompressed() + (compressed ? 1 : 0))
+                            .setSize(stats.getSize() + (compressed ? originalSize(channel) : stored))
+                            .setStored(stats.getStored() + stored);
+                }
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 获取文件，压缩保存的文件会被解压到临时目录中
+     * 每个路径对应一个解压文件，被包装的文件未变化(大小、修改时间与文件标识相同)时直接复用；
+     * 最多保留{@link #SPILLS}个解压文件，最久未使用的会被删除，因此返回的文件只适合立即读取，
+     * 读取内容应优先使用{@link #transfer(Path, WritableByteChannel)}或{@link #read(Path, long, long)}
+     */
+    @Override
+    public @NonNull File get(@NonNull Path path) throws FileNotFoundException {
+        File file = this.delegate.get(path);
+        if (!file.isFile()) {
+            return file;
+        }
+        try (InputStream input = this.open(file)) {
+            if (input == null) {
+                return file;
+            }
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            Spill spill;
+            synchronized (this.spills) {
+                spill = this.spills.computeIfAbsent(path.normalize(), k -> new Spill());
+            }
+            synchronized (spill) {
+                if (!spill.matches(attributes)) {
+                    Path dir = this.spillDirectory();
+                    if (spill.file == null) {
+                        spill.file = dir.resolve(UUID.randomUUID() + ".tmp");
+                        spill.file.toFile().deleteOnExit();
+                    }
+                    // 先解压到新文件再替换，正在读取旧内容的调用方不受影响
+                    Path temp = Files.createTempFile(dir, "inflate-", ".tmp");
+                    try {
+                        Files.copy(input, temp, StandardCopyOption.REPLACE_EXISTING);
+                        Files.move(temp, spill.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } finally {
+                        Files.deleteIfExists(temp);
+                    }
+                    spill.size = attributes.size();
+                    spill.modified = attributes.lastModifiedTime().toMillis();
+                    spill.key = attributes.fileKey();
+                }
+                return spill.file.toFile();
+            }
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            FileNotFoundException error = new FileNotFoundException(path + " (" + e.getMessage() + ")");
+            error.initCause(e);
+            throw error;
+        }
+    }
+
+    /**
+     * 大小为原始大小，只读取文件头与尾部，不会解压
+     */
+    @Override
+    public @NonNull FileStat stat(@NonNull Path path) throws IOException {
+        FileStat stat = this.delegate.stat(path);
+        return stat.isDirectory() ? stat : stat.withSize(this.size(path));
+    }
+
+    /**
+     * 大小为原始大小之和：被包装文件系统统计的实际大小加上台账中子树内压缩文件的差值，
+     * 配额等其他信息取自被包装的文件系统
+     */
+    @Override
+    public @NonNull Usage usage(@NonNull Path path) throws IOException {
+        Usage usage = this.delegate.usage(path);
+        if (usage.getFiles() == 0) {
+            return usage;
+        }
+        PathKey key = PathKey.of(path);
+        long expansion = 0;
+        synchronized (this.ledger) {
+            this.index(true);
+            for (Map.Entry<PathKey, Sizes> entry : this.ledger.tailMap(key, true).entrySet()) {
+                if (!entry.getKey().startsWith(key)) {
+                    break;
+                }
+                expansion += entry.getValue().original - entry.getValue().stored;
+            }
+        }
+        return usage.setSize(usage.getSize() + expansion);
+    }
+
+    @Override
+    public @NonNull Outcome rm(@NonNull Path path, boolean recursive) {
+        Outcome outcome = this.delegate.rm(path, recursive);
+        this.removed(path);
+        return outcome;
+    }
+
+    @Override
+    public Outcome cp(@NonNull Path source, @NonNull Path target, boolean cover) throws IOException {
+        Outcome outcome = this.delegate.cp(source, target, cover);
+        this.copied(source, target, false);
+        return outcome;
+    }
+
+    @Override
+    public Outcome cp(@NonNull Path source, @NonNull Path target, boolean cover, @NonNull CopyStrategy strategy) throws IOException {
+        Outcome outcome = this.delegate.cp(source, target, cover, strategy);
+        this.copied(source, target, false);
+        return outcome;
+    }
+
+    @Override
+    public @NonNull Outcome tryCp(@NonNull Path source, @NonNull Path target, boolean cover) {
+        Outcome outcome = this.delegate.tryCp(source, target, cover);
+        this.copied(source, target, false);
+        return outcome;
+    }
+
+    @Override
+    public @NonNull Outcome mv(@NonNull Path source, @NonNull Path target, boolean cover) throws IOException {
+        Outcome outcome = this.delegate.mv(source, target, cover);
+        if (outcome.isSuccessful()) {
+            this.copied(source, target, true);
+        }
+        return outcome;
+    }
+
+    @Override
+    public @NonNull Outcome tryMv(@NonNull Path source, @NonNull Path target, boolean cover) {
+        Outcome outcome = this.delegate.tryMv(source, target, cover);
+        if (outcome.isSuccessful()) {
+            this.copied(source, target, true);
+        }
+        return outcome;
+    }
+
+    @Override
+    public @NonNull List<Outcome> batch(@NonNull List<BatchOperation> operations) {
+        List<Outcome> outcomes = this.delegate.batch(operations);
+        for (int i = 0; i < operations.size(); i++) {
+            BatchOperation operation = operations.get(i);
+            switch (operation.getType()) {
+                case CP -> this.copied(operation.getSource(), operation.getTarget(), false);
+                case MV -> {
+                    if (outcomes.get(i).isSuccessful()) {
+                        this.copied(operation.getSource(), operation.getTarget(), true);
+                    }
+                }
+                case RM -> this.removed(operation.getTarget());
+                default -> {
+                }
+            }
+        }
+        return outcomes;
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull File source, @NonNull Path target, boolean cover) throws IOException {
+        try (InputStream input = new FileInputStream(source)) {
+            return this.save(input, target, cover);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover) throws IOException {
+        return this.save(Channels.newInputStream(source), target, cover);
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull InputStream source, @NonNull Path target, boolean cover) throws IOException {
+        byte[] sample = source.readNBytes(SAMPLE);
+        InputStream content = new SequenceInputStream(new ByteArrayInputStream(sample), source);
+        if (!startsWith(sample, MAGIC, 0) && !compressible(sample)) {
+            Outcome outcome = this.delegate.save(content, target, cover);
+            if (outcome.isSuccessful()) {
+                this.record(target, null);
+            }
+            return outcome;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            InputStream deflated = new DeflaterInputStream(content, deflater, 8192);
+            Outcome outcome = this.delegate.save(new SequenceInputStream(new Enumeration<>() {
+                private int index;
+
+                @Override
+                public boolean hasMoreElements() {
+                    return this.index < 3;
+                }
+
+                @Override
+                public InputStream nextElement() {
+                    switch (this.index++) {
+                        case 0:
+                            return new ByteArrayInputStream(MAGIC);
+                        case 1:
+                            return deflated;
+                        default:
+                            // 数据流读取完毕后才知道原始大小
+                            return new ByteArrayInputStream(ByteBuffer.allocate(TRAILER).putLong(deflater.getBytesRead()).array());
+                    }
+                }
+            }), target, cover);
+            if (outcome.isSuccessful()) {
+                this.record(target, new Sizes(MAGIC.length + deflater.getBytesWritten() + TRAILER, deflater.getBytesRead()));
+            }
+            return outcome;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull File source, @NonNull Path target, boolean cover) {
+        try {
+            return this.save(source, target, cover);
+        } catch (IOException | RuntimeException e) {
+            return Outcome.error(e);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull InputStream source, @NonNull Path target, boolean cover) {
+        try {
+            return this.save(source, target, cover);
+        } catch (IOException | RuntimeException e) {
+            return Outcome.error(e);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover) {
+        try {
+            return this.save(source, target, cover);
+        } catch (IOException | RuntimeException e) {
+            return Outcome.error(e);
+        }
+    }
+
+    @Override
+    public @NonNull UploadSession createUpload(@NonNull Path target, long size, boolean cover) throws IOException {
+        Path temp = Files.createTempFile("nfs-upload-", ".part");
+        return new ChunkedUpload(this.uploads, target, size, temp, (t, p) -> this.save(t.toFile(), p, cover));
+    }
+
+    @Override
+    public UploadSession getUpload(@NonNull String id) {
+        return this.uploads.find(id);
+    }
+
+    @Override
+    public long transfer(@NonNull Path source, @NonNull WritableByteChannel target) throws IOException {
+        File file = this.delegate.get(source);
+        try (InputStream input = this.open(file)) {
+            if (input == null) {
+                return this.delegate.transfer(source, target);
+            }
+            return copy(input, target, Long.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public long transfer(@NonNull Path source, @NonNull Range range, @NonNull WritableByteChannel target) throws IOException {
+        File file = this.delegate.get(source);
+        try (InputStream input = this.open(file)) {
+            if (input == null) {
+                return this.delegate.transfer(source, range, target);
+            }
+            input.skipNBytes(range.getOffset());
+            return copy(input, target, range.getLength());
+        } catch (EOFException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 压缩保存的文件需要从头解压到offset，见类的说明
+     */
+    @Override
+    public @NonNull ReadableByteChannel read(@NonNull Path path, long offset, long length) throws IOException {
+        File file = this.delegate.get(path);
+        InputStream input = this.open(file);
+        if (input == null) {
+            return this.delegate.read(path, offset, length);
+        }
+        try {
+            input.skipNBytes(offset);
+        } catch (EOFException e) {
+            // 起始位置超出文件末尾时返回空通道
+            input.close();
+            return Channels.newChannel(InputStream.nullInputStream());
+        }
+        return Channels.newChannel(new BoundedInputStream(input, length));
+    }
+
+    @Override
+    public @NonNull ByteBuffer read(@NonNull Path path, @NonNull Range range) throws IOException {
+        File file = this.delegate.get(path);
+        try (InputStream input = this.open(file)) {
+            if (input == null) {
+                return this.delegate.read(path, range);
+            }
+            return ByteBuffer.wrap(readRange(input, range.getOffset(), range.getLength()));
+        }
+    }
+
+    @Override
+    public @NonNull List<ByteBuffer> read(@NonNull Path path, @NonNull List<Range> ranges) throws IOException {
+        File file = this.delegate.get(path);
+        try (InputStream probe = this.open(file)) {
+            if (probe == null) {
+                return this.delegate.read(path, ranges);
+            }
+        }
+        List<ByteBuffer> result = new ArrayList<>(ranges.size());
+        for (Range range : ranges) {
+            // 压缩数据流只能顺序读取，每个范围都从头解压
+            try (InputStream input = this.open(file)) {
+                result.add(ByteBuffer.wrap(readRange(input, range.getOffset(), range.getLength())));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 确保台账已加载，调用时必须持有{@link #ledger}的锁
+     *
+     * @param load 是否优先加载快照，否则直接扫描所有文件
+     */
+    private void index(boolean load) throws IOException {
+        if (this.indexed) {
+            return;
+        }
+        this.ledger.clear();
+        if (!load || !this.loadLedger()) {
+            try (Stream<Path> stream = this.delegate.search(PathUtils.ROOT, "*", FileType.FILE, -1)) {
+                for (Path path : (Iterable<Path>) stream::iterator) {
+                    try (FileChannel channel = FileChannel.open(this.delegate.get(path).toPath(), StandardOpenOption.READ)) {
+                        if (compressed(channel)) {
+                            this.ledger.put(PathKey.of(path), new Sizes(channel.size(), originalSize(channel)));
+                        }
+                    } catch (IOException ignored) {
+                        // 扫描期间被删除的文件
+                    }
+                }
+            }
+        }
+        this.indexed = true;
+    }
+
+    /**
+     * 记录保存的文件
+     *
+     * @param path  文件路径
+     * @param sizes 压缩保存时的大小，原样保存时为null
+     */
+    private void record(Path path, Sizes sizes) {
+        synchronized (this.ledger) {
+            // 尚未加载的台账在第一次统计时扫描得到
+            if (!this.indexed) {
+                return;
+            }
+            if (sizes == null) {
+                this.ledger.remove(PathKey.of(path));
+            } else {
+                this.ledger.put(PathKey.of(path), sizes);
+            }
+        }
+    }
+
+    /**
+     * 删除之后移除子树中已经不存在的文件
+     *
+     * @param path 删除的路径
+     */
+    private void removed(Path path) {
+        synchronized (this.ledger) {
+            if (this.indexed) {
+                this.verify(PathKey.of(path));
+            }
+        }
+    }
+
+    /**
+     * 复制或移动之后将源子树的记录搬到目标子树，再移除目标子树中与实际大小不符(被原样保存的文件覆盖或复制失败)的记录
+     *
+     * @param source 源路径
+     * @param target 目标路径
+     * @param move   是否为移动
+     */
+    private void copied(Path source, Path target, boolean move) {
+        synchronized (this.ledger) {
+            if (!this.indexed) {
+                return;
+            }
+            PathKey from = PathKey.of(source);
+            PathKey to = PathKey.of(target);
+            Map<PathKey, Sizes> subtree = new HashMap<>();
+            for (Iterator<Map.Entry<PathKey, Sizes>> it = this.ledger.tailMap(from, true).entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<PathKey, Sizes> entry = it.next();
+                if (!entry.getKey().startsWith(from)) {
+                    break;
+                }
+                subtree.put(entry.getKey().rebase(from, to), entry.getValue());
+                if (move) {
+                    it.remove();
+                }
+            }
+            this.ledger.putAll(subtree);
+            this.verify(to);
+        }
+    }
+
+    /**
+     * 移除子树中文件不存在或大小与记录不符的记录，只读取文件属性，调用时必须持有{@link #ledger}的锁
+     */
+    private void verify(PathKey root) {
+        for (Iterator<Map.Entry<PathKey, Sizes>> it = this.ledger.tailMap(root, true).entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<PathKey, Sizes> entry = it.next();
+            if (!entry.getKey().startsWith(root)) {
+                break;
+            }
+            try {
+                File file = this.delegate.get(entry.getKey().toPath());
+                if (file.isFile() && file.length() == entry.getValue().stored) {
+                    continue;
+                }
+            } catch (FileNotFoundException ignored) {
+            }
+            it.remove();
+        }
+    }
+
+    /**
+     * 加载台账快照
+     *
+     * @return 是否加载成功
+     */
+    private boolean loadLedger() {
+        if (this.ledgerFile == null || !Files.isRegularFile(this.ledgerFile)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.ledgerFile)))) {
+            if (in.readInt() != LEDGER_MAGIC || in.readInt() != LEDGER_VERSION) {
+                return false;
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                PathKey key = PathKey.of(Path.of(in.readUTF()));
+                this.ledger.put(key, new Sizes(in.readLong(), in.readLong()));
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            this.ledger.clear();
+            return false;
+        }
+    }
+
+    /**
+     * 写入台账快照，先写入临时文件再原子替换，调用时必须持有{@link #ledger}的锁
+     */
+    private void saveLedger() throws IOException {
+        Path parent = this.ledgerFile.toAbsolutePath().getParent();
+        PathUtils.mkdirs(parent);
+        Path temp = Files.createTempFile(parent, this.ledgerFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(LEDGER_MAGIC);
+                out.writeInt(LEDGER_VERSION);
+                out.writeInt(this.ledger.size());
+                for (Map.Entry<PathKey, Sizes> entry : this.ledger.entrySet()) {
+                    out.writeUTF(entry.getKey().toString());
+                    out.writeLong(entry.getValue().stored);
+                    out.writeLong(entry.getValue().original);
+                }
+            }
+            Files.move(temp, this.ledgerFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 解压文件所在的临时目录，第一次使用时创建
+     */
+    private Path spillDirectory() throws IOException {
+        Path dir = this.spillDirectory;
+        if (dir == null) {
+            synchronized (this.spills) {
+                dir = this.spillDirectory;
+                if (dir == null) {
+                    dir = Files.createTempDirectory("nfs-inflate-");
+                    dir.toFile().deleteOnExit();
+                    this.spillDirectory = dir;
+                }
+            }
+        }
+        return dir;
+    }
+
+    /**
+     * 打开压缩保存的文件的解压流
+     *
+     * @param file 被包装文件系统中的文件
+     * @return 解压流，文件不是压缩格式时返回null
+     */
+    private InputStream open(File file) throws IOException {
+        InputStream input = new BufferedInputStream(new FileInputStream(file), MAGIC.length);
+        byte[] header = input.readNBytes(MAGIC.length);
+        if (!Arrays.equals(header, MAGIC)) {
+            input.close();
+            return null;
+        }
+        // DEFLATE数据流自带结束标记，解压流不会读到末尾的原始大小
+        return new InflaterInputStream(input, new Inflater(), 8192) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                this.inf.end();
+            }
+        };
+    }
+
+    /**
+     * 判断取样内容是否值得压缩
+     *
+     * @param sample 第一个数据块
+     * @return 是否压缩
+     */
+    private static boolean compressible(byte[] sample) {
+        if (sample.length < MIN_SIZE || compressedFormat(sample)) {
+            return false;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            long limit = (long) (sample.length * MAX_RATIO);
+            long size = 0;
+            while (!deflater.finished()) {
+                size += deflater.deflate(buffer);
+                if (size > limit) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * 根据文件头判断是否为已知的压缩格式
+     *
+     * @param sample 第一个数据块
+     * @return 是否为已压缩的格式
+     */
+    private static boolean compressedFormat(byte[] sample) {
+        return startsWith(sample, new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF}, 0)          // JPEG
+                || startsWith(sample, new byte[]{(byte) 0x89, 'P', 'N', 'G'}, 0)                 // PNG
+                || startsWith(sample, new byte[]{'G', 'I', 'F', '8'}, 0)                         // GIF
+                || startsWith(sample, new byte[]{'P', 'K', 3, 4}, 0)                             // ZIP/JAR/DOCX
+                || startsWith(sample, new byte[]{0x1F, (byte) 0x8B}, 0)                          // GZIP
+                || startsWith(sample, new byte[]{'B', 'Z', 'h'}, 0)                              // BZIP2
+                || startsWith(sample, new byte[]{(byte) 0xFD, '7', 'z', 'X', 'Z'}, 0)            // XZ
+                || startsWith(sample, new byte[]{'7', 'z', (byte) 0xBC, (byte) 0xAF}, 0)         // 7Z
+                || startsWith(sample, new byte[]{0x28, (byte) 0xB5, 0x2F, (byte) 0xFD}, 0)       // ZSTD
+                || startsWith(sample, new byte[]{'R', 'a', 'r', '!'}, 0)                         // RAR
+                || startsWith(sample, new byte[]{'f', 't', 'y', 'p'}, 4);                        // MP4/MOV/HEIC
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix, int offset) {
+        if (data.length < offset + prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean compressed(FileChannel channel) throws IOException {
+        if (channel.size() < MAGIC.length + TRAILER) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(MAGIC.length);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+        }
+        return Arrays.equals(header.array(), MAGIC);
+    }
+
+    private static long originalSize(FileChannel channel) throws IOException {
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER);
+        long position = channel.size() - TRAILER;
+        while (trailer.hasRemaining() && channel.read(trailer, position + trailer.position()) > 0) {
+        }
+        return trailer.flip().getLong();
+    }
+
+    private static long copy(InputStream input, WritableByteChannel target, long length) throws IOException {
+        byte[] buffer = new byte[8192];
+        long count = 0;
+        int n;
+        while (count < length && (n = input.read(buffer, 0, (int) Math.min(buffer.length, length - count))) > 0) {
+            ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, n);
+            while (chunk.hasRemaining()) {
+                target.write(chunk);
+            }
+            count += n;
+        }
+        return count;
+    }
+
+    private static byte[] readRange(InputStream input, long offset, long length) throws IOException {
+        try {
+            input.skipNBytes(offset);
+        } catch (EOFException e) {
+            return new byte[0];
+        }
+        return input.readNBytes((int) Math.min(length, Integer.MAX_VALUE - 8));
+    }
+
+    /**
+     * 最多读取指定字节数的输入流
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream input, long length) {
+            super(input);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                this.remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, this.remaining));
+            if (n > 0) {
+                this.remaining -= n;
+            }
+            return n;
+        }
+    }
+
+    /**
+     * 压缩保存的文件的大小
+     */
+    private static final class Sizes {
+        /**
+         * 实际大小
+         */
+        final long stored;
+        /**
+         * 原始大小
+         */
+        final long original;
+
+        Sizes(long stored, long original) {
+            this.stored = stored;
+            this.original = original;
+        }
+    }
+
+    /**
+     * 解压文件及其对应的被包装文件的版本
+     */
+    private static class Spill {
+        private Path file;
+        private long size = -1;
+        private long modified;
+        private Object key;
+
+        boolean matches(BasicFileAttributes attributes) {
+            return this.file != null && this.size == attributes.size()
+                    && this.modified == attributes.lastModifiedTime().toMillis()
+                    && Objects.equals(this.key, attributes.fileKey())
+                    && Files.isRegularFile(this.file);
+        }
+    }
+
+    /**
+     * 目录的压缩统计
+     */
+    @Data
+    @Accessors(chain = true)
+    public static class Stats {
+        /**
+         * 目录路径
+         */
+        private Path path;
+        /**
+         * 文件数量
+         */
+        private long files;
+        /**
+         * 压缩保存的文件数量
+         */
+        private long compressed;
+        /**
+         * 原始总大小
+         */
+        private long size;
+        /**
+         * 实际占用的总大小
+         */
+        private long stored;
+
+        /**
+         * 压缩率(原始大小/实际大小)
+         *
+         * @return 压缩率，目录为空时为1
+         */
+        public double getRatio() {
+            return this.stored == 0 ? 1 : (double) this.size / this.stored;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package cc.itez.nfs.files.wrapper;
+
+import cc.itez.nfs.files.AbstractFileSystem;
+import cc.itez.nfs.files.CopyStrategy;
+import cc.itez.nfs.files.UploadSession;
+import cc.itez.nfs.mould.BatchOperation;
+import cc.itez.nfs.mould.FileStat;
+import cc.itez.nfs.mould.Listing;
+import cc.itez.nfs.mould.Outcome;
+import cc.itez.nfs.mould.Page;
+import cc.itez.nfs.mould.Range;
+import cc.itez.nfs.mould.Usage;
+import lombok.NonNull;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 文件系统装饰器基类
+ * 将所有操作原样转发给被包装的文件系统(包括接口的默认方法，以保留被包装实现的优化)，
+ * 子类只需要覆盖需要增强的操作
+ */
+public abstract class FileSystemWrapper implements AbstractFileSystem {
+    protected final AbstractFileSystem delegate;
+
+    protected FileSystemWrapper(@NonNull AbstractFileSystem delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * 获取被包装的文件系统
+     *
+     * @return 被包装的文件系统
+     */
+    public AbstractFileSystem getDelegate() {
+        return this.delegate;
+    }
+
+    @Override
+    public @NonNull List<Path> ls(@NonNull Path path, boolean all) throws FileNotFoundException {
+        return this.delegate.ls(path, all);
+    }
+
+    @Override
+    public @NonNull Stream<Path> list(@NonNull Path path, boolean all) throws IOException {
+        return this.delegate.list(path, all);
+    }
+
+    @Override
+    public @NonNull Page<Path> ls(@NonNull Path path, boolean all, long offset, int limit) throws IOException {
+        return this.delegate.ls(path, all, offset, limit);
+    }
+
+    @Override
+    public @NonNull File get(@NonNull Path path) throws FileNotFoundException {
+        return this.delegate.get(path);
+    }
+
+    @Override
+    public @NonNull FileStat stat(@NonNull Path path) throws IOException {
+        return this.delegate.stat(path);
+    }
+
+    @Override
+    public @NonNull Outcome mkdirs(@NonNull Path path) {
+        return this.delegate.mkdirs(path);
+    }
+
+    @Override
+    public @NonNull Outcome rm(@NonNull Path path, boolean recursive) {
+        return this.delegate.rm(path, recursive);
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull File source, @NonNull Path target, boolean cover) throws IOException {
+        return this.delegate.save(source, target, cover);
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull InputStream source, @NonNull Path target, boolean cover) throws IOException {
+        return this.delegate.save(source, target, cover);
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover) throws IOException {
+        return this.delegate.save(source, target, cover);
+    }
+
+    @Override
+    public long transfer(@NonNull Path source, @NonNull WritableByteChannel target) throws IOException {
+        return this.delegate.transfer(source, target);
+    }
+
+    @Override
+    public long transfer(@NonNull Path source, @NonNull Range range, @NonNull WritableByteChannel target) throws IOException {
+        return this.delegate.transfer(source, range, target);
+    }
+
+    @Override
+    public @NonNull ReadableByteChannel read(@NonNull Path path, long offset, long length) throws IOException {
+        return this.delegate.read(path, offset, length);
+    }
+
+    @Override
+    public @NonNull ByteBuffer read(@NonNull Path path, @NonNull Range range) throws IOException {
+        return this.delegate.read(path, range);
+    }
+
+    @Override
+    public @NonNull List<ByteBuffer> read(@NonNull Path path, @NonNull List<Range> ranges) throws IOException {
+        return this.delegate.read(path, ranges);
+    }
+
+    @Override
+    public @NonNull UploadSession createUpload(@NonNull Path target, long size, boolean cover) throws IOException {
+        return this.delegate.createUpload(target, size, cover);
+    }
+
+    @Override
+    public UploadSession getUpload(@NonNull String id) {
+        return this.delegate.getUpload(id);
+    }
+
+    @Override
+    public Outcome cp(@NonNull Path source, @NonNull Path target, boolean cover) throws IOException {
+        return this.delegate.cp(source, target, cover);
+    }
+
+    @Override
+    public Outcome cp(@NonNull Path source, @NonNull Path target, boolean cover, @NonNull CopyStrategy strategy) throws IOException {
+        return this.delegate.cp(source, target, cover, strategy);
+    }
+
+    @Override
+    public @NonNull Outcome mv(@NonNull Path source, @NonNull Path target, boolean cover) throws IOException {
+        return this.delegate.mv(source, target, cover);
+    }
+
+    @Override
+    public @NonNull List<Outcome> batch(@NonNull List<BatchOperation> operations) {
+        return this.delegate.batch(operations);
+    }
+
+    @Override
+    public @NonNull Listing tryLs(@NonNull Path path, boolean all) {
+        return this.delegate.tryLs(path, all);
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull File source, @NonNull Path target, boolean cover) {
+        return this.delegate.trySave(source, target, cover);
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull InputStream source, @NonNull Path target, boolean cover) {
+        return this.delegate.trySave(source, target, cover);
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover) {
+        return this.delegate.trySave(source, target, cover);
+    }
+
+    @Override
+    public @NonNull Outcome tryCp(@NonNull Path source, @NonNull Path target, boolean cover) {
+        return this.delegate.tryCp(source, target, cover);
+    }
+
+    @Override
+    public @NonNull Outcome tryMv(@NonNull Path source, @NonNull Path target, boolean cover) {
+        return this.delegate.tryMv(source, target, cover);
+    }
+
+    @Override
+    public @NonNull Outcome tryGet(@NonNull Path path) {
+        return this.delegate.tryGet(path);
+    }
+
+    @Override
+    public @NonNull Listing tryFind(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level) {
+        return this.delegate.tryFind(base, name, type, level);
+    }
+
+    @Override
+    public @NonNull List<Path> find(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level) {
+        return this.delegate.find(base, name, type, level);
+    }
+
+    @Override
+    public @NonNull Stream<Path> search(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level) throws IOException {
+        return this.delegate.search(base, name, type, level);
+    }
+
+    @Override
+    public @NonNull Page<Path> find(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level, long offset, int limit) throws IOException {
+        return this.delegate.find(base, name, type, level, offset, limit);
+    }
+
+    @Override
+    public @NonNull Usage usage(@NonNull Path path) throws IOException {
+        return this.delegate.usage(path);
+    }
+}
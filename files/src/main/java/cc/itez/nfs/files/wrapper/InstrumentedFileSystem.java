@@ -0,0 +1,710 @@
+package cc.itez.nfs.files.wrapper;
+
+import cc.itez.nfs.files.AbstractFileSystem;
+import cc.itez.nfs.files.CopyStrategy;
+import cc.itez.nfs.files.UploadSession;
+import cc.itez.nfs.mould.BatchOperation;
+import cc.itez.nfs.mould.FileStat;
+import cc.itez.nfs.mould.Listing;
+import cc.itez.nfs.mould.Outcome;
+import cc.itez.nfs.mould.Page;
+import cc.itez.nfs.mould.Range;
+import cc.itez.nfs.mould.Usage;
+import cc.itez.nfs.utils.LatencyHistogram;
+import lombok.Data;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+
+import javax.management.*;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * 统计操作次数、失败次数、读写字节数与延迟分布
+ * 每类操作使用一个{@link LatencyHistogram}记录耗时，记录过程无锁，可以通过{@link #snapshot()}拉取统计结果，
+ * 或者调用{@link #register(String)}以JMX MBean的形式发布(每类操作一个MBean，另有一个汇总读写字节数的MBean)。
+ * <p>
+ * 抛出异常或返回的{@link Outcome}不成功均视为失败；{@link #list}与{@link #search}只统计创建数据流的耗时，
+ * {@link #read(Path, long, long)}返回的通道在被读取时才统计读取的字节数，分块上传会话写入的块计入写入的字节数。
+ */
+public class InstrumentedFileSystem extends FileSystemWrapper implements Closeable {
+    private static final String DOMAIN = "cc.itez.nfs";
+
+    private final Map<Operation, Metrics> metrics = new EnumMap<>(Operation.class);
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final List<ObjectName> registered = new ArrayList<>();
+
+    public InstrumentedFileSystem(@NonNull AbstractFileSystem delegate) {
+        super(delegate);
+        for (Operation operation : Operation.values()) {
+            this.metrics.put(operation, new Metrics());
+        }
+    }
+
+    /**
+     * 获取所有操作的统计结果
+     *
+     * @return 统计结果
+     */
+    public @NonNull Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot()
+                .setTimestamp(System.currentTimeMillis())
+                .setBytesRead(this.bytesRead.sum())
+                .setBytesWritten(this.bytesWritten.sum());
+        for (Map.Entry<Operation, Metrics> entry : this.metrics.entrySet()) {
+            snapshot.getOperations().put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshot;
+    }
+
+    /**
+     * 清空所有统计
+     */
+    public void reset() {
+        for (Metrics metrics : this.metrics.values()) {
+            metrics.reset();
+        }
+        this.bytesRead.reset();
+        this.bytesWritten.reset();
+    }
+
+    /**
+     * 将统计结果注册为JMX MBean
+     * 名称为{@code cc.itez.nfs:type=FileSystem,name=<name>}，各操作为{@code cc.itez.nfs:type=FileSystem,name=<name>,operation=<op>}
+     *
+     * @param name 文件系统名称，用于区分多个实例
+     * @return this
+     */
+    public synchronized InstrumentedFileSystem register(@NonNull String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        String quoted = ObjectName.quote(name);
+        ObjectName summary = new ObjectName(DOMAIN + ":type=FileSystem,name=" + quoted);
+        server.registerMBean(new StandardMBean(new Summary(), SummaryMXBean.class, true), summary);
+        this.registered.add(summary);
+        for (Map.Entry<Operation, Metrics> entry : this.metrics.entrySet()) {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=FileSystem,name=" + quoted
+                    + ",operation=" + entry.getKey().name().toLowerCase());
+            server.registerMBean(new StandardMBean(entry.getValue(), OperationMXBean.class, true), objectName);
+            this.registered.add(objectName);
+        }
+        return this;
+    }
+
+    /**
+     * 注销已注册的MBean，不会关闭被包装的文件系统
+     */
+    @Override
+    public synchronized void close() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : this.registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException ignored) {
+            }
+        }
+        this.registered.clear();
+    }
+
+    @Override
+    public @NonNull List<Path> ls(@NonNull Path path, boolean all) throws FileNotFoundException {
+        return this.time(Operation.LS, () -> this.delegate.ls(path, all));
+    }
+
+    @Override
+    public @NonNull Stream<Path> list(@NonNull Path path, boolean all) throws IOException {
+        return this.time(Operation.LS, () -> this.delegate.list(path, all));
+    }
+
+    @Override
+    public @NonNull Page<Path> ls(@NonNull Path path, boolean all, long offset, int limit) throws IOException {
+        return this.time(Operation.LS, () -> this.delegate.ls(path, all, offset, limit));
+    }
+
+    @Override
+    public @NonNull Listing tryLs(@NonNull Path path, boolean all) {
+        return this.time(Operation.LS, () -> this.delegate.tryLs(path, all));
+    }
+
+    @Override
+    public @NonNull File get(@NonNull Path path) throws FileNotFoundException {
+        return this.time(Operation.GET, () -> this.delegate.get(path));
+    }
+
+    @Override
+    public @NonNull Outcome tryGet(@NonNull Path path) {
+        return this.time(Operation.GET, () -> this.delegate.tryGet(path));
+    }
+
+    @Override
+    public @NonNull FileStat stat(@NonNull Path path) throws IOException {
+        return this.time(Operation.STAT, () -> this.delegate.stat(path));
+    }
+
+    @Override
+    public @NonNull Outcome mkdirs(@NonNull Path path) {
+        return this.time(Operation.MKDIRS, () -> this.delegate.mkdirs(path));
+    }
+
+    @Override
+    public @NonNull Outcome rm(@NonNull Path path, boolean recursive) {
+        return this.time(Operation.RM, () -> this.delegate.rm(path, recursive));
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull File source, @NonNull Path target, boolean cover) throws IOException {
+        return this.written(source.length(), this.time(Operation.SAVE, () -> this.delegate.save(source, target, cover)));
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull InputStream source, @NonNull Path target, boolean cover) throws IOException {
+        InputStream counting = this.counting(source);
+        return this.saving(source, () -> this.delegate.save(counting, target, cover));
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover) throws IOException {
+        ReadableByteChannel counting = this.counting(source);
+        return this.saving(source, () -> this.delegate.save(counting, target, cover));
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull File source, @NonNull Path target, boolean cover) {
+        return this.written(source.length(), this.time(Operation.SAVE, () -> this.delegate.trySave(source, target, cover)));
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull InputStream source, @NonNull Path target, boolean cover) {
+        InputStream counting = this.counting(source);
+        return this.saving(source, () -> this.delegate.trySave(counting, target, cover));
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover) {
+        ReadableByteChannel counting = this.counting(source);
+        return this.saving(source, () -> this.delegate.trySave(counting, target, cover));
+    }
+
+    @Override
+    public long transfer(@NonNull Path source, @NonNull WritableByteChannel target) throws IOException {
+        long transferred = this.time(Operation.READ, () -> this.delegate.transfer(source, target));
+        this.bytesRead.add(transferred);
+        return transferred;
+    }
+
+    @Override
+    public long transfer(@NonNull Path source, @NonNull Range range, @NonNull WritableByteChannel target) throws IOException {
+        long transferred = this.time(Operation.READ, () -> this.delegate.transfer(source, range, target));
+        this.bytesRead.add(transferred);
+        return transferred;
+    }
+
+    @Override
+    public @NonNull ReadableByteChannel read(@NonNull Path path, long offset, long length) throws IOException {
+        return new CountingChannel(this.time(Operation.READ, () -> this.delegate.read(path, offset, length)), this.bytesRead);
+    }
+
+    @Override
+    public @NonNull ByteBuffer read(@NonNull Path path, @NonNull Range range) throws IOException {
+        ByteBuffer buffer = this.time(Operation.READ, () -> this.delegate.read(path, range));
+        this.bytesRead.add(buffer.remaining());
+        return buffer;
+    }
+
+    @Override
+    public @NonNull List<ByteBuffer> read(@NonNull Path path, @NonNull List<Range> ranges) throws IOException {
+        List<ByteBuffer> buffers = this.time(Operation.READ, () -> this.delegate.read(path, ranges));
+        for (ByteBuffer buffer : buffers) {
+            this.bytesRead.add(buffer.remaining());
+        }
+        return buffers;
+    }
+
+    @Override
+    public @NonNull UploadSession createUpload(@NonNull Path target, long size, boolean cover) throws IOException {
+        return new InstrumentedUpload(this.time(Operation.UPLOAD, () -> this.delegate.createUpload(target, size, cover)));
+    }
+
+    @Override
+    public UploadSession getUpload(@NonNull String id) {
+        UploadSession session = this.delegate.getUpload(id);
+        return session == null ? null : new InstrumentedUpload(session);
+    }
+
+    @Override
+    public Outcome cp(@NonNull Path source, @NonNull Path target, boolean cover) throws IOException {
+        return this.time(Operation.CP, () -> this.delegate.cp(source, target, cover));
+    }
+
+    @Override
+    public Outcome cp(@NonNull Path source, @NonNull Path target, boolean cover, @NonNull CopyStrategy strategy) throws IOException {
+        return this.time(Operation.CP, () -> this.delegate.cp(source, target, cover, strategy));
+    }
+
+    @Override
+    public @NonNull Outcome tryCp(@NonNull Path source, @NonNull Path target, boolean cover) {
+        return this.time(Operation.CP, () -> this.delegate.tryCp(source, target, cover));
+    }
+
+    @Override
+    public @NonNull Outcome mv(@NonNull Path source, @NonNull Path target, boolean cover) throws IOException {
+        return this.time(Operation.MV, () -> this.delegate.mv(source, target, cover));
+    }
+
+    @Override
+    public @NonNull Outcome tryMv(@NonNull Path source, @NonNull Path target, boolean cover) {
+        return this.time(Operation.MV, () -> this.delegate.tryMv(source, target, cover));
+    }
+
+    @Override
+    public @NonNull List<Outcome> batch(@NonNull List<BatchOperation> operations) {
+        List<Outcome> outcomes = this.time(Operation.BATCH, () -> this.delegate.batch(operations));
+        Metrics metrics = this.metrics.get(Operation.BATCH);
+        for (Outcome outcome : outcomes) {
+            if (!outcome.isSuccessful()) {
+                metrics.errors.increment();
+            }
+        }
+        return outcomes;
+    }
+
+    @Override
+    public @NonNull List<Path> find(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level) {
+        return this.time(Operation.FIND, () -> this.delegate.find(base, name, type, level));
+    }
+
+    @Override
+    public @NonNull Stream<Path> search(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level) throws IOException {
+        return this.time(Operation.FIND, () -> this.delegate.search(base, name, type, level));
+    }
+
+    @Override
+    public @NonNull Page<Path> find(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level, long offset, int limit) throws IOException {
+        return this.time(Operation.FIND, () -> this.delegate.find(base, name, type, level, offset, limit));
+    }
+
+    @Override
+    public @NonNull Listing tryFind(@NonNull Path base, @NonNull String name, @NonNull FileType type, int level) {
+        return this.time(Operation.FIND, () -> this.delegate.tryFind(base, name, type, level));
+    }
+
+    @Override
+    public @NonNull Usage usage(@NonNull Path path) throws IOException {
+        return this.time(Operation.USAGE, () -> this.delegate.usage(path));
+    }
+
+    /**
+     * 执行操作并记录耗时，抛出异常或返回不成功的{@link Outcome}时记为失败
+     *
+     * @param operation 操作类型
+     * @param call      操作
+     * @return 操作的结果
+     */
+    private <T, E extends Exception> T time(Operation operation, Call<T, E> call) throws E {
+        Metrics metrics = this.metrics.get(operation);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = call.call();
+            failed = result instanceof Outcome && !((Outcome) result).isSuccessful();
+            return result;
+        } finally {
+            metrics.latency.record(System.nanoTime() - start);
+            metrics.count.increment();
+            if (failed) {
+                metrics.errors.increment();
+            }
+        }
+    }
+
+    /**
+     * 执行保存操作，文件流或文件通道按保存前后的位置统计写入的字节数
+     *
+     * @param source 数据源
+     * @param call   保存操作
+     * @return 处理结果
+     */
+    private <E extends Exception> Outcome saving(Object source, Call<Outcome, E> call) throws E {
+        FileChannel channel = source instanceof FileInputStream ? ((FileInputStream) source).getChannel()
+                : source instanceof FileChannel ? (FileChannel) source : null;
+        long start = position(channel);
+        Outcome outcome = this.time(Operation.SAVE, call);
+        long end = position(channel);
+        if (start >= 0 && end > start) {
+            this.bytesWritten.add(end - start);
+        }
+        return outcome;
+    }
+
+    /**
+     * 包装数据源以统计读取的字节数，文件流保持原样以免被包装的文件系统无法使用零拷贝
+     */
+    private InputStream counting(InputStream source) {
+        return source instanceof FileInputStream ? source : new CountingInputStream(source, this.bytesWritten);
+    }
+
+    private ReadableByteChannel counting(ReadableByteChannel source) {
+        return source instanceof FileChannel ? source : new CountingChannel(source, this.bytesWritten);
+    }
+
+    private static long position(FileChannel channel) {
+        try {
+            return channel == null ? -1 : channel.position();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private Outcome written(long bytes, Outcome outcome) {
+        if (outcome.isSuccessful()) {
+            this.bytesWritten.add(bytes);
+        }
+        return outcome;
+    }
+
+    @FunctionalInterface
+    private interface Call<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    /**
+     * 操作类型，默认方法(例如不带{@code cover}参数的重载)计入其最终调用的操作
+     */
+    public enum Operation {
+        /**
+         * 列举目录，包括分页与数据流形式
+         */
+        LS,
+        GET,
+        /**
+         * 获取文件属性
+         */
+        STAT,
+        MKDIRS,
+        RM,
+        SAVE,
+        /**
+         * 读取文件内容，包括{@code transfer}与{@code read}
+         */
+        READ,
+        /**
+         * 创建与提交分块上传，块的写入只统计字节数
+         */
+        UPLOAD,
+        CP,
+        MV,
+        BATCH,
+        /**
+         * 搜索文件，包括分页与数据流形式
+         */
+        FIND,
+        /**
+         * 统计目录占用的空间
+         */
+        USAGE
+    }
+
+    /**
+     * 单类操作的JMX属性，耗时单位为微秒
+     */
+    public interface OperationMXBean {
+        long getCount();
+
+        long getErrors();
+
+        long getMeanMicros();
+
+        long getP50Micros();
+
+        long getP99Micros();
+
+        long getP999Micros();
+
+        long getMaxMicros();
+
+        /**
+         * 清空该操作的统计
+         */
+        void reset();
+    }
+
+    /**
+     * 文件系统汇总的JMX属性
+     */
+    public interface SummaryMXBean {
+        long getBytesRead();
+
+        long getBytesWritten();
+
+        long getCount();
+
+        long getErrors();
+
+        /**
+         * 清空所有统计
+         */
+        void reset();
+    }
+
+    private static final class Metrics implements OperationMXBean {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        OperationStats snapshot() {
+            LatencyHistogram.Snapshot latency = this.latency.snapshot();
+            return new OperationStats()
+                    .setCount(this.count.sum())
+                    .setErrors(this.errors.sum())
+                    .setMean(latency.getMean())
+                    .setP50(latency.getP50())
+                    .setP99(latency.getP99())
+                    .setP999(latency.getP999())
+                    .setMax(latency.getMax());
+        }
+
+        @Override
+        public long getCount() {
+            return this.count.sum();
+        }
+
+        @Override
+        public long getErrors() {
+            return this.errors.sum();
+        }
+
+        @Override
+        public long getMeanMicros() {
+            return micros(this.latency.snapshot().getMean());
+        }
+
+        @Override
+        public long getP50Micros() {
+            return micros(this.latency.snapshot().getP50());
+        }
+
+        @Override
+        public long getP99Micros() {
+            return micros(this.latency.snapshot().getP99());
+        }
+
+        @Override
+        public long getP999Micros() {
+            return micros(this.latency.snapshot().getP999());
+        }
+
+        @Override
+        public long getMaxMicros() {
+            return micros(this.latency.snapshot().getMax());
+        }
+
+        @Override
+        public void reset() {
+            this.count.reset();
+            this.errors.reset();
+            this.latency.reset();
+        }
+
+        private static long micros(long nanos) {
+            return TimeUnit.NANOSECONDS.toMicros(nanos);
+        }
+    }
+
+    private final class Summary implements SummaryMXBean {
+        @Override
+        public long getBytesRead() {
+            return bytesRead.sum();
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return bytesWritten.sum();
+        }
+
+        @Override
+        public long getCount() {
+            return metrics.values().stream().mapToLong(Metrics::getCount).sum();
+        }
+
+        @Override
+        public long getErrors() {
+            return metrics.values().stream().mapToLong(Metrics::getErrors).sum();
+        }
+
+        @Override
+        public void reset() {
+            InstrumentedFileSystem.this.reset();
+        }
+    }
+
+    /**
+     * 统计结果
+     */
+    @Data
+    @Accessors(chain = true)
+    public static class Snapshot {
+        /**
+         * 统计时间
+         */
+        private long timestamp;
+        private long bytesRead;
+        private long bytesWritten;
+        private Map<Operation, OperationStats> operations = new EnumMap<>(Operation.class);
+    }
+
+    /**
+     * 单类操作的统计结果，耗时单位为纳秒
+     */
+    @Data
+    @Accessors(chain = true)
+    public static class OperationStats {
+        private long count;
+        private long errors;
+        private long mean;
+        private long p50;
+        private long p99;
+        private long p999;
+        private long max;
+    }
+
+    /**
+     * 统计写入字节数的分块上传会话
+     */
+    private class InstrumentedUpload implements UploadSession {
+        private final UploadSession session;
+
+        InstrumentedUpload(UploadSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public @NonNull String getId() {
+            return this.session.getId();
+        }
+
+        @Override
+        public @NonNull Path getTarget() {
+            return this.session.getTarget();
+        }
+
+        @Override
+        public long getSize() {
+            return this.session.getSize();
+        }
+
+        @Override
+        public int write(long offset, @NonNull ByteBuffer source) throws IOException {
+            int written = this.session.write(offset, source);
+            bytesWritten.add(written);
+            return written;
+        }
+
+        @Override
+        public long write(long offset, @NonNull ReadableByteChannel source) throws IOException {
+            long written = this.session.write(offset, source);
+            bytesWritten.add(written);
+            return written;
+        }
+
+        @Override
+        public @NonNull List<Range> received() {
+            return this.session.received();
+        }
+
+        @Override
+        public boolean isComplete() {
+            return this.session.isComplete();
+        }
+
+        @Override
+        public @NonNull Outcome commit() throws IOException {
+            return time(Operation.UPLOAD, this.session::commit);
+        }
+
+        @Override
+        public void abort() {
+            this.session.abort();
+        }
+    }
+
+    /**
+     * 统计读取字节数的输入流
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final LongAdder counter;
+
+        CountingInputStream(InputStream in, LongAdder counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                this.counter.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                this.counter.add(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            this.counter.add(skipped);
+            return skipped;
+        }
+    }
+
+    /**
+     * 统计读取字节数的通道
+     */
+    private static class CountingChannel implements ReadableByteChannel {
+        private final ReadableByteChannel channel;
+        private final LongAdder counter;
+
+        CountingChannel(ReadableByteChannel channel, LongAdder counter) {
+            this.channel = channel;
+            this.counter = counter;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int n = this.channel.read(dst);
+            if (n > 0) {
+                this.counter.add(n);
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+}
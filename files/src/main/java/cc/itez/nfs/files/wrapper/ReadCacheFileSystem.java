@@ -0,0 +1,560 @@
+package cc.itez.nfs.files.wrapper;
+
+import cc.itez.nfs.files.AbstractFileSystem;
+import cc.itez.nfs.files.CopyStrategy;
+import cc.itez.nfs.files.UploadSession;
+import cc.itez.nfs.mould.BatchOperation;
+import cc.itez.nfs.mould.FileStat;
+import cc.itez.nfs.mould.Outcome;
+import cc.itez.nfs.mould.Range;
+import cc.itez.nfs.utils.FrequencySketch;
+import cc.itez.nfs.utils.OffHeapPool;
+import cc.itez.nfs.utils.PathKey;
+import cc.itez.nfs.utils.SegmentedBuffer;
+import lombok.NonNull;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热点小文件读取缓存
+ * 将经常读取的小文件内容保存在堆外内存中，{@code transfer}与{@code read}命中时不再打开文件。
+ * 每次读取都会比较文件当前的修改时间与大小，因此绕过本实例的修改也不会读到过期的内容；
+ * 通过本实例进行的保存、复制、移动与删除会立即释放相关的缓存。
+ * <p>
+ * 缓存满时按TinyLFU的方式决定是否接纳：用{@link FrequencySketch}估计最近的访问频率，
+ * 只有新文件的频率高于将被淘汰的最久未使用的文件时才替换，偶尔读取一次的大量文件不会冲掉热点文件。
+ */
+public class ReadCacheFileSystem extends FileSystemWrapper {
+    /**
+     * 默认的内存段大小，小文件较多时较小的段浪费的空间更少
+     */
+    private static final int SEGMENT_SIZE = 4 * 1024;
+
+    private final OffHeapPool pool;
+    private final long maxFileSize;
+    /**
+     * 缓存条目，按访问顺序排列，频率估计与条目共用同一个锁
+     */
+    private final LinkedHashMap<PathKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    /**
+     * 每次失效时递增，用于丢弃在失效之前开始加载的内容
+     */
+    private final AtomicLong version = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    /**
+     * 缓存不超过1MiB的文件
+     *
+     * @param delegate 被包装的文件系统
+     * @param capacity 缓存的最大容量(字节)
+     */
+    public ReadCacheFileSystem(@NonNull AbstractFileSystem delegate, long capacity) {
+        this(delegate, new OffHeapPool(capacity, SEGMENT_SIZE), 1024 * 1024);
+    }
+
+    /**
+     * @param delegate    被包装的文件系统
+     * @param pool        保存缓存内容的内存池
+     * @param maxFileSize 缓存的最大文件大小(字节)
+     */
+    public ReadCacheFileSystem(@NonNull AbstractFileSystem delegate, @NonNull OffHeapPool pool, long maxFileSize) {
+        super(delegate);
+        this.pool = pool;
+        this.maxFileSize = maxFileSize;
+        // 表宽度过小时不同文件的计数冲突严重，频率估计失去区分度
+        this.sketch = new FrequencySketch((int) Math.max(1024, Math.min(Integer.MAX_VALUE, pool.getCapacity() / pool.getSegmentSize())));
+    }
+
+    /**
+     * 命中次数
+     *
+     * @return 命中次数
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * 未命中次数
+     *
+     * @return 未命中次数
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * 命中率
+     *
+     * @return 命中率，没有请求时为0
+     */
+    public double getHitRatio() {
+        long hits = this.hits.sum();
+        long total = hits + this.misses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * 从缓存而不是文件读取的字节数
+     *
+     * @return 字节数
+     */
+    public long getBytesSaved() {
+        return this.bytesSaved.sum();
+    }
+
+    /**
+     * 缓存的文件数量
+     *
+     * @return 文件数量
+     */
+    public int getCount() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    /**
+     * 缓存占用的内存
+     *
+     * @return 字节数
+     */
+    public long getSize() {
+        return this.pool.getUsed();
+    }
+
+    /**
+     * 清空缓存，访问频率的统计保留
+     */
+    public void clear() {
+        this.version.incrementAndGet();
+        synchronized (this.entries) {
+            for (Entry entry : this.entries.values()) {
+                entry.data.release();
+            }
+            this.entries.clear();
+        }
+    }
+
+    @Override
+    public long transfer(@NonNull Path source, @NonNull WritableByteChannel target) throws IOException {
+        SegmentedBuffer data = this.acquire(source);
+        if (data == null) {
+            return this.delegate.transfer(source, target);
+        }
+        try {
+            long written = data.transfer(0, data.size(), target);
+            this.bytesSaved.add(written);
+            return written;
+        } finally {
+            data.release();
+        }
+    }
+
+    @Override
+    public long transfer(@NonNull Path source, @NonNull Range range, @NonNull WritableByteChannel target) throws IOException {
+        SegmentedBuffer data = this.acquire(source);
+        if (data == null) {
+            return this.delegate.transfer(source, range, target);
+        }
+        try {
+            long written = data.transfer(range.getOffset(), range.getLength(), target);
+            this.bytesSaved.add(written);
+            return written;
+        } finally {
+            data.release();
+        }
+    }
+
+    @Override
+    public @NonNull ReadableByteChannel read(@NonNull Path path, long offset, long length) throws IOException {
+        SegmentedBuffer data = this.acquire(path);
+        if (data == null) {
+            return this.delegate.read(path, offset, length);
+        }
+        long start = Math.min(Math.max(0, offset), data.size());
+        this.bytesSaved.add(length < 0 ? data.size() - start : Math.min(length, data.size() - start));
+        return data.channel(offset, length);
+    }
+
+    @Override
+    public @NonNull ByteBuffer read(@NonNull Path path, @NonNull Range range) throws IOException {
+        SegmentedBuffer data = this.acquire(path);
+        if (data == null) {
+            return this.delegate.read(path, range);
+        }
+        try {
+            ByteBuffer buffer = data.read(range);
+            this.bytesSaved.add(buffer.remaining());
+            return buffer;
+        } finally {
+            data.release();
+        }
+    }
+
+    @Override
+    public @NonNull List<ByteBuffer> read(@NonNull Path path, @NonNull List<Range> ranges) throws IOException {
+        SegmentedBuffer data = this.acquire(path);
+        if (data == null) {
+            return this.delegate.read(path, ranges);
+        }
+        try {
+            List<ByteBuffer> result = new ArrayList<>(ranges.size());
+            for (Range range : ranges) {
+                ByteBuffer buffer = data.read(range);
+                this.bytesSaved.add(buffer.remaining());
+                result.add(buffer);
+            }
+            return result;
+        } finally {
+            data.release();
+        }
+    }
+
+    @Override
+    public @NonNull Outcome rm(@NonNull Path path, boolean recursive) {
+        try {
+            return this.delegate.rm(path, recursive);
+        } finally {
+            this.invalidate(path, true);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull File source, @NonNull Path target, boolean cover) throws IOException {
+        try {
+            return this.delegate.save(source, target, cover);
+        } finally {
+            this.invalidate(target, false);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull InputStream source, @NonNull Path target, boolean cover) throws IOException {
+        try {
+            return this.delegate.save(source, target, cover);
+        } finally {
+            this.invalidate(target, false);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover) throws IOException {
+        try {
+            return this.delegate.save(source, target, cover);
+        } finally {
+            this.invalidate(target, false);
+        }
+    }
+
+    @Override
+    public @NonNull UploadSession createUpload(@NonNull Path target, long size, boolean cover) throws IOException {
+        return new InvalidatingUpload(this.delegate.createUpload(target, size, cover));
+    }
+
+    @Override
+    public UploadSession getUpload(@NonNull String id) {
+        UploadSession session = this.delegate.getUpload(id);
+        return session == null ? null : new InvalidatingUpload(session);
+    }
+
+    @Override
+    public Outcome cp(@NonNull Path source, @NonNull Path target, boolean cover) throws IOException {
+        try {
+            return this.delegate.cp(source, target, cover);
+        } finally {
+            this.invalidate(target, true);
+        }
+    }
+
+    @Override
+    public Outcome cp(@NonNull Path source, @NonNull Path target, boolean cover, @NonNull CopyStrategy strategy) throws IOException {
+        try {
+            return this.delegate.cp(source, target, cover, strategy);
+        } finally {
+            this.invalidate(target, true);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome mv(@NonNull Path source, @NonNull Path target, boolean cover) throws IOException {
+        try {
+            return this.delegate.mv(source, target, cover);
+        } finally {
+            this.invalidate(source, true);
+            this.invalidate(target, true);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull File source, @NonNull Path target, boolean cover) {
+        try {
+            return this.delegate.trySave(source, target, cover);
+        } finally {
+            this.invalidate(target, false);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull InputStream source, @NonNull Path target, boolean cover) {
+        try {
+            return this.delegate.trySave(source, target, cover);
+        } finally {
+            this.invalidate(target, false);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover) {
+        try {
+            return this.delegate.trySave(source, target, cover);
+        } finally {
+            this.invalidate(target, false);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome tryCp(@NonNull Path source, @NonNull Path target, boolean cover) {
+        try {
+            return this.delegate.tryCp(source, target, cover);
+        } finally {
+            this.invalidate(target, true);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome tryMv(@NonNull Path source, @NonNull Path target, boolean cover) {
+        try {
+            return this.delegate.tryMv(source, target, cover);
+        } finally {
+            this.invalidate(source, true);
+            this.invalidate(target, true);
+        }
+    }
+
+    @Override
+    public @NonNull List<Outcome> batch(@NonNull List<BatchOperation> operations) {
+        try {
+            return this.delegate.batch(operations);
+        } finally {
+            for (BatchOperation operation : operations) {
+                if (operation.getSource() != null && operation.getType() == BatchOperation.Type.MV) {
+                    this.invalidate(operation.getSource(), true);
+                }
+                this.invalidate(operation.getTarget(), true);
+            }
+        }
+    }
+
+    /**
+     * 获取文件的缓存内容，未缓存时按照接纳策略尝试加载
+     *
+     * @param path 路径
+     * @return 已增加引用计数的内容，调用者使用完毕后必须释放；不缓存时返回null，调用者应当直接读取被包装的文件系统
+     */
+    private SegmentedBuffer acquire(Path path) throws IOException {
+        FileStat stat = this.fileStat(path);
+        if (stat == null) {
+            return null;
+        }
+        PathKey key = PathKey.of(path);
+        long modified = stat.getModified();
+        long size = stat.getSize();
+        // 读取到文件末尾之前可能多分配一个内存段
+        long weight = (size / this.pool.getSegmentSize() + 1) * this.pool.getSegmentSize();
+        long version = this.version.get();
+        synchronized (this.entries) {
+            this.sketch.increment(key);
+            Entry entry = this.entries.get(key);
+            if (entry != null) {
+                if (entry.modified == modified && entry.data.size() == size && entry.data.retain()) {
+                    this.hits.increment();
+                    return entry.data;
+                }
+                this.entries.remove(key);
+                entry.data.release();
+            }
+            this.misses.increment();
+            if (size > this.maxFileSize || !this.makeRoom(key, weight)) {
+                return null;
+            }
+        }
+        SegmentedBuffer data;
+        try (ReadableByteChannel channel = this.delegate.read(path, 0, size)) {
+            data = SegmentedBuffer.read(this.pool, channel);
+        }
+        if (data == null) {
+            return null;
+        }
+        // 加载期间文件被修改时丢弃
+        stat = this.fileStat(path);
+        if (stat == null || stat.getModified() != modified || stat.getSize() != size || data.size() != size) {
+            data.release();
+            return null;
+        }
+        data.retain();
+        synchronized (this.entries) {
+            if (this.version.get() == version) {
+                Entry old = this.entries.put(key, new Entry(data, modified));
+                if (old != null) {
+                    old.data.release();
+                }
+                return data;
+            }
+        }
+        // 加载期间发生过失效，内容只用于本次读取
+        data.release();
+        return data;
+    }
+
+    /**
+     * 按照TinyLFU淘汰最久未使用的条目，直到可以容纳新的内容，调用时必须持有锁
+     *
+     * @param key    新内容的键
+     * @param weight 新内容占用的内存
+     * @return 是否接纳新的内容
+     */
+    private boolean makeRoom(PathKey key, long weight) {
+        if (weight > this.pool.getCapacity()) {
+            return false;
+        }
+        int frequency = this.sketch.frequency(key);
+        Iterator<Map.Entry<PathKey, Entry>> iterator = this.entries.entrySet().iterator();
+        while (this.pool.getUsed() + weight > this.pool.getCapacity()) {
+            if (!iterator.hasNext()) {
+                // 剩余的空间被正在加载的内容占用
+                return false;
+            }
+            Map.Entry<PathKey, Entry> victim = iterator.next();
+            if (frequency <= this.sketch.frequency(victim.getKey())) {
+                return false;
+            }
+            iterator.remove();
+            victim.getValue().data.release();
+        }
+        return true;
+    }
+
+    /**
+     * 通过被包装文件系统的{@link AbstractFileSystem#stat(Path)}读取文件的大小与修改时间，
+     * 不会调用{@link AbstractFileSystem#get(Path)}，因此不会触发解压等物化本地文件的操作
+     *
+     * @param path 路径
+     * @return 元数据，不存在或是目录时返回null
+     */
+    private FileStat fileStat(Path path) {
+        try {
+            FileStat stat = this.delegate.stat(path);
+            return stat.isDirectory() ? null : stat;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 释放路径的缓存
+     *
+     * @param path    路径
+     * @param subtree 是否同时释放路径下所有文件的缓存
+     */
+    private void invalidate(Path path, boolean subtree) {
+        this.version.incrementAndGet();
+        PathKey key = PathKey.of(path);
+        synchronized (this.entries) {
+            Entry entry = this.entries.remove(key);
+            if (entry != null) {
+                entry.data.release();
+            }
+            if (subtree) {
+                Iterator<Map.Entry<PathKey, Entry>> iterator = this.entries.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<PathKey, Entry> cached = iterator.next();
+                    if (cached.getKey().startsWith(key)) {
+                        iterator.remove();
+                        cached.getValue().data.release();
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        final SegmentedBuffer data;
+        final long modified;
+
+        Entry(SegmentedBuffer data, long modified) {
+            this.data = data;
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * 提交时释放目标文件缓存的上传会话
+     */
+    private class InvalidatingUpload implements UploadSession {
+        private final UploadSession session;
+
+        InvalidatingUpload(UploadSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public @NonNull String getId() {
+            return this.session.getId();
+        }
+
+        @Override
+        public @NonNull Path getTarget() {
+            return this.session.getTarget();
+        }
+
+        @Override
+        public long getSize() {
+            return this.session.getSize();
+        }
+
+        @Override
+        public int write(long offset, @NonNull ByteBuffer source) throws IOException {
+            return this.session.write(offset, source);
+        }
+
+        @Override
+        public long write(long offset, @NonNull ReadableByteChannel source) throws IOException {
+            return this.session.write(offset, source);
+        }
+
+        @Override
+        public @NonNull List<Range> received() {
+            return this.session.received();
+        }
+
+        @Override
+        public boolean isComplete() {
+            return this.session.isComplete();
+        }
+
+        @Override
+        public @NonNull Outcome commit() throws IOException {
+            try {
+                return this.session.commit();
+            } finally {
+                invalidate(this.session.getTarget(), false);
+            }
+        }
+
+        @Override
+        public void abort() {
+            this.session.abort();
+        }
+    }
+}
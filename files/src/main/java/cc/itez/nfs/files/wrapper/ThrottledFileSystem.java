@@ -0,0 +1,286 @@
+package cc.itez.nfs.files.wrapper;
+
+import cc.itez.nfs.files.AbstractFileSystem;
+import cc.itez.nfs.files.UploadSession;
+import cc.itez.nfs.mould.Outcome;
+import cc.itez.nfs.mould.Range;
+import cc.itez.nfs.utils.IOUtils;
+import cc.itez.nfs.utils.TokenBucket;
+import lombok.NonNull;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 上传与下载限速
+ * 全局的上传与下载各使用一个{@link TokenBucket}，通过{@link #as(String, long, long)}获取的视图额外使用该用户自己的令牌桶，
+ * 同一用户的所有视图共享令牌桶，因此一个用户的多个并发传输合计不超过该用户的速率。
+ * 数据按{@link IOUtils#THROTTLE_CHUNK}分块获取令牌，并发的传输按获取的先后顺序交替放行，
+ * 一个大文件的传输不会长时间独占带宽；列举、搜索等不传输内容的操作不限速。
+ * <p>
+ * 限速只作用于经过本装饰器的数据：保存({@code save}/{@code trySave}/分块上传)计入上传，
+ * {@code transfer}/{@code read}计入下载；{@link #get(Path)}返回的本地文件不受限制。
+ * 不限速时数据流与通道原样转发，被包装的文件系统仍然可以使用零拷贝。
+ */
+public class ThrottledFileSystem extends FileSystemWrapper {
+    private final Limiter global;
+    private final Map<String, Limiter> principals;
+    private final TokenBucket[] uploads;
+    private final TokenBucket[] downloads;
+
+    /**
+     * @param delegate     被包装的文件系统
+     * @param uploadRate   全局上传速率(字节/秒)，小于等于0时不限速
+     * @param downloadRate 全局下载速率(字节/秒)，小于等于0时不限速
+     */
+    public ThrottledFileSystem(@NonNull AbstractFileSystem delegate, long uploadRate, long downloadRate) {
+        this(delegate, new Limiter(uploadRate, downloadRate), new ConcurrentHashMap<>(), null);
+    }
+
+    private ThrottledFileSystem(AbstractFileSystem delegate, Limiter global, Map<String, Limiter> principals, Limiter principal) {
+        super(delegate);
+        this.global = global;
+        this.principals = principals;
+        this.uploads = principal == null ? new TokenBucket[]{global.upload} : new TokenBucket[]{principal.upload, global.upload};
+        this.downloads = principal == null ? new TokenBucket[]{global.download} : new TokenBucket[]{principal.download, global.download};
+    }
+
+    /**
+     * 修改全局速率，对正在进行的传输立即生效
+     *
+     * @param uploadRate   上传速率(字节/秒)，小于等于0时不限速
+     * @param downloadRate 下载速率(字节/秒)，小于等于0时不限速
+     */
+    public void setGlobalRate(long uploadRate, long downloadRate) {
+        this.global.setRate(uploadRate, downloadRate);
+    }
+
+    /**
+     * 设置允许突发的时长，令牌桶最多积攒该时长内生成的令牌，默认1秒
+     * 只对之后创建或修改速率的令牌桶生效
+     *
+     * @param burst 突发时长
+     * @return this
+     */
+    public ThrottledFileSystem setBurst(@NonNull Duration burst) {
+        this.global.burst = burst;
+        this.global.setRate(this.global.upload.getRate(), this.global.download.getRate());
+        return this;
+    }
+
+    /**
+     * 获取指定用户的视图，视图上的传输同时受用户速率与全局速率的限制
+     * 同一用户再次调用时如果速率发生变化，会更新该用户的令牌桶
+     *
+     * @param principal    用户标识
+     * @param uploadRate   用户的上传速率(字节/秒)，小于等于0时只受全局速率限制
+     * @param downloadRate 用户的下载速率(字节/秒)，小于等于0时只受全局速率限制
+     * @return 用户的视图
+     */
+    public @NonNull ThrottledFileSystem as(@NonNull String principal, long uploadRate, long downloadRate) {
+        Limiter limiter = this.principals.computeIfAbsent(principal, k -> new Limiter(uploadRate, downloadRate, this.global.burst));
+        if (limiter.upload.getRate() != Math.max(0, uploadRate) || limiter.download.getRate() != Math.max(0, downloadRate)) {
+            limiter.setRate(uploadRate, downloadRate);
+        }
+        return new ThrottledFileSystem(this.delegate, this.global, this.principals, limiter);
+    }
+
+    /**
+     * 移除用户的令牌桶，例如用户被删除或注销之后
+     *
+     * @param principal 用户标识
+     */
+    public void forget(@NonNull String principal) {
+        this.principals.remove(principal);
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull File source, @NonNull Path target, boolean cover) throws IOException {
+        if (!this.limited(this.uploads)) {
+            return this.delegate.save(source, target, cover);
+        }
+        try (InputStream input = new FileInputStream(source)) {
+            return this.delegate.save(IOUtils.throttle(input, this.uploads), target, cover);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull InputStream source, @NonNull Path target, boolean cover) throws IOException {
+        return this.delegate.save(IOUtils.throttle(source, this.uploads), target, cover);
+    }
+
+    @Override
+    public @NonNull Outcome save(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover) throws IOException {
+        return this.delegate.save(IOUtils.throttle(source, this.uploads), target, cover);
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull File source, @NonNull Path target, boolean cover) {
+        if (!this.limited(this.uploads)) {
+            return this.delegate.trySave(source, target, cover);
+        }
+        try (InputStream input = new FileInputStream(source)) {
+            return this.delegate.trySave(IOUtils.throttle(input, this.uploads), target, cover);
+        } catch (IOException e) {
+            return Outcome.error(e);
+        }
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull InputStream source, @NonNull Path target, boolean cover) {
+        return this.delegate.trySave(IOUtils.throttle(source, this.uploads), target, cover);
+    }
+
+    @Override
+    public @NonNull Outcome trySave(@NonNull ReadableByteChannel source, @NonNull Path target, boolean cover) {
+        return this.delegate.trySave(IOUtils.throttle(source, this.uploads), target, cover);
+    }
+
+    @Override
+    public @NonNull UploadSession createUpload(@NonNull Path target, long size, boolean cover) throws IOException {
+        return new ThrottledUpload(this.delegate.createUpload(target, size, cover));
+    }
+
+    @Override
+    public UploadSession getUpload(@NonNull String id) {
+        UploadSession session = this.delegate.getUpload(id);
+        return session == null ? null : new ThrottledUpload(session);
+    }
+
+    @Override
+    public long transfer(@NonNull Path source, @NonNull WritableByteChannel target) throws IOException {
+        return this.delegate.transfer(source, IOUtils.throttle(target, this.downloads));
+    }
+
+    @Override
+    public long transfer(@NonNull Path source, @NonNull Range range, @NonNull WritableByteChannel target) throws IOException {
+        return this.delegate.transfer(source, range, IOUtils.throttle(target, this.downloads));
+    }
+
+    @Override
+    public @NonNull ReadableByteChannel read(@NonNull Path path, long offset, long length) throws IOException {
+        return IOUtils.throttle(this.delegate.read(path, offset, length), this.downloads);
+    }
+
+    @Override
+    public @NonNull ByteBuffer read(@NonNull Path path, @NonNull Range range) throws IOException {
+        ByteBuffer buffer = this.delegate.read(path, range);
+        IOUtils.throttle(buffer.remaining(), this.downloads);
+        return buffer;
+    }
+
+    @Override
+    public @NonNull List<ByteBuffer> read(@NonNull Path path, @NonNull List<Range> ranges) throws IOException {
+        List<ByteBuffer> buffers = this.delegate.read(path, ranges);
+        for (ByteBuffer buffer : buffers) {
+            IOUtils.throttle(buffer.remaining(), this.downloads);
+        }
+        return buffers;
+    }
+
+    private boolean limited(TokenBucket[] buckets) {
+        for (TokenBucket bucket : buckets) {
+            if (!bucket.isUnlimited()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 一组上传与下载令牌桶
+     */
+    private static class Limiter {
+        private final TokenBucket upload;
+        private final TokenBucket download;
+        private volatile Duration burst;
+
+        Limiter(long uploadRate, long downloadRate) {
+            this(uploadRate, downloadRate, Duration.ofSeconds(1));
+        }
+
+        Limiter(long uploadRate, long downloadRate, Duration burst) {
+            this.burst = burst;
+            this.upload = new TokenBucket(uploadRate, this.capacity(uploadRate));
+            this.download = new TokenBucket(downloadRate, this.capacity(downloadRate));
+        }
+
+        void setRate(long uploadRate, long downloadRate) {
+            this.upload.setRate(uploadRate, this.capacity(uploadRate));
+            this.download.setRate(downloadRate, this.capacity(downloadRate));
+        }
+
+        /**
+         * 令牌桶容量为突发时长内生成的令牌数量，但至少可以容纳一个数据块
+         */
+        private long capacity(long rate) {
+            long capacity = (long) (Math.max(0, rate) * (this.burst.toMillis() / 1000.0));
+            return Math.max(capacity, IOUtils.THROTTLE_CHUNK);
+        }
+    }
+
+    /**
+     * 写入时计入上传速率的分块上传会话
+     */
+    private class ThrottledUpload implements UploadSession {
+        private final UploadSession session;
+
+        ThrottledUpload(UploadSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public @NonNull String getId() {
+            return this.session.getId();
+        }
+
+        @Override
+        public @NonNull Path getTarget() {
+            return this.session.getTarget();
+        }
+
+        @Override
+        public long getSize() {
+            return this.session.getSize();
+        }
+
+        @Override
+        public int write(long offset, @NonNull ByteBuffer source) throws IOException {
+            int written = this.session.write(offset, source);
+            IOUtils.throttle(written, uploads);
+            return written;
+        }
+
+        @Override
+        public long write(long offset, @NonNull ReadableByteChannel source) throws IOException {
+            return this.session.write(offset, IOUtils.throttle(source, uploads));
+        }
+
+        @Override
+        public @NonNull List<Range> received() {
+            return this.session.received();
+        }
+
+        @Override
+        public boolean isComplete() {
+            return this.session.isComplete();
+        }
+
+        @Override
+        public @NonNull Outcome commit() throws IOException {
+            return this.session.commit();
+        }
+
+        @Override
+        public void abort() {
+            this.session.abort();
+        }
+    }
+}
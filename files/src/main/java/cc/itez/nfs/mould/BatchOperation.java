@@ -0,0 +1,59 @@
+package cc.itez.nfs.mould;
+
+import lombok.Data;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+
+import java.nio.file.Path;
+
+/**
+ * 批量操作中的单个操作
+ * {@link Type#CP}/{@link Type#MV}使用{@code source}与{@code target}，{@link Type#RM}/{@link Type#MKDIRS}只使用{@code target}
+ */
+@Data
+@Accessors(chain = true)
+public class BatchOperation {
+    /**
+     * 操作类型
+     */
+    private Type type;
+    /**
+     * 源路径
+     */
+    private Path source;
+    /**
+     * 目标路径
+     */
+    private Path target;
+    /**
+     * 如果目标存在是否覆盖
+     */
+    private boolean cover;
+    /**
+     * 是否递归删除
+     */
+    private boolean recursive = true;
+
+    public static BatchOperation cp(@NonNull Path source, @NonNull Path target, boolean cover) {
+        return new BatchOperation().setType(Type.CP).setSource(source).setTarget(target).setCover(cover);
+    }
+
+    public static BatchOperation mv(@NonNull Path source, @NonNull Path target, boolean cover) {
+        return new BatchOperation().setType(Type.MV).setSource(source).setTarget(target).setCover(cover);
+    }
+
+    public static BatchOperation rm(@NonNull Path path, boolean recursive) {
+        return new BatchOperation().setType(Type.RM).setTarget(path).setRecursive(recursive);
+    }
+
+    public static BatchOperation mkdirs(@NonNull Path path) {
+        return new BatchOperation().setType(Type.MKDIRS).setTarget(path);
+    }
+
+    public enum Type {
+        MKDIRS,
+        CP,
+        MV,
+        RM
+    }
+}
@@ -0,0 +1,47 @@
+package cc.itez.nfs.mould;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 涉及多个文件的操作(递归删除、递归复制等)的处理结果
+ * 单个文件失败不会终止整个操作，所有失败的路径都会被记录
+ */
+@Data
+@Accessors(chain = true)
+@EqualsAndHashCode(callSuper = true)
+@ToString(callSuper = true)
+public class BulkOutcome extends Outcome {
+    /**
+     * 成功处理的文件数量(包括目录)
+     */
+    private long count;
+    /**
+     * 处理失败的路径
+     */
+    private List<Path> failed = new ArrayList<>();
+
+    /**
+     * 构建处理结果，没有失败的路径时视为成功
+     *
+     * @param path   操作的路径
+     * @param count  成功处理的文件数量
+     * @param failed 处理失败的路径
+     * @param error  第一个失败的原因，没有失败时为null
+     * @return 处理结果
+     */
+    public static BulkOutcome of(Path path, long count, List<Path> failed, Exception error) {
+        BulkOutcome outcome = new BulkOutcome().setCount(count).setFailed(failed);
+        outcome.setSuccessful(failed.isEmpty()).setPath(path).setCode(failed.isEmpty() ? Code.OK : Code.IO_ERROR);
+        if (error != null) {
+            outcome.setCause(error.getMessage()).setException(error).setCode(Code.of(error));
+        }
+        return outcome;
+    }
+}
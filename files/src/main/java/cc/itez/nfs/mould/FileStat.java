@@ -0,0 +1,150 @@
+package cc.itez.nfs.mould;
+
+import lombok.NonNull;
+import lombok.Value;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * 文件属性，不可变
+ * ETag由文件标识(inode等)、大小与修改时间组合而成，不需要读取文件内容；
+ * 同一路径的文件被替换、修改或截断后ETag都会改变
+ */
+@Value
+public class FileStat {
+    Path path;
+    /**
+     * 是否为目录
+     */
+    boolean directory;
+    /**
+     * 文件大小(字节)，保存的内容与读取的内容不同时(例如压缩)由实现替换为读取的大小
+     */
+    long size;
+    /**
+     * 最后修改时间(毫秒)
+     */
+    long modified;
+    /**
+     * 文件标识，文件被替换后应当改变
+     */
+    long key;
+    /**
+     * 带引号的强ETag，例如"1f2e-400-18b5c3a2f10"
+     */
+    String etag;
+
+    /**
+     * 由文件属性创建
+     * 文件标识不可用时(例如Windows)ETag只由大小与修改时间组成
+     *
+     * @param path       路径
+     * @param attributes 一次readAttributes读取的属性
+     * @return 文件属性
+     */
+    public static FileStat of(@NonNull Path path, @NonNull BasicFileAttributes attributes) {
+        Object key = attributes.fileKey();
+        return of(path, attributes.isDirectory(), attributes.size(), attributes.lastModifiedTime().toMillis(), key == null ? 0 : key.hashCode());
+    }
+
+    /**
+     * 创建文件属性
+     *
+     * @param path      路径
+     * @param directory 是否为目录
+     * @param size      文件大小
+     * @param modified  最后修改时间(毫秒)
+     * @param key       文件标识，文件被替换后应当改变
+     * @return 文件属性
+     */
+    public static FileStat of(@NonNull Path path, boolean directory, long size, long modified, long key) {
+        String etag = '"' + Long.toHexString(key) + '-' + Long.toHexString(size) + '-' + Long.toHexString(modified) + '"';
+        return new FileStat(path, directory, size, modified, key, etag);
+    }
+
+    /**
+     * 替换文件大小，ETag按新的大小重新计算
+     *
+     * @param size 读取的大小
+     * @return 新的文件属性
+     */
+    public FileStat withSize(long size) {
+        return size == this.size ? this : of(this.path, this.directory, size, this.modified, this.key);
+    }
+
+    /**
+     * HTTP日期格式的最后修改时间，用于Last-Modified响应头
+     *
+     * @return 例如"Tue, 3 Jun 2008 11:05:30 GMT"
+     */
+    public String lastModified() {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(this.modified), ZoneOffset.UTC));
+    }
+
+    /**
+     * 判断If-None-Match请求头是否与ETag匹配，匹配时可以响应304
+     * 按照弱比较，忽略"W/"前缀
+     * <pre>
+     *  matches("*")                     => true
+     *  matches("\"a\", W/\"b\"")        => ETag为"a"或"b"时为true
+     * </pre>
+     *
+     * @param ifNoneMatch If-None-Match请求头的值，可以为null
+     * @return 是否匹配
+     */
+    public boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(this.etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 判断文件在If-Modified-Since请求头的时间之后是否被修改过
+     * HTTP日期只精确到秒，修改时间按秒比较
+     *
+     * @param ifModifiedSince If-Modified-Since请求头的值，可以为null
+     * @return 是否修改过，请求头不存在或格式错误时返回true
+     */
+    public boolean modifiedSince(String ifModifiedSince) {
+        if (ifModifiedSince == null) {
+            return true;
+        }
+        try {
+            long since = ZonedDateTime.parse(ifModifiedSince.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+            return Math.floorDiv(this.modified, 1000) > since;
+        } catch (DateTimeParseException e) {
+            return true;
+        }
+    }
+
+    /**
+     * 判断条件请求是否可以响应304
+     * 按照RFC 7232，存在If-None-Match时忽略If-Modified-Since
+     *
+     * @param ifNoneMatch     If-None-Match请求头的值，可以为null
+     * @param ifModifiedSince If-Modified-Since请求头的值，可以为null
+     * @return 是否未修改
+     */
+    public boolean notModified(String ifNoneMatch, String ifModifiedSince) {
+        if (ifNoneMatch != null) {
+            return this.matches(ifNoneMatch);
+        }
+        return ifModifiedSince != null && !this.modifiedSince(ifModifiedSince);
+    }
+}
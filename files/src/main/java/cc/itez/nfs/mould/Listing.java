@@ -0,0 +1,41 @@
+package cc.itez.nfs.mould;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * 列举文件的处理结果，成功时包含文件列表
+ */
+@Data
+@Accessors(chain = true)
+@EqualsAndHashCode(callSuper = true)
+@ToString(callSuper = true)
+public class Listing extends Outcome {
+    /**
+     * 文件列表，失败时为空列表
+     */
+    private List<Path> items = List.of();
+
+    public static Listing of(Path path, List<Path> items) {
+        Listing listing = new Listing().setItems(items);
+        listing.setSuccessful(true).setPath(path).setCode(Code.OK);
+        return listing;
+    }
+
+    public static Listing failure(Path path, Code code) {
+        Listing listing = new Listing();
+        listing.setPath(path).setCause(code.name()).setCode(code);
+        return listing;
+    }
+
+    public static Listing error(Path path, Exception e) {
+        Listing listing = new Listing();
+        listing.setPath(path).setCause(e.getMessage()).setException(e).setCode(Code.of(e));
+        return listing;
+    }
+}
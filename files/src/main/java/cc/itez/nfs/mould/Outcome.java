@@ -3,10 +3,11 @@ package cc.itez.nfs.mould;
 import lombok.Data;
 import lombok.experimental.Accessors;
 
-import java.io.File;
-import java.nio.file.Path;
-import java.util.HashMap;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.*;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Data
 @Accessors(chain = true)
@@ -15,18 +16,180 @@ public class Outcome {
     private Path path;
     private String cause;
     private Exception exception;
+    /**
+     * 结果代码，可以代替异常类型判断失败原因
+     */
+    private Code code = Code.FAILURE;
 
-    private static final Map<String, Outcome> CACHED = new HashMap<>();
+    /**
+     * {@link #failure(String)}最多缓存的不同原因数量，超出后每次创建新的实例
+     */
+    private static final int CACHE_LIMIT = 256;
+    private static final Map<String, Outcome> CACHED = new ConcurrentHashMap<>();
 
+    /**
+     * 失败结果，原因相同的结果共享同一个不可修改的实例
+     *
+     * @param s 原因
+     * @return 不可修改的结果
+     */
     public static Outcome failure(String s) {
-        return CACHED.computeIfAbsent(s, (k) -> new Outcome().setCause(k));
+        Outcome outcome = CACHED.get(s);
+        if (outcome == null) {
+            outcome = new Value(false, null, s, null, Code.FAILURE);
+            if (CACHED.size() < CACHE_LIMIT) {
+                Outcome previous = CACHED.putIfAbsent(s, outcome);
+                if (previous != null) {
+                    outcome = previous;
+                }
+            }
+        }
+        return outcome;
     }
 
+    /**
+     * @param e 异常
+     * @return 不可修改的结果
+     */
     public static Outcome error(Exception e) {
-        return new Outcome().setCause(e.getMessage()).setException(e);
+        return new Value(false, null, e.getMessage(), e, Code.of(e));
     }
 
+    /**
+     * @param path 处理后的路径
+     * @return 不可修改的结果
+     */
     public static Outcome success(Path path) {
-        return new Outcome().setSuccessful(true).setPath(path);
+        return new Value(true, path, null, null, Code.OK);
+    }
+
+    /**
+     * 获取结果代码对应的共享实例，不包含路径与异常，不产生任何分配
+     *
+     * @param code 结果代码
+     * @return 不可修改的共享实例
+     */
+    public static Outcome of(Code code) {
+        return code.outcome;
+    }
+
+    /**
+     * 创建只包含结果代码与路径的结果，不需要创建异常及其堆栈
+     *
+     * @param code 结果代码
+     * @param path 失败的路径
+     * @return 不可修改的结果，原因为结果代码的名称
+     */
+    public static Outcome of(Code code, Path path) {
+        return new Value(code == Code.OK, path, code.name(), null, code);
+    }
+
+    /**
+     * 结果代码
+     */
+    public enum Code {
+        OK,
+        /**
+         * 文件或目录不存在
+         */
+        NOT_FOUND,
+        /**
+         * 目标已存在且不覆盖
+         */
+        ALREADY_EXISTS,
+        /**
+         * 需要目录但不是目录
+         */
+        NOT_DIRECTORY,
+        /**
+         * 目录不为空
+         */
+        NOT_EMPTY,
+        /**
+         * 没有权限
+         */
+        ACCESS_DENIED,
+        /**
+         * 超出配额
+         */
+        QUOTA_EXCEEDED,
+        /**
+         * 其他IO错误
+         */
+        IO_ERROR,
+        /**
+         * 其他失败
+         */
+        FAILURE;
+
+        // 初始化期间不能引用其他常量，OK是第一个常量
+        private final Outcome outcome = new Value(this.ordinal() == 0, null, this.name(), null, this);
+
+        /**
+         * 根据异常类型推断结果代码
+         *
+         * @param e 异常
+         * @return 结果代码
+         */
+        public static Code of(Exception e) {
+            if (e instanceof NoSuchFileException || e instanceof FileNotFoundException) {
+                return NOT_FOUND;
+            }
+            if (e instanceof FileAlreadyExistsException) {
+                return ALREADY_EXISTS;
+            }
+            if (e instanceof NotDirectoryException) {
+                return NOT_DIRECTORY;
+            }
+            if (e instanceof DirectoryNotEmptyException) {
+                return NOT_EMPTY;
+            }
+            if (e instanceof AccessDeniedException) {
+                return ACCESS_DENIED;
+            }
+            if (e instanceof QuotaExceededException) {
+                return QUOTA_EXCEEDED;
+            }
+            return e instanceof IOException ? IO_ERROR : FAILURE;
+        }
+    }
+
+    /**
+     * 工厂方法返回的不可修改的结果，可以被多个线程共享
+     * 需要修改时以{@link #of(Code, Path)}等方法创建新的结果，或者直接创建{@link Outcome}
+     */
+    private static final class Value extends Outcome {
+        Value(boolean successful, Path path, String cause, Exception exception, Code code) {
+            super.setSuccessful(successful);
+            super.setPath(path);
+            super.setCause(cause);
+            super.setException(exception);
+            super.setCode(code);
+        }
+
+        @Override
+        public Outcome setSuccessful(boolean successful) {
+            throw new UnsupportedOperationException("Outcome is immutable");
+        }
+
+        @Override
+        public Outcome setPath(Path path) {
+            throw new UnsupportedOperationException("Outcome is immutable");
+        }
+
+        @Override
+        public Outcome setCause(String cause) {
+            throw new UnsupportedOperationException("Outcome is immutable");
+        }
+
+        @Override
+        public Outcome setException(Exception exception) {
+            throw new UnsupportedOperationException("Outcome is immutable");
+        }
+
+        @Override
+        public Outcome setCode(Code code) {
+            throw new UnsupportedOperationException("Outcome is immutable");
+        }
     }
 }
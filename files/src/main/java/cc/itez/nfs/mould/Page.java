@@ -0,0 +1,65 @@
+package cc.itez.nfs.mould;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 分页结果
+ *
+ * @param <T> 元素类型
+ */
+@Data
+@Accessors(chain = true)
+public class Page<T> {
+    /**
+     * 当前页的元素
+     */
+    private List<T> items;
+    /**
+     * 当前页第一个元素的偏移量
+     */
+    private long offset;
+    /**
+     * 请求的每页数量
+     */
+    private int limit;
+    /**
+     * 是否还有下一页
+     */
+    private boolean more;
+
+    /**
+     * 下一页的偏移量，可作为续传游标传回给{@code ls}/{@code find}
+     *
+     * @return 下一页的偏移量
+     */
+    public long next() {
+        return this.offset + this.items.size();
+    }
+
+    /**
+     * 从流中截取一页
+     * 只会消费到当前页末尾的下一个元素(用于判断是否还有下一页)，不会物化整个流，流的关闭由调用者负责
+     *
+     * @param stream 源数据流
+     * @param offset 偏移量
+     * @param limit  每页数量
+     * @param <T>    元素类型
+     * @return 分页结果
+     */
+    public static <T> Page<T> of(Stream<T> stream, long offset, int limit) {
+        offset = Math.max(0, offset);
+        limit = Math.max(0, limit);
+        Iterator<T> iterator = stream.skip(offset).iterator();
+        List<T> items = new ArrayList<>(Math.min(limit, 1024));
+        while (items.size() < limit && iterator.hasNext()) {
+            items.add(iterator.next());
+        }
+        return new Page<T>().setItems(items).setOffset(offset).setLimit(limit).setMore(iterator.hasNext());
+    }
+}
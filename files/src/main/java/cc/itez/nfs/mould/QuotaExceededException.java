@@ -0,0 +1,37 @@
+package cc.itez.nfs.mould;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * 写入后目录的占用空间将超出配额时抛出
+ */
+public class QuotaExceededException extends IOException {
+    private final Path path;
+    private final long quota;
+    private final long usage;
+
+    /**
+     * @param path  设置了配额的目录
+     * @param quota 配额(字节)
+     * @param usage 写入后的占用空间(字节)
+     */
+    public QuotaExceededException(Path path, long quota, long usage) {
+        super(path + " (Quota exceeded: " + usage + " > " + quota + ")");
+        this.path = path;
+        this.quota = quota;
+        this.usage = usage;
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+
+    public long getQuota() {
+        return this.quota;
+    }
+
+    public long getUsage() {
+        return this.usage;
+    }
+}
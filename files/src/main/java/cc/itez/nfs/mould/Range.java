@@ -0,0 +1,91 @@
+package cc.itez.nfs.mould;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 字节范围
+ */
+@Data
+@Accessors(chain = true)
+public class Range {
+    /**
+     * 起始偏移量
+     */
+    private long offset;
+    /**
+     * 长度
+     */
+    private long length;
+
+    public static Range of(long offset, long length) {
+        return new Range().setOffset(offset).setLength(length);
+    }
+
+    /**
+     * 结束位置(不包含)
+     *
+     * @return 结束位置
+     */
+    public long end() {
+        return this.offset + this.length;
+    }
+
+    /**
+     * 解析HTTP Range请求头
+     * <pre>
+     *  Range.parse("bytes=0-99", 1000)        => [0,100)
+     *  Range.parse("bytes=900-", 1000)        => [900,1000)
+     *  Range.parse("bytes=-100", 1000)        => [900,1000)
+     *  Range.parse("bytes=0-0,-1", 1000)      => [0,1) [999,1000)
+     *  Range.parse("bytes=2000-", 1000)       => []
+     *  Range.parse("items=0-1", 1000)         => null
+     * </pre>
+     *
+     * @param header Range请求头的值
+     * @param size   文件大小
+     * @return 截断到文件大小以内的范围列表；语法错误时返回null(应当忽略该请求头)；没有可满足的范围时返回空列表(应当响应416)
+     */
+    public static List<Range> parse(String header, long size) {
+        if (header == null || !header.startsWith("bytes=")) {
+            return null;
+        }
+        List<Range> ranges = new ArrayList<>();
+        for (String spec : header.substring(6).split(",")) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            try {
+                if (first.isEmpty()) {
+                    long suffix = Long.parseLong(last);
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    if (suffix > 0 && size > 0) {
+                        long offset = Math.max(0, size - suffix);
+                        ranges.add(of(offset, size - offset));
+                    }
+                } else {
+                    long offset = Long.parseLong(first);
+                    long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (offset < 0 || end < offset) {
+                        return null;
+                    }
+                    if (offset < size) {
+                        ranges.add(of(offset, Math.min(end, size - 1) - offset + 1));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return ranges;
+    }
+}
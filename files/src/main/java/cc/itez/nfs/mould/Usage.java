@@ -0,0 +1,27 @@
+package cc.itez.nfs.mould;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.nio.file.Path;
+
+/**
+ * 文件或目录的占用空间
+ */
+@Data
+@Accessors(chain = true)
+public class Usage {
+    private Path path;
+    /**
+     * 文件大小，目录为其中所有文件(包括子目录中的文件)的大小之和
+     */
+    private long size;
+    /**
+     * 文件数量，文件为1
+     */
+    private long files;
+    /**
+     * 目录的配额(字节)，未设置时为null
+     */
+    private Long quota;
+}
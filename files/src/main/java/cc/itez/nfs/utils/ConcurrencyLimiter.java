@@ -0,0 +1,127 @@
+package cc.itez.nfs.utils;
+
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 非阻塞的并发限制器
+ * 同时执行的任务数量达到上限时，新任务进入队列而不是阻塞提交线程；
+ * 每个任务结束时从队列中取出下一个任务交给执行器。
+ */
+public class ConcurrencyLimiter {
+    private final int limit;
+    private final Executor executor;
+    private final AtomicInteger running = new AtomicInteger();
+    private final Queue<Task<?>> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param limit    最大并发数量
+     * @param executor 执行任务的执行器
+     */
+    public ConcurrencyLimiter(int limit, Executor executor) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Illegal concurrency limit: " + limit);
+        }
+        this.limit = limit;
+        this.executor = executor;
+    }
+
+    /**
+     * 提交任务
+     *
+     * @param task 任务
+     * @return 任务结果
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        Task<T> pending = new Task<>(task);
+        this.pending.add(pending);
+        this.drain();
+        return pending.future;
+    }
+
+    /**
+     * 正在执行的任务数量
+     *
+     * @return 正在执行的任务数量
+     */
+    public int getRunning() {
+        return this.running.get();
+    }
+
+    /**
+     * 排队等待的任务数量
+     *
+     * @return 排队等待的任务数量
+     */
+    public int getPending() {
+        return this.pending.size();
+    }
+
+    /**
+     * 在不超过上限的前提下启动排队的任务
+     */
+    private void drain() {
+        while (!this.pending.isEmpty()) {
+            int current = this.running.get();
+            if (current >= this.limit) {
+                return;
+            }
+            if (!this.running.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            Task<?> task = this.pending.poll();
+            if (task == null) {
+                this.running.decrementAndGet();
+                // 释放名额与其他线程入队之间可能交错，重新检查队列
+                continue;
+            }
+            try {
+                this.executor.execute(() -> task.run(this::release));
+            } catch (RejectedExecutionException e) {
+                this.running.decrementAndGet();
+                task.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 释放任务占用的名额并启动排队的任务
+     */
+    private void release() {
+        this.running.decrementAndGet();
+        this.drain();
+    }
+
+    private static class Task<T> {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        private final Callable<T> callable;
+
+        Task(Callable<T> callable) {
+            this.callable = callable;
+        }
+
+        /**
+         * 执行任务，在完成结果之前释放名额，因此结果完成时名额一定已经可用
+         *
+         * @param release 释放名额
+         */
+        void run(Runnable release) {
+            // 排队期间被取消的任务不再执行
+            if (this.future.isDone()) {
+                release.run();
+                return;
+            }
+            T value;
+            try {
+                value = this.callable.call();
+            } catch (Throwable e) {
+                release.run();
+                this.future.completeExceptionally(e);
+                return;
+            }
+            release.run();
+            this.future.complete(value);
+        }
+    }
+}
@@ -1,6 +1,14 @@
 package cc.itez.nfs.utils;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 public class FileUtils {
     public static void delete(File file, boolean recursive) {
@@ -19,4 +27,95 @@ public class FileUtils {
     public static boolean mkdirs(File file) {
         return (file.exists() && file.isDirectory()) || file.mkdirs();
     }
+
+    /**
+     * 构建文件名过滤器
+     * <pre>
+     *  FileUtils.nameFilter(null)          => 匹配所有文件名
+     *  FileUtils.nameFilter("")            => 匹配所有文件名
+     *  FileUtils.nameFilter("*.txt")       => 通配符匹配，'*'匹配任意字符，'?'匹配单个字符
+     *  FileUtils.nameFilter("a.txt")       => 精确匹配
+     * </pre>
+     * 注意！只有包含'*'时才按照通配符处理
+     *
+     * @param name 文件名或通配符
+     * @return 文件名过滤器
+     */
+    public static Predicate<String> nameFilter(String name) {
+        if (StringUtils.isEmpty(name)) {
+            return (s) -> true;
+        } else if (name.contains("*")) {
+            Pattern pattern = Pattern.compile(name.replace(".", "\\.")
+                    .replace("*", ".*")
+                    .replace("?", "."));
+            return (s) -> StringUtils.isNotEmpty(s) && pattern.matcher(s).matches();
+        } else {
+            return name::equals;
+        }
+    }
+
+    /**
+     * 将文件的数据与元数据刷新到磁盘
+     *
+     * @param file 文件
+     * @throws IOException 刷新失败时抛出
+     */
+    public static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * 将目录的元数据(新建、删除与重命名的目录项)刷新到磁盘
+     * 部分平台(例如Windows)不支持打开目录，此时忽略
+     *
+     * @param dir 目录
+     * @throws IOException 刷新失败时抛出
+     */
+    public static void forceDirectory(Path dir) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * 通过{@code cp --reflink=always}创建写时复制克隆(JDK没有对应的API)
+     * 只在Linux上尝试，文件系统不支持克隆或命令执行失败时返回false，此时目标可能残留部分内容
+     *
+     * @param source    源路径
+     * @param target    目标路径，目录会与已存在的同名目录合并
+     * @param recursive 是否递归克隆目录
+     * @return 是否克隆成功
+     */
+    public static boolean reflink(Path source, Path target, boolean recursive) {
+        if (!System.getProperty("os.name", "").toLowerCase().contains("linux")) {
+            return false;
+        }
+        List<String> command = new ArrayList<>(List.of("cp", "--reflink=always", "--preserve=mode,timestamps", "--no-dereference"));
+        if (recursive) {
+            command.add("-R");
+        }
+        command.add("-T");
+        command.add(source.toString());
+        command.add(target.toString());
+        try {
+            Process process = new ProcessBuilder(command)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            return process.waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 }
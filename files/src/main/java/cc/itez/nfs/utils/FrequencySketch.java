@@ -0,0 +1,104 @@
+package cc.itez.nfs.utils;
+
+/**
+ * 估计访问频率的Count-Min Sketch
+ * 每个键通过4个哈希函数映射到4个4位计数器，估计值为其中的最小值，计数器最大为15。
+ * 累计增加的次数达到表宽度的10倍时，所有计数器减半，使估计值反映最近的访问频率(老化)。
+ * 占用的内存与表宽度成正比，与实际出现过的键的数量无关。
+ * <p>
+ * 非线程安全，调用者负责同步
+ */
+public class FrequencySketch {
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    /**
+     * 减半时清除每个计数器移入的最高位
+     */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param expected 预计同时跟踪的键的数量，表宽度为不小于该值的2的幂
+     */
+    public FrequencySketch(int expected) {
+        int width = Integer.highestOneBit(Math.max(16, Math.min(expected, 1 << 26)) - 1) << 1;
+        // 每个long保存16个计数器
+        this.table = new long[Math.max(1, width >>> 4)];
+        this.sampleSize = 10 * width;
+    }
+
+    /**
+     * 估计键的访问频率
+     *
+     * @param key 键
+     * @return 频率(0~15)
+     */
+    public int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = 15;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long h = index(hash, i);
+            frequency = Math.min(frequency, (int) ((this.table[slot(h)] >>> offset(h, i)) & 0xF));
+        }
+        return frequency;
+    }
+
+    /**
+     * 记录一次访问
+     *
+     * @param key 键
+     */
+    public void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long h = index(hash, i);
+            int slot = slot(h);
+            int offset = offset(h, i);
+            if (((this.table[slot] >>> offset) & 0xF) != 0xF) {
+                this.table[slot] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++this.additions >= this.sampleSize) {
+            this.reset();
+        }
+    }
+
+    /**
+     * 所有计数器减半
+     */
+    private void reset() {
+        for (int i = 0; i < this.table.length; i++) {
+            this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+        }
+        this.additions >>>= 1;
+    }
+
+    private static long index(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        return h + (h >>> 32);
+    }
+
+    private int slot(long h) {
+        return (int) h & (this.table.length - 1);
+    }
+
+    /**
+     * 计数器在long中的位移，不同的哈希函数使用long中不同的四分之一
+     */
+    private static int offset(long h, int i) {
+        return ((i << 2) + ((int) (h >>> 40) & 3)) << 2;
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 17;
+        hash *= 0xed5ad4bb;
+        hash ^= hash >>> 11;
+        hash *= 0xac4c1f6b;
+        hash ^= hash >>> 15;
+        return hash;
+    }
+}
@@ -1,10 +1,27 @@
 package cc.itez.nfs.utils;
 
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Arrays;
 
 public class IOUtils {
+    /**
+     * 单次transferTo/transferFrom调用的最大字节数，避免部分平台对单次sendfile长度的限制
+     */
+    private static final long TRANSFER_CHUNK = 8L * 1024 * 1024;
+    /**
+     * 读取范围达到该大小时使用内存映射代替按位置读取
+     */
+    public static final int MAP_THRESHOLD = 1024 * 1024;
+    /**
+     * 限速时单次获取令牌的最大字节数，较小的块使并发的传输可以交替获取令牌
+     */
+    public static final int THROTTLE_CHUNK = 64 * 1024;
 
     /**
      * 将InputStream的内容复制到OutputStream中。
@@ -39,4 +56,339 @@ public class IOUtils {
         }
         return count;
     }
+
+    /**
+     * 将ReadableByteChannel的内容复制到WritableByteChannel中。
+     * 任意一端为{@link FileChannel}时使用transferTo/transferFrom(由操作系统完成零拷贝，例如sendfile/copy_file_range)，
+     * 否则使用直接内存缓冲区逐块复制。
+     * 复制从两端通道的当前位置开始，完成后两端通道的位置均会前移复制的字节数。
+     * 两端通道都必须处于阻塞模式，一次调用没有传输任何字节不代表复制结束，只有源通道到达末尾才会返回。
+     *
+     * @param input  - 要复制的通道
+     * @param output - 目标通道
+     * @return 复制的字节数（总长度）
+     * @throws IOException                 - 如果发生错误将原样抛出，源文件在复制期间被截断时抛出{@link EOFException}
+     * @throws IllegalBlockingModeException - 任意一端为非阻塞模式的通道
+     */
+    public static long copy(ReadableByteChannel input, WritableByteChannel output) throws IOException {
+        requireBlocking(input);
+        requireBlocking(output);
+        if (input instanceof FileChannel) {
+            return transferTo((FileChannel) input, output);
+        }
+        if (output instanceof FileChannel) {
+            return transferFrom(input, (FileChannel) output);
+        }
+        return copy(input, output, 8024);
+    }
+
+    /**
+     * 将ReadableByteChannel的内容复制到WritableByteChannel中，不使用零拷贝。
+     *
+     * @param input      - 要复制的通道
+     * @param output     - 目标通道
+     * @param bufferSize - 要使用的缓冲区大小，必须大于0,如果小于8则使用8
+     * @return 复制的字节数
+     * @throws IOException                 - 如果发生错误将原样抛出
+     * @throws IllegalBlockingModeException - 任意一端为非阻塞模式的通道
+     */
+    public static long copy(ReadableByteChannel input, WritableByteChannel output, int bufferSize) throws IOException {
+        requireBlocking(input);
+        requireBlocking(output);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(8, bufferSize));
+        long count = 0;
+        while (input.read(buffer) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                count += output.write(buffer);
+            }
+            buffer.clear();
+        }
+        return count;
+    }
+
+    /**
+     * 使用{@link FileChannel#transferTo}将文件通道当前位置之后的内容写入目标通道
+     *
+     * @param input  - 源文件通道
+     * @param output - 目标通道
+     * @return 复制的字节数
+     * @throws IOException - 如果发生错误将原样抛出
+     */
+    private static long transferTo(FileChannel input, WritableByteChannel output) throws IOException {
+        long position = input.position();
+        long count = transfer(input, position, Math.max(0, input.size() - position), output);
+        input.position(position + count);
+        return count;
+    }
+
+    /**
+     * 使用{@link FileChannel#transferFrom}将源通道的全部内容写入文件通道的当前位置
+     * transferFrom在源通道到达末尾时返回0，但阻塞的源通道也可能只是暂时没有数据(例如管道)，
+     * 因此返回0时再从源通道读取一次来区分：读到末尾才结束，读到数据则写入后继续
+     *
+     * @param input  - 源通道
+     * @param output - 目标文件通道
+     * @return 复制的字节数
+     * @throws IOException - 如果发生错误将原样抛出
+     */
+    private static long transferFrom(ReadableByteChannel input, FileChannel output) throws IOException {
+        long position = output.position();
+        long count = 0;
+        ByteBuffer probe = null;
+        while (true) {
+            long n = output.transferFrom(input, position, TRANSFER_CHUNK);
+            if (n == 0) {
+                if (probe == null) {
+                    probe = ByteBuffer.allocate(8024);
+                }
+                probe.clear();
+                if (input.read(probe) < 0) {
+                    break;
+                }
+                probe.flip();
+                while (probe.hasRemaining()) {
+                    n += output.write(probe, position + n);
+                }
+            }
+            position += n;
+            count += n;
+        }
+        output.position(position);
+        return count;
+    }
+
+    /**
+     * 使用{@link FileChannel#transferTo}将文件的一段写入目标通道，不修改文件通道的位置
+     *
+     * @param input    - 源文件通道
+     * @param position - 起始位置
+     * @param count    - 最多传输的字节数，超出文件末尾的部分会被忽略
+     * @param output   - 目标通道，必须处于阻塞模式
+     * @return 传输的字节数
+     * @throws IOException - 如果发生错误将原样抛出，文件在传输期间被截断时抛出{@link EOFException}
+     */
+    public static long transfer(FileChannel input, long position, long count, WritableByteChannel output) throws IOException {
+        requireBlocking(output);
+        long end = Math.min(input.size(), count > Long.MAX_VALUE - position ? Long.MAX_VALUE : position + count);
+        long transferred = 0;
+        while (position < end) {
+            long n = input.transferTo(position, Math.min(end - position, TRANSFER_CHUNK), output);
+            if (n <= 0 && input.size() <= position) {
+                throw new EOFException("File truncated during transfer at position " + position);
+            }
+            position += n;
+            transferred += n;
+        }
+        return transferred;
+    }
+
+    /**
+     * 读取文件的一段，不修改文件通道的位置
+     * 小于{@link #MAP_THRESHOLD}的范围使用按位置读取，更大的范围返回只读的内存映射
+     *
+     * @param input    - 源文件通道
+     * @param position - 起始位置
+     * @param count    - 最多读取的字节数，超出文件末尾的部分会被忽略
+     * @return 读取到的内容，position为0，limit为实际读取的长度
+     * @throws IOException - 如果发生错误将原样抛出
+     */
+    public static ByteBuffer read(FileChannel input, long position, long count) throws IOException {
+        long length = Math.max(0, Math.min(input.size() - position, count));
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Range too large for a single buffer: " + length);
+        }
+        if (length >= MAP_THRESHOLD) {
+            return input.map(FileChannel.MapMode.READ_ONLY, position, length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining()) {
+            if (input.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * 为输入流限速，每次最多读取{@link #THROTTLE_CHUNK}字节，读取后从所有令牌桶获取相应数量的令牌
+     * 所有令牌桶都不限速时原样返回，以保留调用者对具体类型(例如{@link java.io.FileInputStream})的优化
+     *
+     * @param input   - 输入流
+     * @param buckets - 令牌桶
+     * @return 限速后的输入流
+     */
+    public static InputStream throttle(InputStream input, TokenBucket... buckets) {
+        TokenBucket[] limited = limited(buckets);
+        return limited.length == 0 ? input : new ThrottledInputStream(input, limited);
+    }
+
+    /**
+     * 为可读通道限速，所有令牌桶都不限速时原样返回
+     *
+     * @param input   - 可读通道
+     * @param buckets - 令牌桶
+     * @return 限速后的通道
+     */
+    public static ReadableByteChannel throttle(ReadableByteChannel input, TokenBucket... buckets) {
+        TokenBucket[] limited = limited(buckets);
+        return limited.length == 0 ? input : new ThrottledReadableChannel(input, limited);
+    }
+
+    /**
+     * 为可写通道限速，所有令牌桶都不限速时原样返回
+     * 注意限速后的通道不再是{@link FileChannel}，写入文件时无法使用零拷贝
+     *
+     * @param output  - 可写通道
+     * @param buckets - 令牌桶
+     * @return 限速后的通道
+     */
+    public static WritableByteChannel throttle(WritableByteChannel output, TokenBucket... buckets) {
+        TokenBucket[] limited = limited(buckets);
+        return limited.length == 0 ? output : new ThrottledWritableChannel(output, limited);
+    }
+
+    /**
+     * 为已经传输的字节获取令牌，按{@link #THROTTLE_CHUNK}分块获取，以免一次性的大块传输独占令牌桶
+     *
+     * @param bytes   - 字节数
+     * @param buckets - 令牌桶
+     * @throws java.io.InterruptedIOException - 等待时被中断
+     */
+    public static void throttle(long bytes, TokenBucket... buckets) throws IOException {
+        TokenBucket[] limited = limited(buckets);
+        if (limited.length == 0) {
+            return;
+        }
+        for (long remaining = bytes; remaining > 0; remaining -= THROTTLE_CHUNK) {
+            TokenBucket.acquire(Math.min(remaining, THROTTLE_CHUNK), limited);
+        }
+    }
+
+    /**
+     * 非阻塞通道的一次读写可能不传输任何字节，无法判断复制是否结束
+     */
+    private static void requireBlocking(Channel channel) {
+        if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking()) {
+            throw new IllegalBlockingModeException();
+        }
+    }
+
+    private static TokenBucket[] limited(TokenBucket[] buckets) {
+        int count = 0;
+        TokenBucket[] limited = new TokenBucket[buckets.length];
+        for (TokenBucket bucket : buckets) {
+            if (bucket != null && !bucket.isUnlimited()) {
+                limited[count++] = bucket;
+            }
+        }
+        return count == buckets.length ? limited : Arrays.copyOf(limited, count);
+    }
+
+    private static class ThrottledInputStream extends FilterInputStream {
+        private final TokenBucket[] buckets;
+
+        ThrottledInputStream(InputStream in, TokenBucket[] buckets) {
+            super(in);
+            this.buckets = buckets;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                TokenBucket.acquire(1, this.buckets);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, Math.min(len, THROTTLE_CHUNK));
+            if (n > 0) {
+                TokenBucket.acquire(n, this.buckets);
+            }
+            return n;
+        }
+
+        /**
+         * 跳过的数据没有被传输，直接交给被包装的流而不消耗令牌
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            return this.in.skip(n);
+        }
+    }
+
+    private static class ThrottledReadableChannel implements ReadableByteChannel {
+        private final ReadableByteChannel channel;
+        private final TokenBucket[] buckets;
+
+        ThrottledReadableChannel(ReadableByteChannel channel, TokenBucket[] buckets) {
+            this.channel = channel;
+            this.buckets = buckets;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int limit = dst.limit();
+            dst.limit(Math.min(limit, dst.position() + THROTTLE_CHUNK));
+            int n;
+            try {
+                n = this.channel.read(dst);
+            } finally {
+                dst.limit(limit);
+            }
+            if (n > 0) {
+                TokenBucket.acquire(n, this.buckets);
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+
+    private static class ThrottledWritableChannel implements WritableByteChannel {
+        private final WritableByteChannel channel;
+        private final TokenBucket[] buckets;
+
+        ThrottledWritableChannel(WritableByteChannel channel, TokenBucket[] buckets) {
+            this.channel = channel;
+            this.buckets = buckets;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int limit = src.limit();
+            src.limit(Math.min(limit, src.position() + THROTTLE_CHUNK));
+            int n;
+            try {
+                n = this.channel.write(src);
+            } finally {
+                src.limit(limit);
+            }
+            if (n > 0) {
+                TokenBucket.acquire(n, this.buckets);
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
 }
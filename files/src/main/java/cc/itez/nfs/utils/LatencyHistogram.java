@@ -0,0 +1,120 @@
+package cc.itez.nfs.utils;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁的延迟直方图
+ * 按对数-线性的方式分桶：每个2的幂区间再等分为{@link #SUB_BUCKETS}个桶，相对误差不超过1/{@link #SUB_BUCKETS}，
+ * 所有桶保存在一个{@link AtomicLongArray}中，记录时只对一个桶做原子自增，不加锁也不分配对象。
+ * 读取的分位数是所在桶的上界，因此略微偏大但不会偏小。
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /**
+     * 小于{@link #SUB_BUCKETS}的值各占一个桶，之后每个2的幂区间占{@link #SUB_BUCKETS}个桶
+     */
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 记录一个值
+     *
+     * @param value 值(例如纳秒)，负数按0记录
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        this.buckets.incrementAndGet(index(value));
+        this.sum.add(value);
+        long current;
+        while (value > (current = this.max.get()) && !this.max.compareAndSet(current, value)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * 读取当前的统计结果
+     * 读取期间的并发记录可能只有一部分被统计，但结果中的各个分位数始终是单调的
+     *
+     * @return 统计结果
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.buckets.get(i);
+            count += counts[i];
+        }
+        Snapshot snapshot = new Snapshot().setCount(count).setMax(this.max.get());
+        if (count == 0) {
+            return snapshot;
+        }
+        return snapshot.setMean(this.sum.sum() / count)
+                .setP50(percentile(counts, count, 0.5, snapshot.getMax()))
+                .setP99(percentile(counts, count, 0.99, snapshot.getMax()))
+                .setP999(percentile(counts, count, 0.999, snapshot.getMax()));
+    }
+
+    /**
+     * 清空所有记录
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.buckets.set(i, 0);
+        }
+        this.sum.reset();
+        this.max.set(0);
+    }
+
+    private static long percentile(long[] counts, long count, double quantile, long max) {
+        long rank = (long) Math.ceil(count * quantile);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * 直方图的统计结果，单位与记录的值相同
+     */
+    @Data
+    @Accessors(chain = true)
+    public static class Snapshot {
+        private long count;
+        private long mean;
+        private long max;
+        private long p50;
+        private long p99;
+        private long p999;
+    }
+}
@@ -0,0 +1,156 @@
+package cc.itez.nfs.utils;
+
+import lombok.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 堆外内存段池
+ * 内存以固定大小的段分配，多个段一起从一块直接内存(slab)中切分，释放的段放回空闲列表供之后复用，
+ * 因此大量数据不会进入Java堆，也不会因为频繁分配直接内存而触发额外的GC。
+ * 已分配的slab在池的整个生命周期内不会归还给操作系统，池的总大小不超过设置的容量。
+ */
+public class OffHeapPool {
+    /**
+     * 默认的段大小
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    /**
+     * 单个slab的最大字节数
+     */
+    private static final int SLAB_SIZE = 4 * 1024 * 1024;
+
+    private final long capacity;
+    private final int segmentSize;
+    private final ConcurrentLinkedDeque<ByteBuffer> free = new ConcurrentLinkedDeque<>();
+    /**
+     * 已从操作系统分配的字节数
+     */
+    private final AtomicLong allocated = new AtomicLong();
+    /**
+     * 正在使用的字节数
+     */
+    private final AtomicLong used = new AtomicLong();
+
+    /**
+     * 使用默认的段大小
+     *
+     * @param capacity 最大容量(字节)
+     */
+    public OffHeapPool(long capacity) {
+        this(capacity, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param capacity    最大容量(字节)
+     * @param segmentSize 段大小(字节)
+     */
+    public OffHeapPool(long capacity, int segmentSize) {
+        if (segmentSize <= 0 || capacity < segmentSize) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity + " or segment size " + segmentSize);
+        }
+        this.capacity = capacity;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * 分配一个段，返回的段position为0，limit与capacity为段大小
+     *
+     * @return 段，容量已满时返回null
+     */
+    public ByteBuffer allocate() {
+        long current;
+        do {
+            current = this.used.get();
+            if (current + this.segmentSize > this.capacity) {
+                return null;
+            }
+        } while (!this.used.compareAndSet(current, current + this.segmentSize));
+        ByteBuffer segment = this.free.pollFirst();
+        if (segment != null) {
+            return segment;
+        }
+        try {
+            return this.grow();
+        } catch (OutOfMemoryError e) {
+            this.used.addAndGet(-this.segmentSize);
+            throw e;
+        }
+    }
+
+    /**
+     * 释放段，释放之后调用者不能再访问该段
+     *
+     * @param segment 由{@link #allocate()}分配的段
+     */
+    public void release(@NonNull ByteBuffer segment) {
+        segment.clear();
+        // 后进先出，最近使用过的段更可能仍在CPU缓存中
+        this.free.offerFirst(segment);
+        this.used.addAndGet(-this.segmentSize);
+    }
+
+    /**
+     * 分配一个新的slab，返回其中的第一个段并将其余的段放入空闲列表
+     * 调用时已经在{@link #used}中为返回的段预留了容量。slab的大小先通过CAS从{@link #allocated}中预留，
+     * 预留成功后才分配直接内存，因此并发扩容时已分配的总量也不会超过容量。
+     * 容量已全部分配时，已分配的段数不少于已预留的段数，必然有段正被其他线程切分或归还，等待其放入空闲列表即可
+     */
+    private ByteBuffer grow() {
+        while (true) {
+            ByteBuffer segment = this.free.pollFirst();
+            if (segment != null) {
+                return segment;
+            }
+            long current = this.allocated.get();
+            int segments = (int) Math.min(Math.max(1, SLAB_SIZE / this.segmentSize), (this.capacity - current) / this.segmentSize);
+            if (segments <= 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            long bytes = (long) segments * this.segmentSize;
+            if (!this.allocated.compareAndSet(current, current + bytes)) {
+                continue;
+            }
+            ByteBuffer slab;
+            try {
+                slab = ByteBuffer.allocateDirect((int) bytes);
+            } catch (OutOfMemoryError e) {
+                this.allocated.addAndGet(-bytes);
+                throw e;
+            }
+            for (int i = 1; i < segments; i++) {
+                this.free.offerLast(slab.slice(i * this.segmentSize, this.segmentSize));
+            }
+            return slab.slice(0, this.segmentSize);
+        }
+    }
+
+    public long getCapacity() {
+        return this.capacity;
+    }
+
+    public int getSegmentSize() {
+        return this.segmentSize;
+    }
+
+    /**
+     * 正在使用的字节数
+     *
+     * @return 字节数
+     */
+    public long getUsed() {
+        return this.used.get();
+    }
+
+    /**
+     * 已分配的直接内存字节数
+     *
+     * @return 字节数
+     */
+    public long getAllocated() {
+        return this.allocated.get();
+    }
+}
@@ -0,0 +1,223 @@
+package cc.itez.nfs.utils;
+
+import lombok.NonNull;
+
+import java.nio.file.Path;
+
+/**
+ * 紧凑的相对路径表示，用于文件系统内部的热路径
+ * 路径以父节点链的形式保存，同一父目录下的子项共享父节点，
+ * 哈希值在创建时计算并缓存，因此取父路径、拼接子项与比较都不需要解析或拼接字符串。
+ * 只在返回给调用者时才通过{@link #toPath()}转换为{@link Path}。
+ * <p>
+ * 所有路径都以{@link #ROOT}为根，对应{@link PathUtils#ROOT}。
+ * 路径按分量逐级比较排序，目录之下的所有路径紧跟在目录之后，因此有序集合中的子树是一段连续的范围
+ */
+public final class PathKey implements Comparable<PathKey> {
+    /**
+     * 根路径
+     */
+    public static final PathKey ROOT = new PathKey(null, "");
+
+    private final PathKey parent;
+    private final String name;
+    private final int depth;
+    private final int hash;
+
+    private PathKey(PathKey parent, String name) {
+        this.parent = parent;
+        this.name = name;
+        this.depth = parent == null ? 0 : parent.depth + 1;
+        this.hash = parent == null ? 0 : 31 * parent.hash + name.hashCode();
+    }
+
+    /**
+     * 将路径转换为路径键，忽略路径的根并规范化"."与".."，超出根目录的".."会被忽略
+     *
+     * @param path 路径
+     * @return 路径键
+     */
+    public static PathKey of(@NonNull Path path) {
+        PathKey key = ROOT;
+        for (int i = 0, count = path.getNameCount(); i < count; i++) {
+            String name = path.getName(i).toString();
+            if (name.isEmpty() || name.equals(".")) {
+                continue;
+            }
+            if (name.equals("..")) {
+                key = key.parent == null ? key : key.parent;
+            } else {
+                key = key.child(name);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * 拼接子项
+     *
+     * @param name 子项名称，不能包含分隔符
+     * @return 子路径
+     */
+    public PathKey child(@NonNull String name) {
+        return new PathKey(this, name);
+    }
+
+    /**
+     * 拼接子项
+     *
+     * @param name 子项名称，只使用其文件名部分
+     * @return 子路径
+     */
+    public PathKey child(@NonNull Path name) {
+        return this.child(name.getFileName().toString());
+    }
+
+    /**
+     * 上级路径
+     *
+     * @return 上级路径，根路径返回null
+     */
+    public PathKey parent() {
+        return this.parent;
+    }
+
+    /**
+     * 文件名
+     *
+     * @return 文件名，根路径返回空字符串
+     */
+    public String name() {
+        return this.name;
+    }
+
+    /**
+     * 路径深度，根路径为0
+     *
+     * @return 路径深度
+     */
+    public int depth() {
+        return this.depth;
+    }
+
+    /**
+     * 是否以指定路径开头(包括相同)
+     *
+     * @param other 路径
+     * @return 是否以指定路径开头
+     */
+    public boolean startsWith(@NonNull PathKey other) {
+        PathKey key = this;
+        while (key.depth > other.depth) {
+            key = key.parent;
+        }
+        return key.equals(other);
+    }
+
+    /**
+     * 将以from开头的路径改为以to开头
+     *
+     * @param from 原前缀
+     * @param to   新前缀
+     * @return 新路径
+     * @throws IllegalArgumentException 路径不以from开头时抛出
+     */
+    public PathKey rebase(@NonNull PathKey from, @NonNull PathKey to) {
+        if (this.depth == from.depth) {
+            if (!this.equals(from)) {
+                throw new IllegalArgumentException(this + " does not start with " + from);
+            }
+            return to;
+        }
+        if (this.depth < from.depth) {
+            throw new IllegalArgumentException(this + " does not start with " + from);
+        }
+        return this.parent.rebase(from, to).child(this.name);
+    }
+
+    /**
+     * 在指定目录下解析此路径
+     *
+     * @param base 目录
+     * @return 拼接后的路径
+     */
+    public Path resolve(@NonNull Path base) {
+        return this.parent == null ? base : base.resolve(this.toString().substring(1));
+    }
+
+    /**
+     * 转换为以{@link PathUtils#ROOT}开头的路径
+     *
+     * @return 路径
+     */
+    public Path toPath() {
+        return this.parent == null ? PathUtils.ROOT : PathUtils.ROOT.resolve(this.toString().substring(1));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PathKey)) {
+            return false;
+        }
+        PathKey a = this;
+        PathKey b = (PathKey) o;
+        if (a.hash != b.hash || a.depth != b.depth) {
+            return false;
+        }
+        // 共享父节点时提前结束
+        while (a != b) {
+            if (!a.name.equals(b.name)) {
+                return false;
+            }
+            a = a.parent;
+            b = b.parent;
+        }
+        return true;
+    }
+
+    /**
+     * 按路径分量逐级比较，祖先排在后代之前
+     */
+    @Override
+    public int compareTo(@NonNull PathKey other) {
+        if (this == other) {
+            return 0;
+        }
+        if (this.depth > other.depth) {
+            int c = this.parent.compareTo(other);
+            return c != 0 ? c : 1;
+        }
+        if (this.depth < other.depth) {
+            int c = this.compareTo(other.parent);
+            return c != 0 ? c : -1;
+        }
+        int c = this.parent.compareTo(other.parent);
+        return c != 0 ? c : this.name.compareTo(other.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    @Override
+    public String toString() {
+        if (this.parent == null) {
+            return "/";
+        }
+        int length = 0;
+        for (PathKey key = this; key.parent != null; key = key.parent) {
+            length += key.name.length() + 1;
+        }
+        char[] chars = new char[length];
+        for (PathKey key = this; key.parent != null; key = key.parent) {
+            length -= key.name.length();
+            key.name.getChars(0, key.name.length(), chars, length);
+            chars[--length] = '/';
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,121 @@
+package cc.itez.nfs.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 文件的一段只读视图
+ * 使用{@link FileChannel#read(ByteBuffer, long)}按位置读取，不会读取范围之外的字节，
+ * 也不会修改底层通道的位置，因此同一个文件通道可以同时创建多个视图
+ */
+public class RangeChannel implements ReadableByteChannel {
+    private final FileChannel channel;
+    private final boolean owner;
+    private long position;
+    private final long end;
+    private boolean open = true;
+
+    /**
+     * @param channel 文件通道
+     * @param offset  起始偏移量
+     * @param length  长度
+     * @param owner   关闭视图时是否关闭文件通道
+     */
+    public RangeChannel(FileChannel channel, long offset, long length, boolean owner) {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Negative offset or length");
+        }
+        this.channel = channel;
+        this.owner = owner;
+        this.position = offset;
+        this.end = length > Long.MAX_VALUE - offset ? Long.MAX_VALUE : offset + length;
+    }
+
+    /**
+     * 剩余可读的字节数(不超过文件末尾)
+     *
+     * @return 剩余字节数
+     */
+    public long remaining() throws IOException {
+        return Math.max(0, Math.min(this.end, this.channel.size()) - this.position);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!this.open) {
+            throw new ClosedChannelException();
+        }
+        long remaining = this.end - this.position;
+        if (remaining <= 0) {
+            return -1;
+        }
+        int limit = dst.limit();
+        if (dst.remaining() > remaining) {
+            dst.limit(dst.position() + (int) remaining);
+        }
+        try {
+            int n = this.channel.read(dst, this.position);
+            if (n > 0) {
+                this.position += n;
+            }
+            return n;
+        } finally {
+            dst.limit(limit);
+        }
+    }
+
+    /**
+     * 使用{@link FileChannel#transferTo}将剩余内容零拷贝写入目标通道
+     *
+     * @param target 目标通道
+     * @return 传输的字节数
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        if (!this.open) {
+            throw new ClosedChannelException();
+        }
+        long count = IOUtils.transfer(this.channel, this.position, this.remaining(), target);
+        this.position += count;
+        return count;
+    }
+
+    /**
+     * 调用一次{@link FileChannel#transferTo}，最多传输{@code count}字节，适用于非阻塞的目标通道
+     * 返回0时可能是目标通道暂时无法写入，也可能是已经到达范围或文件的末尾，调用者通过{@link #remaining()}区分
+     *
+     * @param target 目标通道
+     * @param count  最多传输的字节数
+     * @return 传输的字节数
+     */
+    public long transferTo(WritableByteChannel target, long count) throws IOException {
+        if (!this.open) {
+            throw new ClosedChannelException();
+        }
+        long length = Math.min(count, this.remaining());
+        if (length <= 0) {
+            return 0;
+        }
+        long n = this.channel.transferTo(this.position, length, target);
+        this.position += n;
+        return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.open) {
+            this.open = false;
+            if (this.owner) {
+                this.channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package cc.itez.nfs.utils;
+
+import cc.itez.nfs.mould.Range;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 保存在{@link OffHeapPool}内存段中的不可变数据
+ * 数据由多个持有者共享(例如多个文件、缓存与正在进行的读取)，通过引用计数管理，
+ * 计数降为0时将内存段归还给内存池。读取之前必须先通过{@link #retain()}增加计数，读取完毕后{@link #release()}。
+ */
+public final class SegmentedBuffer {
+    private final OffHeapPool pool;
+    private final ByteBuffer[] segments;
+    private final long size;
+    private final int segmentSize;
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    private SegmentedBuffer(OffHeapPool pool, ByteBuffer[] segments, long size) {
+        this.pool = pool;
+        this.segments = segments;
+        this.size = size;
+        this.segmentSize = pool.getSegmentSize();
+    }
+
+    /**
+     * 从数据通道读取全部内容到新分配的内存段中
+     *
+     * @param pool   内存池
+     * @param source 数据通道
+     * @return 数据，引用计数为1；内存池容量不足时释放已分配的内存段并返回null，此时数据通道已被部分读取
+     */
+    public static SegmentedBuffer read(@NonNull OffHeapPool pool, @NonNull ReadableByteChannel source) throws IOException {
+        List<ByteBuffer> segments = new ArrayList<>();
+        try {
+            ByteBuffer segment = null;
+            while (true) {
+                if (segment == null || !segment.hasRemaining()) {
+                    segment = pool.allocate();
+                    if (segment == null) {
+                        release(pool, segments);
+                        return null;
+                    }
+                    segments.add(segment);
+                }
+                if (source.read(segment) < 0) {
+                    break;
+                }
+            }
+            if (segment.position() == 0) {
+                segments.remove(segments.size() - 1);
+                pool.release(segment);
+            }
+        } catch (IOException | RuntimeException e) {
+            release(pool, segments);
+            throw e;
+        }
+        long size = 0;
+        for (ByteBuffer segment : segments) {
+            segment.flip();
+            size += segment.remaining();
+        }
+        return new SegmentedBuffer(pool, segments.toArray(new ByteBuffer[0]), size);
+    }
+
+    private static void release(OffHeapPool pool, List<ByteBuffer> segments) {
+        for (ByteBuffer segment : segments) {
+            pool.release(segment);
+        }
+    }
+
+    /**
+     * 数据的字节数
+     *
+     * @return 字节数
+     */
+    public long size() {
+        return this.size;
+    }
+
+    /**
+     * 占用的内存池空间
+     *
+     * @return 字节数
+     */
+    public long weight() {
+        return (long) this.segments.length * this.segmentSize;
+    }
+
+    /**
+     * 增加引用计数
+     *
+     * @return 数据已被释放时返回false，此时不能再读取
+     */
+    public boolean retain() {
+        int refs;
+        do {
+            refs = this.refs.get();
+            if (refs == 0) {
+                return false;
+            }
+        } while (!this.refs.compareAndSet(refs, refs + 1));
+        return true;
+    }
+
+    /**
+     * 减少引用计数，降为0时归还内存段
+     */
+    public void release() {
+        if (this.refs.decrementAndGet() == 0) {
+            for (ByteBuffer segment : this.segments) {
+                this.pool.release(segment);
+            }
+        }
+    }
+
+    /**
+     * 复制从position开始的数据到dst，直到dst写满或到达末尾
+     *
+     * @param position 起始位置
+     * @param dst      目标缓冲区
+     * @return 复制的字节数
+     */
+    public int copy(long position, @NonNull ByteBuffer dst) {
+        int copied = 0;
+        while (dst.hasRemaining() && position < this.size) {
+            ByteBuffer segment = this.segments[(int) (position / this.segmentSize)];
+            int offset = (int) (position % this.segmentSize);
+            int length = Math.min(dst.remaining(), segment.limit() - offset);
+            dst.put(dst.position(), segment, offset, length).position(dst.position() + length);
+            position += length;
+            copied += length;
+        }
+        return copied;
+    }
+
+    /**
+     * 将指定范围的数据写入数据通道
+     *
+     * @param position 起始位置
+     * @param count    字节数，超出末尾的部分被忽略
+     * @param target   目标通道
+     * @return 写入的字节数
+     */
+    public long transfer(long position, long count, @NonNull WritableByteChannel target) throws IOException {
+        long end = Math.min(this.size, position + count);
+        long written = 0;
+        while (position < end) {
+            ByteBuffer segment = this.segments[(int) (position / this.segmentSize)];
+            int offset = (int) (position % this.segmentSize);
+            int length = (int) Math.min(end - position, segment.limit() - offset);
+            ByteBuffer view = segment.slice(offset, length);
+            while (view.hasRemaining()) {
+                target.write(view);
+            }
+            position += length;
+            written += length;
+        }
+        return written;
+    }
+
+    /**
+     * 将指定范围的数据复制到新的堆内缓冲区
+     *
+     * @param range 范围，超出末尾的部分被忽略
+     * @return 已翻转的缓冲区
+     */
+    public ByteBuffer read(@NonNull Range range) {
+        long offset = Math.min(range.getOffset(), this.size);
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(range.getLength(), this.size - offset));
+        this.copy(offset, buffer);
+        return buffer.flip();
+    }
+
+    /**
+     * 以数据通道的形式读取指定范围的数据
+     * 返回的通道接管调用者持有的一个引用，关闭时释放
+     *
+     * @param offset 起始位置
+     * @param length 字节数，小于0时读取到末尾
+     * @return 数据通道
+     */
+    public ReadableByteChannel channel(long offset, long length) {
+        long start = Math.min(Math.max(0, offset), this.size);
+        return new SegmentedChannel(start, length < 0 ? this.size : Math.min(this.size, start + length));
+    }
+
+    /**
+     * 读取数据的通道，关闭时释放对数据的引用
+     */
+    private final class SegmentedChannel implements ReadableByteChannel {
+        private final long end;
+        private long position;
+        private boolean open = true;
+
+        SegmentedChannel(long position, long end) {
+            this.position = position;
+            this.end = end;
+        }
+
+        @Override
+        public synchronized int read(ByteBuffer dst) throws IOException {
+            if (!this.open) {
+                throw new ClosedChannelException();
+            }
+            if (this.position >= this.end) {
+                return -1;
+            }
+            int limit = dst.limit();
+            dst.limit(dst.position() + (int) Math.min(dst.remaining(), this.end - this.position));
+            int read = copy(this.position, dst);
+            dst.limit(limit);
+            this.position += read;
+            return read;
+        }
+
+        @Override
+        public synchronized boolean isOpen() {
+            return this.open;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (this.open) {
+                this.open = false;
+                release();
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package cc.itez.nfs.utils;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 令牌桶限速器
+ * 令牌以{@code rate}/秒的速度生成，最多积攒{@code capacity}个，用于允许短时间的突发。
+ * 获取令牌采用预订的方式：令牌不足时先记为欠账，调用者在锁外等待到欠账还清的时刻，
+ * 因此等待的线程按照预订的先后顺序(公平锁保证)依次放行，调用者以小块多次获取时，并发的传输可以平分速率。
+ */
+public class TokenBucket {
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private long rate;
+    private long capacity;
+    private double tokens;
+    private long refilled = System.nanoTime();
+
+    /**
+     * @param rate     每秒生成的令牌数量，小于等于0时不限速
+     * @param capacity 最多积攒的令牌数量
+     */
+    public TokenBucket(long rate, long capacity) {
+        this.setRate(rate, capacity);
+        this.tokens = this.capacity;
+    }
+
+    /**
+     * 修改速率，已积攒的令牌不超过新的容量
+     *
+     * @param rate     每秒生成的令牌数量，小于等于0时不限速
+     * @param capacity 最多积攒的令牌数量
+     */
+    public void setRate(long rate, long capacity) {
+        this.lock.lock();
+        try {
+            this.refill(System.nanoTime());
+            this.rate = Math.max(0, rate);
+            this.capacity = Math.max(1, capacity);
+            this.tokens = Math.min(this.tokens, this.capacity);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getRate() {
+        return this.rate;
+    }
+
+    /**
+     * 是否不限速
+     *
+     * @return 是否不限速
+     */
+    public boolean isUnlimited() {
+        return this.rate <= 0;
+    }
+
+    /**
+     * 获取令牌，令牌不足时等待
+     *
+     * @param permits 令牌数量
+     * @throws InterruptedIOException 等待时被中断
+     */
+    public void acquire(long permits) throws InterruptedIOException {
+        sleep(this.reserve(permits));
+    }
+
+    /**
+     * 同时从多个令牌桶获取令牌，等待到所有令牌桶都满足为止
+     *
+     * @param permits 令牌数量
+     * @param buckets 令牌桶
+     * @throws InterruptedIOException 等待时被中断
+     */
+    public static void acquire(long permits, TokenBucket... buckets) throws InterruptedIOException {
+        long wait = 0;
+        for (TokenBucket bucket : buckets) {
+            wait = Math.max(wait, bucket.reserve(permits));
+        }
+        sleep(wait);
+    }
+
+    /**
+     * 预订令牌
+     *
+     * @param permits 令牌数量
+     * @return 需要等待的纳秒数
+     */
+    long reserve(long permits) {
+        this.lock.lock();
+        try {
+            if (this.rate <= 0) {
+                return 0;
+            }
+            this.refill(System.nanoTime());
+            this.tokens -= permits;
+            return this.tokens >= 0 ? 0 : (long) (-this.tokens * TimeUnit.SECONDS.toNanos(1) / this.rate);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void refill(long now) {
+        if (this.rate > 0) {
+            this.tokens = Math.min(this.capacity, this.tokens + (double) (now - this.refilled) * this.rate / TimeUnit.SECONDS.toNanos(1));
+        }
+        this.refilled = now;
+    }
+
+    private static void sleep(long nanos) throws InterruptedIOException {
+        long deadline = System.nanoTime() + nanos;
+        for (long remaining = nanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+            }
+        }
+    }
+}
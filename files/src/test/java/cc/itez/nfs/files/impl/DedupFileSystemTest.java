@@ -0,0 +1,159 @@
+package cc.itez.nfs.files.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class DedupFileSystemTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+    private DedupFileSystem fileSystem;
+
+    @Before
+    public void setUp() throws Exception {
+        root = folder.newFolder("dedup").toPath();
+        fileSystem = new DedupFileSystem(root).setGrace(Duration.ZERO);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+    }
+
+    @Test
+    public void identicalContentIsStoredOnceAndCollectedWhenUnreferenced() throws Exception {
+        fileSystem.save(stream("same"), Path.of("/a.txt"), false);
+        fileSystem.save(stream("same"), Path.of("/b.txt"), false);
+        fileSystem.cp(Path.of("/a.txt"), Path.of("/c.txt"), false);
+        assertEquals(1, blobs());
+        assertEquals("same", Files.readString(fileSystem.get(Path.of("/c.txt")).toPath()));
+        assertEquals(4, fileSystem.stat(Path.of("/c.txt")).getSize());
+
+        age();
+        fileSystem.rm(Path.of("/a.txt"));
+        fileSystem.rm(Path.of("/b.txt"));
+        assertEquals(0, fileSystem.gc());
+        fileSystem.rm(Path.of("/c.txt"));
+        assertEquals(1, fileSystem.gc());
+        assertEquals(0, blobs());
+
+        // 复用旧数据块时刷新修改时间，宽限期内不会被回收
+        fileSystem.setGrace(Duration.ofHours(1));
+        fileSystem.save(stream("again"), Path.of("/d.txt"), false);
+        age();
+        fileSystem.rm(Path.of("/d.txt"));
+        fileSystem.save(stream("again"), Path.of("/e.txt"), false);
+        fileSystem.rm(Path.of("/e.txt"));
+        assertEquals(0, fileSystem.gc());
+    }
+
+    @Test
+    public void referencesMovedDuringCollectionAreKept() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            fileSystem.mkdirs(Path.of("/a/" + i));
+            fileSystem.mkdirs(Path.of("/z/" + i));
+        }
+        fileSystem.save(stream("live"), Path.of("/z/49/f"), false);
+        age();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread mover = new Thread(() -> {
+            try {
+                Path current = Path.of("/z/49/f");
+                for (int i = 0; running.get(); i++) {
+                    // 在遍历顺序的两端之间来回移动
+                    Path next = Path.of(i % 2 == 0 ? "/a/0/f" : "/z/49/f");
+                    fileSystem.mv(current, next, false);
+                    current = next;
+                }
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        mover.start();
+        try {
+            for (int i = 0; i < 200; i++) {
+                fileSystem.gc();
+                assertEquals(1, blobs());
+            }
+        } finally {
+            running.set(false);
+            mover.join();
+        }
+        assertNull(error.get());
+    }
+
+    @Test
+    public void referencesCopiedDuringCollectionAreKept() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            fileSystem.mkdirs(Path.of("/a/" + i));
+            fileSystem.mkdirs(Path.of("/z/" + i));
+        }
+        fileSystem.save(stream("live"), Path.of("/z/49/f"), false);
+        age();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread copier = new Thread(() -> {
+            try {
+                Path current = Path.of("/z/49/f");
+                for (int i = 0; running.get(); i++) {
+                    // 复制到遍历顺序的另一端后删除原引用
+                    Path next = Path.of(i % 2 == 0 ? "/a/0/f" : "/z/49/f");
+                    fileSystem.cp(current, next, false);
+                    fileSystem.rm(current);
+                    current = next;
+                }
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        copier.start();
+        try {
+            for (int i = 0; i < 200; i++) {
+                fileSystem.gc();
+                assertEquals(1, blobs());
+            }
+        } finally {
+            running.set(false);
+            copier.join();
+        }
+        assertNull(error.get());
+    }
+
+    /**
+     * 将所有数据块的修改时间设置为很久以前
+     */
+    private void age() throws Exception {
+        try (Stream<Path> stream = Files.walk(root.resolve("blobs"))) {
+            for (Path blob : (Iterable<Path>) stream.filter(Files::isRegularFile)::iterator) {
+                Files.setLastModifiedTime(blob, FileTime.fromMillis(0));
+            }
+        }
+    }
+
+    private long blobs() throws Exception {
+        try (Stream<Path> stream = Files.walk(root.resolve("blobs"))) {
+            return stream.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,95 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.files.AbstractFileSystem.FileType;
+import cc.itez.nfs.utils.PathKey;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class FileIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void indexMatchesDiskWalk() throws Exception {
+        Path data = folder.newFolder("data").toPath();
+        Files.createDirectories(data.resolve("a/b/c"));
+        Files.writeString(data.resolve("x.txt"), "x");
+        Files.writeString(data.resolve("a/x.txt"), "x");
+        Files.writeString(data.resolve("a/b/y.log"), "y");
+        Files.writeString(data.resolve("a/b/c/x.txt"), "x");
+        // 符号链接既不是目录也不是普通文件
+        Files.createSymbolicLink(data.resolve("a/link.txt"), data.resolve("x.txt"));
+        Files.createSymbolicLink(data.resolve("a/dirlink"), data.resolve("a/b"));
+
+        try (FileIndex index = open(data, folder.getRoot().toPath().resolve("index"));
+             LocalFileSystem fileSystem = new LocalFileSystem(data)) {
+            for (FileType type : FileType.values()) {
+                for (int level : new int[]{-1, 0, 1, 2}) {
+                    for (String name : new String[]{"*", "x.txt", "*.txt", "c", "link.txt"}) {
+                        for (String base : new String[]{"/", "/a"}) {
+                            String message = type + " " + level + " " + name + " " + base;
+                            assertEquals(message, set(fileSystem.find(Path.of(base), name, type, level)),
+                                    set(index.find(PathKey.of(Path.of(base)), name, type, level)));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void reloadedSnapshotIsReconciledWithDisk() throws Exception {
+        Path data = folder.newFolder("data").toPath();
+        Path file = folder.getRoot().toPath().resolve("index");
+        Files.createDirectories(data.resolve("a/b"));
+        Files.createDirectories(data.resolve("kept"));
+        Files.writeString(data.resolve("a/old.txt"), "x");
+        Files.writeString(data.resolve("kept/ghost.txt"), "x");
+        try (FileIndex index = open(data, file)) {
+            assertEquals(1, index.find(PathKey.ROOT, "old.txt", FileType.FILE, -1).size());
+        }
+        assertTrue(Files.isRegularFile(file));
+
+        Thread.sleep(50);
+        Files.delete(data.resolve("a/old.txt"));
+        Files.writeString(data.resolve("a/b/new.txt"), "x");
+        // 修改时间未变的目录不会被重新列举，因此已删除的文件仍然来自快照
+        FileTime kept = Files.getLastModifiedTime(data.resolve("kept"));
+        Files.delete(data.resolve("kept/ghost.txt"));
+        Files.setLastModifiedTime(data.resolve("kept"), kept);
+
+        try (FileIndex index = open(data, file)) {
+            assertTrue(index.find(PathKey.ROOT, "old.txt", FileType.FILE, -1).isEmpty());
+            assertEquals(List.of(Path.of("/a/b/new.txt")), index.find(PathKey.ROOT, "new.txt", FileType.FILE, -1));
+            assertEquals(List.of(Path.of("/kept/ghost.txt")), index.find(PathKey.ROOT, "ghost.txt", FileType.ALL, -1));
+        }
+    }
+
+    private static FileIndex open(Path base, Path file) throws InterruptedException {
+        FileIndex index = new FileIndex(base, file);
+        index.open();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!index.isReady()) {
+            assertTrue("index was not ready in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        return index;
+    }
+
+    private static Set<Path> set(List<Path> paths) {
+        assertNotNull(paths);
+        Set<Path> set = new HashSet<>(paths);
+        assertEquals("duplicate results", paths.size(), set.size());
+        return set;
+    }
+}
@@ -0,0 +1,92 @@
+package cc.itez.nfs.files.impl;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class GroupCommitterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void concurrentCommitsArePublished() throws Exception {
+        Path dir = folder.newFolder("data").toPath();
+        GroupCommitter committer = new GroupCommitter(TimeUnit.MILLISECONDS.toNanos(100));
+        List<Future<?>> futures = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < 8; i++) {
+            Path temp = Files.writeString(dir.resolve(".tmp" + i), "content" + i);
+            Path target = dir.resolve("file" + i);
+            futures.add(pool.submit(() -> {
+                start.await();
+                committer.commit(temp, target);
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        for (int i = 0; i < 8; i++) {
+            assertEquals("content" + i, Files.readString(dir.resolve("file" + i)));
+            assertFalse(Files.exists(dir.resolve(".tmp" + i)));
+        }
+    }
+
+    @Test
+    public void failingMembersDoNotBlockTheBatch() throws Exception {
+        Path dir = folder.newFolder("data").toPath();
+        GroupCommitter committer = new GroupCommitter(TimeUnit.MILLISECONDS.toNanos(100));
+        CountDownLatch start = new CountDownLatch(1);
+        Path temp = Files.writeString(dir.resolve(".tmp"), "ok");
+        Future<?> ok = pool.submit(() -> {
+            start.await();
+            committer.commit(temp, dir.resolve("ok"));
+            return null;
+        });
+        // 临时文件不存在(IOException)与目标为null(RuntimeException)
+        Future<?> missing = pool.submit(() -> {
+            start.await();
+            committer.commit(dir.resolve(".missing"), dir.resolve("missing"));
+            return null;
+        });
+        Path other = Files.writeString(dir.resolve(".other"), "other");
+        Future<?> broken = pool.submit(() -> {
+            start.await();
+            committer.commit(other, null);
+            return null;
+        });
+        start.countDown();
+        ok.get(5, TimeUnit.SECONDS);
+        assertEquals("ok", Files.readString(dir.resolve("ok")));
+        ExecutionException e = assertThrows(ExecutionException.class, () -> missing.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof NoSuchFileException);
+        e = assertThrows(ExecutionException.class, () -> broken.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof NullPointerException);
+
+        // 失败之后仍然可以开始新的批次
+        Path again = Files.writeString(dir.resolve(".again"), "again");
+        pool.submit(() -> {
+            committer.commit(again, dir.resolve("again"));
+            return null;
+        }).get(5, TimeUnit.SECONDS);
+        assertEquals("again", Files.readString(dir.resolve("again")));
+    }
+}
@@ -0,0 +1,104 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.mould.BatchOperation;
+import cc.itez.nfs.mould.Outcome;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LocalFileSystemBatchTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path base;
+    private LocalFileSystem fileSystem;
+
+    @Before
+    public void setUp() throws IOException {
+        base = folder.getRoot().toPath();
+        for (int i = 0; i < 50; i++) {
+            Files.writeString(base.resolve("file" + i + ".txt"), "content" + i);
+        }
+        fileSystem = new LocalFileSystem(base).setParallelism(4);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        fileSystem.close();
+    }
+
+    @Test
+    public void movesIndependentFilesInParallel() throws IOException {
+        List<BatchOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            operations.add(BatchOperation.mv(Paths.get("/file" + i + ".txt"), Paths.get("/target/sub/file" + i + ".txt"), false));
+        }
+        List<Outcome> outcomes = fileSystem.batch(operations);
+        assertEquals(50, outcomes.size());
+        for (int i = 0; i < 50; i++) {
+            assertTrue(outcomes.get(i).isSuccessful());
+            assertEquals("content" + i, Files.readString(base.resolve("target/sub/file" + i + ".txt")));
+            assertFalse(Files.exists(base.resolve("file" + i + ".txt")));
+        }
+    }
+
+    @Test
+    public void conflictingOperationsKeepOrder() throws IOException {
+        List<Outcome> outcomes = fileSystem.batch(List.of(
+                BatchOperation.cp(Paths.get("/file0.txt"), Paths.get("/a/copy.txt"), false),
+                BatchOperation.mv(Paths.get("/a/copy.txt"), Paths.get("/b/moved.txt"), false),
+                BatchOperation.rm(Paths.get("/a"), true),
+                BatchOperation.cp(Paths.get("/file1.txt"), Paths.get("/b/moved.txt"), false),
+                BatchOperation.mkdirs(Paths.get("/c/d"))));
+        assertTrue(outcomes.get(0).isSuccessful());
+        assertTrue(outcomes.get(1).isSuccessful());
+        assertTrue(outcomes.get(2).isSuccessful());
+        assertFalse(outcomes.get(3).isSuccessful());
+        assertTrue(outcomes.get(3).getException() instanceof FileAlreadyExistsException);
+        assertTrue(outcomes.get(4).isSuccessful());
+        assertEquals("content0", Files.readString(base.resolve("b/moved.txt")));
+        assertFalse(Files.exists(base.resolve("a")));
+        assertTrue(Files.isDirectory(base.resolve("c/d")));
+    }
+
+    @Test
+    public void movedDirectoriesAreRecreated() throws IOException {
+        List<Outcome> outcomes = fileSystem.batch(List.of(
+                BatchOperation.mv(Paths.get("/file1.txt"), Paths.get("/d/e/file1.txt"), false),
+                BatchOperation.mv(Paths.get("/d"), Paths.get("/z"), false),
+                BatchOperation.mv(Paths.get("/file2.txt"), Paths.get("/d/e/file2.txt"), false)));
+        for (Outcome outcome : outcomes) {
+            assertTrue(outcome.isSuccessful());
+        }
+        assertTrue(Files.exists(base.resolve("z/e/file1.txt")));
+        assertTrue(Files.exists(base.resolve("d/e/file2.txt")));
+    }
+
+    @Test
+    public void unexpectedExceptionsBecomeOutcomes() {
+        List<BatchOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            operations.add(BatchOperation.mv(Paths.get("/file" + i + ".txt"), Paths.get("/m/file" + i + ".txt"), false));
+        }
+        // 缺少类型的操作在执行时抛出NullPointerException
+        operations.add(new BatchOperation().setTarget(Paths.get("/broken")));
+        List<Outcome> outcomes = fileSystem.batch(operations);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(outcomes.get(i).isSuccessful());
+        }
+        assertNotNull(outcomes.get(4));
+        assertFalse(outcomes.get(4).isSuccessful());
+    }
+}
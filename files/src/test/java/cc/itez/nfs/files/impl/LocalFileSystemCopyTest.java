@@ -0,0 +1,110 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.files.CopyStrategy;
+import cc.itez.nfs.mould.BulkOutcome;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LocalFileSystemCopyTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void mergesIntoExistingDirectoryWhenCovering() throws Exception {
+        for (int parallelism : new int[]{1, 4}) {
+            Path base = folder.newFolder().toPath();
+            Files.createDirectories(base.resolve("src/sub"));
+            Files.writeString(base.resolve("src/a"), "new a");
+            Files.writeString(base.resolve("src/sub/b"), "new b");
+            FileTime modified = FileTime.fromMillis(1_000_000_000_000L);
+            Files.setLastModifiedTime(base.resolve("src/sub/b"), modified);
+            Files.createDirectories(base.resolve("dst/sub"));
+            Files.writeString(base.resolve("dst/a"), "old a");
+            Files.writeString(base.resolve("dst/sub/kept"), "kept");
+            try (LocalFileSystem fileSystem = new LocalFileSystem(base).setParallelism(parallelism).setForkDepth(1)) {
+                assertThrows(IOException.class, () -> fileSystem.cp(Path.of("/src"), Path.of("/dst"), false));
+
+                BulkOutcome outcome = (BulkOutcome) fileSystem.cp(Path.of("/src"), Path.of("/dst"), true);
+                assertTrue(outcome.isSuccessful());
+                assertEquals(4, outcome.getCount());
+                assertEquals("new a", Files.readString(base.resolve("dst/a")));
+                assertEquals("new b", Files.readString(base.resolve("dst/sub/b")));
+                assertEquals(modified, Files.getLastModifiedTime(base.resolve("dst/sub/b")));
+                // 目标中多出的文件保留
+                assertEquals("kept", Files.readString(base.resolve("dst/sub/kept")));
+            }
+        }
+    }
+
+    @Test
+    public void reportsFailedPathsAndContinues() throws Exception {
+        for (int parallelism : new int[]{1, 4}) {
+            Path base = folder.newFolder().toPath();
+            Files.createDirectories(base.resolve("src/conflict"));
+            Files.writeString(base.resolve("src/a"), "a");
+            Files.writeString(base.resolve("src/b"), "b");
+            Files.writeString(base.resolve("src/conflict/c"), "c");
+            // 目标中的同名目录无法被文件覆盖，同名文件无法与目录合并
+            Files.createDirectories(base.resolve("dst/a/inner"));
+            Files.writeString(base.resolve("dst/conflict"), "file");
+            try (LocalFileSystem fileSystem = new LocalFileSystem(base).setParallelism(parallelism).setForkDepth(1)) {
+                BulkOutcome outcome = (BulkOutcome) fileSystem.cp(Path.of("/src"), Path.of("/dst"), true);
+                assertFalse(outcome.isSuccessful());
+                assertNotNull(outcome.getException());
+                assertEquals(2, outcome.getFailed().size());
+                assertTrue(outcome.getFailed().containsAll(List.of(Path.of("/src/a"), Path.of("/src/conflict"))));
+                assertEquals("b", Files.readString(base.resolve("dst/b")));
+                assertEquals("file", Files.readString(base.resolve("dst/conflict")));
+            }
+        }
+    }
+
+    @Test
+    public void rejectsCopyIntoItself() throws Exception {
+        Path base = folder.getRoot().toPath();
+        Files.createDirectories(base.resolve("a/b"));
+        Files.writeString(base.resolve("a/b/c"), "c");
+        try (LocalFileSystem fileSystem = new LocalFileSystem(base)) {
+            IOException e = assertThrows(IOException.class, () -> fileSystem.cp(Path.of("/a"), Path.of("/a/b/copy"), false));
+            assertTrue(e.getMessage().contains("into itself"));
+            assertFalse(Files.exists(base.resolve("a/b/copy")));
+            assertThrows(IOException.class, () -> fileSystem.cp(Path.of("/a"), Path.of("/a"), true));
+            assertEquals("c", Files.readString(base.resolve("a/b/c")));
+        }
+    }
+
+    @Test
+    public void strategiesFallBackToFullCopy() throws Exception {
+        Path base = folder.getRoot().toPath();
+        Files.createDirectories(base.resolve("src/sub"));
+        Files.writeString(base.resolve("src/a"), "a");
+        Files.writeString(base.resolve("src/sub/b"), "b");
+        try (LocalFileSystem fileSystem = new LocalFileSystem(base).setParallelism(4)) {
+            // 克隆不可用时(例如ext4、tmpfs)退回到完整复制，可用时同样得到独立的副本
+            BulkOutcome outcome = (BulkOutcome) fileSystem.cp(Path.of("/src"), Path.of("/reflink"), false, CopyStrategy.REFLINK);
+            assertTrue(outcome.isSuccessful());
+            assertEquals(4, outcome.getCount());
+            assertFalse(Files.isSameFile(base.resolve("src/a"), base.resolve("reflink/a")));
+            Files.writeString(base.resolve("reflink/sub/b"), "changed");
+            assertEquals("b", Files.readString(base.resolve("src/sub/b")));
+
+            outcome = (BulkOutcome) fileSystem.cp(Path.of("/src/a"), Path.of("/single"), false, CopyStrategy.REFLINK);
+            assertTrue(outcome.isSuccessful());
+            assertEquals("a", Files.readString(base.resolve("single")));
+
+            // 同一卷内硬链接与源文件共享内容
+            outcome = (BulkOutcome) fileSystem.cp(Path.of("/src"), Path.of("/linked"), false, CopyStrategy.HARDLINK);
+            assertTrue(outcome.isSuccessful());
+            assertTrue(Files.isSameFile(base.resolve("src/sub/b"), base.resolve("linked/sub/b")));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.mould.BulkOutcome;
+import cc.itez.nfs.mould.Outcome;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class LocalFileSystemDeleteTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void deletesTreeWithoutFollowingLinks() throws Exception {
+        for (int parallelism : new int[]{1, 4}) {
+            Path base = folder.newFolder().toPath();
+            Path outside = Files.writeString(folder.newFile().toPath(), "outside");
+            tree(base.resolve("a"));
+            Files.createSymbolicLink(base.resolve("a/b/link"), outside);
+            try (LocalFileSystem fileSystem = new LocalFileSystem(base).setParallelism(parallelism).setForkDepth(1)) {
+                Outcome outcome = fileSystem.rm(Path.of("/a"), true);
+                assertTrue(outcome.isSuccessful());
+                // 4个目录、5个文件与1个符号链接
+                assertEquals(10, ((BulkOutcome) outcome).getCount());
+                assertFalse(Files.exists(base.resolve("a")));
+                assertEquals("outside", Files.readString(outside));
+            }
+        }
+    }
+
+    @Test
+    public void reportsEveryFailedPath() throws Exception {
+        for (int parallelism : new int[]{1, 4}) {
+            Path base = folder.newFolder().toPath();
+            tree(base.resolve("a"));
+            Path locked = base.resolve("a/b/c");
+            try (LocalFileSystem fileSystem = new LocalFileSystem(base).setParallelism(parallelism).setForkDepth(1)) {
+                Assume.assumeTrue("cannot make a directory undeletable", lock(locked));
+                BulkOutcome outcome = (BulkOutcome) fileSystem.rm(Path.of("/a"), true);
+                assertFalse(outcome.isSuccessful());
+                assertNotNull(outcome.getException());
+                assertEquals(Set.of(Path.of("/a/b/c/z"), Path.of("/a/b/c"), Path.of("/a/b"), Path.of("/a")),
+                        Set.copyOf(outcome.getFailed()));
+                // 失败不影响其他文件的删除
+                assertEquals(5, outcome.getCount());
+                assertFalse(Files.exists(base.resolve("a/x")));
+                assertFalse(Files.exists(base.resolve("a/d")));
+                assertTrue(Files.exists(locked.resolve("z")));
+            } finally {
+                unlock(locked);
+            }
+        }
+    }
+
+    /**
+     * a/{x, b/{y, c/z}, d/{w, v}}
+     */
+    private static void tree(Path root) throws IOException {
+        Files.createDirectories(root.resolve("b/c"));
+        Files.createDirectories(root.resolve("d"));
+        Files.writeString(root.resolve("x"), "x");
+        Files.writeString(root.resolve("b/y"), "y");
+        Files.writeString(root.resolve("b/c/z"), "z");
+        Files.writeString(root.resolve("d/w"), "w");
+        Files.writeString(root.resolve("d/v"), "v");
+    }
+
+    /**
+     * 禁止删除目录中的子项，以root身份运行时权限不起作用，改用不可变属性
+     */
+    private static boolean lock(Path dir) throws Exception {
+        Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("r-xr-xr-x"));
+        Path probe = dir.resolve(".probe");
+        try {
+            Files.createFile(probe);
+            Files.delete(probe);
+        } catch (IOException e) {
+            return true;
+        }
+        return chattr("+i", dir);
+    }
+
+    private static void unlock(Path dir) throws Exception {
+        chattr("-i", dir);
+        Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwxr-xr-x"));
+    }
+
+    private static boolean chattr(String mode, Path path) throws InterruptedException {
+        try {
+            return new ProcessBuilder("chattr", mode, path.toString()).start().waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
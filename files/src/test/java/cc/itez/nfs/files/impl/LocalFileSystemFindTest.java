@@ -0,0 +1,67 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.files.AbstractFileSystem.FileType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class LocalFileSystemFindTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parallelFindMatchesSequentialFind() throws Exception {
+        Path base = folder.getRoot().toPath();
+        generate(base, 4);
+        Files.createSymbolicLink(base.resolve("d0/link.txt"), base.resolve("f0.txt"));
+        try (LocalFileSystem sequential = new LocalFileSystem(base);
+             LocalFileSystem shallow = new LocalFileSystem(base).setParallelism(4).setForkDepth(1);
+             LocalFileSystem deep = new LocalFileSystem(base).setParallelism(4).setForkDepth(3)) {
+            // 共享目录本身的文件名为空，不匹配通配符
+            assertEquals(3 + 9 + 27 + 81, sequential.find(Path.of("/"), "*", FileType.DIR, -1).size());
+            for (FileType type : FileType.values()) {
+                for (int level : new int[]{-1, 0, 1, 2, 3, 10}) {
+                    for (String name : new String[]{"*", "*.txt", "f1.txt", "d2", "link.txt"}) {
+                        for (String dir : new String[]{"/", "/d1", "/d1/d0", "/missing"}) {
+                            String message = type + " " + level + " " + name + " " + dir;
+                            Set<Path> expected = set(sequential.find(Path.of(dir), name, type, level));
+                            assertEquals(message, expected, set(shallow.find(Path.of(dir), name, type, level)));
+                            assertEquals(message, expected, set(deep.find(Path.of(dir), name, type, level)));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 每层生成3个子目录与2个文件
+     */
+    private static void generate(Path dir, int depth) throws IOException {
+        for (int i = 0; i < 2; i++) {
+            Files.writeString(dir.resolve("f" + i + ".txt"), "f" + i);
+        }
+        if (depth == 0) {
+            return;
+        }
+        for (int i = 0; i < 3; i++) {
+            Path child = Files.createDirectory(dir.resolve("d" + i));
+            generate(child, depth - 1);
+        }
+    }
+
+    private static Set<Path> set(List<Path> paths) {
+        Set<Path> set = new HashSet<>(paths);
+        assertEquals("duplicate results", paths.size(), set.size());
+        return set;
+    }
+}
@@ -0,0 +1,105 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.files.AbstractFileSystem;
+import cc.itez.nfs.mould.Page;
+import cc.itez.nfs.utils.PathUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class LocalFileSystemPageTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalFileSystem fileSystem;
+
+    @Before
+    public void setUp() throws IOException {
+        Path base = folder.getRoot().toPath();
+        for (int i = 0; i < 25; i++) {
+            Files.writeString(base.resolve("file" + i + ".txt"), "content" + i);
+        }
+        Files.createDirectories(base.resolve("sub/deep"));
+        Files.writeString(base.resolve("sub/deep/inner.txt"), "inner");
+        Files.writeString(base.resolve(".hidden"), "hidden");
+        fileSystem = new LocalFileSystem(base);
+    }
+
+    @Test
+    public void pagesCoverWholeDirectory() throws IOException {
+        Set<Path> seen = new HashSet<>();
+        long offset = 0;
+        Page<Path> page;
+        do {
+            page = fileSystem.ls(PathUtils.ROOT, false, offset, 10);
+            assertTrue(page.getItems().size() <= 10);
+            seen.addAll(page.getItems());
+            offset = page.next();
+        } while (page.isMore());
+        assertEquals(26, seen.size());
+        assertEquals(new HashSet<>(fileSystem.ls(PathUtils.ROOT)), seen);
+    }
+
+    @Test
+    public void cursorsMatchFreshListings() throws IOException {
+        List<Path> sequential = new ArrayList<>();
+        Page<Path> page = fileSystem.ls(PathUtils.ROOT, true, 0, 7);
+        sequential.addAll(page.getItems());
+        // 重试同一页与跳页都会重新打开目录
+        assertEquals(fileSystem.ls(PathUtils.ROOT, true, 0, 7).getItems(), page.getItems());
+        while (page.isMore()) {
+            page = fileSystem.ls(PathUtils.ROOT, true, page.next(), 7);
+            sequential.addAll(page.getItems());
+        }
+        assertEquals(27, sequential.size());
+        try (LocalFileSystem fresh = new LocalFileSystem(folder.getRoot().toPath())) {
+            assertEquals(sequential.subList(14, 21), fresh.ls(PathUtils.ROOT, true, 14, 7).getItems());
+            Page<Path> last = fresh.ls(PathUtils.ROOT, true, 21, 7);
+            assertEquals(sequential.subList(21, 27), last.getItems());
+            assertFalse(last.isMore());
+        }
+        assertEquals(List.of(Path.of("/file0.txt")), fileSystem.ls(Path.of("/file0.txt"), false, 0, 10).getItems());
+    }
+
+    @Test
+    public void listHonoursHiddenFlag() throws IOException {
+        try (Stream<Path> stream = fileSystem.list(PathUtils.ROOT, true)) {
+            assertEquals(27, stream.count());
+        }
+        try (Stream<Path> stream = fileSystem.list(PathUtils.ROOT, false)) {
+            assertTrue(stream.noneMatch(p -> p.equals(Path.of("/.hidden"))));
+        }
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void listMissingDirectory() throws IOException {
+        fileSystem.list(Path.of("/missing"), false).close();
+    }
+
+    @Test
+    public void searchMatchesFind() throws IOException {
+        List<Path> found = fileSystem.find(PathUtils.ROOT, "*.txt", AbstractFileSystem.FileType.FILE, -1);
+        assertEquals(26, found.size());
+        assertTrue(found.contains(Path.of("/sub/deep/inner.txt")));
+        try (Stream<Path> stream = fileSystem.search(PathUtils.ROOT, "deep", AbstractFileSystem.FileType.DIR, -1)) {
+            assertArrayEquals(new Object[]{Path.of("/sub/deep")}, stream.toArray());
+        }
+        assertTrue(fileSystem.find(PathUtils.ROOT, "inner.txt", AbstractFileSystem.FileType.ALL, 2).isEmpty());
+        Page<Path> page = fileSystem.find(PathUtils.ROOT, "*.txt", AbstractFileSystem.FileType.FILE, -1, 20, 10);
+        assertEquals(6, page.getItems().size());
+        assertFalse(page.isMore());
+    }
+}
@@ -0,0 +1,49 @@
+package cc.itez.nfs.files.impl;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class LocalFileSystemReadTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rangedReadsAreValidatedBeforeOpening() throws Exception {
+        Path base = folder.getRoot().toPath();
+        Files.writeString(base.resolve("a.txt"), "hello world");
+        LocalFileSystem fileSystem = new LocalFileSystem(base);
+        try (ReadableByteChannel channel = fileSystem.read(Path.of("/a.txt"), 6, 100)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Channels.newInputStream(channel).transferTo(out);
+            assertEquals("world", out.toString(StandardCharsets.UTF_8));
+        }
+
+        Path fds = Path.of("/proc/self/fd");
+        Assume.assumeTrue(Files.isDirectory(fds));
+        long before = count(fds);
+        for (int i = 0; i < 100; i++) {
+            assertThrows(IllegalArgumentException.class, () -> fileSystem.read(Path.of("/a.txt"), -1, 10));
+            assertThrows(IllegalArgumentException.class, () -> fileSystem.read(Path.of("/a.txt"), 0, -10));
+        }
+        // 允许少量与本测试无关的描述符变化
+        assertTrue(count(fds) < before + 10);
+    }
+
+    private static long count(Path dir) throws Exception {
+        try (Stream<Path> stream = Files.list(dir)) {
+            return stream.count();
+        }
+    }
+}
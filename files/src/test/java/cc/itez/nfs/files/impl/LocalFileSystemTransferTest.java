@@ -0,0 +1,62 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.mould.Range;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class LocalFileSystemTransferTest {
+    private static final int SIZE = 20 * 1024 * 1024 + 321;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void channelsRoundTripByteExact() throws Exception {
+        byte[] data = new byte[SIZE];
+        new Random(1).nextBytes(data);
+        Path base = folder.getRoot().toPath();
+        try (LocalFileSystem fileSystem = new LocalFileSystem(base)) {
+            // 管道的每次读取只返回已写入的部分
+            Pipe pipe = Pipe.open();
+            CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+                try (Pipe.SinkChannel sink = pipe.sink()) {
+                    for (int offset = 0; offset < SIZE; offset += 50_000) {
+                        ByteBuffer chunk = ByteBuffer.wrap(data, offset, Math.min(50_000, SIZE - offset));
+                        while (chunk.hasRemaining()) {
+                            sink.write(chunk);
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            try (Pipe.SourceChannel source = pipe.source()) {
+                assertTrue(fileSystem.save(source, Path.of("/data.bin"), false).isSuccessful());
+            }
+            writer.join();
+            assertArrayEquals(data, Files.readAllBytes(base.resolve("data.bin")));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(SIZE, fileSystem.transfer(Path.of("/data.bin"), Channels.newChannel(out)));
+            assertArrayEquals(data, out.toByteArray());
+
+            out.reset();
+            long offset = 9L * 1024 * 1024 + 7;
+            assertEquals(SIZE - offset, fileSystem.transfer(Path.of("/data.bin"), Range.of(offset, SIZE), Channels.newChannel(out)));
+            assertArrayEquals(Arrays.copyOfRange(data, (int) offset, SIZE), out.toByteArray());
+        }
+    }
+}
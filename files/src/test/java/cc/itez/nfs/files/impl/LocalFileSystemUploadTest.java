@@ -0,0 +1,149 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.files.ChunkedUpload;
+import cc.itez.nfs.files.UploadSession;
+import cc.itez.nfs.mould.Range;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class LocalFileSystemUploadTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalFileSystem fileSystem;
+
+    @Before
+    public void setUp() {
+        fileSystem = new LocalFileSystem(folder.getRoot().toPath());
+    }
+
+    @Test
+    public void concurrentChunksAreCommittedAtomically() throws Exception {
+        byte[] data = new byte[1024 * 1024 + 17];
+        new Random(7).nextBytes(data);
+        int chunk = 64 * 1024;
+        UploadSession session = fileSystem.createUpload(Path.of("/dir/upload.bin"), data.length, false);
+        assertSame(session, fileSystem.getUpload(session.getId()));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int offset = data.length / chunk * chunk; offset >= 0; offset -= chunk) {
+                int start = offset;
+                int length = Math.min(chunk, data.length - start);
+                futures.add(executor.submit(() -> session.write(start, ByteBuffer.wrap(data, start, length))));
+            }
+            for (Future<Integer> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(List.of(Range.of(0, data.length)), session.received());
+        assertFalse(Files.exists(folder.getRoot().toPath().resolve("dir/upload.bin")));
+        assertTrue(session.commit().isSuccessful());
+        assertArrayEquals(data, Files.readAllBytes(folder.getRoot().toPath().resolve("dir/upload.bin")));
+        assertNull(fileSystem.getUpload(session.getId()));
+        assertEquals(1, fileSystem.ls(Path.of("/dir"), true).size());
+    }
+
+    @Test
+    public void incompleteUploadIsNotCommitted() throws IOException {
+        UploadSession session = fileSystem.createUpload(Path.of("/partial.bin"), 100, false);
+        session.write(0, ByteBuffer.wrap(new byte[40]));
+        session.write(60, ByteBuffer.wrap(new byte[40]));
+        assertEquals(List.of(Range.of(0, 40), Range.of(60, 40)), session.received());
+        assertFalse(session.commit().isSuccessful());
+        session.write(40, ByteBuffer.wrap(new byte[20]));
+        assertTrue(session.isComplete());
+        session.abort();
+        assertTrue(fileSystem.ls(Path.of("/"), true).isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void chunkBeyondSizeIsRejected() throws IOException {
+        UploadSession session = fileSystem.createUpload(Path.of("/small.bin"), 10, false);
+        try {
+            session.write(5, ByteBuffer.wrap(new byte[6]));
+        } finally {
+            session.abort();
+        }
+    }
+
+    @Test(expected = FileAlreadyExistsException.class)
+    public void existingTargetIsRejected() throws IOException {
+        Files.writeString(folder.getRoot().toPath().resolve("exists.txt"), "x");
+        fileSystem.createUpload(Path.of("/exists.txt"), 1, false);
+    }
+
+    @Test
+    public void idleSessionsExpire() throws Exception {
+        fileSystem.getUploads().setIdleTimeout(Duration.ofMillis(50));
+        UploadSession session = fileSystem.createUpload(Path.of("/idle.bin"), 10, false);
+        session.write(0, ByteBuffer.wrap(new byte[5]));
+        Path temp = ((ChunkedUpload) session).getTemp();
+        assertTrue(Files.exists(temp));
+        // 会话属于创建它的文件系统
+        assertNull(new LocalFileSystem(folder.getRoot().toPath()).getUpload(session.getId()));
+
+        Thread.sleep(100);
+        assertNull(fileSystem.getUpload(session.getId()));
+        assertFalse(Files.exists(temp));
+        assertEquals(0, fileSystem.getUploads().size());
+        assertThrows(ClosedChannelException.class, () -> session.write(5, ByteBuffer.wrap(new byte[5])));
+
+        // 其他会话的注册与查找会顺带清理过期的会话
+        UploadSession other = fileSystem.createUpload(Path.of("/other.bin"), 10, false);
+        Thread.sleep(100);
+        fileSystem.createUpload(Path.of("/third.bin"), 10, false);
+        assertFalse(Files.exists(((ChunkedUpload) other).getTemp()));
+        assertEquals(1, fileSystem.getUploads().size());
+    }
+
+    @Test
+    public void slowWritesKeepSessionsAlive() throws Exception {
+        fileSystem.getUploads().setIdleTimeout(Duration.ofMillis(200));
+        UploadSession session = fileSystem.createUpload(Path.of("/slow.bin"), 10, false);
+        int[] purged = {-1};
+        // 写入耗时超过空闲时间，写入期间的清理不会放弃会话
+        ReadableByteChannel slow = Channels.newChannel(new ByteArrayInputStream(new byte[10]) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                if (purged[0] < 0) {
+                    try {
+                        Thread.sleep(300);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    purged[0] = fileSystem.getUploads().purge();
+                }
+                return super.read(b, off, len);
+            }
+        });
+        assertEquals(10, session.write(0, slow));
+        assertEquals(0, purged[0]);
+        // 空闲时间从写入结束时开始计算
+        assertSame(session, fileSystem.getUpload(session.getId()));
+        assertTrue(session.commit().isSuccessful());
+    }
+}
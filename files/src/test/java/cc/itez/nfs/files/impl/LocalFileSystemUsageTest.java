@@ -0,0 +1,185 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.mould.Outcome;
+import cc.itez.nfs.mould.QuotaExceededException;
+import cc.itez.nfs.mould.Usage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class LocalFileSystemUsageTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path data;
+    private Path snapshot;
+    private LocalFileSystem fileSystem;
+
+    @Before
+    public void setUp() throws Exception {
+        data = folder.newFolder("data").toPath();
+        snapshot = folder.newFolder("meta").toPath().resolve("usage.bin");
+        fileSystem = open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+    }
+
+    private LocalFileSystem open() {
+        LocalFileSystem fs = new LocalFileSystem(data).enableUsage(snapshot);
+        // 同步完成统计，之后的配额检查不受后台加载的影响
+        assertTrue(fs.rebuildUsage().isSuccessful());
+        return fs;
+    }
+
+    @Test
+    public void usageIsMaintainedIncrementally() throws Exception {
+        fileSystem.save(new ByteArrayInputStream(new byte[100]), Path.of("/a/b/one.bin"), false);
+        fileSystem.save(new ByteArrayInputStream(new byte[50]), Path.of("/a/two.bin"), false);
+        fileSystem.cp(Path.of("/a/b"), Path.of("/c"), false);
+        fileSystem.save(new ByteArrayInputStream(new byte[30]), Path.of("/a/two.bin"), true);
+        fileSystem.mv(Path.of("/a/b"), Path.of("/c/b"), false);
+        assertUsage(Path.of("/a"), 30, 1);
+        assertUsage(Path.of("/c"), 200, 2);
+        assertUsage(Path.of("/"), 230, 3);
+        fileSystem.rm(Path.of("/c/b"), true);
+        assertUsage(Path.of("/"), 130, 2);
+
+        fileSystem.close();
+        fileSystem = open();
+        assertUsage(Path.of("/c"), 100, 1);
+        assertUsage(Path.of("/"), 130, 2);
+    }
+
+    @Test
+    public void quotaIsCheckedBeforeWriting() throws Exception {
+        fileSystem.mkdirs(Path.of("/home/alice"));
+        assertTrue(fileSystem.setQuota(Path.of("/home/alice"), 100).isSuccessful());
+        fileSystem.save(new ByteArrayInputStream(new byte[80]), Path.of("/home/alice/one.bin"), false);
+
+        Outcome outcome = fileSystem.trySave(new ByteArrayInputStream(new byte[40]), Path.of("/home/alice/two.bin"), false);
+        assertEquals(Outcome.Code.QUOTA_EXCEEDED, outcome.getCode());
+        assertFalse(Files.exists(fileSystem.getBase().resolve("home/alice/two.bin")));
+        try {
+            fileSystem.cp(Path.of("/home/alice/one.bin"), Path.of("/home/alice/copy.bin"), false);
+            fail();
+        } catch (QuotaExceededException e) {
+            assertEquals(100, e.getQuota());
+            assertEquals(160, e.getUsage());
+        }
+        // 覆盖只计算差值，配额目录内部的移动不受限制
+        assertTrue(fileSystem.save(new ByteArrayInputStream(new byte[100]), Path.of("/home/alice/one.bin"), true).isSuccessful());
+        assertTrue(fileSystem.mv(Path.of("/home/alice/one.bin"), Path.of("/home/alice/sub/one.bin"), false).isSuccessful());
+        Usage usage = fileSystem.usage(Path.of("/home/alice"));
+        assertEquals(100, usage.getSize());
+        assertEquals(Long.valueOf(100), usage.getQuota());
+    }
+
+    @Test
+    public void quotasSurviveRestart() throws Exception {
+        fileSystem.mkdirs(Path.of("/home/bob"));
+        assertTrue(fileSystem.setQuota(Path.of("/home/bob"), 50).isSuccessful());
+        assertTrue(fileSystem.setQuota(Path.of("/tmp"), 10).isSuccessful());
+        assertTrue(fileSystem.setQuota(Path.of("/tmp"), 0).isSuccessful());
+        fileSystem.close();
+
+        fileSystem = open();
+        assertEquals(Long.valueOf(50), fileSystem.usage(Path.of("/home/bob")).getQuota());
+        fileSystem.mkdirs(Path.of("/tmp"));
+        assertNull(fileSystem.usage(Path.of("/tmp")).getQuota());
+        Outcome outcome = fileSystem.trySave(new ByteArrayInputStream(new byte[60]), Path.of("/home/bob/big.bin"), false);
+        assertEquals(Outcome.Code.QUOTA_EXCEEDED, outcome.getCode());
+    }
+
+    @Test
+    public void periodicRelistPicksUpOutsideChanges() throws Exception {
+        fileSystem.save(new ByteArrayInputStream(new byte[10]), Path.of("/gone/one.bin"), false);
+        fileSystem.close();
+        fileSystem = new LocalFileSystem(data).enableUsage(snapshot, Duration.ofMillis(50));
+        assertTrue(fileSystem.rebuildUsage().isSuccessful());
+        // 绕过文件系统的修改：新的子目录、删除的子目录与追加的文件
+        Files.createDirectories(data.resolve("new/deep"));
+        Files.write(data.resolve("new/deep/two.bin"), new byte[20]);
+        Files.write(data.resolve("three.bin"), new byte[30]);
+        Files.delete(data.resolve("gone/one.bin"));
+        Files.delete(data.resolve("gone"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fileSystem.usage(Path.of("/")).getSize() != 50 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertUsage(Path.of("/"), 50, 2);
+        assertUsage(Path.of("/new"), 20, 1);
+    }
+
+    @Test
+    public void concurrentCopiesCannotOvershootQuota() throws Exception {
+        fileSystem.mkdirs(Path.of("/q"));
+        assertTrue(fileSystem.setQuota(Path.of("/q"), 1000).isSuccessful());
+        fileSystem.save(new ByteArrayInputStream(new byte[300]), Path.of("/src.bin"), false);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Outcome>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                Path target = Path.of("/q/copy" + i);
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return fileSystem.tryCp(Path.of("/src.bin"), target, false);
+                }));
+            }
+            start.countDown();
+            int copied = 0;
+            for (Future<Outcome> future : futures) {
+                Outcome outcome = future.get();
+                if (outcome.isSuccessful()) {
+                    copied++;
+                } else {
+                    assertEquals(Outcome.Code.QUOTA_EXCEEDED, outcome.getCode());
+                }
+            }
+            assertEquals(3, copied);
+            assertUsage(Path.of("/q"), 900, 3);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void quotaWritesWaitUntilUsageIsReady() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            fileSystem.save(new ByteArrayInputStream(new byte[1]), Path.of("/other/" + i + "/f"), false);
+        }
+        fileSystem.save(new ByteArrayInputStream(new byte[80]), Path.of("/q/one.bin"), false);
+        fileSystem.close();
+        // 没有快照时在后台完整扫描，扫描完成之前配额目录的写入需要等待
+        fileSystem = new LocalFileSystem(data).enableUsage(folder.getRoot().toPath().resolve("meta/fresh.bin"));
+        assertTrue(fileSystem.setQuota(Path.of("/q"), 100).isSuccessful());
+        Outcome outcome = fileSystem.trySave(new ByteArrayInputStream(new byte[40]), Path.of("/q/two.bin"), false);
+        assertEquals(Outcome.Code.QUOTA_EXCEEDED, outcome.getCode());
+        assertTrue(fileSystem.save(new ByteArrayInputStream(new byte[20]), Path.of("/q/two.bin"), false).isSuccessful());
+        assertUsage(Path.of("/q"), 100, 2);
+    }
+
+    private void assertUsage(Path path, long size, long files) throws Exception {
+        Usage usage = fileSystem.usage(path);
+        assertEquals(size, usage.getSize());
+        assertEquals(files, usage.getFiles());
+    }
+}
@@ -0,0 +1,193 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.files.AbstractFileSystem.FileType;
+import cc.itez.nfs.mould.BulkOutcome;
+import cc.itez.nfs.mould.Outcome;
+import cc.itez.nfs.mould.Range;
+import cc.itez.nfs.utils.OffHeapPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class MemoryFileSystemTest {
+    private static final int SEGMENT = 64 * 1024;
+
+    private MemoryFileSystem fileSystem;
+
+    @Before
+    public void setUp() {
+        fileSystem = new MemoryFileSystem(8L * SEGMENT);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+    }
+
+    @Test
+    public void treeOperations() throws Exception {
+        byte[] data = random(SEGMENT * 2 + 100);
+        fileSystem.save(new ByteArrayInputStream(data), Path.of("/a/b/data.bin"), false);
+        fileSystem.save(new ByteArrayInputStream(new byte[3]), Path.of("/a/.hidden"), false);
+        assertThrows(FileAlreadyExistsException.class, () -> fileSystem.save(new ByteArrayInputStream(data), Path.of("/a/b/data.bin"), false));
+
+        assertEquals(List.of(Path.of("/a/b")), fileSystem.ls(Path.of("/a")));
+        assertEquals(2, fileSystem.ls(Path.of("/a"), true).size());
+        assertEquals(List.of(Path.of("/a/b/data.bin")), fileSystem.find(Path.of("/"), "*.bin", FileType.FILE, -1));
+        assertArrayEquals(data, read(Path.of("/a/b/data.bin")));
+        assertArrayEquals(data, Files.readAllBytes(fileSystem.get(Path.of("/a/b/data.bin")).toPath()));
+
+        ByteBuffer range = fileSystem.read(Path.of("/a/b/data.bin"), Range.of(SEGMENT - 10, 20));
+        assertEquals(ByteBuffer.wrap(data, SEGMENT - 10, 20), range);
+
+        assertTrue(fileSystem.mv(Path.of("/a/b"), Path.of("/c"), false).isSuccessful());
+        assertArrayEquals(data, read(Path.of("/c/data.bin")));
+        assertEquals(Outcome.Code.NOT_FOUND, fileSystem.tryLs(Path.of("/a/b"), false).getCode());
+        assertEquals(Outcome.Code.NOT_EMPTY, fileSystem.rm(Path.of("/c"), false).getCode());
+        assertEquals(2, ((BulkOutcome) fileSystem.rm(Path.of("/c"), true)).getCount());
+        assertEquals(SEGMENT, fileSystem.getPool().getUsed());
+    }
+
+    @Test
+    public void failedCopyReleasesSharedContent() throws Exception {
+        fileSystem.save(new ByteArrayInputStream(random(SEGMENT)), Path.of("/a"), false);
+        fileSystem.save(new ByteArrayInputStream(random(SEGMENT)), Path.of("/b"), false);
+        assertThrows(FileAlreadyExistsException.class, () -> fileSystem.cp(Path.of("/a"), Path.of("/b"), false));
+        fileSystem.rm(Path.of("/a"));
+        fileSystem.rm(Path.of("/b"));
+        assertEquals(0, fileSystem.getPool().getUsed());
+    }
+
+    @Test
+    public void directoryTargetsAreMergedByCopyAndRejectedByMove() throws Exception {
+        fileSystem.save(new ByteArrayInputStream(new byte[1]), Path.of("/d1/new"), false);
+        fileSystem.save(new ByteArrayInputStream(new byte[1]), Path.of("/d1/same"), false);
+        fileSystem.save(new ByteArrayInputStream(new byte[2]), Path.of("/d2/keep"), false);
+        fileSystem.save(new ByteArrayInputStream(new byte[2]), Path.of("/d2/same"), false);
+
+        assertThrows(FileAlreadyExistsException.class, () -> fileSystem.mv(Path.of("/d1"), Path.of("/d2"), true));
+        assertEquals(2, fileSystem.ls(Path.of("/d1")).size());
+        assertEquals(2, fileSystem.stat(Path.of("/d2/keep")).getSize());
+
+        assertTrue(fileSystem.cp(Path.of("/d1"), Path.of("/d2"), true).isSuccessful());
+        assertEquals(3, fileSystem.ls(Path.of("/d2")).size());
+        assertEquals(2, fileSystem.stat(Path.of("/d2/keep")).getSize());
+        assertEquals(1, fileSystem.stat(Path.of("/d2/same")).getSize());
+
+        fileSystem.rm(Path.of("/d1"));
+        fileSystem.rm(Path.of("/d2"));
+        assertEquals(0, fileSystem.getPool().getUsed());
+    }
+
+    @Test
+    public void copiesShareContentUntilOverwritten() throws Exception {
+        byte[] data = random(SEGMENT * 4);
+        fileSystem.save(new ByteArrayInputStream(data), Path.of("/src/data.bin"), false);
+        fileSystem.cp(Path.of("/src"), Path.of("/copy"), false);
+        assertEquals(4L * SEGMENT, fileSystem.getPool().getUsed());
+
+        // 正在进行的读取持有原来的内容
+        ReadableByteChannel reading = fileSystem.read(Path.of("/src/data.bin"), 0, -1);
+        fileSystem.save(new ByteArrayInputStream(new byte[10]), Path.of("/copy/data.bin"), true);
+        fileSystem.rm(Path.of("/src"), true);
+        assertEquals(5L * SEGMENT, fileSystem.getPool().getUsed());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Channels.newInputStream(reading).transferTo(output);
+        reading.close();
+        assertArrayEquals(data, output.toByteArray());
+        assertEquals(SEGMENT, fileSystem.getPool().getUsed());
+
+        // 超出容量的保存失败且不占用空间
+        Outcome outcome = fileSystem.trySave(new ByteArrayInputStream(random(SEGMENT * 8)), Path.of("/big.bin"), false);
+        assertEquals(Outcome.Code.QUOTA_EXCEEDED, outcome.getCode());
+        assertEquals(SEGMENT, fileSystem.getPool().getUsed());
+        assertFalse(fileSystem.get(Path.of("/big.bin")).exists());
+    }
+
+    @Test
+    public void overwrittenFilesChangeEtag() throws Exception {
+        fileSystem.save(new ByteArrayInputStream(new byte[]{1, 2}), Path.of("/e"), false);
+        String first = fileSystem.stat(Path.of("/e")).getEtag();
+        assertEquals(first, fileSystem.stat(Path.of("/e")).getEtag());
+        fileSystem.save(new ByteArrayInputStream(new byte[]{3, 4}), Path.of("/e"), true);
+        assertNotEquals(first, fileSystem.stat(Path.of("/e")).getEtag());
+        fileSystem.cp(Path.of("/e"), Path.of("/f"), false);
+        assertNotEquals(fileSystem.stat(Path.of("/e")).getEtag(), fileSystem.stat(Path.of("/f")).getEtag());
+    }
+
+    @Test
+    public void removingMissingPathsFailsLikeLocalFileSystem() {
+        assertEquals(Outcome.Code.NOT_FOUND, fileSystem.rm(Path.of("/missing")).getCode());
+        assertFalse(fileSystem.rm(Path.of("/missing/child"), true).isSuccessful());
+        Outcome outcome = fileSystem.rm(Path.of("/missing"), false);
+        assertTrue(outcome.isSuccessful());
+        assertEquals(0, ((BulkOutcome) outcome).getCount());
+    }
+
+    @Test
+    public void concurrentChangesKeepTreeAndPoolConsistent() throws Exception {
+        MemoryFileSystem memory = new MemoryFileSystem(new OffHeapPool(1024 * 128, 128));
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        // 共享目录中的保存、读取与删除与其他线程删除自己的目录树交替进行
+                        Path shared = Path.of("/shared/d" + (i % 3) + "/t" + id + "-" + i);
+                        Path own = Path.of("/shared/t" + id + "/d" + (i % 5) + "/f" + i);
+                        memory.save(new ByteArrayInputStream(new byte[100]), shared, false);
+                        memory.save(new ByteArrayInputStream(new byte[100]), own, false);
+                        assertEquals(100, memory.stat(shared).getSize());
+                        memory.find(Path.of("/shared"), "*", FileType.ALL, -1);
+                        assertTrue(memory.rm(shared).isSuccessful());
+                        if (i % 20 == 19) {
+                            assertTrue(memory.rm(Path.of("/shared/t" + id)).isSuccessful());
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(0, memory.usage(Path.of("/")).getFiles());
+        memory.close();
+        assertEquals(0, memory.getPool().getUsed());
+        assertTrue(memory.getPool().getAllocated() <= memory.getPool().getCapacity());
+    }
+
+    private byte[] read(Path path) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        fileSystem.transfer(path, Channels.newChannel(output));
+        return output.toByteArray();
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
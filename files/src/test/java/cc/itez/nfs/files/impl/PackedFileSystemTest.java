@@ -0,0 +1,206 @@
+package cc.itez.nfs.files.impl;
+
+import cc.itez.nfs.files.AbstractFileSystem;
+import cc.itez.nfs.mould.Range;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class PackedFileSystemTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+    private PackedFileSystem fileSystem;
+
+    @Before
+    public void setUp() throws Exception {
+        root = folder.newFolder("packed").toPath();
+        fileSystem = open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+    }
+
+    private PackedFileSystem open() throws Exception {
+        return new PackedFileSystem(root).setThreshold(1024).setSegmentSize(4096);
+    }
+
+    @Test
+    public void smallFilesArePackedAndSurviveRestart() throws Exception {
+        fileSystem.save(stream("hello"), Path.of("/a/b/small.txt"), false);
+        fileSystem.save(new ByteArrayInputStream(new byte[2000]), Path.of("/a/large.bin"), false);
+        fileSystem.mkdirs(Path.of("/a/empty"));
+        // 小文件不占用单独的文件
+        assertFalse(Files.exists(root.resolve("files/a/b/small.txt")));
+        assertTrue(Files.isRegularFile(root.resolve("files/a/large.bin")));
+        assertEquals(3, fileSystem.ls(Path.of("/a")).size());
+        assertEquals(2, fileSystem.find(Path.of("/"), "*", AbstractFileSystem.FileType.FILE, -1).size());
+        assertEquals("ell", StandardCharsets.UTF_8.decode(fileSystem.read(Path.of("/a/b/small.txt"), Range.of(1, 3))).toString());
+        assertEquals("hello", Files.readString(fileSystem.get(Path.of("/a/b/small.txt")).toPath()));
+        assertEquals(2005, fileSystem.usage(Path.of("/a")).getSize());
+
+        fileSystem.mv(Path.of("/a/b"), Path.of("/c"), false);
+        fileSystem.cp(Path.of("/c/small.txt"), Path.of("/c/copy.txt"), false);
+        fileSystem.save(stream("bye"), Path.of("/c/small.txt"), true);
+        fileSystem.close();
+        fileSystem = open();
+        assertEquals("bye", read(Path.of("/c/small.txt")));
+        assertEquals("hello", read(Path.of("/c/copy.txt")));
+        assertFalse(Files.exists(fileSystem.get(Path.of("/a/b/small.txt")).toPath()));
+
+        // 检查点丢失时从段重放
+        fileSystem.close();
+        Files.delete(root.resolve("index"));
+        fileSystem = open();
+        assertEquals("bye", read(Path.of("/c/small.txt")));
+        assertEquals("hello", read(Path.of("/c/copy.txt")));
+        assertTrue(fileSystem.rm(Path.of("/c/copy.txt"), false).isSuccessful());
+        assertFalse(fileSystem.rm(Path.of("/c"), false).isSuccessful());
+        assertTrue(fileSystem.rm(Path.of("/c")).isSuccessful());
+        assertTrue(fileSystem.find(Path.of("/"), "*.txt").isEmpty());
+    }
+
+    @Test
+    public void compactionReclaimsDeletedFiles() throws Exception {
+        for (int i = 0; i < 40; i++) {
+            fileSystem.save(new ByteArrayInputStream(new byte[500]), Path.of("/d/" + i), false);
+        }
+        for (int i = 0; i < 40; i++) {
+            if (i % 10 != 0) {
+                fileSystem.rm(Path.of("/d/" + i));
+            }
+        }
+        long before = segmentBytes();
+        assertTrue(fileSystem.compact() > 0);
+        assertTrue(segmentBytes() < before / 2);
+        for (int i = 0; i < 40; i += 10) {
+            assertEquals(500, fileSystem.usage(Path.of("/d/" + i)).getSize());
+            assertEquals(500, read(Path.of("/d/" + i)).length());
+        }
+
+        fileSystem.close();
+        fileSystem = open();
+        assertEquals(4, fileSystem.ls(Path.of("/d")).size());
+        assertEquals(500, read(Path.of("/d/30")).length());
+    }
+
+    @Test
+    public void onlyTheLastSegmentIsTruncated() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            fileSystem.save(new ByteArrayInputStream(new byte[500]), Path.of("/d/" + i), false);
+        }
+        fileSystem.close();
+        Files.delete(root.resolve("index"));
+        List<Path> segments;
+        try (Stream<Path> stream = Files.list(root.resolve("segments"))) {
+            segments = stream.sorted().toList();
+        }
+        assertTrue(segments.size() > 2);
+        Path first = segments.get(0);
+        Path last = segments.get(segments.size() - 1);
+        // 已写完的段中间损坏，最后一个段末尾留有不完整的记录
+        byte[] bytes = Files.readAllBytes(first);
+        bytes[bytes.length - 10] ^= 1;
+        Files.write(first, bytes);
+        long lastSize = Files.size(last);
+        Files.write(last, new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+
+        fileSystem = open();
+        assertEquals(bytes.length, Files.size(first));
+        assertEquals(lastSize, Files.size(last));
+        assertEquals(500, read(Path.of("/d/19")).length());
+        for (int i = 0; i < 20; i++) {
+            fileSystem.rm(Path.of("/d/" + i));
+        }
+        // 损坏的段不会被压缩删除
+        fileSystem.compact();
+        assertTrue(Files.exists(first));
+    }
+
+    @Test
+    public void compactionFollowsMovedFiles() throws Exception {
+        for (int i = 0; i < 40; i++) {
+            fileSystem.save(stream("file " + i), Path.of("/d/" + (i % 4) + "/" + i), false);
+        }
+        for (int i = 0; i < 40; i++) {
+            fileSystem.save(new ByteArrayInputStream(new byte[500]), Path.of("/garbage/" + i), false);
+            fileSystem.rm(Path.of("/garbage/" + i));
+        }
+        fileSystem.mv(Path.of("/d/1"), Path.of("/e/1"), false);
+        fileSystem.mv(Path.of("/d"), Path.of("/f"), false);
+        assertTrue(fileSystem.compact() > 0);
+        fileSystem.close();
+        fileSystem = open();
+        for (int i = 0; i < 40; i++) {
+            String path = i % 4 == 1 ? "/e/1/" + i : "/f/" + (i % 4) + "/" + i;
+            assertEquals("file " + i, read(Path.of(path)));
+        }
+        assertEquals(30, fileSystem.find(Path.of("/f"), "*", AbstractFileSystem.FileType.FILE, -1).size());
+        assertTrue(fileSystem.find(Path.of("/d"), "*", AbstractFileSystem.FileType.FILE, -1).isEmpty());
+    }
+
+    @Test
+    public void failedCopyOrMoveKeepsPackedTarget() throws Exception {
+        fileSystem.save(stream("keep"), Path.of("/t.txt"), false);
+        assertThrows(FileNotFoundException.class, () -> fileSystem.mv(Path.of("/does-not-exist"), Path.of("/t.txt"), true));
+        assertThrows(FileNotFoundException.class, () -> fileSystem.cp(Path.of("/nope"), Path.of("/t.txt"), true));
+        assertEquals(List.of(Path.of("/t.txt")), fileSystem.ls(Path.of("/")));
+
+        // 不覆盖时源保持不变
+        fileSystem.save(new ByteArrayInputStream(new byte[2000]), Path.of("/large.bin"), false);
+        assertThrows(FileAlreadyExistsException.class, () -> fileSystem.mv(Path.of("/large.bin"), Path.of("/t.txt"), false));
+        assertTrue(Files.isRegularFile(root.resolve("files/large.bin")));
+
+        // 覆盖成功之后小文件被替换
+        assertTrue(fileSystem.mv(Path.of("/large.bin"), Path.of("/t.txt"), true).isSuccessful());
+        assertEquals(2000, fileSystem.stat(Path.of("/t.txt")).getSize());
+        fileSystem.close();
+        fileSystem = open();
+        assertEquals(2000, read(Path.of("/t.txt")).length());
+    }
+
+    @Test
+    public void overwrittenSmallFilesChangeEtag() throws Exception {
+        fileSystem.save(stream("aaaa"), Path.of("/e.txt"), false);
+        String first = fileSystem.stat(Path.of("/e.txt")).getEtag();
+        assertEquals(first, fileSystem.stat(Path.of("/e.txt")).getEtag());
+        // 同样的大小，修改时间可能相同
+        fileSystem.save(stream("bbbb"), Path.of("/e.txt"), true);
+        assertNotEquals(first, fileSystem.stat(Path.of("/e.txt")).getEtag());
+    }
+
+    private long segmentBytes() throws Exception {
+        try (Stream<Path> stream = Files.list(root.resolve("segments"))) {
+            return stream.mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(Path path) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        fileSystem.transfer(path, Channels.newChannel(out));
+        return out.toString(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,86 @@
+package cc.itez.nfs.files.wrapper;
+
+import cc.itez.nfs.files.AbstractFileSystem.FileType;
+import cc.itez.nfs.files.UploadSession;
+import cc.itez.nfs.files.impl.LocalFileSystem;
+import cc.itez.nfs.mould.FileStat;
+import cc.itez.nfs.mould.Outcome;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AsyncFileSystemAdapterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void operationsRunOnTheSuppliedExecutor() throws Exception {
+        Path data = folder.getRoot().toPath();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        LocalFileSystem local = new LocalFileSystem(data);
+        FileSystemWrapper recording = new FileSystemWrapper(local) {
+            @Override
+            public FileStat stat(Path path) throws IOException {
+                threads.add(Thread.currentThread().getName());
+                return super.stat(path);
+            }
+
+            @Override
+            public Outcome tryGet(Path path) {
+                threads.add(Thread.currentThread().getName());
+                return super.tryGet(path);
+            }
+        };
+        AtomicInteger submitted = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(2, r -> new Thread(r, "supplied"));
+        try (AsyncFileSystemAdapter async = new AsyncFileSystemAdapter(recording, 2, task -> {
+            submitted.incrementAndGet();
+            executor.execute(task);
+        })) {
+            assertTrue(async.trySave(new ByteArrayInputStream("hello world".getBytes(StandardCharsets.UTF_8)), Path.of("/a.txt"), false).get().isSuccessful());
+            assertEquals(11, async.stat(Path.of("/a.txt")).get().getSize());
+            assertEquals(Outcome.Code.NOT_FOUND, async.tryGet(Path.of("/missing")).get().getCode());
+            assertEquals(Outcome.Code.NOT_FOUND, async.tryMv(Path.of("/missing"), Path.of("/b.txt"), false).get().getCode());
+            assertEquals(1, async.tryLs(Path.of("/"), false).get().getItems().size());
+            assertEquals(1, async.tryFind(Path.of("/"), "*.txt", FileType.FILE, -1).get().getItems().size());
+            try (ReadableByteChannel channel = async.read(Path.of("/a.txt"), 6, 5).get()) {
+                ByteBuffer buffer = ByteBuffer.allocate(16);
+                while (channel.read(buffer) >= 0) {
+                }
+                assertEquals("world", new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8));
+            }
+            UploadSession session = async.createUpload(Path.of("/c.txt"), 3, false).get();
+            session.write(0, ByteBuffer.wrap("abc".getBytes(StandardCharsets.UTF_8)));
+            assertTrue(session.commit().isSuccessful());
+            assertEquals("abc", Files.readString(data.resolve("c.txt")));
+
+            // 受检异常原样作为异常完成的原因
+            ExecutionException e = assertThrows(ExecutionException.class, () -> async.stat(Path.of("/missing")).get());
+            assertTrue(e.getCause() instanceof FileNotFoundException);
+            assertEquals(9, submitted.get());
+            assertEquals(Set.of("supplied"), threads);
+        } finally {
+            local.close();
+        }
+        // 指定的执行器不随适配器关闭
+        assertFalse(executor.isShutdown());
+        executor.shutdown();
+    }
+}
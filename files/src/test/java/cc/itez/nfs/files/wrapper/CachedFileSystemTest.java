@@ -0,0 +1,76 @@
+package cc.itez.nfs.files.wrapper;
+
+import cc.itez.nfs.files.impl.LocalFileSystem;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class CachedFileSystemTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void countsHitsAndMissesForAllListings() throws Exception {
+        Path data = folder.newFolder("data").toPath();
+        Files.createDirectories(data.resolve("a"));
+        Files.writeString(data.resolve("a/x"), "x");
+        try (CachedFileSystem fileSystem = new CachedFileSystem(new LocalFileSystem(data), 16)) {
+            assertEquals(1, list(fileSystem, "/a").size());
+            assertEquals(0, fileSystem.getHits());
+            assertEquals(1, fileSystem.getMisses());
+
+            assertEquals(1, fileSystem.ls(Path.of("/a"), true).size());
+            assertEquals(2, fileSystem.getMisses());
+            assertEquals(1, list(fileSystem, "/a").size());
+            assertEquals(1, fileSystem.ls(Path.of("/a"), true).size());
+            assertEquals(2, fileSystem.getHits());
+
+            // 通过包装器写入时失效
+            fileSystem.save(new ByteArrayInputStream(new byte[1]), Path.of("/a/y"), false);
+            assertEquals(2, list(fileSystem, "/a").size());
+            assertEquals(3, fileSystem.getMisses());
+            assertEquals(0.4, fileSystem.getHitRatio(), 1e-9);
+        }
+    }
+
+    @Test
+    public void diskChangesInvalidateWatchedDirectories() throws Exception {
+        Path data = folder.newFolder("data").toPath();
+        Files.createDirectories(data.resolve("a"));
+        Files.createDirectories(data.resolve("b"));
+        try (CachedFileSystem fileSystem = new CachedFileSystem(new LocalFileSystem(data), 16, data)) {
+            assertTrue(fileSystem.ls(Path.of("/a"), true).isEmpty());
+            assertTrue(fileSystem.ls(Path.of("/b"), true).isEmpty());
+            assertEquals(2, fileSystem.getWatchCount());
+
+            // 绕过包装器修改磁盘，由监听线程发现
+            Files.writeString(data.resolve("a/outside"), "x");
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (fileSystem.ls(Path.of("/a"), true).isEmpty()) {
+                assertTrue("change was not observed", System.currentTimeMillis() < deadline);
+                Thread.sleep(20);
+            }
+
+            // 失效的目录不再监听，直到再次缓存
+            fileSystem.rm(Path.of("/b"), true);
+            assertEquals(1, fileSystem.getWatchCount());
+            fileSystem.clear();
+            assertEquals(0, fileSystem.getWatchCount());
+        }
+    }
+
+    private static List<Path> list(CachedFileSystem fileSystem, String path) throws Exception {
+        try (Stream<Path> stream = fileSystem.list(Path.of(path), true)) {
+            return stream.collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package cc.itez.nfs.files.wrapper;
+
+import cc.itez.nfs.files.impl.LocalFileSystem;
+import cc.itez.nfs.mould.Usage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class CompressedFileSystemTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path data;
+    private LocalFileSystem local;
+    private CompressedFileSystem fileSystem;
+
+    @Before
+    public void setUp() throws Exception {
+        data = folder.newFolder("data").toPath();
+        local = new LocalFileSystem(data);
+        fileSystem = new CompressedFileSystem(local);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        local.close();
+    }
+
+    @Test
+    public void inflatedFileIsReusedUntilContentChanges() throws Exception {
+        String text = "compressible ".repeat(1000);
+        fileSystem.save(stream(text), Path.of("/a.txt"), false);
+        assertTrue(Files.size(data.resolve("a.txt")) < text.length());
+
+        File first = fileSystem.get(Path.of("/a.txt"));
+        assertEquals(text, Files.readString(first.toPath()));
+        assertEquals(first, fileSystem.get(Path.of("/a.txt")));
+        long modified = first.lastModified();
+
+        String changed = "changed ".repeat(1000);
+        fileSystem.save(stream(changed), Path.of("/a.txt"), true);
+        File second = fileSystem.get(Path.of("/a.txt"));
+        assertEquals(first, second);
+        assertEquals(changed, Files.readString(second.toPath()));
+        assertTrue(second.lastModified() >= modified);
+
+        // 未压缩的文件直接返回原文件
+        fileSystem.save(stream("tiny"), Path.of("/b.txt"), false);
+        assertEquals(data.resolve("b.txt").toFile(), fileSystem.get(Path.of("/b.txt")));
+    }
+
+    @Test
+    public void corruptContentIsReportedAsFileNotFound() throws Exception {
+        Files.write(data.resolve("bad.txt"), new byte[]{'N', 'F', 'S', 'Z', 1, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+        assertThrows(FileNotFoundException.class, () -> fileSystem.get(Path.of("/bad.txt")));
+    }
+
+    @Test
+    public void usageReportsOriginalSizes() throws Exception {
+        String text = "compressible ".repeat(1000);
+        fileSystem.save(stream(text), Path.of("/dir/a.txt"), false);
+        fileSystem.save(stream(text), Path.of("/dir/sub/b.txt"), false);
+        fileSystem.save(stream("tiny"), Path.of("/dir/c.txt"), false);
+
+        Usage usage = fileSystem.usage(Path.of("/dir"));
+        assertEquals(3, usage.getFiles());
+        assertEquals(text.length() * 2L + 4, usage.getSize());
+        assertTrue(local.usage(Path.of("/dir")).getSize() < usage.getSize());
+        assertEquals(text.length(), fileSystem.usage(Path.of("/dir/a.txt")).getSize());
+    }
+
+    @Test
+    public void usageFollowsChangesAndSurvivesRestart() throws Exception {
+        String text = "compressible ".repeat(1000);
+        fileSystem.usage(Path.of("/"));
+        fileSystem.save(stream(text), Path.of("/dir/a.txt"), false);
+        fileSystem.save(stream(text), Path.of("/dir/sub/b.txt"), false);
+        assertEquals(text.length() * 2L, fileSystem.usage(Path.of("/dir")).getSize());
+
+        assertTrue(fileSystem.cp(Path.of("/dir/sub"), Path.of("/copy"), false).isSuccessful());
+        assertTrue(fileSystem.mv(Path.of("/dir/a.txt"), Path.of("/moved.txt"), false).isSuccessful());
+        assertEquals(text.length(), fileSystem.usage(Path.of("/dir")).getSize());
+        assertEquals(text.length() * 3L, fileSystem.usage(Path.of("/")).getSize());
+        // 原样保存的内容覆盖压缩保存的文件
+        assertTrue(fileSystem.save(stream("tiny"), Path.of("/moved.txt"), true).isSuccessful());
+        assertTrue(fileSystem.rm(Path.of("/copy"), true).isSuccessful());
+        assertEquals(text.length() + 4, fileSystem.usage(Path.of("/")).getSize());
+
+        Path ledger = folder.getRoot().toPath().resolve("ledger");
+        CompressedFileSystem first = new CompressedFileSystem(local, ledger);
+        assertEquals(text.length() + 4, first.usage(Path.of("/")).getSize());
+        first.close();
+        assertTrue(Files.isRegularFile(ledger));
+        // 绕过包装修改的文件只有重新扫描后才能统计
+        new CompressedFileSystem(local).save(stream(text), Path.of("/outside.txt"), false);
+        CompressedFileSystem second = new CompressedFileSystem(local, ledger);
+        assertEquals(text.length() + 4 + Files.size(data.resolve("outside.txt")), second.usage(Path.of("/")).getSize());
+        second.rebuild();
+        assertEquals(text.length() * 2L + 4, second.usage(Path.of("/")).getSize());
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
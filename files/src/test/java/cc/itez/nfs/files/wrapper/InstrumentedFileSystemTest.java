@@ -0,0 +1,87 @@
+package cc.itez.nfs.files.wrapper;
+
+import cc.itez.nfs.files.UploadSession;
+import cc.itez.nfs.files.impl.LocalFileSystem;
+import cc.itez.nfs.files.wrapper.InstrumentedFileSystem.Operation;
+import cc.itez.nfs.files.wrapper.InstrumentedFileSystem.Snapshot;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class InstrumentedFileSystemTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void countsOperationsErrorsAndBytes() throws Exception {
+        Path data = folder.newFolder("data").toPath();
+        InstrumentedFileSystem fileSystem = new InstrumentedFileSystem(new LocalFileSystem(data));
+        assertTrue(fileSystem.save(new ByteArrayInputStream(new byte[100]), Path.of("/a"), false).isSuccessful());
+        // 目标已存在，返回失败或抛出异常都记为失败
+        try {
+            assertFalse(fileSystem.save(new ByteArrayInputStream(new byte[10]), Path.of("/a"), false).isSuccessful());
+        } catch (Exception ignored) {
+        }
+        fileSystem.stat(Path.of("/a"));
+        assertThrows(FileNotFoundException.class, () -> fileSystem.stat(Path.of("/missing")));
+        assertEquals(100, fileSystem.usage(Path.of("/")).getSize());
+        try (ReadableByteChannel channel = fileSystem.read(Path.of("/a"), 10, 50)) {
+            while (channel.read(ByteBuffer.allocate(16)) >= 0) {
+            }
+        }
+
+        UploadSession session = fileSystem.createUpload(Path.of("/b"), 30, false);
+        session.write(0, ByteBuffer.allocate(10));
+        // 重新获取的会话同样计入写入的字节数
+        fileSystem.getUpload(session.getId()).write(10, ByteBuffer.allocate(20));
+        assertTrue(session.commit().isSuccessful());
+        assertEquals(30, Files.size(data.resolve("b")));
+
+        Snapshot snapshot = fileSystem.snapshot();
+        assertEquals(2, snapshot.getOperations().get(Operation.SAVE).getCount());
+        assertEquals(1, snapshot.getOperations().get(Operation.SAVE).getErrors());
+        assertEquals(2, snapshot.getOperations().get(Operation.STAT).getCount());
+        assertEquals(1, snapshot.getOperations().get(Operation.STAT).getErrors());
+        assertEquals(1, snapshot.getOperations().get(Operation.USAGE).getCount());
+        assertEquals(1, snapshot.getOperations().get(Operation.READ).getCount());
+        assertEquals(2, snapshot.getOperations().get(Operation.UPLOAD).getCount());
+        assertEquals(0, snapshot.getOperations().get(Operation.UPLOAD).getErrors());
+        assertEquals(50, snapshot.getBytesRead());
+        assertEquals(100 + 30, snapshot.getBytesWritten());
+
+        fileSystem.reset();
+        assertEquals(0, fileSystem.snapshot().getOperations().get(Operation.SAVE).getCount());
+        assertEquals(0, fileSystem.snapshot().getBytesWritten());
+    }
+
+    @Test
+    public void registersAndUnregistersMBeans() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName summary = new ObjectName("cc.itez.nfs:type=FileSystem,name=" + ObjectName.quote("test"));
+        ObjectName stat = new ObjectName("cc.itez.nfs:type=FileSystem,name=" + ObjectName.quote("test") + ",operation=stat");
+        InstrumentedFileSystem fileSystem = new InstrumentedFileSystem(new LocalFileSystem(folder.getRoot().toPath())).register("test");
+        try {
+            fileSystem.stat(Path.of("/"));
+            assertEquals(1L, server.getAttribute(stat, "Count"));
+            assertEquals(1L, server.getAttribute(summary, "Count"));
+            assertEquals(Operation.values().length + 1,
+                    server.queryNames(new ObjectName("cc.itez.nfs:type=FileSystem,name=" + ObjectName.quote("test") + ",*"), null).size());
+        } finally {
+            fileSystem.close();
+        }
+        assertFalse(server.isRegistered(summary));
+        assertFalse(server.isRegistered(stat));
+    }
+}
@@ -0,0 +1,131 @@
+package cc.itez.nfs.files.wrapper;
+
+import cc.itez.nfs.files.AbstractFileSystem;
+import cc.itez.nfs.files.impl.LocalFileSystem;
+import cc.itez.nfs.mould.Range;
+import cc.itez.nfs.utils.OffHeapPool;
+import lombok.NonNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ReadCacheFileSystemTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path data;
+    private LocalFileSystem local;
+    private ReadCacheFileSystem fileSystem;
+
+    @Before
+    public void setUp() throws Exception {
+        data = folder.newFolder("data").toPath();
+        local = new LocalFileSystem(data);
+        fileSystem = new ReadCacheFileSystem(local, new OffHeapPool(8 * 1024, 1024), 4 * 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.clear();
+        local.close();
+    }
+
+    @Test
+    public void servesValidatedContentAndInvalidatesOnWrite() throws Exception {
+        Path path = Path.of("/a/hot.txt");
+        fileSystem.save(stream("first"), path, false);
+        assertEquals("first", read(path));
+        assertEquals("first", read(path));
+        assertEquals(1, fileSystem.getHits());
+        assertEquals(1, fileSystem.getCount());
+        assertEquals("irs", StandardCharsets.UTF_8.decode(fileSystem.read(path, Range.of(1, 3))).toString());
+
+        // 通过包装器写入时立即失效
+        fileSystem.save(stream("second"), path, true);
+        assertEquals(0, fileSystem.getCount());
+        assertEquals("second", read(path));
+
+        // 绕过包装器修改文件时通过修改时间与大小发现
+        Path file = data.resolve("a/hot.txt");
+        Files.writeString(file, "third!");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+        assertEquals("third!", read(path));
+
+        fileSystem.rm(Path.of("/a"), true);
+        assertEquals(0, fileSystem.getCount());
+        assertEquals(0, fileSystem.getSize());
+        assertTrue(fileSystem.getBytesSaved() >= "first".length() + 3);
+    }
+
+    @Test
+    public void rarelyReadFilesDoNotEvictHotFiles() throws Exception {
+        // 每个文件占用两个内存段，缓存最多容纳4个文件
+        for (int i = 0; i < 4; i++) {
+            fileSystem.save(new ByteArrayInputStream(new byte[1500]), Path.of("/hot" + i), false);
+            for (int j = 0; j < 5; j++) {
+                read(Path.of("/hot" + i));
+            }
+        }
+        assertEquals(4, fileSystem.getCount());
+        for (int i = 0; i < 20; i++) {
+            fileSystem.save(new ByteArrayInputStream(new byte[1500]), Path.of("/cold" + i), false);
+            read(Path.of("/cold" + i));
+        }
+        long hits = fileSystem.getHits();
+        for (int i = 0; i < 4; i++) {
+            read(Path.of("/hot" + i));
+        }
+        assertEquals(hits + 4, fileSystem.getHits());
+        // 超过大小限制的文件直接读取
+        fileSystem.save(new ByteArrayInputStream(new byte[5000]), Path.of("/large"), false);
+        assertEquals(5000, read(Path.of("/large")).length());
+        assertEquals(4, fileSystem.getCount());
+    }
+
+    @Test
+    public void validatesWithStatInsteadOfMaterializingFiles() throws Exception {
+        AtomicInteger gets = new AtomicInteger();
+        // 压缩保存的文件每次get都要解压，缓存只能通过stat校验
+        AbstractFileSystem compressed = new FileSystemWrapper(new CompressedFileSystem(local)) {
+            @Override
+            public @NonNull File get(@NonNull Path path) throws FileNotFoundException {
+                gets.incrementAndGet();
+                return super.get(path);
+            }
+        };
+        fileSystem = new ReadCacheFileSystem(compressed, new OffHeapPool(16 * 1024, 1024), 8 * 1024);
+        String text = "compressible ".repeat(200);
+        fileSystem.save(stream(text), Path.of("/z.txt"), false);
+        assertTrue(Files.size(data.resolve("z.txt")) < text.length());
+        assertEquals(text, read(Path.of("/z.txt")));
+        assertEquals(text, read(Path.of("/z.txt")));
+        assertEquals(1, fileSystem.getHits());
+        assertEquals(0, gets.get());
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(Path path) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        fileSystem.transfer(path, Channels.newChannel(out));
+        return out.toString(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,64 @@
+package cc.itez.nfs.files.wrapper;
+
+import cc.itez.nfs.files.impl.LocalFileSystem;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class ThrottledFileSystemTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void concurrentUploadsShareTheRate() throws Exception {
+        Path data = folder.newFolder("data").toPath();
+        int size = 1024 * 1024;
+        long rate = 2L * size;
+        // 不允许突发，令牌桶只能容纳一个数据块
+        ThrottledFileSystem fileSystem = new ThrottledFileSystem(new LocalFileSystem(data), rate, 0).setBurst(Duration.ZERO);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Long>> futures = new ArrayList<>();
+        long begin = System.nanoTime();
+        for (int i = 0; i < 2; i++) {
+            Path target = Path.of("/upload" + i);
+            futures.add(pool.submit(() -> {
+                start.await();
+                fileSystem.save(new ByteArrayInputStream(new byte[size]), target, false);
+                return System.nanoTime();
+            }));
+        }
+        start.countDown();
+        long first = Long.MAX_VALUE;
+        long last = 0;
+        for (Future<Long> future : futures) {
+            long finished = future.get(10, TimeUnit.SECONDS) - begin;
+            first = Math.min(first, finished);
+            last = Math.max(last, finished);
+        }
+        // 合计2MB，约需1秒
+        double seconds = last / (double) TimeUnit.SECONDS.toNanos(1);
+        assertTrue("too fast: " + seconds, seconds >= 0.85);
+        // 两个传输交替放行，先完成的一个不会远早于另一个
+        assertTrue("unfair: " + first + " vs " + last, first >= last * 0.7);
+        assertEquals(size, Files.size(data.resolve("upload0")));
+        assertEquals(size, Files.size(data.resolve("upload1")));
+    }
+}
@@ -0,0 +1,72 @@
+package cc.itez.nfs.mould;
+
+import cc.itez.nfs.files.impl.LocalFileSystem;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.FileNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+public class FileStatTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void statChangesWithContent() throws Exception {
+        Path base = folder.newFolder("data").toPath();
+        LocalFileSystem fileSystem = new LocalFileSystem(base);
+        Path file = base.resolve("a.txt");
+        Files.writeString(file, "hello");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1_000_000_000_000L));
+
+        FileStat stat = fileSystem.stat(Path.of("/a.txt"));
+        assertFalse(stat.isDirectory());
+        assertEquals(5, stat.getSize());
+        assertEquals(1_000_000_000_000L, stat.getModified());
+        assertEquals(stat, fileSystem.stat(Path.of("/a.txt")));
+        assertTrue(fileSystem.stat(Path.of("/")).isDirectory());
+
+        Files.writeString(file, "hello world");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1_000_000_000_000L));
+        assertNotEquals(stat.getEtag(), fileSystem.stat(Path.of("/a.txt")).getEtag());
+
+        assertThrows(FileNotFoundException.class, () -> fileSystem.stat(Path.of("/missing")));
+    }
+
+    @Test
+    public void conditionalHeaders() {
+        FileStat stat = FileStat.of(Path.of("/a"), false, 5, 1_000_000_000_500L, 42);
+        assertTrue(stat.matches(stat.getEtag()));
+        assertTrue(stat.matches("\"x\", W/" + stat.getEtag()));
+        assertTrue(stat.matches("*"));
+        assertFalse(stat.matches("\"x\""));
+        assertFalse(stat.matches(null));
+
+        // 修改时间的毫秒部分被忽略
+        assertEquals("Sun, 9 Sep 2001 01:46:40 GMT", stat.lastModified());
+        assertFalse(stat.modifiedSince(stat.lastModified()));
+        assertTrue(stat.modifiedSince("Sun, 9 Sep 2001 01:46:39 GMT"));
+        assertTrue(stat.modifiedSince("not a date"));
+
+        assertTrue(stat.notModified(null, stat.lastModified()));
+        // If-None-Match优先于If-Modified-Since
+        assertFalse(stat.notModified("\"x\"", stat.lastModified()));
+        assertFalse(stat.notModified(null, null));
+    }
+
+    @Test
+    public void withSizeRecomputesEtag() {
+        FileStat stat = FileStat.of(Path.of("/a"), false, 5, 1_000_000_000_500L, 42);
+        FileStat inflated = stat.withSize(50);
+        assertEquals(50, inflated.getSize());
+        assertEquals(42, inflated.getKey());
+        assertNotEquals(stat.getEtag(), inflated.getEtag());
+        assertEquals(FileStat.of(Path.of("/a"), false, 50, 1_000_000_000_500L, 42), inflated);
+        assertSame(stat, stat.withSize(5));
+    }
+}
@@ -0,0 +1,79 @@
+package cc.itez.nfs.mould;
+
+import cc.itez.nfs.files.AbstractFileSystem;
+import cc.itez.nfs.files.impl.LocalFileSystem;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OutcomeTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void commonResultsAreSharedAndImmutable() {
+        Outcome notFound = Outcome.of(Outcome.Code.NOT_FOUND);
+        assertFalse(notFound.isSuccessful());
+        assertEquals("NOT_FOUND", notFound.getCause());
+        assertSame(notFound, Outcome.of(Outcome.Code.NOT_FOUND));
+        assertThrows(UnsupportedOperationException.class, () -> notFound.setPath(Paths.get("/a")));
+        assertNull(Outcome.of(Outcome.Code.NOT_FOUND).getPath());
+        assertTrue(Outcome.of(Outcome.Code.OK).isSuccessful());
+        assertSame(Outcome.failure("same cause"), Outcome.failure("same cause"));
+
+        // 包含路径的结果是新的不可修改的值
+        Outcome withPath = Outcome.of(Outcome.Code.ALREADY_EXISTS, Paths.get("/b"));
+        assertEquals(Paths.get("/b"), withPath.getPath());
+        assertEquals(Outcome.Code.ALREADY_EXISTS, withPath.getCode());
+        assertThrows(UnsupportedOperationException.class, () -> withPath.setCode(Outcome.Code.OK));
+        assertThrows(UnsupportedOperationException.class, () -> Outcome.success(Paths.get("/")).setSuccessful(false));
+    }
+
+    @Test
+    public void codesFollowExceptionTypes() {
+        assertEquals(Outcome.Code.NOT_FOUND, Outcome.error(new NoSuchFileException("a")).getCode());
+        assertEquals(Outcome.Code.ALREADY_EXISTS, Outcome.error(new FileAlreadyExistsException("a")).getCode());
+        assertEquals(Outcome.Code.FAILURE, Outcome.error(new IllegalStateException()).getCode());
+        assertEquals(Outcome.Code.OK, Outcome.success(Paths.get("/")).getCode());
+    }
+
+    @Test
+    public void tryOperationsReportCodes() throws Exception {
+        Path base = folder.getRoot().toPath();
+        Files.writeString(base.resolve("a.txt"), "a");
+        LocalFileSystem fileSystem = new LocalFileSystem(base);
+        assertEquals(Outcome.Code.NOT_FOUND, fileSystem.tryLs(Paths.get("/missing"), false).getCode());
+        Listing listing = fileSystem.tryLs(Paths.get("/"), false);
+        assertTrue(listing.isSuccessful());
+        assertEquals(1, listing.getItems().size());
+        assertEquals(Outcome.Code.ALREADY_EXISTS, fileSystem.trySave(new ByteArrayInputStream(new byte[1]), Paths.get("/a.txt"), false).getCode());
+        assertEquals(Outcome.Code.NOT_FOUND, fileSystem.tryCp(Paths.get("/missing"), Paths.get("/b.txt"), false).getCode());
+        assertEquals(Outcome.Code.OK, fileSystem.tryMv(Paths.get("/a.txt"), Paths.get("/b.txt"), false).getCode());
+        assertTrue(Files.exists(base.resolve("b.txt")));
+
+        assertEquals(Outcome.Code.NOT_FOUND, fileSystem.tryGet(Paths.get("/a.txt")).getCode());
+        assertEquals(base.resolve("b.txt"), fileSystem.tryGet(Paths.get("/b.txt")).getPath());
+        assertEquals(Outcome.Code.NOT_FOUND, fileSystem.tryFind(Paths.get("/missing"), "*", AbstractFileSystem.FileType.ALL, -1).getCode());
+        assertEquals(List.of(Paths.get("/b.txt")), fileSystem.tryFind(Paths.get("/"), "b.txt", AbstractFileSystem.FileType.FILE, -1).getItems());
+
+        // 预期内的失败不创建异常，并报告失败的路径
+        Outcome exists = fileSystem.trySave(new ByteArrayInputStream(new byte[1]), Paths.get("/b.txt"), false);
+        assertNull(exists.getException());
+        assertEquals(Paths.get("/b.txt"), exists.getPath());
+        Outcome missing = fileSystem.tryMv(Paths.get("/a.txt"), Paths.get("/c.txt"), false);
+        assertNull(missing.getException());
+        assertEquals(Paths.get("/a.txt"), missing.getPath());
+        assertNull(fileSystem.tryLs(Paths.get("/missing"), false).getException());
+        assertEquals(List.of(Paths.get("/b.txt")), fileSystem.tryLs(Paths.get("/b.txt"), false).getItems());
+    }
+}
@@ -0,0 +1,34 @@
+package cc.itez.nfs.mould;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RangeTest {
+    @Test
+    public void parseSatisfiableRanges() {
+        assertEquals(List.of(Range.of(0, 100)), Range.parse("bytes=0-99", 1000));
+        assertEquals(List.of(Range.of(900, 100)), Range.parse("bytes=900-", 1000));
+        assertEquals(List.of(Range.of(900, 100)), Range.parse("bytes=-100", 1000));
+        assertEquals(List.of(Range.of(0, 1000)), Range.parse("bytes=-5000", 1000));
+        assertEquals(List.of(Range.of(990, 10)), Range.parse("bytes=990-5000", 1000));
+        assertEquals(List.of(Range.of(0, 1), Range.of(999, 1)), Range.parse("bytes=0-0, -1", 1000));
+    }
+
+    @Test
+    public void parseUnsatisfiableRanges() {
+        assertTrue(Range.parse("bytes=2000-", 1000).isEmpty());
+        assertTrue(Range.parse("bytes=-0", 1000).isEmpty());
+    }
+
+    @Test
+    public void parseInvalidHeaders() {
+        assertNull(Range.parse(null, 1000));
+        assertNull(Range.parse("items=0-1", 1000));
+        assertNull(Range.parse("bytes=5-1", 1000));
+        assertNull(Range.parse("bytes=a-b", 1000));
+        assertNull(Range.parse("bytes=100", 1000));
+    }
+}
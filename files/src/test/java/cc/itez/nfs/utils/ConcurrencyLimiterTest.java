@@ -0,0 +1,60 @@
+package cc.itez.nfs.utils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConcurrencyLimiterTest {
+    @Test
+    public void neverExceedsLimit() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, executor);
+            AtomicInteger active = new AtomicInteger();
+            AtomicInteger peak = new AtomicInteger();
+            List<CompletableFuture<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                int value = i;
+                futures.add(limiter.submit(() -> {
+                    peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+                    Thread.sleep(1);
+                    active.decrementAndGet();
+                    return value;
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(i, (int) futures.get(i).get(10, TimeUnit.SECONDS));
+            }
+            assertTrue(peak.get() <= 4);
+            assertEquals(0, limiter.getRunning());
+            assertEquals(0, limiter.getPending());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void propagatesCheckedExceptions() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, executor);
+            CompletableFuture<Object> future = limiter.submit(() -> {
+                throw new IOException("boom");
+            });
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
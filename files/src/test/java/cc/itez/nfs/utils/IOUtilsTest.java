@@ -0,0 +1,132 @@
+package cc.itez.nfs.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IOUtilsTest {
+    /**
+     * 大于单次transferTo/transferFrom的最大字节数
+     */
+    private static final int SIZE = 20 * 1024 * 1024 + 123;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void copiesFileToChannelCompletely() throws Exception {
+        byte[] data = random(SIZE);
+        Path file = Files.write(folder.newFile().toPath(), data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (FileChannel input = FileChannel.open(file, StandardOpenOption.READ)) {
+            input.position(100);
+            assertEquals(SIZE - 100, IOUtils.copy(input, Channels.newChannel(out)));
+            assertEquals(SIZE, input.position());
+        }
+        assertArrayEquals(Arrays.copyOfRange(data, 100, SIZE), out.toByteArray());
+    }
+
+    @Test
+    public void copiesSlowChannelToFileCompletely() throws Exception {
+        byte[] data = random(SIZE);
+        Path file = folder.newFile().toPath();
+        try (FileChannel output = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            assertEquals(SIZE, IOUtils.copy(new TricklingChannel(data), output));
+            assertEquals(SIZE, output.position());
+        }
+        assertArrayEquals(data, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void transfersRangeCompletely() throws Exception {
+        byte[] data = random(SIZE);
+        Path file = Files.write(folder.newFile().toPath(), data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (FileChannel input = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertEquals(SIZE - 10, IOUtils.transfer(input, 10, Long.MAX_VALUE, Channels.newChannel(out)));
+            assertEquals(0, input.position());
+        }
+        assertArrayEquals(Arrays.copyOfRange(data, 10, SIZE), out.toByteArray());
+    }
+
+    @Test
+    public void skippingThrottledStreamSpendsNoTokens() throws Exception {
+        // 每秒1KiB，读取跳过的1MiB需要约17分钟
+        InputStream input = IOUtils.throttle(new ByteArrayInputStream(new byte[1024 * 1024 + 10]), new TokenBucket(1024, 1024));
+        long start = System.nanoTime();
+        assertEquals(1024 * 1024, input.skip(1024 * 1024));
+        assertEquals(10, input.readAllBytes().length);
+        assertTrue(System.nanoTime() - start < 1_000_000_000L);
+    }
+
+    @Test
+    public void rejectsNonBlockingChannels() throws Exception {
+        Path file = Files.write(folder.newFile().toPath(), random(10));
+        Pipe pipe = Pipe.open();
+        try (FileChannel input = FileChannel.open(file, StandardOpenOption.READ);
+             Pipe.SinkChannel sink = pipe.sink();
+             Pipe.SourceChannel source = pipe.source()) {
+            sink.configureBlocking(false);
+            assertThrows(IllegalBlockingModeException.class, () -> IOUtils.copy(input, sink));
+            assertThrows(IllegalBlockingModeException.class, () -> IOUtils.transfer(input, 0, 10, sink));
+            source.configureBlocking(false);
+            assertThrows(IllegalBlockingModeException.class, () -> IOUtils.copy(source, Channels.newChannel(new ByteArrayOutputStream())));
+        }
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * 每次最多返回少量字节，并且交替返回0，模拟暂时没有数据的阻塞通道
+     */
+    private static class TricklingChannel implements ReadableByteChannel {
+        private final byte[] data;
+        private int position;
+        private boolean empty;
+
+        TricklingChannel(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (this.position == this.data.length) {
+                return -1;
+            }
+            this.empty = !this.empty;
+            if (this.empty) {
+                return 0;
+            }
+            int n = Math.min(Math.min(dst.remaining(), 100_000), this.data.length - this.position);
+            dst.put(this.data, this.position, n);
+            this.position += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package cc.itez.nfs.utils;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class PathKeyTest {
+    @Test
+    public void normalizeAndConvert() {
+        PathKey key = PathKey.of(Path.of("/a/./b/../c/d"));
+        assertEquals("/a/c/d", key.toString());
+        assertEquals(Path.of("/a/c/d"), key.toPath());
+        assertEquals(3, key.depth());
+        assertEquals(PathKey.ROOT, PathKey.of(Path.of("/../..")));
+        assertEquals(Path.of("/base/a/c/d"), key.resolve(Path.of("/base")));
+        assertEquals(Path.of("/base"), PathKey.ROOT.resolve(Path.of("/base")));
+    }
+
+    @Test
+    public void compareAndRebase() {
+        PathKey key = PathKey.ROOT.child("a").child("c").child("d");
+        assertEquals(PathKey.of(Path.of("a/c/d")), key);
+        assertEquals(PathKey.of(Path.of("a/c/d")).hashCode(), key.hashCode());
+        assertNotEquals(PathKey.of(Path.of("a/d/c")), key);
+        assertTrue(key.startsWith(PathKey.of(Path.of("/a"))));
+        assertTrue(key.startsWith(PathKey.ROOT));
+        assertFalse(key.startsWith(PathKey.of(Path.of("/a/b"))));
+        assertEquals(PathKey.of(Path.of("/x/y/c/d")), key.rebase(PathKey.of(Path.of("/a")), PathKey.of(Path.of("/x/y"))));
+    }
+
+    @Test
+    public void subtreesAreContiguousInOrder() {
+        NavigableSet<PathKey> keys = new TreeSet<>();
+        for (String path : new String[]{"/a", "/a/b", "/a/b/c", "/a-b", "/a/z", "/ab", "/b", "/a/b-c", "/"}) {
+            keys.add(PathKey.of(Path.of(path)));
+        }
+        List<String> order = new ArrayList<>();
+        keys.forEach(key -> order.add(key.toString()));
+        assertEquals(List.of("/", "/a", "/a/b", "/a/b/c", "/a/b-c", "/a/z", "/a-b", "/ab", "/b"), order);
+        assertEquals(0, PathKey.of(Path.of("/a/b")).compareTo(PathKey.ROOT.child("a").child("b")));
+    }
+}
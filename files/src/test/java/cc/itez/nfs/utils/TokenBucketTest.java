@@ -0,0 +1,34 @@
+package cc.itez.nfs.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+    @Test
+    public void limitsSustainedRate() throws Exception {
+        long rate = 4 * 1024 * 1024;
+        TokenBucket bucket = new TokenBucket(rate, 64 * 1024);
+        // 先用完积攒的令牌，之后的获取只能按速率放行
+        bucket.acquire(64 * 1024);
+        long start = System.nanoTime();
+        for (int i = 0; i < 16; i++) {
+            bucket.acquire(64 * 1024);
+        }
+        double seconds = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+        assertTrue("too fast: " + seconds, seconds >= 0.25 * 0.9);
+        assertTrue("too slow: " + seconds, seconds < 0.25 * 4);
+    }
+
+    @Test
+    public void unlimitedBucketNeverWaits() throws Exception {
+        TokenBucket bucket = new TokenBucket(0, 1);
+        assertTrue(bucket.isUnlimited());
+        long start = System.nanoTime();
+        bucket.acquire(Long.MAX_VALUE / 2);
+        assertEquals(0, bucket.reserve(1 << 30));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+    }
+}
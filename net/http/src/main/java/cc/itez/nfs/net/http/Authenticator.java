@@ -0,0 +1,20 @@
+package cc.itez.nfs.net.http;
+
+import cc.itez.nfs.net.models.sys.User;
+import lombok.NonNull;
+
+/**
+ * 请求认证
+ * 由使用服务的应用实现，例如解析Authorization请求头并校验用户名与密码。
+ * 认证得到的用户决定请求使用的限速，见{@link HttpFileServer#setAuthenticator(Authenticator)}
+ */
+@FunctionalInterface
+public interface Authenticator {
+    /**
+     * 认证请求，在读取请求体之前调用
+     *
+     * @param request 请求头
+     * @return 请求的用户，认证失败时返回null，服务将响应401
+     */
+    User authenticate(@NonNull HttpRequest request);
+}
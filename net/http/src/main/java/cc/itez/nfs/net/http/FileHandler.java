@@ -0,0 +1,257 @@
+package cc.itez.nfs.net.http;
+
+import cc.itez.nfs.files.AbstractFileSystem;
+import cc.itez.nfs.files.impl.LocalFileSystem;
+import cc.itez.nfs.files.wrapper.FileSystemWrapper;
+import cc.itez.nfs.files.wrapper.ThrottledFileSystem;
+import cc.itez.nfs.mould.BulkOutcome;
+import cc.itez.nfs.mould.FileStat;
+import cc.itez.nfs.mould.Outcome;
+import cc.itez.nfs.mould.Range;
+import cc.itez.nfs.net.models.sys.User;
+import cc.itez.nfs.utils.PathUtils;
+
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 将请求映射到文件系统的操作
+ * <pre>
+ *  GET/HEAD 文件    下载，支持单个Range，带ETag与Last-Modified，条件请求未修改时响应304
+ *  GET/HEAD 目录    以JSON数组列出子项(ls)，参数all=true时包括隐藏文件
+ *  PUT             保存请求体(save)，Overwrite: F或If-None-Match: *时不覆盖
+ *  DELETE          删除(rm)，参数recursive=false时不递归
+ *  MKCOL           创建目录(mkdirs)
+ *  COPY/MOVE       复制(cp)/移动(mv)到Destination，Overwrite: F时不覆盖
+ * </pre>
+ * 配置了{@link Authenticator}时每个请求先认证，文件系统为{@link ThrottledFileSystem}时
+ * 请求通过{@link ThrottledFileSystem#as(String, long, long)}使用该用户(或其角色)的上传与下载速率；
+ * 底层为启用了占用统计的{@link LocalFileSystem}时，用户的配额设置到其主目录
+ */
+final class FileHandler {
+    private static final String ALLOW = "GET, HEAD, PUT, DELETE, MKCOL, COPY, MOVE";
+    private static final byte[] EMPTY = new byte[0];
+
+    private final AbstractFileSystem fileSystem;
+    private volatile Authenticator authenticator;
+    private volatile Path homes = PathUtils.ROOT.resolve("home");
+
+    FileHandler(AbstractFileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+    }
+
+    void setAuthenticator(Authenticator authenticator) {
+        this.authenticator = authenticator;
+    }
+
+    void setHomes(Path homes) {
+        this.homes = homes;
+    }
+
+    /**
+     * 处理请求，调用之后连接上的响应已经完整发送、响应体已经交给连接等待发送，或者连接不能再使用
+     *
+     * @param exchange 请求与响应
+     */
+    void handle(HttpExchange exchange) throws IOException {
+        HttpRequest request = exchange.getRequest();
+        AbstractFileSystem fileSystem = this.fileSystem;
+        Authenticator authenticator = this.authenticator;
+        if (authenticator != null) {
+            User user = authenticator.authenticate(request);
+            if (user == null) {
+                exchange.send(401, "text/plain; charset=utf-8", "Unauthorized".getBytes(StandardCharsets.UTF_8),
+                        Map.of("WWW-Authenticate", "Basic realm=\"nfs\", charset=\"UTF-8\""));
+                return;
+            }
+            fileSystem = this.fileSystem(user);
+        }
+        try {
+            switch (request.getMethod()) {
+                case "GET", "HEAD" -> this.get(exchange, fileSystem);
+                case "PUT" -> this.put(exchange, fileSystem);
+                case "DELETE" -> this.delete(exchange, fileSystem);
+                case "MKCOL" -> this.respond(exchange, fileSystem.mkdirs(request.getPath()), 201);
+                case "COPY", "MOVE" -> this.copy(exchange, fileSystem);
+                default -> exchange.send(405, null, EMPTY, Map.of("Allow", ALLOW));
+            }
+        } catch (HttpException e) {
+            exchange.error(e.getStatus(), e.getMessage());
+        } catch (IOException e) {
+            if (exchange.isCommitted()) {
+                throw e;
+            }
+            this.respond(exchange, Outcome.error(e), 0);
+        }
+    }
+
+    /**
+     * 用户使用的文件系统
+     *
+     * @param user 已认证的用户
+     * @return 带有用户速率的视图，文件系统不限速时原样返回
+     */
+    private AbstractFileSystem fileSystem(User user) {
+        this.applyQuota(user);
+        if (this.fileSystem instanceof ThrottledFileSystem) {
+            return ((ThrottledFileSystem) this.fileSystem).as(user.getUsername(), user.resolveUploadLimit(), user.resolveDownloadLimit());
+        }
+        return this.fileSystem;
+    }
+
+    /**
+     * 将用户的配额设置到其主目录，配额没有变化时只比较不写入
+     * 用户名包含路径分隔符或为"."、".."时没有主目录
+     *
+     * @param user 已认证的用户
+     */
+    private void applyQuota(User user) {
+        String name = user.getUsername();
+        if (name == null || name.isEmpty() || name.equals(".") || name.equals("..") || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0) {
+            return;
+        }
+        AbstractFileSystem fileSystem = this.fileSystem;
+        while (fileSystem instanceof FileSystemWrapper) {
+            fileSystem = ((FileSystemWrapper) fileSystem).getDelegate();
+        }
+        if (fileSystem instanceof LocalFileSystem) {
+            Long quota = user.getQuota();
+            ((LocalFileSystem) fileSystem).setQuota(this.homes.resolve(name), quota == null ? 0 : quota);
+        }
+    }
+
+    private void get(HttpExchange exchange, AbstractFileSystem fileSystem) throws IOException {
+        HttpRequest request = exchange.getRequest();
+        Path path = request.getPath();
+        FileStat stat = fileSystem.stat(path);
+        if (stat.isDirectory()) {
+            List<Path> children = fileSystem.ls(path, "true".equals(request.param("all")));
+            exchange.send(200, "application/json; charset=utf-8", json(children), Map.of());
+            return;
+        }
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("ETag", stat.getEtag());
+        headers.put("Last-Modified", stat.lastModified());
+        if (stat.notModified(request.header("if-none-match"), request.header("if-modified-since"))) {
+            exchange.head(304, 0, null, headers);
+            return;
+        }
+        long size = stat.getSize();
+        headers.put("Accept-Ranges", "bytes");
+        // If-Range与当前版本不一致时忽略Range，返回整个文件
+        String ifRange = request.header("if-range");
+        List<Range> ranges = ifRange == null || ifRange.equals(stat.getEtag()) || ifRange.equals(headers.get("Last-Modified"))
+                ? Range.parse(request.header("range"), size) : null;
+        if (ranges != null && ranges.isEmpty()) {
+            headers.put("Content-Range", "bytes */" + size);
+            exchange.send(416, null, EMPTY, headers);
+            return;
+        }
+        // 多个范围需要multipart响应，按照规范可以忽略Range返回整个文件
+        Range range = ranges != null && ranges.size() == 1 ? ranges.get(0) : Range.of(0, size);
+        int status = range.getLength() == size && range.getOffset() == 0 ? 200 : 206;
+        if (status == 206) {
+            headers.put("Content-Range", "bytes " + range.getOffset() + "-" + (range.end() - 1) + "/" + size);
+        }
+        String type = URLConnection.guessContentTypeFromName(String.valueOf(path.getFileName()));
+        if ("HEAD".equals(request.getMethod())) {
+            exchange.head(status, range.getLength(), type == null ? "application/octet-stream" : type, headers);
+            return;
+        }
+        // 在发送响应头之前打开文件，文件消失时仍然可以响应错误
+        ReadableByteChannel body = fileSystem.read(path, range.getOffset(), range.getLength());
+        try {
+            exchange.head(status, range.getLength(), type == null ? "application/octet-stream" : type, headers);
+        } catch (IOException e) {
+            body.close();
+            throw e;
+        }
+        exchange.body(body, range.getLength());
+    }
+
+    private void put(HttpExchange exchange, AbstractFileSystem fileSystem) throws IOException {
+        HttpRequest request = exchange.getRequest();
+        boolean cover = overwrite(request) && !"*".equals(request.header("if-none-match"));
+        this.respond(exchange, fileSystem.save(exchange.body(), request.getPath(), cover), 201);
+    }
+
+    private void delete(HttpExchange exchange, AbstractFileSystem fileSystem) throws IOException {
+        HttpRequest request = exchange.getRequest();
+        Outcome outcome = fileSystem.rm(request.getPath(), !"false".equals(request.param("recursive")));
+        if (outcome.isSuccessful() && outcome instanceof BulkOutcome && ((BulkOutcome) outcome).getCount() == 0) {
+            exchange.error(404, request.getPath() + " (No such file or directory)");
+            return;
+        }
+        this.respond(exchange, outcome, 204);
+    }
+
+    private void copy(HttpExchange exchange, AbstractFileSystem fileSystem) throws IOException, HttpException {
+        HttpRequest request = exchange.getRequest();
+        String destination = request.header("destination");
+        if (destination == null) {
+            throw new HttpException(400, "Missing Destination header");
+        }
+        Path target = HttpConnection.path(destination);
+        boolean cover = overwrite(request);
+        Outcome outcome = "MOVE".equals(request.getMethod())
+                ? fileSystem.mv(request.getPath(), target, cover)
+                : fileSystem.cp(request.getPath(), target, cover);
+        this.respond(exchange, outcome, 201);
+    }
+
+    /**
+     * 按处理结果响应，失败时根据结果代码选择状态码
+     *
+     * @param exchange 请求与响应
+     * @param outcome  处理结果
+     * @param status   成功时的状态码
+     */
+    private void respond(HttpExchange exchange, Outcome outcome, int status) throws IOException {
+        if (outcome.isSuccessful()) {
+            exchange.send(status, null, EMPTY, Map.of());
+            return;
+        }
+        exchange.error(switch (outcome.getCode()) {
+            case NOT_FOUND -> 404;
+            case ALREADY_EXISTS -> 412;
+            case NOT_DIRECTORY, NOT_EMPTY -> 409;
+            case ACCESS_DENIED -> 403;
+            case QUOTA_EXCEEDED -> 507;
+            default -> 500;
+        }, outcome.getCause());
+    }
+
+    /**
+     * WebDAV的Overwrite请求头，默认覆盖
+     */
+    private static boolean overwrite(HttpRequest request) {
+        return !"F".equalsIgnoreCase(request.header("overwrite"));
+    }
+
+    private static byte[] json(List<Path> paths) {
+        StringBuilder json = new StringBuilder("[");
+        for (Path path : paths) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('"');
+            for (char c : path.toString().toCharArray()) {
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < 0x20) {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+            json.append('"');
+        }
+        return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,363 @@
+package cc.itez.nfs.net.http;
+
+import cc.itez.nfs.utils.PathKey;
+import cc.itez.nfs.utils.RangeChannel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+
+/**
+ * 客户端连接
+ * 空闲时由选择器线程以非阻塞的方式读取请求头，读取到完整的请求头后交给工作线程以阻塞的方式处理，
+ * 处理完缓冲区中所有完整的请求(流水线)后再交还给选择器线程。同一时间只有一个线程访问连接。
+ * 尚未发送的响应体也保存在连接上：文件的一段由选择器线程在套接字可写时以非阻塞的方式发送，其他通道由传输线程以阻塞的方式发送。
+ * <p>
+ * 缓冲区以写模式保存已读取但尚未处理的字节，其大小即为请求头的最大长度
+ */
+final class HttpConnection implements Closeable {
+    private static final byte[] HEAD_END = {'\r', '\n', '\r', '\n'};
+    /**
+     * 发送响应体时每次写入的最大长度，选择器线程在多个连接之间交替发送
+     */
+    private static final int SEND_CHUNK = 256 * 1024;
+
+    final SocketChannel channel;
+    private final ByteBuffer buffer;
+    /**
+     * 最后一次活动的时间，用于关闭空闲的连接
+     */
+    volatile long active = System.currentTimeMillis();
+    /**
+     * 工作线程当前阻塞读写开始的时间，不在读写时为0，用于关闭停滞的连接
+     */
+    private volatile long blocked;
+    /**
+     * 尚未发送的响应体，没有时为null
+     */
+    private ReadableByteChannel body;
+    private long bodyRemaining;
+    /**
+     * 响应体发送完毕后是否关闭连接
+     */
+    private boolean closeAfterBody;
+
+    HttpConnection(SocketChannel channel, int maxHeaderSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(maxHeaderSize);
+    }
+
+    /**
+     * 从通道读取到缓冲区
+     *
+     * @return 读取的字节数，连接关闭时为-1
+     */
+    int read() throws IOException {
+        this.active = System.currentTimeMillis();
+        return this.buffer.hasRemaining() ? this.channel.read(this.buffer) : 0;
+    }
+
+    /**
+     * 缓冲区中是否已有完整的请求头，缓冲区已满时也返回true，由{@link #parse()}响应错误
+     *
+     * @return 是否可以交给工作线程处理
+     */
+    boolean ready() {
+        return !this.buffer.hasRemaining() || this.headEnd() >= 0;
+    }
+
+    /**
+     * 缓冲区中是否有尚未处理的字节
+     *
+     * @return 是否有未处理的字节
+     */
+    boolean buffered() {
+        return this.buffer.position() > 0;
+    }
+
+    /**
+     * 从缓冲区解析一个完整的请求头，并从缓冲区中移除
+     *
+     * @return 请求，请求头不完整时返回null
+     * @throws HttpException 请求头过大或格式错误时抛出
+     */
+    HttpRequest parse() throws HttpException {
+        int end = this.headEnd();
+        if (end < 0) {
+            if (!this.buffer.hasRemaining()) {
+                throw new HttpException(431, "Request header fields too large");
+            }
+            return null;
+        }
+        String head = new String(this.buffer.array(), 0, end - HEAD_END.length, StandardCharsets.ISO_8859_1);
+        this.buffer.flip().position(end);
+        this.buffer.compact();
+        String[] lines = head.split("\r\n");
+        String[] line = lines[0].split(" ");
+        if (line.length != 3) {
+            throw new HttpException(400, "Malformed request line");
+        }
+        if (!line[2].startsWith("HTTP/1.")) {
+            throw new HttpException(505, "HTTP version not supported");
+        }
+        HttpRequest request = new HttpRequest().setMethod(line[0].toUpperCase()).setVersion(line[2]);
+        String target = line[1];
+        int query = target.indexOf('?');
+        if (query >= 0) {
+            for (String pair : target.substring(query + 1).split("&")) {
+                if (pair.isEmpty()) {
+                    continue;
+                }
+                int eq = pair.indexOf('=');
+                request.getQuery().put(decode(eq < 0 ? pair : pair.substring(0, eq), true), eq < 0 ? "" : decode(pair.substring(eq + 1), true));
+            }
+            target = target.substring(0, query);
+        }
+        request.setPath(path(target));
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                throw new HttpException(400, "Malformed header field");
+            }
+            String name = lines[i].substring(0, colon).trim().toLowerCase();
+            String value = lines[i].substring(colon + 1).trim();
+            request.getHeaders().merge(name, value, (a, b) -> a + ", " + b);
+        }
+        return request;
+    }
+
+    /**
+     * 将缓冲区中的字节移动到目标缓冲区
+     *
+     * @param dst 目标缓冲区
+     * @param max 最多移动的字节数
+     * @return 移动的字节数
+     */
+    int drain(ByteBuffer dst, long max) {
+        int n = (int) Math.min(Math.min(dst.remaining(), max), this.buffer.position());
+        if (n > 0) {
+            dst.put(this.buffer.array(), 0, n);
+            this.buffer.flip().position(n);
+            this.buffer.compact();
+        }
+        return n;
+    }
+
+    /**
+     * 设置尚未发送的响应体，响应头已经发送
+     *
+     * @param body   响应体
+     * @param length 响应体长度
+     */
+    void respond(ReadableByteChannel body, long length) {
+        this.body = body;
+        this.bodyRemaining = length;
+        this.closeAfterBody = false;
+    }
+
+    /**
+     * 响应体发送完毕后关闭连接
+     */
+    void closeAfterBody() {
+        this.closeAfterBody = true;
+    }
+
+    /**
+     * 是否有尚未发送的响应体
+     *
+     * @return 是否正在发送
+     */
+    boolean sending() {
+        return this.body != null;
+    }
+
+    /**
+     * 响应体是否可以由选择器线程以非阻塞的方式零拷贝发送
+     *
+     * @return 是否为文件的一段
+     */
+    boolean zeroCopy() {
+        return this.body instanceof RangeChannel;
+    }
+
+    /**
+     * 在选择器线程中发送响应体的一段，连接必须处于非阻塞模式
+     * 文件在发送期间被截断时放弃发送，客户端只能通过关闭连接发现响应不完整
+     *
+     * @return 是否发送完毕
+     */
+    boolean send() throws IOException {
+        RangeChannel file = (RangeChannel) this.body;
+        long n = file.transferTo(this.channel, Math.min(SEND_CHUNK, this.bodyRemaining));
+        if (n > 0) {
+            this.bodyRemaining -= n;
+            this.active = System.currentTimeMillis();
+        } else if (file.remaining() == 0) {
+            this.bodyRemaining = 0;
+            this.closeAfterBody = true;
+        }
+        if (this.bodyRemaining > 0) {
+            return false;
+        }
+        this.closeBody();
+        return true;
+    }
+
+    /**
+     * 在传输线程中以阻塞的方式发送完整的响应体
+     *
+     * @return 发送完毕后是否可以继续处理下一个请求
+     */
+    boolean sendBlocking() throws IOException {
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(SEND_CHUNK, Math.max(1, this.bodyRemaining)));
+            while (this.bodyRemaining > 0) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), this.bodyRemaining));
+                int n = this.body.read(buffer);
+                if (n < 0) {
+                    this.closeAfterBody = true;
+                    break;
+                }
+                buffer.flip();
+                this.begin();
+                try {
+                    while (buffer.hasRemaining()) {
+                        this.channel.write(buffer);
+                    }
+                } finally {
+                    this.end();
+                }
+                this.bodyRemaining -= n;
+            }
+        } finally {
+            this.closeBody();
+        }
+        return !this.closeAfterBody;
+    }
+
+    /**
+     * 响应体发送完毕后是否可以继续处理下一个请求
+     *
+     * @return 是否保持连接
+     */
+    boolean keepAlive() {
+        return !this.closeAfterBody;
+    }
+
+    private void closeBody() {
+        ReadableByteChannel body = this.body;
+        this.body = null;
+        if (body != null) {
+            try {
+                body.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 工作线程开始一次阻塞读写
+     */
+    void begin() {
+        this.blocked = System.currentTimeMillis();
+    }
+
+    /**
+     * 工作线程结束一次阻塞读写
+     */
+    void end() {
+        this.blocked = 0;
+        this.active = System.currentTimeMillis();
+    }
+
+    /**
+     * 当前的阻塞读写是否在指定时间之前开始
+     *
+     * @param deadline 截止时间
+     * @return 是否停滞
+     */
+    boolean stalled(long deadline) {
+        long blocked = this.blocked;
+        return blocked != 0 && blocked < deadline;
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.channel.close();
+        } catch (IOException ignored) {
+        }
+        this.closeBody();
+    }
+
+    /**
+     * 将请求目标或Destination请求头转换为路径
+     * 绝对形式的URI只取路径部分，路径经过百分号解码并规范化，".."不会超出根目录
+     *
+     * @param target 请求目标
+     * @return 以根目录开头的路径
+     * @throws HttpException 格式错误时抛出
+     */
+    static Path path(String target) throws HttpException {
+        int scheme = target.indexOf("://");
+        if (scheme > 0 && target.indexOf('/') > scheme) {
+            int slash = target.indexOf('/', scheme + 3);
+            target = slash < 0 ? "/" : target.substring(slash);
+        }
+        if (!target.startsWith("/")) {
+            throw new HttpException(400, "Malformed request target");
+        }
+        try {
+            return PathKey.of(Path.of(decode(target, false))).toPath();
+        } catch (InvalidPathException e) {
+            throw new HttpException(400, "Invalid path");
+        }
+    }
+
+    /**
+     * 百分号解码，请求头以ISO-8859-1读取，每个字符即一个字节，解码后按UTF-8组合
+     *
+     * @param value 编码的值
+     * @param plus  是否将'+'解码为空格(查询参数)
+     * @return 解码后的值
+     */
+    private static String decode(String value, boolean plus) throws HttpException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '%') {
+                int high = i + 2 < value.length() ? Character.digit(value.charAt(i + 1), 16) : -1;
+                int low = high < 0 ? -1 : Character.digit(value.charAt(i + 2), 16);
+                if (low < 0) {
+                    throw new HttpException(400, "Malformed percent encoding");
+                }
+                out.write((high << 4) | low);
+                i += 2;
+            } else {
+                out.write(plus && c == '+' ? ' ' : c);
+            }
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 查找请求头的结束位置
+     *
+     * @return 空行之后的位置，请求头不完整时返回-1
+     */
+    private int headEnd() {
+        byte[] array = this.buffer.array();
+        for (int i = 0, end = this.buffer.position() - HEAD_END.length; i <= end; i++) {
+            if (array[i] == '\r' && array[i + 1] == '\n' && array[i + 2] == '\r' && array[i + 3] == '\n') {
+                return i + HEAD_END.length;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,17 @@
+package cc.itez.nfs.net.http;
+
+/**
+ * 无法继续处理的请求，响应指定的状态码之后关闭连接
+ */
+class HttpException extends Exception {
+    private final int status;
+
+    HttpException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    int getStatus() {
+        return this.status;
+    }
+}
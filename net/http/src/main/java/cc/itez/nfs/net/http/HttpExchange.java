@@ -0,0 +1,240 @@
+package cc.itez.nfs.net.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+
+/**
+ * 一次请求与响应，由工作线程在阻塞模式的连接上处理
+ * 请求体以限定长度的通道读取，先读取连接缓冲区中已有的字节，再直接读取套接字；
+ * 较小的响应体直接写入套接字通道，文件内容通过{@link #body(ReadableByteChannel, long)}交给服务在请求处理完毕后发送。
+ * 每次阻塞读写之前都会记录开始时间，超过期限没有完成时由服务的巡检关闭连接
+ */
+final class HttpExchange {
+    /**
+     * 响应之后丢弃未读取的请求体的最大长度，超出时关闭连接
+     */
+    private static final long DRAIN_LIMIT = 64 * 1024;
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private final HttpConnection connection;
+    private final HttpRequest request;
+    private final Body body;
+    private boolean keepAlive;
+    private boolean committed;
+
+    HttpExchange(HttpConnection connection, HttpRequest request) throws HttpException {
+        this.connection = connection;
+        this.request = request;
+        if (request.header("transfer-encoding") != null) {
+            throw new HttpException(411, "Length required");
+        }
+        long length;
+        try {
+            length = request.contentLength();
+        } catch (NumberFormatException e) {
+            throw new HttpException(400, "Invalid Content-Length");
+        }
+        if (length < 0) {
+            throw new HttpException(400, "Invalid Content-Length");
+        }
+        this.body = new Body(length, "100-continue".equalsIgnoreCase(request.header("expect")));
+        this.keepAlive = request.keepAlive();
+    }
+
+    HttpRequest getRequest() {
+        return this.request;
+    }
+
+    /**
+     * 请求体，读取到Content-Length指定的长度后结束
+     *
+     * @return 请求体通道
+     */
+    ReadableByteChannel body() {
+        return this.body;
+    }
+
+    /**
+     * 设置响应体，必须先调用{@link #head(int, long, String, Map)}
+     * 通道只打开一次，整个响应体来自同一个文件版本；本次请求处理完毕后由服务发送并关闭通道，
+     * 文件的一段({@link cc.itez.nfs.utils.RangeChannel})由选择器线程零拷贝发送，不占用工作线程
+     *
+     * @param channel 响应体
+     * @param length  响应体长度，通道提前结束时关闭连接
+     */
+    void body(ReadableByteChannel channel, long length) {
+        this.connection.respond(channel, length);
+    }
+
+    /**
+     * 发送状态行与响应头
+     *
+     * @param status      状态码
+     * @param length      响应体长度
+     * @param contentType 内容类型，为null时不发送
+     * @param headers     其他响应头
+     */
+    void head(int status, long length, String contentType, Map<String, String> headers) throws IOException {
+        StringBuilder head = new StringBuilder(256)
+                .append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n")
+                .append("Date: ").append(DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC))).append("\r\n");
+        if (status != 204 && status != 304) {
+            head.append("Content-Length: ").append(length).append("\r\n");
+        }
+        if (contentType != null) {
+            head.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        // 请求体没有读完时无法确定下一个请求的起始位置
+        if (this.body.remaining > DRAIN_LIMIT || (this.body.expect && this.body.remaining > 0)) {
+            this.keepAlive = false;
+        }
+        head.append("Connection: ").append(this.keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+        this.committed = true;
+        write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * 发送完整的响应
+     *
+     * @param status      状态码
+     * @param contentType 内容类型
+     * @param content     响应体
+     * @param headers     其他响应头
+     */
+    void send(int status, String contentType, byte[] content, Map<String, String> headers) throws IOException {
+        this.head(status, content.length, contentType, headers);
+        if (!"HEAD".equals(this.request.getMethod())) {
+            this.write(content);
+        }
+    }
+
+    /**
+     * 发送纯文本的错误响应
+     *
+     * @param status  状态码
+     * @param message 错误信息
+     */
+    void error(int status, String message) throws IOException {
+        this.send(status, "text/plain; charset=utf-8", String.valueOf(message).getBytes(StandardCharsets.UTF_8), Map.of());
+    }
+
+    boolean isCommitted() {
+        return this.committed;
+    }
+
+    /**
+     * 结束本次请求，丢弃未读取的请求体
+     *
+     * @return 连接是否可以继续处理下一个请求
+     */
+    boolean finish() throws IOException {
+        if (!this.keepAlive) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(8192, Math.max(1, this.body.remaining)));
+        while (this.body.remaining > 0) {
+            buffer.clear();
+            this.body.read(buffer);
+        }
+        return true;
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        this.connection.begin();
+        try {
+            while (buffer.hasRemaining()) {
+                this.connection.channel.write(buffer);
+            }
+        } finally {
+            this.connection.end();
+        }
+    }
+
+    private static String reason(int status) {
+        return switch (status) {
+            case 200 -> "OK";
+            case 201 -> "Created";
+            case 204 -> "No Content";
+            case 206 -> "Partial Content";
+            case 304 -> "Not Modified";
+            case 400 -> "Bad Request";
+            case 401 -> "Unauthorized";
+            case 403 -> "Forbidden";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 409 -> "Conflict";
+            case 411 -> "Length Required";
+            case 412 -> "Precondition Failed";
+            case 416 -> "Range Not Satisfiable";
+            case 431 -> "Request Header Fields Too Large";
+            case 505 -> "HTTP Version Not Supported";
+            case 507 -> "Insufficient Storage";
+            default -> status < 500 ? "Client Error" : "Server Error";
+        };
+    }
+
+    /**
+     * 限定长度的请求体
+     */
+    private final class Body implements ReadableByteChannel {
+        private long remaining;
+        private boolean expect;
+
+        Body(long length, boolean expect) {
+            this.remaining = length;
+            this.expect = expect;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            if (this.expect) {
+                // 开始读取时才允许客户端发送请求体，提前响应错误时客户端不必发送
+                this.expect = false;
+                write(CONTINUE);
+            }
+            int n = connection.drain(dst, this.remaining);
+            if (n == 0) {
+                int limit = dst.limit();
+                if (dst.remaining() > this.remaining) {
+                    dst.limit(dst.position() + (int) this.remaining);
+                }
+                connection.begin();
+                try {
+                    n = connection.channel.read(dst);
+                } finally {
+                    connection.end();
+                    dst.limit(limit);
+                }
+                if (n < 0) {
+                    keepAlive = false;
+                    throw new EOFException("Connection closed before the request body was complete");
+                }
+            }
+            this.remaining -= n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return connection.channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,503 @@
+package cc.itez.nfs.net.http;
+
+import cc.itez.nfs.files.AbstractFileSystem;
+import lombok.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.*;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于NIO选择器的轻量级HTTP/1.1文件服务
+ * 一个选择器线程负责接受连接并以非阻塞的方式读取请求头，大量空闲的长连接只占用选择器中的一个键；
+ * 读取到完整的请求头后，连接从选择器注销并切换为阻塞模式交给工作线程，
+ * 工作线程处理完缓冲区中所有完整的请求(流水线)后再交还给选择器。
+ * 工作线程只处理元数据请求与较小的响应：下载的文件只打开一次，响应头发送之后连接带着文件交还给选择器，
+ * 由选择器线程在套接字可写时通过{@link java.nio.channels.FileChannel#transferTo}以非阻塞的方式分段发送，
+ * 慢速的客户端只占用选择器中的一个键。带请求体的上传以及不能零拷贝的响应体(如经过限速或压缩的文件系统)
+ * 交给单独的有界传输线程池以阻塞的方式处理，上传的请求体直接流入{@link AbstractFileSystem#save}，不会占满处理ls、stat的工作线程。
+ * 阻塞读写与非阻塞发送都有期限，停止收发的客户端会被选择器线程的巡检关闭，不会长期占用线程。
+ * <p>
+ * 服务的接口见{@link FileHandler}，需要限速或配额时传入相应包装或配置过的文件系统；
+ * 配置{@link Authenticator}后，经过{@link cc.itez.nfs.files.wrapper.ThrottledFileSystem}包装的文件系统按用户限速
+ */
+public class HttpFileServer implements Closeable {
+    private final FileHandler handler;
+    private InetSocketAddress address = new InetSocketAddress(8080);
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private int transferWorkers = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    private int maxHeaderSize = 16 * 1024;
+    private Duration idleTimeout = Duration.ofSeconds(60);
+    private Duration ioTimeout = Duration.ofSeconds(30);
+    /**
+     * 工作线程处理完毕交还的连接，由选择器线程重新注册
+     */
+    private final Queue<HttpConnection> returned = new ConcurrentLinkedQueue<>();
+    /**
+     * 正在由工作线程处理的连接
+     */
+    private final Set<HttpConnection> serving = ConcurrentHashMap.newKeySet();
+    private ServerSocketChannel server;
+    private Selector selector;
+    private ExecutorService pool;
+    private ExecutorService transferPool;
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * @param fileSystem 提供服务的文件系统
+     */
+    public HttpFileServer(@NonNull AbstractFileSystem fileSystem) {
+        this.handler = new FileHandler(fileSystem);
+    }
+
+    /**
+     * 设置监听地址，默认监听所有地址的8080端口
+     *
+     * @param address 监听地址，端口为0时由系统分配
+     * @return this
+     */
+    public HttpFileServer setAddress(@NonNull InetSocketAddress address) {
+        this.address = address;
+        return this;
+    }
+
+    /**
+     * 设置请求认证，默认不认证
+     * 认证得到的用户的上传与下载速率(见{@link cc.itez.nfs.net.models.sys.User#resolveUploadLimit()})
+     * 在全局速率之外额外限制该用户的所有并发传输
+     *
+     * @param authenticator 请求认证，为null时不认证
+     * @return this
+     */
+    public HttpFileServer setAuthenticator(Authenticator authenticator) {
+        this.handler.setAuthenticator(authenticator);
+        return this;
+    }
+
+    /**
+     * 设置用户主目录的上级目录，默认为/home
+     * 认证得到的用户的配额({@link cc.itez.nfs.net.models.sys.User#getQuota()})作用于{@code <homes>/<用户名>}，
+     * 只在提供服务的文件系统(或其包装的文件系统)是启用了占用统计的{@link cc.itez.nfs.files.impl.LocalFileSystem}时生效
+     *
+     * @param homes 主目录的上级目录
+     * @return this
+     */
+    public HttpFileServer setHomes(@NonNull Path homes) {
+        this.handler.setHomes(homes);
+        return this;
+    }
+
+    /**
+     * 设置工作线程数，即同时处理的元数据请求数
+     *
+     * @param workers 工作线程数
+     * @return this
+     */
+    public HttpFileServer setWorkers(int workers) {
+        this.workers = Math.max(1, workers);
+        return this;
+    }
+
+    /**
+     * 设置传输线程数，即同时以阻塞方式处理的上传与不能零拷贝的下载数，超出的请求排队等待
+     * 零拷贝的下载由选择器线程发送，不受该数量限制
+     *
+     * @param transferWorkers 传输线程数
+     * @return this
+     */
+    public HttpFileServer setTransferWorkers(int transferWorkers) {
+        this.transferWorkers = Math.max(1, transferWorkers);
+        return this;
+    }
+
+    /**
+     * 设置请求头的最大长度，每个连接占用一个同样大小的缓冲区
+     *
+     * @param maxHeaderSize 最大长度(字节)
+     * @return this
+     */
+    public HttpFileServer setMaxHeaderSize(int maxHeaderSize) {
+        this.maxHeaderSize = Math.max(1024, maxHeaderSize);
+        return this;
+    }
+
+    /**
+     * 设置空闲连接的超时时间
+     *
+     * @param idleTimeout 超时时间
+     * @return this
+     */
+    public HttpFileServer setIdleTimeout(@NonNull Duration idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        return this;
+    }
+
+    /**
+     * 设置单次阻塞读写的期限，超时未完成时关闭连接；选择器发送文件时超过该期限没有任何进展同样关闭连接
+     * 阻塞发送时每段的长度为256KiB，因此该期限同时限制了客户端的最低接收速率
+     *
+     * @param ioTimeout 读写期限
+     * @return this
+     */
+    public HttpFileServer setIoTimeout(@NonNull Duration ioTimeout) {
+        this.ioTimeout = ioTimeout;
+        return this;
+    }
+
+    /**
+     * 实际监听的端口
+     *
+     * @return 端口，未启动时返回-1
+     */
+    public int getPort() {
+        ServerSocketChannel server = this.server;
+        return server == null ? -1 : server.socket().getLocalPort();
+    }
+
+    /**
+     * 启动服务
+     *
+     * @return this
+     */
+    public synchronized HttpFileServer start() throws IOException {
+        if (this.running) {
+            return this;
+        }
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        this.server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        this.server.bind(this.address);
+        this.server.configureBlocking(false);
+        this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+        this.pool = pool(this.workers, "nfs-http-worker-");
+        this.transferPool = pool(this.transferWorkers, "nfs-http-transfer-");
+        this.running = true;
+        this.thread = new Thread(this::loop, "nfs-http-selector");
+        this.thread.setDaemon(true);
+        this.thread.start();
+        return this;
+    }
+
+    /**
+     * 停止服务并关闭所有连接，正在处理的请求会被中断
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!this.running) {
+            return;
+        }
+        this.running = false;
+        this.selector.wakeup();
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.pool.shutdownNow();
+        this.transferPool.shutdownNow();
+        for (SelectionKey key : this.selector.keys()) {
+            if (key.attachment() instanceof HttpConnection) {
+                // 同时关闭尚未发送完的文件
+                ((HttpConnection) key.attachment()).close();
+            } else {
+                key.channel().close();
+            }
+        }
+        HttpConnection connection;
+        while ((connection = this.returned.poll()) != null) {
+            connection.close();
+        }
+        for (HttpConnection c : this.serving) {
+            c.close();
+        }
+        this.selector.close();
+        this.server.close();
+    }
+
+    /**
+     * 选择器线程
+     */
+    private void loop() {
+        List<HttpConnection> ready = new ArrayList<>();
+        long sweep = System.currentTimeMillis();
+        boolean now = false;
+        while (this.running) {
+            try {
+                if (now) {
+                    this.selector.selectNow();
+                } else {
+                    this.selector.select(1000);
+                }
+                HttpConnection connection;
+                while ((connection = this.returned.poll()) != null) {
+                    this.resume(connection);
+                }
+                Iterator<SelectionKey> iterator = this.selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        this.accept();
+                    } else if (key.isWritable()) {
+                        connection = (HttpConnection) key.attachment();
+                        try {
+                            if (!connection.send()) {
+                                continue;
+                            }
+                            if (!connection.keepAlive()) {
+                                key.cancel();
+                                connection.close();
+                            } else if (connection.ready()) {
+                                // 流水线中的下一个请求已经在缓冲区中
+                                key.cancel();
+                                ready.add(connection);
+                            } else {
+                                key.interestOps(SelectionKey.OP_READ);
+                            }
+                        } catch (IOException e) {
+                            key.cancel();
+                            connection.close();
+                        }
+                    } else if (key.isReadable()) {
+                        connection = (HttpConnection) key.attachment();
+                        try {
+                            if (connection.read() < 0) {
+                                key.cancel();
+                                connection.close();
+                            } else if (connection.ready()) {
+                                key.cancel();
+                                ready.add(connection);
+                            }
+                        } catch (IOException e) {
+                            key.cancel();
+                            connection.close();
+                        }
+                    }
+                }
+                // 取消的键在下一次选择时才会注销，注销之后才能切换为阻塞模式
+                now = !ready.isEmpty();
+                if (now) {
+                    this.selector.selectNow();
+                    for (HttpConnection c : ready) {
+                        this.dispatch(c);
+                    }
+                    ready.clear();
+                }
+                long time = System.currentTimeMillis();
+                if (time - sweep >= 1000) {
+                    sweep = time;
+                    this.sweep(time - this.idleTimeout.toMillis(), time - this.ioTimeout.toMillis());
+                }
+            } catch (IOException | RuntimeException e) {
+                if (this.running) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = this.server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.register(this.selector, SelectionKey.OP_READ, new HttpConnection(channel, this.maxHeaderSize));
+        }
+    }
+
+    private static ExecutorService pool(int threads, String name) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, name + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 重新注册交还的连接，有尚未发送的响应体时等待可写
+     */
+    private void resume(HttpConnection connection) {
+        try {
+            connection.channel.register(this.selector, connection.sending() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ, connection);
+        } catch (IOException e) {
+            connection.close();
+        }
+    }
+
+    private void dispatch(HttpConnection connection) {
+        try {
+            this.pool.execute(() -> this.serve(connection, null, false));
+        } catch (RejectedExecutionException e) {
+            connection.close();
+        }
+    }
+
+    /**
+     * 将连接交给传输线程
+     *
+     * @param connection 连接
+     * @param request    已经解析但尚未处理的请求，没有时为null
+     * @return 是否成功交出，失败时连接已关闭
+     */
+    private boolean transfer(HttpConnection connection, HttpRequest request) {
+        try {
+            this.transferPool.execute(() -> this.serve(connection, request, true));
+            return true;
+        } catch (RejectedExecutionException e) {
+            connection.close();
+            return false;
+        }
+    }
+
+    /**
+     * 关闭空闲超时的连接与读写停滞的连接
+     * 关闭通道会使工作线程中阻塞的读写抛出{@link AsynchronousCloseException}
+     *
+     * @param idle    最后活动时间早于该时间的空闲连接被关闭
+     * @param stalled 阻塞读写开始时间或最后一次发送早于该时间的连接被关闭
+     */
+    private void sweep(long idle, long stalled) {
+        for (SelectionKey key : this.selector.keys()) {
+            if (key.attachment() instanceof HttpConnection) {
+                HttpConnection connection = (HttpConnection) key.attachment();
+                if (connection.active < (connection.sending() ? stalled : idle)) {
+                    key.cancel();
+                    connection.close();
+                }
+            }
+        }
+        for (HttpConnection connection : this.serving) {
+            if (connection.stalled(stalled)) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * 工作线程或传输线程，以阻塞模式处理连接缓冲区中所有完整的请求
+     * 工作线程遇到带请求体的请求或不能零拷贝的响应体时把连接交给传输线程；
+     * 有零拷贝的响应体等待发送时连接交还给选择器，发送完毕后再继续处理缓冲区中的请求
+     *
+     * @param connection 连接
+     * @param request    已经解析但尚未处理的请求，没有时为null
+     * @param bulk       是否为传输线程
+     */
+    private void serve(HttpConnection connection, HttpRequest request, boolean bulk) {
+        this.serving.add(connection);
+        // 交给传输线程之后由传输线程负责移出正在处理的集合
+        boolean handedOff = false;
+        try {
+            connection.channel.configureBlocking(true);
+            while (true) {
+                if (connection.sending()) {
+                    if (connection.zeroCopy()) {
+                        break;
+                    }
+                    if (!bulk) {
+                        handedOff = this.transfer(connection, null);
+                        return;
+                    }
+                    if (!connection.sendBlocking()) {
+                        connection.close();
+                        return;
+                    }
+                }
+                if (request == null && (request = this.next(connection)) == null) {
+                    break;
+                }
+                if (!bulk && this.upload(request)) {
+                    handedOff = this.transfer(connection, request);
+                    return;
+                }
+                HttpExchange exchange;
+                try {
+                    exchange = new HttpExchange(connection, request);
+                } catch (HttpException e) {
+                    this.reject(connection, request, e);
+                    return;
+                }
+                request = null;
+                this.handler.handle(exchange);
+                if (!exchange.finish()) {
+                    if (!connection.sending()) {
+                        connection.close();
+                        return;
+                    }
+                    connection.closeAfterBody();
+                }
+            }
+            connection.channel.configureBlocking(false);
+            connection.active = System.currentTimeMillis();
+            this.returned.add(connection);
+            this.selector.wakeup();
+        } catch (HttpException e) {
+            this.reject(connection, null, e);
+        } catch (IOException | RuntimeException e) {
+            connection.close();
+        } finally {
+            if (!handedOff) {
+                this.serving.remove(connection);
+            }
+        }
+    }
+
+    /**
+     * 请求是否带有请求体，读取请求体的速度取决于客户端，交给传输线程处理
+     * Content-Length格式错误的请求由{@link HttpExchange}响应错误
+     */
+    private boolean upload(HttpRequest request) {
+        try {
+            return request.header("transfer-encoding") == null && request.contentLength() > 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 解析下一个请求
+     *
+     * @param connection 连接
+     * @return 请求，缓冲区中没有完整的请求头时返回null
+     */
+    private HttpRequest next(HttpConnection connection) throws HttpException {
+        return connection.buffered() ? connection.parse() : null;
+    }
+
+    /**
+     * 响应无法处理的请求并关闭连接
+     */
+    private void reject(HttpConnection connection, HttpRequest request, HttpException e) {
+        try {
+            if (request == null) {
+                request = new HttpRequest().setMethod("GET").setVersion("HTTP/1.1");
+            }
+            request.getHeaders().remove("content-length");
+            request.getHeaders().remove("transfer-encoding");
+            request.getHeaders().put("connection", "close");
+            new HttpExchange(connection, request).error(e.getStatus(), e.getMessage());
+        } catch (IOException | HttpException ignored) {
+        } finally {
+            connection.close();
+        }
+    }
+}
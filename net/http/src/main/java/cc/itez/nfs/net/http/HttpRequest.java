@@ -0,0 +1,82 @@
+package cc.itez.nfs.net.http;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HTTP请求头
+ * 请求体不在这里，由{@link HttpExchange#body()}以通道的形式读取
+ */
+@Data
+@Accessors(chain = true)
+public class HttpRequest {
+    /**
+     * 请求方法(大写)
+     */
+    private String method;
+    /**
+     * 解码并规范化之后的路径，不会超出根目录
+     */
+    private Path path;
+    /**
+     * 协议版本，例如HTTP/1.1
+     */
+    private String version;
+    /**
+     * 查询参数
+     */
+    private Map<String, String> query = new HashMap<>();
+    /**
+     * 请求头，名称为小写，同名的请求头以逗号合并
+     */
+    private Map<String, String> headers = new HashMap<>();
+
+    /**
+     * 获取请求头
+     *
+     * @param name 名称(小写)
+     * @return 请求头的值，不存在时返回null
+     */
+    public String header(String name) {
+        return this.headers.get(name);
+    }
+
+    /**
+     * 获取查询参数
+     *
+     * @param name 名称
+     * @return 参数的值，不存在时返回null
+     */
+    public String param(String name) {
+        return this.query.get(name);
+    }
+
+    /**
+     * 请求体的长度
+     *
+     * @return 字节数，没有请求体时为0
+     * @throws NumberFormatException Content-Length不是数字时抛出
+     */
+    public long contentLength() {
+        String length = this.header("content-length");
+        return length == null ? 0 : Long.parseLong(length.trim());
+    }
+
+    /**
+     * 响应之后是否保持连接
+     * HTTP/1.1默认保持，HTTP/1.0需要显式要求
+     *
+     * @return 是否保持连接
+     */
+    public boolean keepAlive() {
+        String connection = this.header("connection");
+        if ("HTTP/1.1".equals(this.version)) {
+            return connection == null || !connection.toLowerCase().contains("close");
+        }
+        return connection != null && connection.toLowerCase().contains("keep-alive");
+    }
+}
@@ -0,0 +1,292 @@
+package cc.itez.nfs.net.http;
+
+import cc.itez.nfs.files.impl.LocalFileSystem;
+import cc.itez.nfs.files.wrapper.ThrottledFileSystem;
+import cc.itez.nfs.net.models.sys.Role;
+import cc.itez.nfs.net.models.sys.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HttpFileServerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path data;
+    private HttpFileServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        data = folder.newFolder("data").toPath();
+        server = new HttpFileServer(new LocalFileSystem(data))
+                .setAddress(new InetSocketAddress("127.0.0.1", 0))
+                .setWorkers(2)
+                .setIoTimeout(Duration.ofSeconds(1))
+                .start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void putThenPipelinedGets() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write(("PUT /a/hello.txt HTTP/1.1\r\nHost: x\r\nContent-Length: 11\r\n\r\nhello world").getBytes(StandardCharsets.ISO_8859_1));
+            assertEquals("HTTP/1.1 201 Created", readResponse(in)[0]);
+            assertEquals("hello world", Files.readString(data.resolve("a/hello.txt")));
+
+            // 两个请求一次发送
+            out.write(("GET /a/hello.txt HTTP/1.1\r\nHost: x\r\n\r\n"
+                    + "GET /a/hello.txt HTTP/1.1\r\nHost: x\r\nRange: bytes=6-\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            String[] first = readResponse(in);
+            assertEquals("HTTP/1.1 200 OK", first[0]);
+            assertEquals("hello world", first[1]);
+            String[] second = readResponse(in);
+            assertEquals("HTTP/1.1 206 Partial Content", second[0]);
+            assertEquals("world", second[1]);
+
+            out.write("GET /a/ HTTP/1.1\r\nHost: x\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertEquals("[\"/a/hello.txt\"]", readResponse(in)[1]);
+        }
+    }
+
+    @Test
+    public void moveAndDelete() throws Exception {
+        Files.writeString(data.resolve("x.txt"), "x");
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write("MOVE /x.txt HTTP/1.1\r\nDestination: http://host/y.txt\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertEquals("HTTP/1.1 201 Created", readResponse(in)[0]);
+            assertTrue(Files.exists(data.resolve("y.txt")));
+
+            out.write("DELETE /y.txt HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertEquals("HTTP/1.1 204 No Content", readResponse(in)[0]);
+            out.write("DELETE /y.txt HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertEquals("HTTP/1.1 404 Not Found", readResponse(in)[0]);
+            out.write("GET /../../etc/passwd HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertEquals("HTTP/1.1 404 Not Found", readResponse(in)[0]);
+        }
+    }
+
+    @Test
+    public void conditionalGet() throws Exception {
+        Files.writeString(data.resolve("c.txt"), "cached");
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write("GET /c.txt HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            String[] response = readResponse(in);
+            String etag = response[2].replaceAll("(?s).*\r\nETag: ([^\r]*)\r\n.*", "$1");
+            assertTrue(etag.startsWith("\""));
+
+            out.write(("GET /c.txt HTTP/1.1\r\nIf-None-Match: " + etag + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            response = readResponse(in);
+            assertEquals("HTTP/1.1 304 Not Modified", response[0]);
+            assertEquals("", response[1]);
+
+            Files.writeString(data.resolve("c.txt"), "changed content");
+            out.write(("GET /c.txt HTTP/1.1\r\nIf-None-Match: " + etag + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            assertEquals("changed content", readResponse(in)[1]);
+        }
+    }
+
+    @Test
+    public void stalledUploadsDoNotBlockWorkers() throws Exception {
+        Files.writeString(data.resolve("ok.txt"), "ok");
+        // 两个客户端发送请求头之后停止发送请求体，占用全部工作线程
+        Socket[] stalled = new Socket[2];
+        for (int i = 0; i < stalled.length; i++) {
+            stalled[i] = new Socket("127.0.0.1", server.getPort());
+            stalled[i].getOutputStream().write(("PUT /s" + i + " HTTP/1.1\r\nContent-Length: 10\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        }
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write("GET /ok.txt HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertEquals("ok", readResponse(socket.getInputStream())[1]);
+        } finally {
+            for (Socket socket : stalled) {
+                // 停滞的连接已被服务关闭
+                socket.setSoTimeout(5000);
+                assertEquals(-1, socket.getInputStream().read());
+                socket.close();
+            }
+        }
+        assertFalse(Files.exists(data.resolve("s0")));
+    }
+
+    @Test
+    public void slowDownloadsDoNotBlockWorkers() throws Exception {
+        byte[] content = random(32 * 1024 * 1024, 1);
+        Files.write(data.resolve("big.bin"), content);
+        Files.writeString(data.resolve("ok.txt"), "ok");
+        // 读写期限足够长，停止接收的客户端不会被巡检关闭
+        try (HttpFileServer server = new HttpFileServer(new LocalFileSystem(data))
+                .setAddress(new InetSocketAddress("127.0.0.1", 0))
+                .setWorkers(1)
+                .setIoTimeout(Duration.ofMinutes(1))
+                .start()) {
+            Socket[] slow = new Socket[3];
+            for (int i = 0; i < slow.length; i++) {
+                slow[i] = new Socket("127.0.0.1", server.getPort());
+                slow[i].getOutputStream().write("GET /big.bin HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            }
+            try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                socket.setSoTimeout(5000);
+                OutputStream out = socket.getOutputStream();
+                InputStream in = socket.getInputStream();
+                out.write("GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                assertEquals("HTTP/1.1 200 OK", readResponse(in)[0]);
+                out.write("GET /ok.txt HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                assertEquals("ok", readResponse(in)[1]);
+            }
+            // 停止接收的客户端恢复后仍然得到完整的文件，并且可以继续使用连接
+            for (Socket socket : slow) {
+                socket.setSoTimeout(10000);
+                InputStream in = socket.getInputStream();
+                assertEquals("HTTP/1.1 200 OK", readHead(in)[0]);
+                assertArrayEquals(content, in.readNBytes(content.length));
+                socket.getOutputStream().write("GET /ok.txt HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                assertEquals("ok", readResponse(in)[1]);
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void downloadKeepsVersionWhenFileIsReplaced() throws Exception {
+        byte[] original = random(64 * 1024 * 1024, 1);
+        byte[] replacement = random(64 * 1024 * 1024, 2);
+        Files.write(data.resolve("v.bin"), original);
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(5000);
+            InputStream in = socket.getInputStream();
+            socket.getOutputStream().write("GET /v.bin HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertEquals("HTTP/1.1 200 OK", readHead(in)[0]);
+            byte[] first = in.readNBytes(1024 * 1024);
+            // 发送期间以新文件替换
+            Path temp = Files.write(folder.newFile().toPath(), replacement);
+            Files.move(temp, data.resolve("v.bin"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            body.write(first);
+            body.write(in.readNBytes(original.length - first.length));
+            assertArrayEquals(original, body.toByteArray());
+        }
+    }
+
+    @Test
+    public void authenticatedUsersAreThrottledByTheirLimits() throws Exception {
+        Files.write(data.resolve("t.bin"), new byte[512 * 1024]);
+        // 每秒256KiB，角色的限制在用户没有设置时生效
+        Role limited = new Role().setDownloadLimit(256 * 1024L);
+        try (HttpFileServer throttled = new HttpFileServer(new ThrottledFileSystem(new LocalFileSystem(data), 0, 0).setBurst(Duration.ZERO))
+                .setAddress(new InetSocketAddress("127.0.0.1", 0))
+                .setAuthenticator(request -> {
+                    String name = request.header("x-user");
+                    if ("slow".equals(name)) {
+                        return new User().setUsername(name).setRoles(List.of(limited));
+                    }
+                    return "fast".equals(name) ? new User().setUsername(name).setDownloadLimit(0L).setRoles(List.of(limited)) : null;
+                })
+                .start();
+             Socket socket = new Socket("127.0.0.1", throttled.getPort())) {
+            socket.setSoTimeout(10000);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write("GET /t.bin HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertEquals("HTTP/1.1 401 Unauthorized", readResponse(in)[0]);
+
+            long start = System.nanoTime();
+            out.write("GET /t.bin HTTP/1.1\r\nX-User: fast\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertEquals(512 * 1024, readResponse(in)[1].length());
+            assertTrue(System.nanoTime() - start < 1_000_000_000L);
+
+            start = System.nanoTime();
+            out.write("GET /t.bin HTTP/1.1\r\nX-User: slow\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertEquals(512 * 1024, readResponse(in)[1].length());
+            assertTrue(System.nanoTime() - start >= 1_500_000_000L);
+        }
+    }
+
+    @Test
+    public void userQuotaAppliesToHomeDirectory() throws Exception {
+        LocalFileSystem fileSystem = new LocalFileSystem(data).enableUsage(folder.newFolder("meta").toPath().resolve("usage.bin"));
+        assertTrue(fileSystem.rebuildUsage().isSuccessful());
+        try (HttpFileServer quoted = new HttpFileServer(fileSystem)
+                .setAddress(new InetSocketAddress("127.0.0.1", 0))
+                .setAuthenticator(request -> new User().setUsername("alice").setQuota(100L))
+                .start();
+             Socket socket = new Socket("127.0.0.1", quoted.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write(("PUT /home/alice/a.bin HTTP/1.1\r\nContent-Length: 80\r\n\r\n" + "x".repeat(80)).getBytes(StandardCharsets.ISO_8859_1));
+            assertEquals("HTTP/1.1 201 Created", readResponse(in)[0]);
+            out.write(("PUT /home/alice/b.bin HTTP/1.1\r\nContent-Length: 40\r\n\r\n" + "x".repeat(40)).getBytes(StandardCharsets.ISO_8859_1));
+            assertEquals("HTTP/1.1 507 Insufficient Storage", readResponse(in)[0]);
+            // 主目录之外不受用户的配额限制
+            out.write(("PUT /shared/b.bin HTTP/1.1\r\nContent-Length: 40\r\n\r\n" + "x".repeat(40)).getBytes(StandardCharsets.ISO_8859_1));
+            assertEquals("HTTP/1.1 201 Created", readResponse(in)[0]);
+        } finally {
+            fileSystem.close();
+        }
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * 读取响应头
+     *
+     * @return 响应头的每一行
+     */
+    private static String[] readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int b, matched = 0;
+        while (matched < 4 && (b = in.read()) >= 0) {
+            head.write(b);
+            matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        return head.toString(StandardCharsets.ISO_8859_1).split("\r\n");
+    }
+
+    /**
+     * 读取一个响应
+     *
+     * @return 状态行、响应体与响应头
+     */
+    private static String[] readResponse(InputStream in) throws IOException {
+        String[] lines = readHead(in);
+        int length = 0;
+        for (String line : lines) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                length = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        return new String[]{lines[0], new String(in.readNBytes(length), StandardCharsets.UTF_8), String.join("\r\n", lines) + "\r\n\r\n"};
+    }
+}
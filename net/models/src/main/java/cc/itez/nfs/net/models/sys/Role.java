@@ -20,4 +20,14 @@ public class Role extends BaseModel {
      * 关联菜单表
      */
     private List<Menu> menus;
+    /**
+     * 上传速率限制(字节/秒)，null为未设置，小于等于0为不限速
+     * 用户未单独设置时使用其角色中最宽松的限制
+     */
+    private Long uploadLimit;
+    /**
+     * 下载速率限制(字节/秒)，null为未设置，小于等于0为不限速
+     * 用户未单独设置时使用其角色中最宽松的限制
+     */
+    private Long downloadLimit;
 }
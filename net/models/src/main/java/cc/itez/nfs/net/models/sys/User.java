@@ -6,6 +6,7 @@ import lombok.experimental.Accessors;
 
 import java.util.Date;
 import java.util.List;
+import java.util.function.Function;
 
 /**
  * 数据库模型 -> 用户
@@ -41,4 +42,54 @@ public class User extends BaseModel {
      * 角色
      */
     private List<Role> roles;
+    /**
+     * 上传速率限制(字节/秒)，null为使用角色的限制，小于等于0为不限速
+     */
+    private Long uploadLimit;
+    /**
+     * 下载速率限制(字节/秒)，null为使用角色的限制，小于等于0为不限速
+     */
+    private Long downloadLimit;
+    /**
+     * 存储配额(字节)，作用于用户的主目录(由文件服务配置，默认为/home/用户名)，null或小于等于0为不限制
+     */
+    private Long quota;
+
+    /**
+     * 计算实际的上传速率限制：优先使用用户的设置，否则使用角色中最宽松的限制
+     *
+     * @return 上传速率(字节/秒)，0为不限速
+     */
+    public long resolveUploadLimit() {
+        return resolveLimit(this.uploadLimit, this.roles, Role::getUploadLimit);
+    }
+
+    /**
+     * 计算实际的下载速率限制：优先使用用户的设置，否则使用角色中最宽松的限制
+     *
+     * @return 下载速率(字节/秒)，0为不限速
+     */
+    public long resolveDownloadLimit() {
+        return resolveLimit(this.downloadLimit, this.roles, Role::getDownloadLimit);
+    }
+
+    private static long resolveLimit(Long own, List<Role> roles, Function<Role, Long> limit) {
+        if (own != null) {
+            return Math.max(0, own);
+        }
+        long resolved = -1;
+        if (roles != null) {
+            for (Role role : roles) {
+                Long value = limit.apply(role);
+                if (value == null) {
+                    continue;
+                }
+                if (value <= 0) {
+                    return 0;
+                }
+                resolved = Math.max(resolved, value);
+            }
+        }
+        return Math.max(0, resolved);
+    }
 }